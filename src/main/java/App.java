@@ -2,8 +2,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.TimeZone;
 
@@ -25,12 +27,14 @@ public class App {
     System.out.println("         [-r referenceDate as YYYYMMDD]");
     System.out.println("         [-g gender] [-a minAge-maxAge]");
     System.out.println("         [-o overflowPopulation]");
+    System.out.println("         [-n] (nationwide, across all states by population)");
     System.out.println("         [-m moduleFileWildcardList]");
     System.out.println("         [-c localConfigFilePath]");
     System.out.println("         [-d localModulesDirPath]");
     System.out.println("         [-i initialPopulationSnapshotPath]");
     System.out.println("         [-u updatedPopulationSnapshotPath]");
     System.out.println("         [-t updateTimePeriodInDays]");
+    System.out.println("         [-e scenarioOverrideFileList]");
     System.out.println("         [-f fixedRecordPath]");
     System.out.println("         [--config* value]");
     System.out.println("          * any setting from src/main/resources/synthea.properties");
@@ -42,10 +46,13 @@ public class App {
     System.out.println("run_synthea -s 987 Washington Seattle");
     System.out.println("run_synthea -s 21 -p 100 Utah \"Salt Lake City\"");
     System.out.println("run_synthea -g M -a 60-65");
+    System.out.println("run_synthea -n -p 10000");
     System.out.println("run_synthea -p 10 --exporter.fhir.export true");
     System.out.println("run_synthea -m moduleFilename" + File.pathSeparator + "anotherModule"
         + File.pathSeparator + "module*");
     System.out.println("run_synthea --exporter.baseDirectory \"./output_tx/\" Texas");
+    System.out.println("run_synthea -i snapshot.bin -t 365 -e baseline.properties"
+        + File.pathSeparator + "policy.properties");
   }
   
   /**
@@ -84,6 +91,8 @@ public class App {
           } else if (currArg.equalsIgnoreCase("-o")) {
             String value = argsQ.poll();
             options.overflow = Boolean.parseBoolean(value);
+          } else if (currArg.equalsIgnoreCase("-n")) {
+            options.nationwide = true;
           } else if (currArg.equalsIgnoreCase("-g")) {
             String value = argsQ.poll();
             if (value.equals("M") || value.equals("F")) {
@@ -166,6 +175,18 @@ public class App {
                               value,
                               ex.getMessage()));
             }
+          } else if (currArg.equalsIgnoreCase("-e")) {
+            String value = argsQ.poll();
+            List<File> scenarios = new ArrayList<File>();
+            for (String path : value.split(File.pathSeparator)) {
+              File file = new File(path);
+              if (!file.exists() || !file.canRead()) {
+                throw new FileNotFoundException(String.format(
+                    "Specified scenario override file (%s) does not exist", path));
+              }
+              scenarios.add(file);
+            }
+            options.scenarioOverrides = scenarios;
           } else if (currArg.equalsIgnoreCase("-f")) {
             String value = argsQ.poll();
             File fixedRecordPath = new File(value);
@@ -222,6 +243,17 @@ public class App {
               + "for more information."
       );
     }
+    if (options.scenarioOverrides != null) {
+      if (options.initialPopulationSnapshotPath == null) {
+        System.out.println("Scenario overrides (-e) require an initial population snapshot (-i).");
+        return false;
+      }
+      if (options.updatedPopulationSnapshotPath != null) {
+        System.out.println("Scenario overrides (-e) cannot be combined with "
+            + "an updated population snapshot (-u).");
+        return false;
+      }
+    }
     return true;
   }
   
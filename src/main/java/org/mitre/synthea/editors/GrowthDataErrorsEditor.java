@@ -216,7 +216,9 @@ public class GrowthDataErrorsEditor implements HealthRecordEditor {
       // If there is no existing height observation, change the weight observation into a height
       // one
       wtObs.unit = "cm";
-      wtObs.codes.get(0).code = HEIGHT_LOINC_CODE;
+      HealthRecord.Code code = wtObs.codes.get(0);
+      // codes are shared between records, so replace the code rather than modifying it
+      wtObs.codes.set(0, HealthRecord.Code.canonical(code.system, HEIGHT_LOINC_CODE, code.display));
     } else {
       Object wtValue = wtObs.value;
       Object htValue = htObs.value;
@@ -237,7 +239,9 @@ public class GrowthDataErrorsEditor implements HealthRecordEditor {
       // If there is no existing weight observation, change the height observation into a weight
       // one
       htObs.unit = "kg";
-      htObs.codes.get(0).code = WEIGHT_LOINC_CODE;
+      HealthRecord.Code code = htObs.codes.get(0);
+      // codes are shared between records, so replace the code rather than modifying it
+      htObs.codes.set(0, HealthRecord.Code.canonical(code.system, WEIGHT_LOINC_CODE, code.display));
     } else {
       Object wtValue = wtObs.value;
       Object htValue = htObs.value;
@@ -0,0 +1,196 @@
+package org.mitre.synthea.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many people are simulated and exported at once, so that the heap stays below a
+ * target fraction of the maximum heap size. Some populations use many times more memory per
+ * person than others, so rather than a fixed number, the limit is derived from the heap in use
+ * and an estimate of the size of each person in flight, and is adjusted as they run.
+ * <p>
+ * The heap is sampled as it was after the latest garbage collection, so that garbage not yet
+ * collected does not count, and the size of each person is smoothed over many samples, so that
+ * the limit follows the trend of the heap rather than each sample.
+ * </p>
+ * <p>
+ * Every change to the limit is reported along with the reason for it.
+ * </p>
+ */
+public class ConcurrencyGovernor {
+  /** How often a throttled thread samples the heap again, in milliseconds. */
+  private static final long SAMPLE_MILLIS = 100;
+  private static final long MEGABYTE = 1024 * 1024;
+  /** Weight of each new sample in the smoothed size of a person. */
+  private static final double SMOOTHING = 0.25;
+
+  private final int maxPermits;
+  private final double heapTarget;
+  private final long maxHeap;
+  private final LongSupplier usedHeap;
+
+  /** Number of people that may currently be in flight. */
+  private int limit;
+  /** Number of people in flight. */
+  private int active;
+  /** Heap use with nobody in flight, i.e. what everything else needs. */
+  private long baseline;
+  /** Estimated heap use of each person in flight, 0 until the first estimate. */
+  private double perPerson;
+
+  private int lowerings;
+  private int lowestLimit;
+  private int waits;
+  private long waitedMillis;
+
+  /**
+   * Create a governor for the heap of this JVM.
+   * @param maxPermits The most people that may be in flight at once, e.g. the thread count.
+   * @param heapTarget Fraction of the maximum heap size to stay below, between 0 and 1.
+   */
+  public ConcurrencyGovernor(int maxPermits, double heapTarget) {
+    this(maxPermits, heapTarget, Runtime.getRuntime().maxMemory(),
+        ConcurrencyGovernor::heapAfterCollection);
+  }
+
+  /**
+   * Sample the heap in use as of the latest garbage collection of each of its pools, which
+   * leaves out the garbage allocated since. Pools that do not report their use after a
+   * collection count their current use.
+   * @return the heap in use, in bytes.
+   */
+  static long heapAfterCollection() {
+    long used = 0L;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage == null) {
+          usage = pool.getUsage();
+        }
+        used += usage.getUsed();
+      }
+    }
+    return used;
+  }
+
+  /**
+   * Create a governor for a given heap.
+   * @param maxPermits The most people that may be in flight at once.
+   * @param heapTarget Fraction of the maximum heap size to stay below, between 0 and 1.
+   * @param maxHeap The maximum heap size, in bytes.
+   * @param usedHeap Samples the heap in use, in bytes.
+   */
+  ConcurrencyGovernor(int maxPermits, double heapTarget, long maxHeap, LongSupplier usedHeap) {
+    this.maxPermits = maxPermits;
+    this.heapTarget = heapTarget;
+    this.maxHeap = maxHeap;
+    this.usedHeap = usedHeap;
+    this.limit = maxPermits;
+    this.lowestLimit = maxPermits;
+    this.baseline = usedHeap.getAsLong();
+  }
+
+  /**
+   * Wait until another person may be simulated, then count them as in flight. Every successful
+   * call must be followed by a call to release once the person is done.
+   * @return true if the person may be simulated, false if the thread was interrupted.
+   */
+  public synchronized boolean acquire() {
+    long waitStart = 0L;
+    while (!tryAcquire()) {
+      if (waitStart == 0L) {
+        waitStart = System.currentTimeMillis();
+        waits++;
+      }
+      try {
+        wait(SAMPLE_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    if (waitStart != 0L) {
+      waitedMillis += System.currentTimeMillis() - waitStart;
+    }
+    return true;
+  }
+
+  /**
+   * Count another person as in flight if the limit allows it, without waiting.
+   * One person is always allowed, so that the simulation keeps making progress.
+   * @return true if the person may be simulated.
+   */
+  synchronized boolean tryAcquire() {
+    if (active > 0) {
+      adjustLimit();
+      if (active >= limit) {
+        return false;
+      }
+    }
+    active++;
+    return true;
+  }
+
+  /**
+   * Count a person as no longer in flight.
+   */
+  public synchronized void release() {
+    active--;
+    if (active == 0) {
+      // with nobody in flight, the heap is what everything else needs, which may have grown
+      baseline = usedHeap.getAsLong();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Sample the heap and set the limit to the number of people estimated to fit below the
+   * target.
+   */
+  private void adjustLimit() {
+    long used = usedHeap.getAsLong();
+    // heap use below the baseline means that less than the baseline is needed
+    baseline = Math.min(baseline, used);
+    double sample = Math.max(1.0, (double) (used - baseline) / active);
+    perPerson = perPerson == 0.0 ? sample : perPerson + SMOOTHING * (sample - perPerson);
+    long budget = (long) (heapTarget * maxHeap) - baseline;
+    long room = Math.max(1L, (long) (budget / perPerson));
+    int fit = (int) Math.min(maxPermits, room);
+    if (fit > limit + 1) {
+      // let people in gradually, since the estimate only covers those already in flight
+      fit = limit + 1;
+    }
+    if (fit != limit) {
+      System.out.println(String.format(
+          "Concurrency: %d -> %d people in flight; heap is %d of %d MB, and the %.0f%% target "
+          + "leaves room for %d people of ~%d MB", limit, fit, used / MEGABYTE,
+          maxHeap / MEGABYTE, heapTarget * 100, room, (long) perPerson / MEGABYTE));
+      if (fit < limit) {
+        lowerings++;
+        lowestLimit = Math.min(lowestLimit, fit);
+      }
+      limit = fit;
+    }
+  }
+
+  /**
+   * Get the number of people that may currently be in flight.
+   * @return the limit.
+   */
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Print a summary of the throttling done so far.
+   */
+  public synchronized void printStats() {
+    System.out.println(String.format(
+        "Concurrency: lowered %d times, to as few as %d of %d people in flight; "
+        + "%d waits took %.1f seconds", lowerings, lowestLimit, maxPermits, waits,
+        waitedMillis / 1000.0));
+  }
+}
@@ -2,13 +2,13 @@ package org.mitre.synthea.engine;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
-import org.mitre.synthea.engine.ExpressedSymptom.SymptomInfo;
 import org.mitre.synthea.engine.ExpressedSymptom.SymptomSource;
 import org.mitre.synthea.world.agents.Person;
 
@@ -54,15 +54,24 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
    * A condition with a set of onset and end time entries.
    */
   public class OnsetCondition implements Cloneable, Serializable {    
-    private static final long serialVersionUID = 4322116644425686902L;
+    private static final long serialVersionUID = 4322116644425686912L;
+    /** End time of a period that has not ended. */
+    private static final long NOT_ENDED = Long.MIN_VALUE;
     
     // name of the condition    
     private String name;
-    private List<ConditionPeriod> timeInfos;
+    // onset and end time of each period, in the order they were added
+    private long[] onsetTimes;
+    private long[] endTimes;
+    private int size;
     
+    /**
+     * Create a new instance for the supplied condition name.
+     */
     public OnsetCondition(String name) {
       this.name = name;
-      timeInfos = new LinkedList<ConditionPeriod>();
+      onsetTimes = new long[1];
+      endTimes = new long[1];
     }
     
     /**
@@ -70,7 +79,9 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
      */
     public OnsetCondition clone() {
       OnsetCondition data = new OnsetCondition(this.name);
-      data.timeInfos.addAll(this.timeInfos);
+      data.onsetTimes = Arrays.copyOf(this.onsetTimes, this.onsetTimes.length);
+      data.endTimes = Arrays.copyOf(this.endTimes, this.endTimes.length);
+      data.size = this.size;
       return data;
     }
 
@@ -78,19 +89,29 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
       return name;
     }
 
+    /**
+     * Get the onset and end time entries. The list is created on each call.
+     */
     public List<ConditionPeriod> getTimeInfos() {
+      List<ConditionPeriod> timeInfos = new ArrayList<ConditionPeriod>(size);
+      for (int i = 0; i < size; i++) {
+        timeInfos.add(new ConditionPeriod(onsetTimes[i], endTime(i)));
+      }
       return timeInfos;
     }
+
+    private Long endTime(int index) {
+      return endTimes[index] == NOT_ENDED ? null : Long.valueOf(endTimes[index]);
+    }
     
     /**
      * Get the last recorded onset time.
      */
     public Long getLastOnsetTime() {
-      if (timeInfos.isEmpty()) {
+      if (size == 0) {
         return null;
       } else {
-        int size = timeInfos.size();
-        return timeInfos.get(size - 1).getOnsetTime();
+        return onsetTimes[size - 1];
       }
     }
     
@@ -98,26 +119,32 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
      * Get the last recorded end time.
      */
     public Long getLastEndTime() {
-      if (timeInfos.isEmpty()) {
+      if (size == 0) {
         return null;
       } else {
-        int size = timeInfos.size();
-        return timeInfos.get(size - 1).getEndTime();
+        return endTime(size - 1);
       }
     }
     
+    /**
+     * Add a new entry for the supplied onset time.
+     */
     public void addNewEntry(long onsetTime) {
-      ConditionPeriod entry = new ConditionPeriod(Long.valueOf(onsetTime), null);
-      timeInfos.add(entry);
+      if (size == onsetTimes.length) {
+        onsetTimes = Arrays.copyOf(onsetTimes, size * 2);
+        endTimes = Arrays.copyOf(endTimes, size * 2);
+      }
+      onsetTimes[size] = onsetTime;
+      endTimes[size] = NOT_ENDED;
+      size++;
     }
     
     /**
      * Set the end time the last entry.
      */
     public void endLastEntry(long time) {
-      int size = timeInfos.size();
       if (size > 0) {
-        timeInfos.get(size - 1).setEndTime(Long.valueOf(time));  
+        endTimes[size - 1] = time;
       }
     }
   }
@@ -140,8 +167,8 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
      */
     public ModuleConditions(String source) {
       this.source = source;
-      onsetConditions = new ConcurrentHashMap<String, OnsetCondition>();
-      state2conditionMapping = new ConcurrentHashMap<String, String>();
+      onsetConditions = new HashMap<String, OnsetCondition>();
+      state2conditionMapping = new HashMap<String, String>();
     }
     
     /**
@@ -221,8 +248,11 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
     private String conditionName;
     private Long onsetTime;
     private Long endTime;
-    // Data structure for storing symptoms and associated values during the condition
-    private Map<String, List<Integer>> symptoms;
+    // the symptoms expressed during the condition, in the order they were added,
+    // and the values each of them was set to during the condition
+    private String[] symptomNames;
+    private int[][] symptomValues;
+    private int size;
     
     /**
      * Create a new instance for the supplied condition name, onset and end times.
@@ -231,7 +261,8 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
       this.conditionName = name;
       this.onsetTime = onsetTime;
       this.endTime = endTime;
-      this.symptoms = new ConcurrentHashMap<String, List<Integer>>();
+      this.symptomNames = new String[2];
+      this.symptomValues = new int[2][];
     }
     
     /**
@@ -239,7 +270,9 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
      */
     public ConditionWithSymptoms clone() {
       ConditionWithSymptoms data = new ConditionWithSymptoms(conditionName, onsetTime, endTime);
-      data.symptoms.putAll(this.symptoms);
+      data.symptomNames = Arrays.copyOf(this.symptomNames, this.symptomNames.length);
+      data.symptomValues = Arrays.copyOf(this.symptomValues, this.symptomValues.length);
+      data.size = this.size;
       return data;
     }
     
@@ -249,27 +282,41 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
      * @param symptomSource module origin of the symptom.
      */
     public void addSymptoms(String name, SymptomSource symptomSource) {
-      Map<Long, SymptomInfo> timedTypedSymptoms = symptomSource.getTimeInfos();
-      // get the value that correspond to the all times belonging
-      // to the interval [begin, end] of the condition if any.
-      List<Long> allTimes = new ArrayList<Long>();
-      for (Long time : timedTypedSymptoms.keySet()) {
-        boolean greatThanBegin = time >= onsetTime;
-        boolean lowThanEnd = (endTime != null  && time <= endTime) || (endTime == null);
-        if (greatThanBegin && lowThanEnd) {
-          allTimes.add(time);
-        }
+      // get the values that correspond to the times belonging to the interval
+      // [begin, end] of the condition if any. The times of the source are in
+      // increasing order, so those times are a single run.
+      int from = 0;
+      while (from < symptomSource.size() && symptomSource.getTime(from) < onsetTime) {
+        from++;
       }
-      if (allTimes.size() > 0) {
-        Collections.sort(allTimes);
-        if (!symptoms.containsKey(name)) {
-          symptoms.put(name, new ArrayList<Integer>());
-        }
-        for (Long time : allTimes) {
-          Integer value = timedTypedSymptoms.get(time).getValue();
-          symptoms.get(name).add(value);
+      int to = from;
+      while (to < symptomSource.size()
+          && (endTime == null || symptomSource.getTime(to) <= endTime)) {
+        to++;
+      }
+      if (from == to) {
+        return;
+      }
+      int[] values = new int[to - from];
+      for (int i = from; i < to; i++) {
+        values[i - from] = symptomSource.getValue(i);
+      }
+      for (int i = 0; i < size; i++) {
+        if (symptomNames[i].equals(name)) {
+          int[] previous = symptomValues[i];
+          int[] joined = Arrays.copyOf(previous, previous.length + values.length);
+          System.arraycopy(values, 0, joined, previous.length, values.length);
+          symptomValues[i] = joined;
+          return;
         }
       }
+      if (size == symptomNames.length) {
+        symptomNames = Arrays.copyOf(symptomNames, size * 2);
+        symptomValues = Arrays.copyOf(symptomValues, size * 2);
+      }
+      symptomNames[size] = name;
+      symptomValues[size] = values;
+      size++;
     }
     
     public Long getOnsetTime() {
@@ -284,7 +331,40 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
       return conditionName;
     }
 
+    /**
+     * Get the number of symptoms expressed during the condition.
+     */
+    public int symptomCount() {
+      return size;
+    }
+
+    /**
+     * Get the name of one of the symptoms expressed during the condition.
+     */
+    public String getSymptomName(int index) {
+      return symptomNames[index];
+    }
+
+    /**
+     * Get the values one of the symptoms was set to during the condition, in time order.
+     * The array is not copied, so it must not be changed.
+     */
+    public int[] getSymptomValues(int index) {
+      return symptomValues[index];
+    }
+
+    /**
+     * Get the symptoms and their values during the condition. The map is created on each call.
+     */
     public Map<String, List<Integer>> getSymptoms() {
+      Map<String, List<Integer>> symptoms = new LinkedHashMap<String, List<Integer>>();
+      for (int i = 0; i < size; i++) {
+        List<Integer> values = new ArrayList<Integer>(symptomValues[i].length);
+        for (int value : symptomValues[i]) {
+          values.add(value);
+        }
+        symptoms.put(symptomNames[i], values);
+      }
       return symptoms;
     }
   }
@@ -295,7 +375,7 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
   
   public ExpressedConditionRecord(Person person) {
     this.person = person;
-    sources = new ConcurrentHashMap<String, ModuleConditions>();
+    sources = new HashMap<String, ModuleConditions>();
   }
   
   /**
@@ -377,36 +457,35 @@ public class ExpressedConditionRecord implements Cloneable, Serializable {
   /**
    * Get the symptoms that were expressed as parts of 
    * the conditions the person suffers from.
-   * The returned data is a map of [time: List of ConditionWithSymtoms].
+   * The returned data is a map of [time: List of ConditionWithSymtoms], in time order.
    * It captures the conditions a person has suffered from together 
    * with the related symptoms at different age/time. 
    */
   public Map<Long, List<ConditionWithSymptoms>> getConditionSymptoms() {
     Map<String, ExpressedSymptom> symptoms = person.getExpressedSymptoms();
     Map<Long, List<ConditionWithSymptoms>> result;
-    result = new ConcurrentHashMap<Long, List<ConditionWithSymptoms>>();    
-    for (String module : sources.keySet()) {
-      ModuleConditions moduleConditions = sources.get(module);
-      for (String condition : moduleConditions.getOnsetConditions().keySet()) {
-        List<ConditionPeriod> infos = moduleConditions.getOnsetConditions().get(
-            condition).getTimeInfos();
-        for (ConditionPeriod entry : infos) {
-          Long begin = entry.getOnsetTime();
-          Long end = entry.getEndTime();
-          if (!result.containsKey(begin)) {
-            result.put(begin, new LinkedList<ConditionWithSymptoms>());
+    result = new TreeMap<Long, List<ConditionWithSymptoms>>();
+    for (Map.Entry<String, ModuleConditions> source : sources.entrySet()) {
+      String module = source.getKey();
+      for (OnsetCondition onsetCondition : source.getValue().getOnsetConditions().values()) {
+        for (int i = 0; i < onsetCondition.size; i++) {
+          Long begin = onsetCondition.onsetTimes[i];
+          Long end = onsetCondition.endTime(i);
+          List<ConditionWithSymptoms> conditions = result.get(begin);
+          if (conditions == null) {
+            conditions = new ArrayList<ConditionWithSymptoms>(1);
+            result.put(begin, conditions);
           }
           ConditionWithSymptoms conditionWithSymptoms = new ConditionWithSymptoms(
-              condition, begin, end
+              onsetCondition.getName(), begin, end
           );
-          for (String type : symptoms.keySet()) {
-            ExpressedSymptom expressedSymptom = symptoms.get(type);
-            if (expressedSymptom.getSources().containsKey(module)) {
-              SymptomSource symptomSource = expressedSymptom.getSources().get(module);
-              conditionWithSymptoms.addSymptoms(type, symptomSource);
+          for (ExpressedSymptom expressedSymptom : symptoms.values()) {
+            SymptomSource symptomSource = expressedSymptom.getSources().get(module);
+            if (symptomSource != null) {
+              conditionWithSymptoms.addSymptoms(expressedSymptom.getName(), symptomSource);
             }
           }
-          result.get(begin).add(conditionWithSymptoms);
+          conditions.add(conditionWithSymptoms);
         }
       }
     }
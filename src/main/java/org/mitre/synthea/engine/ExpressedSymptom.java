@@ -1,12 +1,14 @@
 package org.mitre.synthea.engine;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ExpressedSymptom implements Cloneable, Serializable {
   
-  private static final long serialVersionUID = 4322116644425686800L;
+  private static final long serialVersionUID = 4322116644425686810L;
   
   // this class contains basic info regarding an expressed symptoms.
   // such as the cause and the associated value
@@ -47,7 +49,7 @@ public class ExpressedSymptom implements Cloneable, Serializable {
 
   // this class encapsulates module-based infos regarding an expressed symptoms.
   public class SymptomSource implements Cloneable, Serializable {    
-    private static final long serialVersionUID = 4322116644425686802L;
+    private static final long serialVersionUID = 4322116644425686812L;
     
     ExpressedSymptom symptom = ExpressedSymptom.this;
     // From which module the expressed symptom was set    
@@ -56,27 +58,47 @@ public class ExpressedSymptom implements Cloneable, Serializable {
     private boolean resolved;
     // when the expressed was last updated from the a given module
     private Long lastUpdateTime;
-    // the time on which the expressed symptom was updated and the associated info.
-    private Map<Long, SymptomInfo> timeInfos;  
+    // the value set by the last update
+    private int currentValue;
+    // the times on which the expressed symptom was updated, in increasing order,
+    // and the cause and value set at each of them
+    private long[] times;
+    private int[] values;
+    private String[] causes;
+    private int size;
     
     /**
      * Create a new instance for the supplied module source.
      */
     public SymptomSource(String source) {
       this.source = source;
-      timeInfos = new ConcurrentHashMap<Long, ExpressedSymptom.SymptomInfo>();
+      times = new long[2];
+      values = new int[2];
+      causes = new String[2];
       resolved = false;
       lastUpdateTime = null;
     }
     
     /**
-     * Create shallow copy of this instance.
+     * Create a copy of this instance, which belongs to the same symptom.
      */
     public SymptomSource clone() {
-      SymptomSource data = new SymptomSource(this.source);
+      return copyFor(symptom);
+    }
+
+    /**
+     * Create a copy of this instance that belongs to the given symptom, so that changes to
+     * the copy update that symptom and not this one.
+     */
+    private SymptomSource copyFor(ExpressedSymptom owner) {
+      SymptomSource data = owner.new SymptomSource(this.source);
       data.resolved = this.resolved;
       data.lastUpdateTime = this.lastUpdateTime;
-      data.timeInfos.putAll(this.timeInfos);
+      data.currentValue = this.currentValue;
+      data.times = Arrays.copyOf(this.times, this.times.length);
+      data.values = Arrays.copyOf(this.values, this.values.length);
+      data.causes = Arrays.copyOf(this.causes, this.causes.length);
+      data.size = this.size;
       return data;
     }
 
@@ -86,10 +108,12 @@ public class ExpressedSymptom implements Cloneable, Serializable {
 
     public void resolve() {
       this.resolved = true;
+      symptom.update();
     }
 
     public void activate() {
       this.resolved = false;
+      symptom.update();
     }
 
     public Long getLastUpdateTime() {
@@ -101,29 +125,76 @@ public class ExpressedSymptom implements Cloneable, Serializable {
     }
 
     /**
-     * Record a new symptom.
+     * Record a new symptom. A later update at the same time replaces the earlier one.
      */
     public void addInfo(String cause, long time, int value, Boolean addressed) {
-      SymptomInfo info = new SymptomInfo(cause, value, time);
-      timeInfos.put(Long.valueOf(time), info);
+      int index;
+      if (size == 0 || times[size - 1] < time) {
+        // updates almost always come in time order
+        index = size;
+      } else {
+        index = Arrays.binarySearch(times, 0, size, time);
+      }
+      if (index < 0 || index == size) {
+        index = index < 0 ? -index - 1 : index;
+        if (size == times.length) {
+          times = Arrays.copyOf(times, size * 2);
+          values = Arrays.copyOf(values, size * 2);
+          causes = Arrays.copyOf(causes, size * 2);
+        }
+        System.arraycopy(times, index, times, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        System.arraycopy(causes, index, causes, index + 1, size - index);
+        size++;
+      }
+      times[index] = time;
+      values[index] = value;
+      causes[index] = cause;
       lastUpdateTime = time;
+      currentValue = value;
       resolved = addressed;
+      symptom.update();
     }
 
     /**
      * Get the current value of the symptom.
      */
     public Integer getCurrentValue() {
-      if (timeInfos.containsKey(lastUpdateTime)) {
-        return timeInfos.get(lastUpdateTime).getValue();
+      if (size > 0) {
+        return currentValue;
       }
       return null;
     }
 
     /**
-     * Get the times for this symptom.
+     * Get the number of times this symptom was updated at.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Get one of the times this symptom was updated at, in increasing order.
+     */
+    public long getTime(int index) {
+      return times[index];
+    }
+
+    /**
+     * Get the value the symptom was set to at one of the times it was updated at.
+     */
+    public int getValue(int index) {
+      return values[index];
+    }
+
+    /**
+     * Get the times for this symptom, in increasing order. The map is created on each call.
      */
     public Map<Long, SymptomInfo> getTimeInfos() {
+      Map<Long, SymptomInfo> timeInfos = new LinkedHashMap<Long, SymptomInfo>();
+      for (int i = 0; i < size; i++) {
+        timeInfos.put(times[i], new SymptomInfo(causes[i], values[i], times[i]));
+      }
       return timeInfos;
     }    
   }
@@ -131,20 +202,32 @@ public class ExpressedSymptom implements Cloneable, Serializable {
   //keep track of the different sources of the expressed conditions
   private Map<String, SymptomSource> sources;
   private String name;
+  // the largest value across the unresolved sources, and the source that set it,
+  // updated whenever a source changes
+  private int value;
+  private String sourceWithHighValue;
   
   public ExpressedSymptom(String name) {
     this.name = name;  
-    sources = new ConcurrentHashMap<String, SymptomSource>();
+    sources = new HashMap<String, SymptomSource>();
   }
   
   /**
-   * Create a shallow copy of this instance.
+   * Create a copy of this instance, with copies of its sources that update the copy.
    */
   public ExpressedSymptom clone() {
     ExpressedSymptom data = new ExpressedSymptom(this.name);
-    data.sources.putAll(this.sources);
+    for (Map.Entry<String, SymptomSource> entry : this.sources.entrySet()) {
+      data.sources.put(entry.getKey(), entry.getValue().copyFor(data));
+    }
+    data.value = this.value;
+    data.sourceWithHighValue = this.sourceWithHighValue;
     return data;
   }
+
+  public String getName() {
+    return name;
+  }
   
   public Map<String, SymptomSource> getSources() {
     return sources;
@@ -153,10 +236,35 @@ public class ExpressedSymptom implements Cloneable, Serializable {
   /** this method updates the data structure wit a symptom being onset from a module.
    */
   public void onSet(String module, String cause, long time, int value, Boolean addressed) {    
-    if (!sources.containsKey(module)) {
-      sources.put(module, new SymptomSource(module));
+    SymptomSource source = sources.get(module);
+    if (source == null) {
+      source = new SymptomSource(module);
+      sources.put(module, source);
     }
-    sources.get(module).addInfo(cause, time, value, addressed);
+    source.addInfo(cause, time, value, addressed);
+  }
+
+  /**
+   * Recompute the value of the symptom after one of its sources changed.
+   */
+  private void update() {
+    int max = 0;
+    String result = null;
+    int resultValue = 0;
+    for (SymptomSource source : sources.values()) {
+      if (source.size > 0 && !source.resolved) {
+        int current = source.currentValue;
+        if (current > max) {
+          max = current;
+        }
+        if (result == null || current > resultValue) {
+          result = source.source;
+          resultValue = current;
+        }
+      }
+    }
+    this.value = max;
+    this.sourceWithHighValue = result;
   }
   
   /**
@@ -164,35 +272,14 @@ public class ExpressedSymptom implements Cloneable, Serializable {
    * This correspond to the maximum value across all potential causes.
    */
   public int getSymptom() {
-    int max = 0;
-    for (String module : sources.keySet()) {
-      Integer value = sources.get(module).getCurrentValue();
-      Boolean isResolved = sources.get(module).isResolved();
-      if (value != null && value.intValue() > max && !isResolved) {
-        max = value.intValue();
-      }
-    }
-    return max;
+    return value;
   }
   
   /**
    * Method for retrieving the source with the high value not yet addressed. 
    */ 
   public String getSourceWithHighValue() {
-    String result = null;
-    int max = 0;
-    for (String module : sources.keySet()) {
-      Boolean isResolved = sources.get(module).isResolved();
-      Integer value = sources.get(module).getCurrentValue();
-      if (result == null && value != null && !isResolved) {
-        result = module;
-        max = value.intValue();
-      } else if (value != null && value.intValue() > max && !isResolved) {
-        result = module;
-        max = value.intValue();
-      }
-    }
-    return result;
+    return sourceWithHighValue;
   }
   
   /**
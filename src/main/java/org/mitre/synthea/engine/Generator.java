@@ -3,24 +3,31 @@ package org.mitre.synthea.engine;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +35,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.commons.lang3.StringUtils;
@@ -35,7 +43,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.mitre.synthea.editors.GrowthDataErrorsEditor;
 import org.mitre.synthea.export.CDWExporter;
 import org.mitre.synthea.export.Exporter;
+import org.mitre.synthea.export.FhirGroupExporterR4;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.RandomCollection;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.TransitionMetrics;
 import org.mitre.synthea.helpers.Utilities;
@@ -48,6 +58,7 @@ import org.mitre.synthea.modules.LifecycleModule;
 import org.mitre.synthea.world.agents.Payer;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.agents.StatisticsScope;
 import org.mitre.synthea.world.concepts.Costs;
 import org.mitre.synthea.world.concepts.VitalSign;
 import org.mitre.synthea.world.geography.Demographics;
@@ -64,7 +75,13 @@ public class Generator implements RandomNumberGenerator {
   public long stop;
   public long referenceTime;
   public Map<String, AtomicInteger> stats;
+  /** Number of candidate persons rejected by the generation criteria, by reason. */
+  public Map<String, AtomicInteger> rejections;
   public Location location;
+  /** States to pick from by population when generating people nationwide, or null. */
+  private RandomCollection<String> statesByPopulation;
+  /** Locations of the states loaded so far when generating people nationwide. */
+  private Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
   private AtomicInteger totalGeneratedPopulation;
   private String logLevel;
   private boolean onlyAlivePatients;
@@ -74,6 +91,10 @@ public class Generator implements RandomNumberGenerator {
   public static String DEFAULT_STATE = "Massachusetts";
   private Exporter.ExporterRuntimeOptions exporterRuntimeOptions;
   private List<FixedRecordGroup> recordGroups;
+  /** Length of the export window that records are condensed to, or 0 to keep everything. */
+  private long condensedHistory;
+  /** Limits how many people are in flight to keep the heap in check, or null for no limit. */
+  private ConcurrencyGovernor governor;
 
   /**
    * Used only for testing and debugging. Populate this field to keep track of all patients
@@ -89,6 +110,21 @@ public class Generator implements RandomNumberGenerator {
   Predicate<String> modulePredicate;
   
   private static final String TARGET_AGE = "target_age";
+  private static final int THREAD_POOL_SIZE = 8;
+
+  /** Rejection reasons, used as keys in the rejections map. */
+  public static final String REJECTED_ALIVE = "alive, only dead patients wanted";
+  public static final String REJECTED_DEAD = "dead, only alive patients wanted";
+  public static final String REJECTED_PROVIDERS = "fewer providers than the minimum";
+  /** Count of candidates that were abandoned before the end of their simulation. */
+  public static final String REJECTED_EARLY = "early";
+  /** Exporters that keep their files open in one output directory for the whole run. */
+  private static final String[] SINGLE_DIRECTORY_EXPORTERS = {"exporter.cdw.export",
+      "exporter.cpcds.export", "exporter.symptoms.csv.export"};
+
+  /** The Java modules run for every person. Both are stateless, so one instance is shared. */
+  private static final HealthInsuranceModule HEALTH_INSURANCE_MODULE = new HealthInsuranceModule();
+  private static final EncounterModule ENCOUNTER_MODULE = new EncounterModule();
 
   /**
    * Helper class following the "Parameter Object" pattern.
@@ -111,6 +147,8 @@ public class Generator implements RandomNumberGenerator {
     public int maxAge = 140;
     public String city;
     public String state;
+    /** Generate people across all states, picked by population, instead of in one state. */
+    public boolean nationwide = false;
     /** When Synthea is used as a standalone library, this directory holds
      * any locally created modules. */
     public File localModuleDir;
@@ -124,6 +162,11 @@ public class Generator implements RandomNumberGenerator {
      *  value of -1 will evolve the population to the current system time.
      */
     public int daysToTravelForward = -1;
+    /** Module override files, one per scenario forked from the population loaded from
+     *  initialPopulationSnapshotPath. Each scenario exports into a subfolder of
+     *  exporter.baseDirectory named after its override file.
+     */
+    public List<File> scenarioOverrides;
     /** Reference Time when to start Synthea. By default equal to the current system time. */
     public long referenceTime = seed;
   }
@@ -199,7 +242,12 @@ public class Generator implements RandomNumberGenerator {
     this.stop = System.currentTimeMillis();
     this.referenceTime = options.referenceTime;
 
-    this.location = new Location(options.state, options.city);
+    if (options.nationwide) {
+      // the states people will live in are preloaded by run, before anyone is simulated
+      this.statesByPopulation = loadStatesByPopulation();
+    } else {
+      this.location = new Location(options.state, options.city);
+    }
 
     this.logLevel = Config.get("generate.log_patients.detail", "simple");
 
@@ -220,15 +268,34 @@ public class Generator implements RandomNumberGenerator {
 
     stats.put("alive", new AtomicInteger(0));
     stats.put("dead", new AtomicInteger(0));
+    stats.put("candidates", new AtomicInteger(0));
+    // dead people who were exported, but did not fill a slot of the population
+    stats.put("overflow", new AtomicInteger(0));
+    // people who were never simulated, because the thread was interrupted while throttled
+    stats.put("interrupted", new AtomicInteger(0));
+
+    this.rejections = new ConcurrentHashMap<String, AtomicInteger>();
+    rejections.put(REJECTED_ALIVE, new AtomicInteger(0));
+    rejections.put(REJECTED_DEAD, new AtomicInteger(0));
+    rejections.put(REJECTED_PROVIDERS, new AtomicInteger(0));
+    rejections.put(REJECTED_EARLY, new AtomicInteger(0));
 
     if (Config.getAsBoolean("generate.track_detailed_transition_metrics", false)) {
       this.metrics = new TransitionMetrics();
     }
 
-    // initialize hospitals
-    Provider.loadProviders(location, options.clinicianSeed);
-    // Initialize Payers
-    Payer.loadPayers(location);
+    if (Config.getAsBoolean("generate.condense_history", false)
+        && exporterRuntimeOptions.yearsOfHistory > 0) {
+      this.condensedHistory =
+          Utilities.convertTime("years", exporterRuntimeOptions.yearsOfHistory);
+    }
+
+    if (location != null) {
+      // initialize hospitals
+      Provider.loadProviders(location, options.clinicianSeed);
+      // Initialize Payers
+      Payer.loadPayers(location);
+    }
     // ensure modules load early
     if (options.localModuleDir != null) {
       Module.addModules(options.localModuleDir);
@@ -238,7 +305,9 @@ public class Generator implements RandomNumberGenerator {
     Costs.loadCostData(); // ensure cost data loads early
     
     String locationName;
-    if (options.city == null) {
+    if (options.nationwide) {
+      locationName = "all states, by population";
+    } else if (options.city == null) {
       locationName = options.state;
     } else {
       locationName = options.city + ", " + options.state;
@@ -264,6 +333,11 @@ public class Generator implements RandomNumberGenerator {
       HealthRecordEditors hrm = HealthRecordEditors.getInstance();
       hrm.registerEditor(new GrowthDataErrorsEditor());
     }
+
+    double heapTarget = Double.parseDouble(Config.get("generate.heap_target", "0"));
+    if (heapTarget > 0) {
+      this.governor = new ConcurrencyGovernor(THREAD_POOL_SIZE, heapTarget);
+    }
   }
 
   /**
@@ -291,7 +365,12 @@ public class Generator implements RandomNumberGenerator {
       Config.set("generate.append_numbers_to_person_names", "false");
     }
 
-    ExecutorService threadPool = Executors.newFixedThreadPool(8);
+    if (options.initialPopulationSnapshotPath != null && options.scenarioOverrides != null) {
+      runScenarios();
+      return;
+    }
+
+    ExecutorService threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
 
     if (options.initialPopulationSnapshotPath != null) {
       FileInputStream fis = null;
@@ -313,27 +392,28 @@ public class Generator implements RandomNumberGenerator {
         for (int i = 0; i < initialPopulation.size(); i++) {
           final int index = i;
           final Person p = initialPopulation.get(i);        
-          threadPool.submit(() -> updateRecordExportPerson(p, index));
+          submit(threadPool, () -> updateRecordExportPerson(p, index));
         }
       }
     } else {
       // Generate patients up to the specified population size.
-      for (int i = 0; i < this.options.population; i++) {
+      long[] seeds = new long[this.options.population];
+      for (int i = 0; i < seeds.length; i++) {
+        seeds[i] = this.random.nextLong();
+      }
+      if (options.nationwide) {
+        // providers cannot be loaded while others are looking for care, so nationwide runs
+        // preload every state people will live in before anyone is simulated
+        loadLocations(seeds);
+      }
+      for (int i = 0; i < seeds.length; i++) {
         final int index = i;
-        final long seed = this.random.nextLong();
-        threadPool.submit(() -> generatePerson(index, seed));
+        final long seed = seeds[i];
+        submit(threadPool, () -> generatePerson(index, seed));
       }
     }
 
-    try {
-      threadPool.shutdown();
-      while (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-        System.out.println("Waiting for threads to finish... " + threadPool);
-      }
-    } catch (InterruptedException e) {
-      System.out.println("Generator interrupted. Attempting to shut down associated thread pool.");
-      threadPool.shutdownNow();
-    }
+    awaitTermination(threadPool);
 
     // Save a snapshot of the generated population using Java Serialization
     if (options.updatedPopulationSnapshotPath != null) {
@@ -352,12 +432,345 @@ public class Generator implements RandomNumberGenerator {
 
     System.out.printf("Records: total=%d, alive=%d, dead=%d\n", totalGeneratedPopulation.get(),
             stats.get("alive").get(), stats.get("dead").get());
+    printRejectionStats();
+    if (governor != null) {
+      governor.printStats();
+      if (stats.get("interrupted").get() > 0) {
+        System.out.printf("Interrupted: %d people were not simulated\n",
+            stats.get("interrupted").get());
+      }
+    }
 
     if (this.metrics != null) {
       metrics.printStats(totalGeneratedPopulation.get(), Module.getModules(getModulePredicate()));
     }
   }
 
+  /**
+   * Weigh every state in the demographics file by its population.
+   * @return the states to pick from.
+   */
+  private static RandomCollection<String> loadStatesByPopulation() {
+    try {
+      RandomCollection<String> states = new RandomCollection<String>();
+      for (Map.Entry<String, Long> state : Demographics.loadStatePopulations().entrySet()) {
+        states.add(state.getValue(), state.getKey());
+      }
+      return states;
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to load the population of each state", e);
+    }
+  }
+
+  /**
+   * Load the demographics, providers and payers of every state that the people with the given
+   * seeds will live in, when generating people nationwide. Each provider file is read once for
+   * all of the states.
+   * @param seeds The seeds of the people to generate.
+   */
+  private void loadLocations(long[] seeds) {
+    Map<String, Location> loading = new LinkedHashMap<String, Location>();
+    for (long seed : seeds) {
+      String state = statesByPopulation.next(new Random(seed));
+      if (!locations.containsKey(state) && !loading.containsKey(state)) {
+        loading.put(state, new Location(state, null));
+      }
+    }
+    Provider.loadProviders(loading.values(), options.clinicianSeed);
+    for (Map.Entry<String, Location> state : loading.entrySet()) {
+      Payer.loadPayers(state.getValue());
+      locations.put(state.getKey(), state.getValue());
+    }
+    System.out.println(String.format("Loaded %d states", locations.size()));
+  }
+
+  /**
+   * Get the location of a whole state when generating people nationwide. Every state is
+   * normally preloaded by loadLocations; one that was not is loaded the first time it is asked
+   * for, and shared with everything loaded before.
+   * @param state The full name of the state.
+   * @return the location of the state.
+   */
+  private Location getLocation(String state) {
+    Location stateLocation = locations.get(state);
+    if (stateLocation == null) {
+      synchronized (locations) {
+        stateLocation = locations.get(state);
+        if (stateLocation == null) {
+          stateLocation = new Location(state, null);
+          Provider.loadProviders(stateLocation, options.clinicianSeed);
+          Payer.loadPayers(stateLocation);
+          locations.put(state, stateLocation);
+        }
+      }
+    }
+    return stateLocation;
+  }
+
+  /**
+   * Submit the simulation of a person to the thread pool. If the heap is governed, the task
+   * first waits until the governor lets another person in flight. A person whose thread is
+   * interrupted while waiting is not simulated, which is counted and reported.
+   */
+  private void submit(ExecutorService threadPool, Runnable task) {
+    if (governor == null) {
+      threadPool.submit(task);
+    } else {
+      threadPool.submit(() -> {
+        if (governor.acquire()) {
+          try {
+            task.run();
+          } finally {
+            governor.release();
+          }
+        } else {
+          int interrupted = stats.get("interrupted").incrementAndGet();
+          System.out.printf("Interrupted while waiting to simulate a person, %d skipped so far\n",
+              interrupted);
+        }
+      });
+    }
+  }
+
+  /**
+   * Wait for all the work submitted to the thread pool to finish.
+   */
+  private void awaitTermination(ExecutorService threadPool) {
+    try {
+      threadPool.shutdown();
+      while (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
+        System.out.println("Waiting for threads to finish... " + threadPool);
+      }
+    } catch (InterruptedException e) {
+      System.out.println("Generator interrupted. Attempting to shut down associated thread pool.");
+      threadPool.shutdownNow();
+    }
+  }
+
+  /**
+   * Run the population loaded from initialPopulationSnapshotPath forward once per scenario in
+   * options.scenarioOverrides. The snapshot is deserialized once, and every scenario is
+   * simulated at the same time in a single thread pool: each person is forked once per scenario
+   * just before they are simulated, so only the people in flight are held more than once, and
+   * the forks share the providers, payers and modules of the population (see PersonFork). Each
+   * scenario swaps in the modules named by its override file, counts the statistics of the
+   * shared providers and payers in a scope of its own, and exports into its own subfolder of
+   * exporter.baseDirectory with exporters of its own. The exports that need the whole
+   * population are run for each scenario in turn once everyone has been simulated.
+   */
+  private void runScenarios() {
+    for (String exporter : SINGLE_DIRECTORY_EXPORTERS) {
+      if (Config.getAsBoolean(exporter)) {
+        throw new IllegalStateException(
+            exporter + " cannot be used when running scenarios from a population snapshot");
+      }
+    }
+
+    List<Person> population;
+    try {
+      byte[] snapshot = Files.readAllBytes(options.initialPopulationSnapshotPath.toPath());
+      population = forkPopulation(snapshot);
+    } catch (IOException ex) {
+      System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
+      return;
+    }
+    if (population == null || population.isEmpty()) {
+      return;
+    }
+
+    String baseDirectory = Config.get("exporter.baseDirectory");
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+    for (File file : options.scenarioOverrides) {
+      Map<String, Module> scenarioModules = loadScenarioModules(file);
+      if (scenarioModules != null) {
+        String name = FilenameUtils.getBaseName(file.getName());
+        Scenario scenario = new Scenario(name, scenarioModules, scenarios.size() + 1,
+            new Exporter.ExporterRuntimeOptions(exporterRuntimeOptions));
+        scenario.options.deferExports = false;
+        scenario.options.setBaseDirectory(Paths.get(baseDirectory, name).toString());
+        // the providers and payers are shared by every scenario, so each counts in its own scope
+        StatisticsScope.run(scenario.scope, () -> {
+          Provider.resetStatistics();
+          Payer.resetStatistics();
+        });
+        scenarios.add(scenario);
+      }
+    }
+    if (scenarios.isEmpty()) {
+      return;
+    }
+    if (options.daysToTravelForward > 0) {
+      stop = population.get(0).lastUpdated
+              + Utilities.convertTime("days", options.daysToTravelForward);
+    }
+
+    ExecutorService threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+    for (int i = 0; i < population.size(); i++) {
+      final int index = i;
+      final Person p = population.get(i);
+      submit(threadPool, () -> runScenarios(p, index, scenarios));
+    }
+    awaitTermination(threadPool);
+
+    try {
+      for (Scenario scenario : scenarios) {
+        // the exporters that only write once everyone has been simulated, other than the CSV
+        // exporter, read the output directory from the configuration
+        Config.set("exporter.baseDirectory", scenario.options.getBaseDirectory());
+        FhirGroupExporterR4.resetPatientList();
+        if (Config.getAsBoolean("exporter.fhir.export")) {
+          for (Person person : population) {
+            FhirGroupExporterR4.addPatient((String) person.attributes.get(Person.ID));
+          }
+        }
+        StatisticsScope.run(scenario.scope,
+            () -> Exporter.runPostCompletionExports(this, scenario.options));
+        scenario.options.closeExporters();
+
+        System.out.printf("Scenario %s: records=%d, alive=%d, dead=%d\n", scenario.name,
+            population.size(), scenario.alive.get(), scenario.dead.get());
+      }
+    } finally {
+      // point the configuration back at the base directory; the scenarios' own CSV files are
+      // closed, and the CSV exporter shared by other runs still writes into the base directory
+      Config.set("exporter.baseDirectory", baseDirectory);
+    }
+  }
+
+  /**
+   * Simulate one person of the population forward in every scenario, and export each fork.
+   * @param person Person from the population snapshot. The last scenario simulates the person
+   *     itself, the others a fork of it.
+   * @param index Index of the person in the population.
+   * @param scenarios The scenarios.
+   */
+  private void runScenarios(Person person, int index, List<Scenario> scenarios) {
+    PersonFork fork = null;
+    for (int i = 0; i < scenarios.size(); i++) {
+      Scenario scenario = scenarios.get(i);
+      Person p = person;
+      if (i < scenarios.size() - 1) {
+        try {
+          if (fork == null) {
+            fork = new PersonFork(person);
+          }
+          p = fork.fork();
+        } catch (IOException | ClassNotFoundException ex) {
+          System.out.printf("Unable to fork person %d for scenario %s, error: %s\n", index,
+              scenario.name, ex.getMessage());
+          continue;
+        }
+      }
+      final Person forked = p;
+      applyScenarioModules(forked, scenario.modules);
+      StatisticsScope.run(scenario.scope, () -> {
+        long previouslyUpdated = forked.lastUpdated;
+        updatePerson(forked);
+        recordPerson(forked, index);
+        long finishTime = forked.lastUpdated + timestep;
+        if (forked.alive(finishTime)) {
+          scenario.alive.incrementAndGet();
+        } else {
+          scenario.dead.incrementAndGet();
+        }
+        Exporter.export(forked, previouslyUpdated, finishTime, scenario.options);
+      });
+    }
+  }
+
+  /**
+   * A scenario run forward from the population snapshot.
+   */
+  private static final class Scenario {
+    private final String name;
+    private final Map<String, Module> modules;
+    // the statistics scope the scenario counts in
+    private final int scope;
+    private final Exporter.ExporterRuntimeOptions options;
+    private final AtomicInteger alive = new AtomicInteger(0);
+    private final AtomicInteger dead = new AtomicInteger(0);
+
+    private Scenario(String name, Map<String, Module> modules, int scope,
+        Exporter.ExporterRuntimeOptions options) {
+      this.name = name;
+      this.modules = modules;
+      this.scope = scope;
+      this.options = options;
+    }
+  }
+
+  /**
+   * Load the modules overridden by a scenario override file.
+   * @param scenario Module override file, in the same format as the module_override file.
+   * @return the overridden modules keyed by module name, or null if they could not be loaded.
+   */
+  private static Map<String, Module> loadScenarioModules(File scenario) {
+    Properties overrides = new Properties();
+    try (FileReader reader = new FileReader(scenario)) {
+      overrides.load(reader);
+      return Module.loadModulesWithOverrides(overrides);
+    } catch (Exception ex) {
+      System.out.printf("Unable to load scenario %s, error: %s\n", scenario, ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Deserialize a private copy of a population from an in-memory snapshot.
+   * @param snapshot Serialized population, as written to updatedPopulationSnapshotPath.
+   * @return the population, or null if the snapshot could not be read.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Person> forkPopulation(byte[] snapshot) {
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(snapshot))) {
+      return (List<Person>) ois.readObject();
+    } catch (IOException | ClassNotFoundException ex) {
+      System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Replace the person's active modules with the scenario's overridden versions. Modules the
+   * person has already finished stay finished.
+   * @param person Person forked from the population snapshot.
+   * @param scenarioModules Overridden modules keyed by module name.
+   */
+  static void applyScenarioModules(Person person, Map<String, Module> scenarioModules) {
+    for (int i = 0; i < person.currentModules.size(); i++) {
+      Module module = scenarioModules.get(person.currentModules.get(i).name);
+      if (module != null) {
+        person.currentModules.set(i, module);
+      }
+    }
+  }
+
+  /**
+   * Print how many simulated candidates were rejected by the generation criteria,
+   * so the cost of the filters is visible.
+   */
+  private void printRejectionStats() {
+    int candidates = stats.get("candidates").get();
+    if (candidates == 0) {
+      return;
+    }
+    int rejected = 0;
+    for (String reason : rejections.keySet()) {
+      if (!reason.equals(REJECTED_EARLY)) {
+        rejected += rejections.get(reason).get();
+      }
+    }
+    System.out.printf("Candidates: simulated=%d, rejected=%d (%.1f%%), rejected early=%d, "
+        + "exported dead overflow=%d\n", candidates, rejected, (100.0 * rejected) / candidates,
+        rejections.get(REJECTED_EARLY).get(), stats.get("overflow").get());
+    for (String reason : new String[] { REJECTED_ALIVE, REJECTED_DEAD, REJECTED_PROVIDERS }) {
+      int count = rejections.get(reason).get();
+      if (count > 0) {
+        System.out.printf("  %s: %d (%.1f%%)\n", reason, count, (100.0 * count) / candidates);
+      }
+    }
+  }
+
   /**
    * Imports the fixed demographics records file when using fixed patient
    * demographics.
@@ -438,13 +851,23 @@ public class Generator implements RandomNumberGenerator {
       }
       
       do {
-        person = createPerson(personSeed, demoAttributes);
+        if (person != null) {
+          // throw away what was written for a previous candidate that was rejected
+          Exporter.unsubscribe(person);
+        }
+        person = initializePerson(personSeed, demoAttributes);
+        // the last time step may run past the stop time
+        Exporter.subscribe(person, stop + timestep, exporterRuntimeOptions);
+        stats.get("candidates").incrementAndGet();
+        // the simulation stops early if the person can no longer meet the criteria
+        boolean rejectedEarly = !updatePerson(person, true);
         long finishTime = person.lastUpdated + timestep;
 
-        isAlive = person.alive(finishTime);
+        isAlive = !rejectedEarly && person.alive(finishTime);
         providerCount = person.providerCount();
 
         if (isAlive && onlyDeadPatients) {
+          rejections.get(REJECTED_ALIVE).incrementAndGet();
           // rotate the seed so the next attempt gets a consistent but different one
           personSeed = randomForDemographics.nextLong();
           continue;
@@ -453,6 +876,10 @@ public class Generator implements RandomNumberGenerator {
         }
 
         if (!isAlive && onlyAlivePatients) {
+          rejections.get(REJECTED_DEAD).incrementAndGet();
+          if (rejectedEarly) {
+            rejections.get(REJECTED_EARLY).incrementAndGet();
+          }
           // rotate the seed so the next attempt gets a consistent but different one
           personSeed = randomForDemographics.nextLong();
           continue;
@@ -462,6 +889,7 @@ public class Generator implements RandomNumberGenerator {
 
         // For fixed records, the person must have 1 provider per record.
         if (providerCount < providerMinimum) {
+          rejections.get(REJECTED_PROVIDERS).incrementAndGet();
           // rotate the seed so the next attempt gets a consistent but different one
           personSeed = new Random(personSeed).nextLong();
           tryNumber++;
@@ -497,9 +925,13 @@ public class Generator implements RandomNumberGenerator {
           }
         }
 
-        // TODO - export is DESTRUCTIVE when it filters out data
-        // this means export must be the LAST THING done with the person
+        // export filters views of the records, so the person is left intact
         Exporter.export(person, finishTime, exporterRuntimeOptions);
+
+        if (!isAlive && !onlyDeadPatients && this.options.overflow) {
+          // the record was kept, but another person is needed to fill this slot
+          stats.get("overflow").incrementAndGet();
+        }
       } while (!patientMeetsCriteria(isAlive, providerCount, providerMinimum));
       //repeat while patient doesn't meet criteria
       // if the patient is alive and we want only dead ones => loop & try again
@@ -552,10 +984,11 @@ public class Generator implements RandomNumberGenerator {
    * Update person record to stop time, record the entry and export record.
    */
   public Person updateRecordExportPerson(Person person, int index) {
+    long previouslyUpdated = person.lastUpdated;
     updatePerson(person);
     recordPerson(person, index);
     long finishTime = person.lastUpdated + timestep;
-    Exporter.export(person, finishTime, exporterRuntimeOptions);
+    Exporter.export(person, previouslyUpdated, finishTime, exporterRuntimeOptions);
     return person;
   }
 
@@ -567,17 +1000,31 @@ public class Generator implements RandomNumberGenerator {
    * @return the new person
    */
   public Person createPerson(long personSeed, Map<String, Object> demoAttributes) {
+    Person person = initializePerson(personSeed, demoAttributes);
+    updatePerson(person);
+    return person;
+  }
+
+  /**
+   * Create a new person, born and with their modules loaded, but not yet simulated.
+   * @param personSeed Seed for the random person
+   * @param demoAttributes Demographic attributes for the new person, {@link #randomDemographics}
+   * @return the new person
+   */
+  private Person initializePerson(long personSeed, Map<String, Object> demoAttributes) {
     Person person = new Person(personSeed);
     person.populationSeed = this.options.seed;
     person.attributes.putAll(demoAttributes);
-    person.attributes.put(Person.LOCATION, location);
+    if (options.nationwide) {
+      person.attributes.put(Person.LOCATION,
+          getLocation((String) demoAttributes.get(Person.STATE)));
+    } else {
+      person.attributes.put(Person.LOCATION, location);
+    }
     person.lastUpdated = (long) demoAttributes.get(Person.BIRTHDATE);
 
     LifecycleModule.birth(person, person.lastUpdated);
     person.currentModules = Module.getModules(modulePredicate);
-
-    updatePerson(person);
-
     return person;
   }
 
@@ -587,29 +1034,70 @@ public class Generator implements RandomNumberGenerator {
    * @param person the previously created person to update
    */
   public void updatePerson(Person person) {
-    HealthInsuranceModule healthInsuranceModule = new HealthInsuranceModule();
-    EncounterModule encounterModule = new EncounterModule();
+    updatePerson(person, false);
+  }
 
+  /**
+   * Update a previously created person from the time they were last updated until Generator.stop or
+   * they die, whichever comes sooner.
+   * @param person the previously created person to update
+   * @param checkCriteria whether to stop as soon as the person can no longer meet the
+   *     generation criteria
+   * @return false if the simulation was abandoned early because the person was rejected,
+   *     true otherwise
+   */
+  private boolean updatePerson(Person person, boolean checkCriteria) {
     long time = person.lastUpdated;
+    List<Module> currentModules = person.currentModules;
     while (person.alive(time) && time < stop) {
-      healthInsuranceModule.process(person, time + timestep);
-      encounterModule.process(person, time);
-
-      Iterator<Module> iter = person.currentModules.iterator();
-      while (iter.hasNext()) {
-        Module module = iter.next();
-
-        if (module.process(person, time)) {
-          iter.remove(); // this module has completed/terminated.
+      if (checkCriteria && cannotMeetCriteria(person)) {
+        return false;
+      }
+      HEALTH_INSURANCE_MODULE.process(person, time + timestep);
+      ENCOUNTER_MODULE.process(person, time);
+
+      // index-based loop so that no iterator is allocated every timestep
+      int i = 0;
+      while (i < currentModules.size()) {
+        if (currentModules.get(i).process(person, time)) {
+          currentModules.remove(i); // this module has completed/terminated.
+        } else {
+          i++;
         }
       }
-      encounterModule.endEncounterModuleEncounters(person, time);
+      ENCOUNTER_MODULE.endEncounterModuleEncounters(person, time);
       person.lastUpdated = time;
       HealthRecordEditors.getInstance().executeAll(person, person.record, time, timestep);
+      if (condensedHistory > 0 && Utilities.getYear(time) != Utilities.getYear(time + timestep)) {
+        // once a year, let go of what has fallen out of the export window
+        person.condenseRecords(time - condensedHistory);
+      }
       time += timestep;
     }
 
-    DeathModule.process(person, time);
+    if (!checkCriteria || !cannotMeetCriteria(person)) {
+      // no need to certify the death of a person that will be rejected
+      DeathModule.process(person, time);
+    }
+    return true;
+  }
+
+  /**
+   * Determines whether a person being simulated is already certain to fail the requested
+   * criteria, so their simulation can stop. Criteria on age, gender and veteran status are
+   * applied when demographics are picked, so only the outcome of the simulation matters here.
+   * @param person The person being simulated.
+   * @return true if the person will be rejected no matter how the simulation continues.
+   */
+  private boolean cannotMeetCriteria(Person person) {
+    if (onlyAlivePatients) {
+      // a death may be recorded ahead of time, e.g. at the end of a Death state delay
+      Long deathdate = (Long) person.attributes.get(Person.DEATHDATE);
+      if (deathdate != null && deathdate < stop) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -618,7 +1106,12 @@ public class Generator implements RandomNumberGenerator {
    * @return demographics
    */
   public Map<String, Object> randomDemographics(Random random) {
-    Demographics city = location.randomCity(random);
+    Location stateLocation = location;
+    if (options.nationwide) {
+      // the state is picked first, so that run() can tell which to load from the seed alone
+      stateLocation = getLocation(statesByPopulation.next(random));
+    }
+    Demographics city = stateLocation.randomCity(random);
     Map<String, Object> demoAttributes = pickDemographics(random, city);
     return demoAttributes;
   }
@@ -648,7 +1141,7 @@ public class Generator implements RandomNumberGenerator {
       System.out.format("SYMPTOMS: %d\n", person.symptomTotal());
       System.out.println(person.record.textSummary());
       System.out.println("VITAL SIGNS");
-      for (VitalSign vitalSign : person.vitalSigns.keySet()) {
+      for (VitalSign vitalSign : person.getVitalSigns()) {
         System.out.format("  * %25s = %6.2f\n", vitalSign,
             person.getVitalSign(vitalSign, time).doubleValue());
       }
@@ -2,7 +2,6 @@ package org.mitre.synthea.engine;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord;
@@ -37,10 +36,18 @@ public class HealthRecordEditors {
     this.registeredEditors.add(editor);
   }
 
+  /**
+   * Check whether any editors are registered.
+   * @return true if at least one editor will be run during the simulation
+   */
+  public boolean hasEditors() {
+    return !this.registeredEditors.isEmpty();
+  }
+
   /**
    * Runs all of the registered implementations of HealthRecordEditor. Will first check to see if
-   * the editor should be run by invoking... shouldRun. If it should run, will call process on
-   * the editor.
+   * the editor should be run by invoking... shouldRun. If any should run, the encounters of the
+   * time step are collected once, and process is called on each of those editors.
    * <p>
    * It's unlikely that this method should be called by anything outside of Generator.
    * </p>
@@ -50,16 +57,20 @@ public class HealthRecordEditors {
    * @param step The time step for the simulation
    */
   public void executeAll(Person person, HealthRecord record, long time, long step) {
-    if (this.registeredEditors.size() > 0) {
-      long start = time - step;
-      List<HealthRecord.Encounter> encountersThisStep = record.encounters.stream()
-          .filter(e -> e.start >= start)
-          .collect(Collectors.toList());
-      this.registeredEditors.forEach(m -> {
-        if (m.shouldRun(person, record, time)) {
-          m.process(person, encountersThisStep, time);
+    List<HealthRecordEditor> editorsToRun = null;
+    for (HealthRecordEditor editor : this.registeredEditors) {
+      if (editor.shouldRun(person, record, time)) {
+        if (editorsToRun == null) {
+          editorsToRun = new ArrayList<HealthRecordEditor>();
         }
-      });
+        editorsToRun.add(editor);
+      }
+    }
+    if (editorsToRun != null) {
+      List<HealthRecord.Encounter> encountersThisStep = record.encountersSince(time - step);
+      for (HealthRecordEditor editor : editorsToRun) {
+        editor.process(person, encountersThisStep, time);
+      }
     }
   }
 
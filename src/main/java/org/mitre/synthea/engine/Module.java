@@ -23,12 +23,15 @@ import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -122,8 +125,7 @@ public class Module implements Cloneable, Serializable {
       }
       Path loadPath = localFiles ? t : basePath.relativize(t);
       retVal.put(relativePath, new ModuleSupplier(submodule,
-          relativePath,
-          () -> loadFile(loadPath, submodule, overrides, localFiles)));
+          relativePath, loadPath, localFiles, overrides));
     });
     return submoduleCount.get();
   }
@@ -209,6 +211,45 @@ public class Module implements Cloneable, Serializable {
     return ctx.jsonString();
   }
 
+  /**
+   * Load fresh copies of the top-level modules named in a set of module overrides, leaving the
+   * shared modules untouched. The overrides use the same "moduleFileName::jsonPath" format as
+   * the module_override file, and are applied on top of it. Submodules cannot be overridden
+   * this way, since every module calls the one shared copy of a submodule.
+   * @param overrides Module overrides for one scenario.
+   * @return the overridden modules, keyed by module name.
+   * @throws IllegalArgumentException if an override targets a submodule.
+   * @throws Exception if an overridden module cannot be loaded.
+   */
+  public static Map<String, Module> loadModulesWithOverrides(Properties overrides)
+      throws Exception {
+    Properties combined = new Properties();
+    Properties moduleOverrides = getModuleOverrides();
+    if (moduleOverrides != null) {
+      combined.putAll(moduleOverrides);
+    }
+    combined.putAll(overrides);
+
+    Set<String> moduleFileNames = new HashSet<String>();
+    for (Object key : overrides.keySet()) {
+      moduleFileNames.add(((String) key).split("::")[0]);
+    }
+
+    Map<String, Module> overridden = new HashMap<String, Module>();
+    for (ModuleSupplier supplier : modules.values()) {
+      if (supplier.file != null
+          && moduleFileNames.contains(supplier.file.getFileName().toString())) {
+        if (supplier.submodule) {
+          throw new IllegalArgumentException("Submodule " + supplier.path
+              + " cannot be overridden per scenario, only top-level modules can");
+        }
+        Module module = loadFile(supplier.file, false, combined, supplier.localFiles);
+        overridden.put(module.name, module);
+      }
+    }
+    return overridden;
+  }
+
   public static String[] getModuleNames() {
     // This will include all known module names, which may be more than are actually loaded.
     return modules.keySet().toArray(new String[modules.size()]);
@@ -256,6 +297,8 @@ public class Module implements Cloneable, Serializable {
   public Double gmfVersion;
   public List<String> remarks;
   private Map<String, State> states;
+  /** Attribute key flagging an active wellness encounter for this module. */
+  private String activeWellnessEncounterKey;
 
   protected Module() {
     // no-args constructor only allowed to be used by subclasses
@@ -304,6 +347,7 @@ public class Module implements Cloneable, Serializable {
     clone.name = this.name;
     clone.submodule = this.submodule;
     clone.remarks = this.remarks;
+    clone.activeWellnessEncounterKey = this.activeWellnessEncounterKey;
     if (this.states != null) {
       clone.states = new ConcurrentHashMap<String, State>();
       for (String key : this.states.keySet()) {
@@ -335,9 +379,9 @@ public class Module implements Cloneable, Serializable {
       person.attributes.put(this.name, person.history);
     }
     person.history = (List<State>) person.attributes.get(this.name);
-    String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + this.name;
+    String activeKey = getActiveWellnessEncounterKey();
     if (person.attributes.containsKey(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER)) {
-      person.attributes.put(activeKey, true);
+      person.attributes.put(activeKey, Boolean.TRUE);
     }
     State current = person.history.get(0);
     // System.out.println(" Resuming at " + current.name);
@@ -364,10 +408,26 @@ public class Module implements Cloneable, Serializable {
         current = person.history.get(0);
       }
     }
-    person.attributes.remove(activeKey);
+    // Clear the flag rather than removing it, so the attribute entry is reused next timestep
+    if (person.attributes.get(activeKey) == Boolean.TRUE) {
+      person.attributes.put(activeKey, Boolean.FALSE);
+    }
     return (current instanceof State.Terminal);
   }
 
+  /**
+   * Get the attribute key used to flag that a wellness encounter is active for this module.
+   * Set to true while the module is processed during a wellness encounter.
+   * The key is built once per module instead of on every timestep.
+   * @return the attribute key.
+   */
+  public String getActiveWellnessEncounterKey() {
+    if (activeWellnessEncounterKey == null) {
+      activeWellnessEncounterKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + this.name;
+    }
+    return activeWellnessEncounterKey;
+  }
+
   private State initialState() {
     return states.get("Initial").clone(); // all Initial states have name Initial
   }
@@ -405,6 +465,9 @@ public class Module implements Cloneable, Serializable {
 
     private boolean loaded;
     private Callable<Module> loader;
+    /** The module file, when the module is loaded from JSON. */
+    private Path file;
+    private boolean localFiles;
     private Module module;
     private Throwable fault;
 
@@ -423,6 +486,13 @@ public class Module implements Cloneable, Serializable {
       module = null;
     }
 
+    private ModuleSupplier(boolean submodule, String path, Path file, boolean localFiles,
+        Properties overrides) {
+      this(submodule, path, () -> loadFile(file, submodule, overrides, localFiles));
+      this.file = file;
+      this.localFiles = localFiles;
+    }
+
     /**
      * Constructs a Module supplier around a singleton Module instance.
      * @param module The singleton Module instance.
@@ -0,0 +1,124 @@
+package org.mitre.synthea.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mitre.synthea.world.agents.Clinician;
+import org.mitre.synthea.world.agents.Payer;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.geography.Location;
+
+/**
+ * A serialized copy of a person, from which any number of independent forks of the person can
+ * be made, e.g. one per scenario. The person's own state and history are copied into each fork,
+ * but the providers, clinicians, payers, locations and modules the person refers to are shared
+ * with the original person rather than copied: they are shared by every person simulated at
+ * once anyway, and sharing them keeps each fork down to the person's own state.
+ */
+final class PersonFork {
+  private final byte[] bytes;
+  private final List<Object> shared;
+
+  /**
+   * Serialize a person, so that it can be forked.
+   * @param person The person. It must not change while it is being serialized.
+   * @throws IOException if the person cannot be serialized.
+   */
+  PersonFork(Person person) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    SharingOutputStream out = new SharingOutputStream(buffer);
+    out.writeObject(person);
+    out.close();
+    this.bytes = buffer.toByteArray();
+    this.shared = out.shared;
+  }
+
+  /**
+   * Make a fork of the person, as it was when it was serialized.
+   * @return a new copy of the person.
+   * @throws IOException if the person cannot be deserialized.
+   * @throws ClassNotFoundException if the person cannot be deserialized.
+   */
+  Person fork() throws IOException, ClassNotFoundException {
+    try (SharingInputStream in = new SharingInputStream(new ByteArrayInputStream(bytes))) {
+      return (Person) in.readObject();
+    }
+  }
+
+  /**
+   * Whether an object is shared between the forks rather than copied into each one.
+   */
+  private static boolean isShared(Object obj) {
+    return obj instanceof Provider || obj instanceof Clinician || obj instanceof Payer
+        || obj instanceof Location || obj instanceof Module;
+  }
+
+  /**
+   * Stands in for a shared object in the serialized person.
+   */
+  private static final class SharedReference implements Serializable {
+    private static final long serialVersionUID = 4510866473524307382L;
+
+    private final int index;
+
+    private SharedReference(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * Writes a person, replacing the objects shared between forks by references to them.
+   */
+  private static final class SharingOutputStream extends ObjectOutputStream {
+    private final List<Object> shared = new ArrayList<Object>();
+    private final Map<Object, Integer> indexes = new IdentityHashMap<Object, Integer>();
+
+    private SharingOutputStream(OutputStream out) throws IOException {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      if (!isShared(obj)) {
+        return obj;
+      }
+      Integer index = indexes.get(obj);
+      if (index == null) {
+        index = shared.size();
+        indexes.put(obj, index);
+        shared.add(obj);
+      }
+      return new SharedReference(index);
+    }
+  }
+
+  /**
+   * Reads a person, resolving the references to shared objects.
+   */
+  private final class SharingInputStream extends ObjectInputStream {
+    private SharingInputStream(InputStream in) throws IOException {
+      super(in);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      if (obj instanceof SharedReference) {
+        return shared.get(((SharedReference) obj).index);
+      }
+      return obj;
+    }
+  }
+}
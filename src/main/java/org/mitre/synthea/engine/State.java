@@ -10,6 +10,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -231,10 +232,14 @@ public abstract class State implements Cloneable, Serializable {
    */
   public static class CallSubmodule extends State {
     private String submodule;
+    // the resolved submodule, cached so that a submodule that takes several
+    // timesteps to complete is not cloned again on every timestep
+    private transient Module submod;
 
     @Override
     public CallSubmodule clone() {
       CallSubmodule clone = (CallSubmodule) super.clone();
+      clone.submod = null;
       return clone;
     }
 
@@ -242,7 +247,9 @@ public abstract class State implements Cloneable, Serializable {
     public boolean process(Person person, long time) {
       // e.g. "submodule": "medications/otc_antihistamine"
       List<State> moduleHistory = person.history;
-      Module submod = Module.getModuleByPath(submodule);
+      if (submod == null) {
+        submod = Module.getModuleByPath(submodule);
+      }
       HealthRecord.Encounter encounter = person.getCurrentEncounter(module);
       if (encounter != null) {
         person.setCurrentEncounter(submod, encounter);
@@ -250,8 +257,12 @@ public abstract class State implements Cloneable, Serializable {
       boolean completed = submod.process(person, time);
 
       if (completed) {
-        // add the history from the submodule to this module's history, at the front
-        moduleHistory.addAll(0, person.history);
+        // add the history from the submodule to this module's history, at the front,
+        // walking backwards so no intermediate array copy of the history is needed
+        ListIterator<State> submoduleHistory = person.history.listIterator(person.history.size());
+        while (submoduleHistory.hasPrevious()) {
+          moduleHistory.add(0, submoduleHistory.previous());
+        }
         // clear the submodule history
         person.attributes.remove(submod.name);
         // reset person.history to this module's history
@@ -784,9 +795,9 @@ public abstract class State implements Cloneable, Serializable {
       if (wellness) {
         HealthRecord.Encounter encounter = person.record.currentEncounter(time);
         entry = encounter;
-        String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + this.module.name;
-        if (person.attributes.containsKey(activeKey)) {
-          person.attributes.remove(activeKey);
+        String activeKey = this.module.getActiveWellnessEncounterKey();
+        if (Boolean.TRUE.equals(person.attributes.get(activeKey))) {
+          person.attributes.put(activeKey, Boolean.FALSE);
           person.setCurrentEncounter(module, encounter);
           diagnosePastConditions(person, time);
           if (!encounter.chronicMedsRenewed && person.chronicMedications.size() > 0) {
@@ -1590,6 +1601,9 @@ public abstract class State implements Cloneable, Serializable {
         throw new IllegalStateException(
             String.format("State %s contains an invalid distribution", this.name));
       }
+      // every observation recorded by this state shares these
+      codes = Code.canonical(codes);
+      unit = Code.intern(unit);
     }
 
     private ThreadLocal<ExpressionProcessor> getExpProcessor() {
@@ -66,7 +66,8 @@ public class CCDAExporter {
     // create a super encounter... this makes it easier to access
     // all the Allergies (for example) in the export templates,
     // instead of having to iterate through all the encounters.
-    Encounter superEncounter = person.record.new Encounter(time, "super");
+    // It is not part of the record, so it takes no seed from it.
+    Encounter superEncounter = person.record.new Encounter(time, "super", 0L);
     for (Encounter encounter : person.record.encounters) {
       if (encounter.start <= time) {
         superEncounter.observations.addAll(encounter.observations);
@@ -2,26 +2,34 @@ package org.mitre.synthea.export;
 
 import static org.mitre.synthea.export.ExportHelper.dateFromTimestamp;
 import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
+import static org.mitre.synthea.export.ExportHelper.nameUUID;
 
 import com.google.common.collect.Table;
 import com.google.gson.JsonObject;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -126,6 +134,10 @@ public class CSVExporter {
    * Writer for payerTransitions.csv
    */
   private OutputStreamWriter payerTransitions;
+  /**
+   * Writer for stops.csv, the stops of the entries exported by an earlier delta export.
+   */
+  private OutputStreamWriter stops;
 
   /**
    * Charset for specifying the character set of the output files.
@@ -137,17 +149,36 @@ public class CSVExporter {
    */
   private static final String NEWLINE = System.lineSeparator();
 
+  /**
+   * Base output directory of the files, or null for the current exporter.baseDirectory.
+   */
+  private final String baseDirectory;
+
   /**
    * Constructor for the CSVExporter - initialize the specified files and store
    * the writers in fields.
    */
   private CSVExporter() {
+    this(null);
+  }
+
+  /**
+   * Create a CSVExporter writing into a base directory of its own, rather than the singleton's.
+   * @param baseDirectory The base output directory, or null for exporter.baseDirectory.
+   */
+  CSVExporter(String baseDirectory) {
+    this.baseDirectory = baseDirectory;
     init();
   }
   
+  /**
+   * Open the files in the current output directory, closing any files opened before.
+   */
   void init() {
     try {
-      File output = Exporter.getOutputFolder("csv", null);
+      closeWriters();
+      File output = baseDirectory == null ? Exporter.getOutputFolder("csv", null)
+          : Exporter.getOutputFolder("csv", null, baseDirectory);
       output.mkdirs();
       Path outputDirectory = output.toPath();
 
@@ -225,6 +256,11 @@ public class CSVExporter {
       payerTransitions = getWriter(outputDirectory, "payer_transitions.csv", append, includedFiles,
           excludedFiles);
 
+      // only delta exports write stops of entries that were exported before
+      stops = Config.getAsBoolean("exporter.delta_export", false)
+          ? getWriter(outputDirectory, "stops.csv", append, includedFiles, excludedFiles)
+          : NO_OP;
+
       if (!append) {
         writeCSVHeaders();
       }
@@ -236,6 +272,32 @@ public class CSVExporter {
     }
   }
 
+  /**
+   * Close the writers opened by init, if any, so that reopening them does not leak files.
+   * @throws IOException if any IO error occurs
+   */
+  private void closeWriters() throws IOException {
+    OutputStreamWriter[] writers = { patients, allergies, medications, conditions, careplans,
+        observations, procedures, immunizations, encounters, imagingStudies, devices, supplies,
+        organizations, providers, payers, payerTransitions, stops };
+    for (OutputStreamWriter writer : writers) {
+      if (writer != null && writer != NO_OP) {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Close the files, once everything has been exported.
+   */
+  void close() {
+    try {
+      closeWriters();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   /**
    * Helper function to convert a list of files directly from synthea.properties to filenames.
    * @param fileListString String directly from Config, ex "patients.csv,conditions , procedures"
@@ -308,6 +370,8 @@ public class CSVExporter {
     payers.write(NEWLINE);
     payerTransitions.write("PATIENT,START_YEAR,END_YEAR,PAYER,OWNERSHIP");
     payerTransitions.write(NEWLINE);
+    stops.write("TABLE,START,STOP,PATIENT,ENCOUNTER,CODE");
+    stops.write(NEWLINE);
   }
 
   /**
@@ -330,6 +394,288 @@ public class CSVExporter {
     return SingletonHolder.instance;
   }
 
+  /**
+   * Create a listener that writes the rows of a person's encounters while the person is being
+   * simulated, rather than when the person is exported. The listener must be added to the
+   * person's record before the simulation starts, and only works for a single record.
+   *
+   * @param person         The person whose record will be written.
+   * @param stopTime       Latest time at which the simulation of the person can stop.
+   * @param yearsOfHistory The number of years of history that will be exported, 0 for all.
+   * @param release        Whether the entries written are released from the record, see
+   *                       HealthRecord.release. Only when no other exporter reads the record.
+   * @return the listener.
+   */
+  public HealthRecord.RecordListener stream(Person person, long stopTime, int yearsOfHistory,
+      boolean release) {
+    return new RecordStream(person, stopTime, yearsOfHistory, release);
+  }
+
+  /**
+   * Get the stream writing the given record, if there is one.
+   */
+  private static RecordStream getStream(HealthRecord record) {
+    for (HealthRecord.RecordListener listener : record.getListeners()) {
+      if (listener instanceof RecordStream) {
+        return (RecordStream) listener;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Throw away the rows written for a person while they were simulated, when the person is
+   * rejected rather than exported.
+   *
+   * @param person The person, whose record may have a stream.
+   * @throws IOException if the rows cannot be thrown away.
+   */
+  public void discardStream(Person person) throws IOException {
+    RecordStream stream = getStream(person.record);
+    if (stream != null) {
+      stream.discard();
+    }
+  }
+
+  /** Tags of the tables in a spill file, in the order of RecordStream.tables. */
+  private static final int ENCOUNTER_ROWS = 0;
+  private static final int OBSERVATION_ROWS = 1;
+  private static final int PROCEDURE_ROWS = 2;
+  private static final int IMMUNIZATION_ROWS = 3;
+  private static final int IMAGING_STUDY_ROWS = 4;
+  private static final int SUPPLY_ROWS = 5;
+
+  /**
+   * Writes the rows of a person's encounters during the simulation. New entries are only ever
+   * added to the latest encounter, so an encounter is closed once it has ended and a later one
+   * has started, and its encounter, observation, procedure, immunization, imaging study and
+   * supply rows are written then. Conditions, allergies, medications, care plans and devices
+   * can still be stopped later, so they are written on export, along with every encounter that
+   * was not closed or that the export filters could still drop.
+   *
+   * <p>The generator may yet reject the person, so the rows are written to a spill file rather
+   * than to the CSV files, and only copied there when the person is exported. Nothing but the
+   * file's buffer is held in memory. When no other exporter reads the record, the entries
+   * written are then released from it, so the record only keeps what the simulation still needs.
+   */
+  private class RecordStream implements HealthRecord.RecordListener {
+    private final Person person;
+    private final HealthRecord record;
+    private final long stopTime;
+    /** Encounters that start at or before this time may be dropped on export. */
+    private final long cutoffTime;
+    /** Whether the entries written are released from the record. */
+    private final boolean release;
+    /** Seeds of the encounters whose rows have been written. */
+    private final Set<Long> streamed = new HashSet<Long>();
+    /** The CSV files of the tables that are streamed, indexed by their tags. */
+    private final OutputStreamWriter[] tables = { encounters, observations, procedures,
+        immunizations, imagingStudies, supplies };
+    /** Writers of the rows of each table into the spill file, indexed by their tags. */
+    private final Writer[] rows = new Writer[tables.length];
+    private File spillFile;
+    private Writer spill;
+
+    RecordStream(Person person, long stopTime, int yearsOfHistory, boolean release) {
+      this.person = person;
+      this.record = person.record;
+      this.stopTime = stopTime;
+      this.release = release;
+      if (yearsOfHistory > 0) {
+        cutoffTime = stopTime - Utilities.convertTime("years", yearsOfHistory);
+      } else {
+        cutoffTime = Long.MIN_VALUE;
+      }
+    }
+
+    @Override
+    public void encounterStarted(HealthRecord record, Encounter encounter) {
+      int previous = record.encounters.size() - 2;
+      if (previous >= 0 && record.encounters.get(previous).ended) {
+        close(record.encounters.get(previous));
+      }
+    }
+
+    @Override
+    public void encounterEnded(HealthRecord record, Encounter encounter) {
+      if (encounter != record.encounters.get(record.encounters.size() - 1)) {
+        close(encounter);
+      }
+    }
+
+    /**
+     * Whether the rows of an encounter, or of a filtered copy of it, have been written.
+     */
+    boolean isStreamed(Encounter encounter) {
+      return streamed.contains(encounter.getSeed());
+    }
+
+    private void close(Encounter encounter) {
+      if (isStreamed(encounter) || !isFinal(encounter)) {
+        return;
+      }
+      try {
+        writeRows(encounter);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      if (release) {
+        record.release(encounter);
+      }
+    }
+
+    private void writeRows(Encounter encounter) throws IOException {
+      String personID = (String) person.attributes.get(Person.ID);
+      String encounterID = encounterID(personID, encounter);
+      streamed.add(encounter.getSeed());
+      encounter(encounterID, personID, encounter, rows(ENCOUNTER_ROWS));
+      for (Observation observation : encounter.observations) {
+        observation(personID, encounterID, observation, rows(OBSERVATION_ROWS));
+      }
+      for (Procedure procedure : encounter.procedures) {
+        procedure(personID, encounterID, procedure, rows(PROCEDURE_ROWS));
+      }
+      for (HealthRecord.Entry immunization : encounter.immunizations) {
+        immunization(personID, encounterID, immunization, rows(IMMUNIZATION_ROWS));
+      }
+      for (ImagingStudy imagingStudy : encounter.imagingStudies) {
+        imagingStudy(imagingStudyID(personID, imagingStudy), personID, encounterID,
+            imagingStudy, rows(IMAGING_STUDY_ROWS));
+      }
+      for (Supply supply : encounter.supplies) {
+        supply(personID, encounterID, encounter, supply, rows(SUPPLY_ROWS));
+      }
+    }
+
+    /**
+     * Get the writer of rows of the given table into the spill file, which discards them if the
+     * table's file is excluded.
+     */
+    private Writer rows(int table) throws IOException {
+      if (rows[table] == null) {
+        if (tables[table] == NO_OP) {
+          rows[table] = NO_OP;
+        } else {
+          if (spill == null) {
+            spillFile = File.createTempFile("synthea-csv-", ".rows");
+            spill = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(spillFile), StandardCharsets.UTF_8));
+          }
+          rows[table] = new TaggedWriter(spill, (char) ('0' + table));
+        }
+      }
+      return rows[table];
+    }
+
+    /**
+     * Whether a closed encounter will be exported as it is now. This mirrors the filters that
+     * Exporter applies to the record before exporting it.
+     */
+    private boolean isFinal(Encounter encounter) {
+      Long deathDate = (Long) person.attributes.get(Person.DEATHDATE);
+      if (deathDate != null && encounter.start > deathDate) {
+        return false;
+      }
+      if (cutoffTime == Long.MIN_VALUE) {
+        return true;
+      }
+      return encounter.start > cutoffTime && encounter.start <= stopTime
+          && (!encounter.conditions.isEmpty() || !encounter.allergies.isEmpty()
+              || !encounter.observations.isEmpty() || !encounter.reports.isEmpty()
+              || !encounter.procedures.isEmpty() || !encounter.medications.isEmpty()
+              || !encounter.immunizations.isEmpty() || !encounter.careplans.isEmpty());
+    }
+
+    /**
+     * Copy the rows in the spill file to the CSV files and stop listening to the record.
+     */
+    private void commit() throws IOException {
+      if (spill != null) {
+        spill.close();
+        try (BufferedReader reader =
+            Files.newBufferedReader(spillFile.toPath(), StandardCharsets.UTF_8)) {
+          String row;
+          while ((row = reader.readLine()) != null) {
+            write(row.substring(1) + NEWLINE, tables[row.charAt(0) - '0']);
+          }
+        }
+      }
+      discard();
+    }
+
+    /**
+     * Delete the spill file and stop listening to the record.
+     */
+    private void discard() throws IOException {
+      record.removeListener(this);
+      if (spill != null) {
+        spill.close();
+        Files.deleteIfExists(spillFile.toPath());
+        spill = null;
+      }
+    }
+  }
+
+  /**
+   * Writes rows to a spill file, starting each line with the tag of the table it belongs to.
+   */
+  private static class TaggedWriter extends Writer {
+    private final Writer out;
+    private final char tag;
+    private boolean lineStart = true;
+
+    TaggedWriter(Writer out, char tag) {
+      this.out = out;
+      this.tag = tag;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      int end = off + len;
+      while (off < end) {
+        if (lineStart) {
+          out.write(tag);
+        }
+        int lineEnd = off;
+        while (lineEnd < end && cbuf[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        lineStart = lineEnd < end;
+        if (lineStart) {
+          lineEnd++;
+        }
+        out.write(cbuf, off, lineEnd - off);
+        off = lineEnd;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() {
+      // the spill file is closed by its RecordStream
+    }
+  }
+
+  /**
+   * Get the ID of an encounter's row. It is derived from the encounter, rather than drawn from
+   * the person's source of randomness, so that it is the same whether the row is written while
+   * the person is simulated or when they are exported.
+   */
+  private static String encounterID(String personID, Encounter encounter) {
+    return nameUUID(personID, "encounter", encounter.getSeed());
+  }
+
+  /**
+   * Get the ID of an imaging study's rows, the same way as encounter IDs.
+   */
+  private static String imagingStudyID(String personID, ImagingStudy imagingStudy) {
+    return nameUUID(personID, "imaging_study", imagingStudy.getSeed());
+  }
+
   /**
    * Export the organizations.csv and providers.csv files. This method should be
    * called once after all the Patient records have been exported using the
@@ -345,7 +691,7 @@ public class CSVExporter {
           utilization.column(Provider.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
       if (totalEncounters > 0) {
         organization(org, totalEncounters);
-        Map<String, ArrayList<Clinician>> providers = org.clinicianMap;
+        Map<String, ArrayList<Clinician>> providers = org.getClinicians();
         for (String speciality : providers.keySet()) {
           ArrayList<Clinician> clinicians = providers.get(speciality);
           for (Clinician clinician : clinicians) {
@@ -420,10 +766,21 @@ public class CSVExporter {
    */
   public void export(Person person, long time) throws IOException {
     String personID = patient(person, time);
+    RecordStream stream = getStream(person.record);
 
     for (Encounter encounter : person.record.encounters) {
-
-      String encounterID = encounter(person, personID, encounter);
+      // the rows of an encounter that was closed during the simulation are already written,
+      // apart from entries that could still be stopped after it
+      String encounterID = encounterID(personID, encounter);
+      boolean streamed = stream != null && stream.isStreamed(encounter);
+      if (encounter.exportedUntil != null) {
+        // exported by an earlier delta export, which may not have seen it end
+        if (encounter.stop > encounter.exportedUntil) {
+          stop("encounters", false, personID, encounterID, encounter, encounter);
+        }
+      } else if (!streamed) {
+        encounter(encounterID, personID, encounter, encounters);
+      }
       String payerID = encounter.claim.payer.uuid;
 
       for (HealthRecord.Entry condition : encounter.conditions) {
@@ -432,51 +789,74 @@ public class CSVExporter {
             && !RandomCodeGenerator.selectedCodes.isEmpty()) {
           if (RandomCodeGenerator.selectedCodes.stream()
               .filter(code -> code.code.equals(condition.codes.get(0).code))
-              .findFirst().isPresent()) {
+              .findFirst().isPresent()
+              && !stop("conditions", true, personID, encounterID, encounter, condition)) {
             condition(personID, encounterID, condition);
           }
-        } else {
+        } else if (!stop("conditions", true, personID, encounterID, encounter, condition)) {
           condition(personID, encounterID, condition);
         }
       }
 
       for (HealthRecord.Entry allergy : encounter.allergies) {
-        allergy(personID, encounterID, allergy);
+        if (!stop("allergies", true, personID, encounterID, encounter, allergy)) {
+          allergy(personID, encounterID, allergy);
+        }
       }
 
-      for (Observation observation : encounter.observations) {
-        observation(personID, encounterID, observation);
-      }
+      if (!streamed) {
+        for (Observation observation : encounter.observations) {
+          observation(personID, encounterID, observation, observations);
+        }
 
-      for (Procedure procedure : encounter.procedures) {
-        procedure(personID, encounterID, procedure);
+        for (Procedure procedure : encounter.procedures) {
+          if (!stop("procedures", false, personID, encounterID, encounter, procedure)) {
+            procedure(personID, encounterID, procedure, procedures);
+          }
+        }
       }
 
       for (Medication medication : encounter.medications) {
-        medication(personID, encounterID, payerID, medication, time);
+        if (!stop("medications", false, personID, encounterID, encounter, medication)) {
+          medication(personID, encounterID, payerID, medication, time);
+        }
       }
 
-      for (HealthRecord.Entry immunization : encounter.immunizations) {
-        immunization(personID, encounterID, immunization);
+      if (!streamed) {
+        for (HealthRecord.Entry immunization : encounter.immunizations) {
+          immunization(personID, encounterID, immunization, immunizations);
+        }
       }
 
       for (CarePlan careplan : encounter.careplans) {
-        careplan(person, personID, encounterID, careplan);
+        if (!stop("careplans", true, personID, encounterID, encounter, careplan)) {
+          careplan(person, personID, encounterID, careplan);
+        }
       }
 
-      for (ImagingStudy imagingStudy : encounter.imagingStudies) {
-        imagingStudy(person, personID, encounterID, imagingStudy);
+      if (!streamed) {
+        for (ImagingStudy imagingStudy : encounter.imagingStudies) {
+          imagingStudy(imagingStudyID(personID, imagingStudy), personID, encounterID,
+              imagingStudy, imagingStudies);
+        }
       }
 
       for (Device device : encounter.devices) {
-        device(personID, encounterID, device);
+        if (!stop("devices", false, personID, encounterID, encounter, device)) {
+          device(personID, encounterID, device);
+        }
       }
 
-      for (Supply supply : encounter.supplies) {
-        supply(personID, encounterID, encounter, supply);
+      if (!streamed) {
+        for (Supply supply : encounter.supplies) {
+          supply(personID, encounterID, encounter, supply, supplies);
+        }
       }
     }
-    CSVExporter.getInstance().exportPayerTransitions(person, time);
+    if (stream != null) {
+      stream.commit();
+    }
+    exportPayerTransitions(person, time);
 
     int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
     Calendar cutOff = new GregorianCalendar(1900, 0, 1);
@@ -502,12 +882,13 @@ public class CSVExporter {
       for (Integer year : scores.keySet()) {
         birthDay.set(Calendar.YEAR, year);
         if (birthDay.after(cutOff) && birthDay.before(now)) {
+          // only made up for the export, so it takes no seed from the record
           Observation obs = person.record.new Observation(
-              birthDay.getTimeInMillis(), score, scores.get(year));
+              birthDay.getTimeInMillis(), score, scores.get(year), 0L);
           obs.unit = unit;
           Code code = new Code("GBD", score, score);
           obs.codes.add(code);
-          observation(personID, "", obs);
+          observation(personID, "", obs, observations);
         }
       }
     }
@@ -524,6 +905,7 @@ public class CSVExporter {
     imagingStudies.flush();
     devices.flush();
     supplies.flush();
+    stops.flush();
   }
 
   /**
@@ -598,19 +980,18 @@ public class CSVExporter {
   /**
    * Write a single Encounter line to encounters.csv.
    *
-   * @param rand      Source of randomness to use when generating ids etc
+   * @param encounterID The ID to give the encounter
    * @param personID  The ID of the person that had this encounter
    * @param encounter The encounter itself
-   * @return The encounter ID, to be referenced as a "foreign key" if necessary
+   * @param out       Where to write the line
    * @throws IOException if any IO error occurs
    */
-  private String encounter(RandomNumberGenerator rand, String personID,
-          Encounter encounter) throws IOException {
+  private void encounter(String encounterID, String personID,
+          Encounter encounter, Writer out) throws IOException {
     // Id,START,STOP,PATIENT,ORGANIZATION,PROVIDER,PAYER,ENCOUNTERCLASS,CODE,DESCRIPTION,
     // BASE_ENCOUNTER_COST,TOTAL_CLAIM_COST,PAYER_COVERAGE,REASONCODE,REASONDESCRIPTION
     StringBuilder s = new StringBuilder();
 
-    String encounterID = rand.randUUID().toString();
     // ID
     s.append(encounterID).append(',');
     // START
@@ -667,9 +1048,7 @@ public class CSVExporter {
     }
 
     s.append(NEWLINE);
-    write(s.toString(), encounters);
-
-    return encounterID;
+    write(s.toString(), out);
   }
 
   /**
@@ -701,6 +1080,46 @@ public class CSVExporter {
     write(s.toString(), conditions);
   }
 
+  /**
+   * Write the stop of an entry to stops.csv instead of writing the entry again, if the entry
+   * was already written by an earlier delta export of its encounter, when it had not stopped
+   * yet. The row of the entry is found by its table, START, PATIENT, ENCOUNTER and CODE, and
+   * its STOP is updated from stops.csv.
+   * TABLE,START,STOP,PATIENT,ENCOUNTER,CODE
+   *
+   * @param table       Name of the table the entry was written to, without ".csv".
+   * @param dates       Whether the table holds dates, rather than timestamps.
+   * @param personID    ID of the person the entry belongs to.
+   * @param encounterID ID of the encounter of the entry, or of the encounter itself.
+   * @param encounter   The encounter of the entry, from the exported record.
+   * @param entry       The entry.
+   * @return whether the entry was written before, so it must not be written again.
+   * @throws IOException if any IO error occurs
+   */
+  private boolean stop(String table, boolean dates, String personID, String encounterID,
+      Encounter encounter, Entry entry) throws IOException {
+    if (encounter.exportedUntil == null || entry.start > encounter.exportedUntil) {
+      return false;
+    }
+    StringBuilder s = new StringBuilder();
+    s.append(table).append(',');
+    if (dates) {
+      s.append(dateFromTimestamp(entry.start)).append(',');
+      s.append(dateFromTimestamp(entry.stop)).append(',');
+    } else {
+      s.append(iso8601Timestamp(entry.start)).append(',');
+      s.append(iso8601Timestamp(entry.stop)).append(',');
+    }
+    s.append(personID).append(',');
+    s.append(encounterID).append(',');
+    if (!entry.codes.isEmpty()) {
+      s.append(entry.codes.get(0).code);
+    }
+    s.append(NEWLINE);
+    write(s.toString(), stops);
+    return true;
+  }
+
   /**
    * Write a single Allergy to allergies.csv.
    *
@@ -736,17 +1155,18 @@ public class CSVExporter {
    * @param personID    ID of the person to whom the observation applies.
    * @param encounterID ID of the encounter where the observation was taken
    * @param observation The observation itself
+   * @param out         Where to write the line
    * @throws IOException if any IO error occurs
    */
   private void observation(String personID,
-      String encounterID, Observation observation) throws IOException {
+      String encounterID, Observation observation, Writer out) throws IOException {
 
     if (observation.value == null) {
       if (observation.observations != null && !observation.observations.isEmpty()) {
         // just loop through the child observations
 
         for (Observation subObs : observation.observations) {
-          observation(personID, encounterID, subObs);
+          observation(personID, encounterID, subObs, out);
         }
       }
 
@@ -773,7 +1193,7 @@ public class CSVExporter {
     s.append(type);
 
     s.append(NEWLINE);
-    write(s.toString(), observations);
+    write(s.toString(), out);
   }
 
   /**
@@ -783,10 +1203,11 @@ public class CSVExporter {
    * @param encounterID ID of the encounter where the procedure was performed
    * @param payerID      ID of the payer who covered the immunization.
    * @param procedure   The procedure itself
+   * @param out         Where to write the line
    * @throws IOException if any IO error occurs
    */
   private void procedure(String personID, String encounterID,
-      Procedure procedure) throws IOException {
+      Procedure procedure, Writer out) throws IOException {
     // DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST,REASONCODE,REASONDESCRIPTION
     StringBuilder s = new StringBuilder();
 
@@ -810,7 +1231,7 @@ public class CSVExporter {
     }
 
     s.append(NEWLINE);
-    write(s.toString(), procedures);
+    write(s.toString(), out);
   }
 
   /**
@@ -904,10 +1325,11 @@ public class CSVExporter {
    * @param encounterID  ID of the encounter where the immunization was performed.
    * @param payerID      ID of the payer who covered the immunization.
    * @param immunization The immunization itself
+   * @param out          Where to write the line
    * @throws IOException if any IO error occurs
    */
   private void immunization(String personID, String encounterID,
-      Entry immunization) throws IOException {
+      Entry immunization, Writer out) throws IOException {
     // DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,BASE_COST
     StringBuilder s = new StringBuilder();
 
@@ -923,7 +1345,7 @@ public class CSVExporter {
     s.append(String.format(Locale.US, "%.2f", immunization.getCost()));
 
     s.append(NEWLINE);
-    write(s.toString(), immunizations);
+    write(s.toString(), out);
   }
 
   /**
@@ -972,20 +1394,19 @@ public class CSVExporter {
   /**
    * Write a single ImagingStudy to imaging_studies.csv.
    *
-   * @param rand         Source of randomness to use when generating ids etc
+   * @param studyID      The ID to give the ImagingStudy
    * @param personID     ID of the person the ImagingStudy was taken of.
    * @param encounterID  ID of the encounter where the ImagingStudy was performed
    * @param imagingStudy The ImagingStudy itself
+   * @param out          Where to write the lines
    * @throws IOException if any IO error occurs
    */
-  private String imagingStudy(RandomNumberGenerator rand, String personID, String encounterID,
-      ImagingStudy imagingStudy) throws IOException {
+  private void imagingStudy(String studyID, String personID, String encounterID,
+      ImagingStudy imagingStudy, Writer out) throws IOException {
     // Id,DATE,PATIENT,ENCOUNTER,SERIES_UID,BODYSITE_CODE,BODYSITE_DESCRIPTION,
     // MODALITY_CODE,MODALITY_DESCRIPTION,INSTANCE_UID,SOP_CODE,SOP_DESCRIPTION,PROCEDURE_CODE
     StringBuilder s = new StringBuilder();
 
-    String studyID = rand.randUUID().toString();
-
     for (ImagingStudy.Series series: imagingStudy.series) {
       String seriesDicomUid = series.dicomUid;
       Code bodySite = series.bodySite;
@@ -1016,9 +1437,7 @@ public class CSVExporter {
       }
     }
 
-    write(s.toString(), imagingStudies);
-
-    return studyID;
+    write(s.toString(), out);
   }
 
   /**
@@ -1060,10 +1479,11 @@ public class CSVExporter {
    * @param personID     ID of the person the supply was used for.
    * @param encounterID  ID of the encounter where the supply was used
    * @param supply       The supply itself
+   * @param out          Where to write the line
    * @throws IOException if any IO error occurs
    */
-  private void supply(String personID, String encounterID, Encounter encounter, Supply supply)
-          throws IOException {
+  private void supply(String personID, String encounterID, Encounter encounter, Supply supply,
+          Writer out) throws IOException {
     // DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,QUANTITY
     StringBuilder s = new StringBuilder();
 
@@ -1079,7 +1499,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    write(s.toString(), supplies);
+    write(s.toString(), out);
   }
 
   /**
@@ -1233,7 +1653,7 @@ public class CSVExporter {
    * @param writer The place to write it
    * @throws IOException if an I/O error occurs
    */
-  private static void write(String line, OutputStreamWriter writer) throws IOException {
+  private static void write(String line, Writer writer) throws IOException {
     synchronized (writer) {
       writer.write(line);
     }
@@ -1,5 +1,6 @@
 package org.mitre.synthea.export;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -7,6 +8,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.UUID;
 
 import org.hl7.fhir.dstu3.model.Condition;
 import org.mitre.synthea.engine.Components.Attachment;
@@ -191,6 +193,21 @@ public abstract class ExportHelper {
     }
   }
 
+  /**
+   * Get a reproducible ID for an entry of a person's health record, derived from the entry
+   * rather than drawn from the person's source of randomness, so that the entry gets the same ID
+   * every time it is exported.
+   * @param personID the ID of the person.
+   * @param kind     what the entry is exported as, e.g. "encounter", so that the ID of each kind
+   *                 of row or resource exported for an entry is different.
+   * @param seed     the seed of the entry, see HealthRecord.Entry.getSeed.
+   * @return the ID.
+   */
+  public static String nameUUID(String personID, String kind, long seed) {
+    String name = personID + "/" + kind + "/" + seed;
+    return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
   private static final String SNOMED_URI = "http://snomed.info/sct";
   private static final String LOINC_URI = "http://loinc.org";
   private static final String RXNORM_URI = "http://www.nlm.nih.gov/research/umls/rxnorm";
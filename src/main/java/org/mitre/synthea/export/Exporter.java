@@ -11,25 +11,33 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Predicate;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.commons.lang3.tuple.Triple;
 
 import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.engine.HealthRecordEditors;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.input.FixedRecord;
 import org.mitre.synthea.input.FixedRecordGroup;
 import org.mitre.synthea.modules.DeathModule;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.Claim;
 import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.Immunization;
+import org.mitre.synthea.world.concepts.HealthRecord.Medication;
 import org.mitre.synthea.world.concepts.HealthRecord.Observation;
+import org.mitre.synthea.world.concepts.HealthRecord.Procedure;
 import org.mitre.synthea.world.concepts.HealthRecord.Report;
 
 public abstract class Exporter {
@@ -43,9 +51,13 @@ public abstract class Exporter {
     R4
   }
   
-  private static final List<Pair<Person, Long>> deferredExports = 
+  /** Deferred exports, as (person, export entries after this time, stop time). */
+  private static final List<Triple<Person, Long, Long>> deferredExports =
           Collections.synchronizedList(new LinkedList<>());
 
+  /** Marks an export that is not limited to recent activity. */
+  public static final long FULL_EXPORT = Long.MIN_VALUE;
+
   /**
    * Runtime configuration of the record exporter.
    */
@@ -53,10 +65,16 @@ public abstract class Exporter {
     
     public int yearsOfHistory;
     public boolean deferExports = false;
+    /** Export only the activity since each person was last updated, when that is known. */
+    public boolean deltaExports = Config.getAsBoolean("exporter.delta_export", false);
     public boolean terminologyService =
         !Config.get("generate.terminology_service_url", "").isEmpty();
     private BlockingQueue<String> recordQueue;
     private SupportedFhirVersion fhirVersion;
+    // where the records are written, when not in exporter.baseDirectory
+    private String baseDirectory;
+    // the CSV exporter writing into baseDirectory, when it is set
+    private CSVExporter csvExporter;
     
     public ExporterRuntimeOptions() {
       yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
@@ -68,9 +86,49 @@ public abstract class Exporter {
     public ExporterRuntimeOptions(ExporterRuntimeOptions init) {
       yearsOfHistory = init.yearsOfHistory;
       deferExports = init.deferExports;
+      deltaExports = init.deltaExports;
       terminologyService = init.terminologyService;
       recordQueue = init.recordQueue;
       fhirVersion = init.fhirVersion;
+      baseDirectory = init.baseDirectory;
+      csvExporter = init.csvExporter;
+    }
+
+    /**
+     * Write the records exported with these options into a directory of their own, rather
+     * than into exporter.baseDirectory, so that several runs can export at the same time. The
+     * CSV files are opened there right away; call closeExporters once the run is done.
+     * @param baseDirectory The base output directory of the records.
+     */
+    public void setBaseDirectory(String baseDirectory) {
+      this.baseDirectory = baseDirectory;
+      if (Config.getAsBoolean("exporter.csv.export")) {
+        csvExporter = new CSVExporter(baseDirectory);
+      }
+    }
+
+    /**
+     * Get the base output directory of the records exported with these options.
+     * @return the directory set by setBaseDirectory, or else exporter.baseDirectory.
+     */
+    public String getBaseDirectory() {
+      return baseDirectory == null ? Config.get("exporter.baseDirectory") : baseDirectory;
+    }
+
+    /**
+     * Get the CSV exporter writing the records exported with these options.
+     */
+    CSVExporter csvExporter() {
+      return csvExporter == null ? CSVExporter.getInstance() : csvExporter;
+    }
+
+    /**
+     * Close the files opened by setBaseDirectory.
+     */
+    public void closeExporters() {
+      if (csvExporter != null) {
+        csvExporter.close();
+      }
     }
     
     /**
@@ -110,6 +168,64 @@ public abstract class Exporter {
     }
   }
   
+  /**
+   * Subscribe the exporters that can write a record while it is being simulated to a new
+   * person's record. Currently only the CSV exporter does, when "exporter.csv.streaming" is set.
+   * Streaming is skipped when the record could still be changed after the fact: by record
+   * editors, by terminology service lookups, or by splitting it into one record per provider.
+   *
+   * @param person   Patient about to be simulated
+   * @param stopTime Latest time at which the simulation of the patient can stop
+   * @param options Runtime exporter options
+   */
+  public static void subscribe(Person person, long stopTime, ExporterRuntimeOptions options) {
+    if (Config.getAsBoolean("exporter.csv.export")
+        && Config.getAsBoolean("exporter.csv.streaming", false)
+        && !options.terminologyService && !person.hasMultipleRecords
+        && !HealthRecordEditors.getInstance().hasEditors()) {
+      person.record.addListener(options.csvExporter().stream(person, stopTime,
+          options.yearsOfHistory, onlyStreamingExporter(options)));
+    }
+  }
+
+  /**
+   * Whether the CSV exporter is the only one that reads each person's record, when the person is
+   * exported right away, so that the entries it writes while the person is simulated can be
+   * released from the record.
+   *
+   * @param options Runtime exporter options
+   * @return true if no other exporter reads the record.
+   */
+  private static boolean onlyStreamingExporter(ExporterRuntimeOptions options) {
+    String[] others = { "exporter.fhir_stu3.export", "exporter.fhir_dstu2.export",
+        "exporter.fhir.export", "exporter.ccda.export", "exporter.cpcds.export",
+        "exporter.text.export", "exporter.text.per_encounter_export",
+        "exporter.symptoms.csv.export", "exporter.symptoms.text.export", "exporter.cdw.export",
+        "exporter.clinical_note.export" };
+    for (String other : others) {
+      if (Config.getAsBoolean(other, false)) {
+        return false;
+      }
+    }
+    return !options.deferExports && !options.isQueueEnabled();
+  }
+
+  /**
+   * Unsubscribe the exporters from a person's record, throwing away anything they wrote for the
+   * person so far. Used for people who are rejected rather than exported.
+   *
+   * @param person Patient who was simulated but will not be exported
+   */
+  public static void unsubscribe(Person person) {
+    if (Config.getAsBoolean("exporter.csv.export")) {
+      try {
+        CSVExporter.getInstance().discardStream(person);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Export a single patient, into all the formats supported. (Formats may be enabled or disabled by
    * configuration)
@@ -119,36 +235,108 @@ public abstract class Exporter {
    * @param options Runtime exporter options
    */
   public static void export(Person person, long stopTime, ExporterRuntimeOptions options) {
+    export(person, FULL_EXPORT, stopTime, options);
+  }
+
+  /**
+   * Export a single patient, into all the formats supported. (Formats may be enabled or disabled by
+   * configuration). The exporters see filtered views of the person's records; the records
+   * themselves are left untouched, so the person can be simulated further or exported again.
+   * When delta exports are enabled, only the entries that changed after `since` are exported.
+   *
+   * @param person   Patient to export
+   * @param since    Time the person was previously updated to, or FULL_EXPORT
+   * @param stopTime Time at which the simulation stopped
+   * @param options Runtime exporter options
+   */
+  public static void export(Person person, long since, long stopTime,
+      ExporterRuntimeOptions options) {
     if (options.deferExports) {
-      deferredExports.add(new ImmutablePair<Person, Long>(person, stopTime));
+      deferredExports.add(new ImmutableTriple<Person, Long, Long>(person, since, stopTime));
+    } else {
+      HealthRecord record = person.record;
+      Map<String, HealthRecord> records = person.records;
+      try {
+        person.record = exportView(person, record, since, stopTime, options);
+        if (person.hasMultipleRecords) {
+          person.records = new LinkedHashMap<String, HealthRecord>();
+          for (String key : records.keySet()) {
+            person.records.put(key,
+                exportView(person, records.get(key), since, stopTime, options));
+          }
+        }
+        exportPerson(person, options.deltaExports && since != FULL_EXPORT, stopTime, options);
+      } finally {
+        person.record = record;
+        person.records = records;
+        // the exporters read every observation, so store the compact ones compactly again
+        record.recompactObservations();
+        if (records != null) {
+          for (HealthRecord other : records.values()) {
+            other.recompactObservations();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Build the view of one of the person's records that is exported: either the encounters with
+   * activity since the previous export, or the configured years of history, without anything
+   * recorded after the person's death.
+   *
+   * @param person   Patient to export
+   * @param record   One of the patient's records
+   * @param since    Time the person was previously updated to, or FULL_EXPORT
+   * @param stopTime Time at which the simulation stopped
+   * @param options Runtime exporter options
+   * @return the record itself, or a filtered view of it.
+   */
+  private static HealthRecord exportView(Person person, HealthRecord record, long since,
+      long stopTime, ExporterRuntimeOptions options) {
+    if (options.deltaExports && since != FULL_EXPORT) {
+      record = deltaForExport(person, record, since, stopTime);
     } else {
       int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
       if (yearsOfHistory > 0) {
-        person = filterForExport(person, yearsOfHistory, stopTime);
+        record = filterForExport(record, yearsOfHistory, stopTime);
       }
-      if (!person.alive(stopTime)) {
-        filterAfterDeath(person);
-      }
-      if (person.hasMultipleRecords) {
-        int i = 0;
-        for (String key : person.records.keySet()) {
-          person.record = person.records.get(key);
-          // If the person fixed Records, overwrite their attributes from the fixed records.
-          if (person.attributes.get(Person.RECORD_GROUP) != null) {
-            FixedRecordGroup rg = (FixedRecordGroup) person.attributes.get(Person.RECORD_GROUP);
-            int recordToPull = i;
-            if (recordToPull >= rg.count) {
-              recordToPull = rg.count - 1;
-            }
-            FixedRecord fr = rg.records.get(recordToPull);
-            fr.totalOverwrite(person);
+    }
+    if (!person.alive(stopTime)) {
+      record = filterAfterDeath(record, (long) person.attributes.get(Person.DEATHDATE));
+    }
+    return record;
+  }
+
+  /**
+   * Export each of the person's records, which have already been filtered for export.
+   *
+   * @param person   Patient to export
+   * @param delta    Whether the records only hold what changed since the previous export
+   * @param stopTime Time at which the simulation stopped
+   * @param options Runtime exporter options
+   */
+  private static void exportPerson(Person person, boolean delta, long stopTime,
+      ExporterRuntimeOptions options) {
+    if (person.hasMultipleRecords) {
+      int i = 0;
+      for (String key : person.records.keySet()) {
+        person.record = person.records.get(key);
+        // If the person fixed Records, overwrite their attributes from the fixed records.
+        if (person.attributes.get(Person.RECORD_GROUP) != null) {
+          FixedRecordGroup rg = (FixedRecordGroup) person.attributes.get(Person.RECORD_GROUP);
+          int recordToPull = i;
+          if (recordToPull >= rg.count) {
+            recordToPull = rg.count - 1;
           }
-          exportRecord(person, Integer.toString(i), stopTime, options);
-          i++;
+          FixedRecord fr = rg.records.get(recordToPull);
+          fr.totalOverwrite(person);
         }
-      } else {
-        exportRecord(person, "", stopTime, options);
+        exportRecord(person, Integer.toString(i), delta, stopTime, options);
+        i++;
       }
+    } else {
+      exportRecord(person, "", delta, stopTime, options);
     }
   }
   
@@ -169,11 +357,14 @@ public abstract class Exporter {
    *
    * @param person   Patient to export, with Patient.record being set.
    * @param fileTag  An identifier to tag the file with.
+   * @param delta    Whether the record only holds what changed since the previous export, in
+   *                 which case the patient is not appended to bulk data again
    * @param stopTime Time at which the simulation stopped
    * @param options Generator's record queue (may be null)
    */
-  private static void exportRecord(Person person, String fileTag, long stopTime,
+  private static void exportRecord(Person person, String fileTag, boolean delta, long stopTime,
           ExporterRuntimeOptions options) {
+    String baseDirectory = options.getBaseDirectory();
     if (options.terminologyService) {
       // Resolve any coded values within the record that are specified using a ValueSet URI.
       ValueSetCodeResolver valueSetCodeResolver = new ValueSetCodeResolver(person);
@@ -181,11 +372,14 @@ public abstract class Exporter {
     }
 
     if (Config.getAsBoolean("exporter.fhir_stu3.export")) {
-      File outDirectory = getOutputFolder("fhir_stu3", person);
+      File outDirectory = getOutputFolder("fhir_stu3", person, baseDirectory);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
         org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
         IParser parser = FhirStu3.getContext().newJsonParser().setPrettyPrint(false);
         for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+          if (delta && entry.getResource() instanceof org.hl7.fhir.dstu3.model.Patient) {
+            continue;
+          }
           String filename = entry.getResource().getResourceType().toString() + ".ndjson";
           Path outFilePath = outDirectory.toPath().resolve(filename);
           String entryJson = parser.encodeResourceToString(entry.getResource());
@@ -198,11 +392,14 @@ public abstract class Exporter {
       }
     }
     if (Config.getAsBoolean("exporter.fhir_dstu2.export")) {
-      File outDirectory = getOutputFolder("fhir_dstu2", person);
+      File outDirectory = getOutputFolder("fhir_dstu2", person, baseDirectory);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
         ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
         IParser parser = FhirDstu2.getContext().newJsonParser().setPrettyPrint(false);
         for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
+          if (delta && entry.getResource() instanceof ca.uhn.fhir.model.dstu2.resource.Patient) {
+            continue;
+          }
           String filename = entry.getResource().getResourceName() + ".ndjson";
           Path outFilePath = outDirectory.toPath().resolve(filename);
           String entryJson = parser.encodeResourceToString(entry.getResource());
@@ -215,11 +412,14 @@ public abstract class Exporter {
       }
     }
     if (Config.getAsBoolean("exporter.fhir.export")) {
-      File outDirectory = getOutputFolder("fhir", person);
+      File outDirectory = getOutputFolder("fhir", person, baseDirectory);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
         org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
         IParser parser = FhirR4.getContext().newJsonParser().setPrettyPrint(false);
         for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+          if (delta && entry.getResource() instanceof org.hl7.fhir.r4.model.Patient) {
+            continue;
+          }
           String filename = entry.getResource().getResourceType().toString() + ".ndjson";
           Path outFilePath = outDirectory.toPath().resolve(filename);
           String entryJson = parser.encodeResourceToString(entry.getResource());
@@ -234,13 +434,13 @@ public abstract class Exporter {
     }
     if (Config.getAsBoolean("exporter.ccda.export")) {
       String ccdaXml = CCDAExporter.export(person, stopTime);
-      File outDirectory = getOutputFolder("ccda", person);
+      File outDirectory = getOutputFolder("ccda", person, baseDirectory);
       Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "xml"));
       writeNewFile(outFilePath, ccdaXml);
     }
     if (Config.getAsBoolean("exporter.csv.export")) {
       try {
-        CSVExporter.getInstance().export(person, stopTime);
+        options.csvExporter().export(person, stopTime);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -254,14 +454,14 @@ public abstract class Exporter {
     }
     if (Config.getAsBoolean("exporter.text.export")) {
       try {
-        TextExporter.exportAll(person, fileTag, stopTime);
+        TextExporter.exportAll(person, fileTag, stopTime, baseDirectory);
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
     if (Config.getAsBoolean("exporter.text.per_encounter_export")) {
       try {
-        TextExporter.exportEncounter(person, stopTime);
+        TextExporter.exportEncounter(person, stopTime, baseDirectory);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -275,7 +475,7 @@ public abstract class Exporter {
     }
     if (Config.getAsBoolean("exporter.symptoms.text.export")) {
       try {
-        SymptomTextExporter.exportAll(person, fileTag, stopTime);
+        SymptomTextExporter.exportAll(person, fileTag, stopTime, baseDirectory);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -288,7 +488,7 @@ public abstract class Exporter {
       }
     }
     if (Config.getAsBoolean("exporter.clinical_note.export")) {
-      File outDirectory = getOutputFolder("notes", person);
+      File outDirectory = getOutputFolder("notes", person, baseDirectory);
       Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "txt"));
       String consolidatedNotes = ClinicalNoteExporter.export(person);
       writeNewFile(outFilePath, consolidatedNotes);
@@ -369,8 +569,8 @@ public abstract class Exporter {
     if (options.deferExports) {
       ExporterRuntimeOptions nonDeferredOptions = new ExporterRuntimeOptions(options);
       nonDeferredOptions.deferExports = false;
-      for (Pair<Person, Long> entry: deferredExports) {
-        export(entry.getLeft(), entry.getRight(), nonDeferredOptions);
+      for (Triple<Person, Long, Long> entry: deferredExports) {
+        export(entry.getLeft(), entry.getMiddle(), entry.getRight(), nonDeferredOptions);
       }
       deferredExports.clear();
     }
@@ -428,94 +628,105 @@ public abstract class Exporter {
 
     if (Config.getAsBoolean("exporter.csv.export")) {
       try {
-        CSVExporter.getInstance().exportOrganizationsAndProviders();
-        CSVExporter.getInstance().exportPayers();
+        options.csvExporter().exportOrganizationsAndProviders();
+        options.csvExporter().exportPayers();
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
   }
 
-  /**
-   * Filter the patient's history to only the last __ years
-   * but also include relevant history from before that. Exclude
-   * any history that occurs after the specified end_time -- typically
-   * this is the current time/System.currentTimeMillis().
-   *
-   * @param original    The Person to filter.
-   * @param yearsToKeep The last __ years to keep.
-   * @param endTime     The time the history ends.
-   * @return Modified Person with history expunged.
-   */
-  public static Person filterForExport(Person original, int yearsToKeep, long endTime) {
-    // TODO: clone the patient so that we export only the last _ years
-    // but the rest still exists, just in case
-    Person filtered = original; //.clone();
-    //filtered.record = original.record.clone();
-
-    if (filtered.hasMultipleRecords) {
-      for (String key : filtered.records.keySet()) {
-        HealthRecord record = filtered.records.get(key);
-        filterForExport(record, yearsToKeep, endTime);
-      }
-    } else {
-      filtered.record = filterForExport(filtered.record, yearsToKeep, endTime);
-    }
-
-    return filtered;
-  }
-
   /**
    * Filter the health record to only the last __ years
    * but also include relevant history from before that. Exclude
    * any history that occurs after the specified end_time -- typically
    * this is the current time/System.currentTimeMillis().
+   * The record itself is not modified: the result is a view of it that shares the encounters
+   * and entries that are kept unchanged, and holds copies of the others.
    *
    * @param record    The record to filter.
    * @param yearsToKeep The last __ years to keep.
    * @param endTime     The time the history ends.
-   * @return Modified record with history expunged.
+   * @return The record, or a view of it with history expunged.
    */
-  private static HealthRecord filterForExport(HealthRecord record, int yearsToKeep, long endTime) {
+  public static HealthRecord filterForExport(HealthRecord record, int yearsToKeep, long endTime) {
 
     long cutoffDate = endTime - Utilities.convertTime("years", yearsToKeep);
     Predicate<HealthRecord.Entry> notFutureDated = e -> e.start <= endTime;
 
-    for (Encounter encounter : record.encounters) {
-      List<HealthRecord.Entry> claimItems = encounter.claim.items;
-      // keep conditions if still active, regardless of start date
-      Predicate<HealthRecord.Entry> conditionActive = c -> record.conditionActive(c.type);
-      // or if the condition was active at any point since the cutoff date
-      Predicate<HealthRecord.Entry> activeWithinCutoff = c -> c.stop != 0L && c.stop > cutoffDate;
-      Predicate<HealthRecord.Entry> keepCondition = conditionActive.or(activeWithinCutoff);
-      filterEntries(encounter.conditions, claimItems, cutoffDate, endTime, keepCondition);
-
-      // allergies are essentially the same as conditions
-      filterEntries(encounter.allergies, claimItems, cutoffDate, endTime, keepCondition);
-
-      // some of the "future death" logic could potentially add a future-dated death certificate
-      Predicate<Observation> isCauseOfDeath =
-          o -> DeathModule.CAUSE_OF_DEATH_CODE.code.equals(o.type);
-      // keep cause of death unless it's future dated
-      Predicate<Observation> keepObservation = isCauseOfDeath.and(notFutureDated);
-      filterEntries(encounter.observations, claimItems, cutoffDate, endTime, keepObservation);
+    // keep conditions if still active, regardless of start date
+    Predicate<HealthRecord.Entry> conditionActive = c -> record.conditionActive(c.type);
+    // or if the condition was active at any point since the cutoff date
+    Predicate<HealthRecord.Entry> activeWithinCutoff = c -> c.stop != 0L && c.stop > cutoffDate;
+    Predicate<HealthRecord.Entry> keepCondition = conditionActive.or(activeWithinCutoff);
 
-      // keep all death certificates, unless they are future-dated
-      Predicate<Report> isDeathCertificate = r -> DeathModule.DEATH_CERTIFICATE.code.equals(r.type);
-      Predicate<Report> keepReport = isDeathCertificate.and(notFutureDated);
-      filterEntries(encounter.reports, claimItems, cutoffDate, endTime, keepReport);
+    // some of the "future death" logic could potentially add a future-dated death certificate
+    Predicate<Observation> isCauseOfDeath =
+        o -> DeathModule.CAUSE_OF_DEATH_CODE.code.equals(o.type);
+    // keep cause of death unless it's future dated
+    Predicate<Observation> keepObservation = isCauseOfDeath.and(notFutureDated);
 
-      filterEntries(encounter.procedures, claimItems, cutoffDate, endTime, null);
+    // keep all death certificates, unless they are future-dated
+    Predicate<Report> isDeathCertificate = r -> DeathModule.DEATH_CERTIFICATE.code.equals(r.type);
+    Predicate<Report> keepReport = isDeathCertificate.and(notFutureDated);
 
+    List<Encounter> encounters = new ArrayList<Encounter>(record.encounters.size());
+    boolean changed = false;
+    for (Encounter encounter : record.encounters) {
+      // entries that are left out map to null, entries that are copied map to their copy
+      Map<HealthRecord.Entry, HealthRecord.Entry> replaced =
+          new IdentityHashMap<HealthRecord.Entry, HealthRecord.Entry>();
+      List<HealthRecord.Entry> conditions =
+          filterEntries(encounter.conditions, replaced, cutoffDate, endTime, keepCondition);
+      // allergies are essentially the same as conditions
+      List<HealthRecord.Entry> allergies =
+          filterEntries(encounter.allergies, replaced, cutoffDate, endTime, keepCondition);
+      List<Observation> observations =
+          filterEntries(encounter.observations, replaced, cutoffDate, endTime, keepObservation);
+      List<Report> reports =
+          filterEntries(encounter.reports, replaced, cutoffDate, endTime, keepReport);
+      List<Procedure> procedures =
+          filterEntries(encounter.procedures, replaced, cutoffDate, endTime, null);
       // keep medications if still active, regardless of start date
-      filterEntries(encounter.medications, claimItems, cutoffDate, endTime,
-          med -> record.medicationActive(med.type));
-
-      filterEntries(encounter.immunizations, claimItems, cutoffDate, endTime, null);
-
+      List<Medication> medications = filterEntries(encounter.medications, replaced, cutoffDate,
+          endTime, med -> record.medicationActive(med.type));
+      List<Immunization> immunizations =
+          filterEntries(encounter.immunizations, replaced, cutoffDate, endTime, null);
       // keep careplans if they are still active, regardless of start date
-      filterEntries(encounter.careplans, claimItems, cutoffDate, endTime,
-          cp -> record.careplanActive(cp.type));
+      List<CarePlan> careplans = filterEntries(encounter.careplans, replaced, cutoffDate,
+          endTime, cp -> record.careplanActive(cp.type));
+
+      if (conditions != encounter.conditions || allergies != encounter.allergies
+          || observations != encounter.observations || reports != encounter.reports
+          || procedures != encounter.procedures || medications != encounter.medications
+          || immunizations != encounter.immunizations || careplans != encounter.careplans) {
+        // only encounters that lose or change entries are copied, the rest are shared
+        Encounter filtered = (Encounter) encounter.copy();
+        filtered.conditions = conditions;
+        filtered.allergies = allergies;
+        filtered.observations = observations;
+        filtered.reports = reports;
+        filtered.procedures = procedures;
+        filtered.medications = medications;
+        filtered.immunizations = immunizations;
+        filtered.careplans = careplans;
+        if (!replaced.isEmpty() && encounter.claim != null) {
+          // the claim refers to the entries that are exported, not to the originals
+          List<HealthRecord.Entry> claimItems =
+              new ArrayList<HealthRecord.Entry>(encounter.claim.items.size());
+          for (HealthRecord.Entry item : encounter.claim.items) {
+            if (!replaced.containsKey(item)) {
+              claimItems.add(item);
+            } else if (replaced.get(item) != null) {
+              claimItems.add(replaced.get(item));
+            }
+          }
+          filtered.claim = new Claim(encounter.claim, claimItems);
+        }
+        encounter = filtered;
+        changed = true;
+      }
+      encounters.add(encounter);
     }
 
     // if ANY of these are not empty, the encounter is not empty
@@ -531,42 +742,131 @@ public abstract class Exporter {
         encounterNotEmpty.or(isDeathCertification.and(notFutureDated));
 
     // finally filter out any empty encounters
-    filterEntries(record.encounters, Collections.emptyList(), cutoffDate, endTime, keepEncounter);
+    List<Encounter> kept = filterEntries(encounters, null, cutoffDate, endTime, keepEncounter);
+    if (!changed && kept == encounters) {
+      return record;
+    }
+    return record.view(kept);
+  }
 
-    return record;
+  /**
+   * Build a view of a health record holding only what changed after `since`: the encounters
+   * that started after it, in full, and copies of older encounters holding only their entries
+   * that started or were stopped after it. The copies have their exportedUntil set to `since`,
+   * so that exporters neither export the older encounters nor their claims again, and export
+   * the entries stopped since as updates of the entries exported before. The original record
+   * is not modified.
+   *
+   * @param person  The person the record belongs to.
+   * @param record  The full health record.
+   * @param since   Time the person was previously updated to.
+   * @param endTime Time at which the simulation stopped.
+   * @return a new HealthRecord with the recent activity.
+   */
+  public static HealthRecord deltaForExport(Person person, HealthRecord record, long since,
+      long endTime) {
+    Predicate<HealthRecord.Entry> changed =
+        e -> e.start > since || (e.stop != 0L && e.stop > since && e.stop <= endTime);
+    List<Encounter> encounters = new ArrayList<Encounter>();
+    for (Encounter encounter : record.encounters) {
+      if (encounter.start > endTime) {
+        continue;
+      } else if (encounter.start > since) {
+        encounters.add(encounter);
+        continue;
+      }
+      List<HealthRecord.Entry> kept = new ArrayList<HealthRecord.Entry>();
+      Encounter delta = (Encounter) encounter.copy();
+      delta.conditions = changedEntries(encounter.conditions, kept, changed);
+      delta.allergies = changedEntries(encounter.allergies, kept, changed);
+      delta.observations = changedEntries(encounter.observations, kept, changed);
+      delta.reports = changedEntries(encounter.reports, kept, changed);
+      delta.procedures = changedEntries(encounter.procedures, kept, changed);
+      delta.medications = changedEntries(encounter.medications, kept, changed);
+      delta.immunizations = changedEntries(encounter.immunizations, kept, changed);
+      delta.careplans = changedEntries(encounter.careplans, kept, changed);
+      delta.imagingStudies = changedEntries(encounter.imagingStudies, kept, changed);
+      delta.devices = changedEntries(encounter.devices, kept, changed);
+      delta.supplies = changedEntries(encounter.supplies, kept, changed);
+      if (kept.isEmpty() && !changed.test(encounter)) {
+        continue;
+      }
+      // the encounter and its claim were exported before, only the new entries refer to it
+      delta.exportedUntil = since;
+      encounters.add(delta);
+    }
+    return record.view(encounters);
+  }
+
+  /**
+   * Select the entries of a list that changed within the delta.
+   * @param entries The entries of an encounter.
+   * @param kept    List to which the selected entries are added.
+   * @param changed Whether an entry started or stopped within the delta.
+   * @return a new list of the changed entries.
+   */
+  private static <E extends HealthRecord.Entry> List<E> changedEntries(List<E> entries,
+      List<HealthRecord.Entry> kept, Predicate<HealthRecord.Entry> changed) {
+    List<E> changedEntries = new ArrayList<E>();
+    for (E entry : entries) {
+      if (changed.test(entry)) {
+        changedEntries.add(entry);
+        kept.add(entry);
+      }
+    }
+    return changedEntries;
   }
 
   /**
    * Helper function to filter entries from a list. Entries are kept if their date range falls
    * within the provided range or if `keepFunction` is provided, and returns `true` for the given
-   * entry.
+   * entry. The list is not modified.
    *
    * @param entries      List of `Entry`s to filter
-   * @param claimItems   List of ClaimItems, from which any removed items should also be removed.
+   * @param replaced     Map to which any removed entries are added with a null value, and any
+   *                     copied entries with their copy, may be null.
    * @param cutoffDate   Minimum date, entries older than this may be discarded
    * @param endTime      Maximum date, entries newer than this may be discarded
    * @param keepFunction Keep function, if this function returns `true` for an entry then it will
    *                     be kept
+   * @return The list itself if every entry is kept unchanged, otherwise a new filtered list.
    */
-  private static <E extends HealthRecord.Entry> void filterEntries(List<E> entries,
-      List<HealthRecord.Entry> claimItems, long cutoffDate,
+  @SuppressWarnings("unchecked")
+  private static <E extends HealthRecord.Entry> List<E> filterEntries(List<E> entries,
+      Map<HealthRecord.Entry, HealthRecord.Entry> replaced, long cutoffDate,
       long endTime, Predicate<E> keepFunction) {
 
-    Iterator<E> iterator = entries.iterator();
-    // iterator allows us to use the remove() method
-    while (iterator.hasNext()) {
-      E entry = iterator.next();
+    List<E> filtered = null;
+    int index = 0;
+    for (E entry : entries) {
+      E kept = entry;
       // if the entry is not within the keep time range,
       // and the special keep function (if provided) doesn't say keep it
-      // remove it from the list
+      // leave it out of the list
       if (!entryWithinTimeRange(entry, cutoffDate, endTime)
           && (keepFunction == null || !keepFunction.test(entry))) {
-        iterator.remove();
-
-        claimItems.removeIf(ci -> ci == entry);
-        // compare with == because we only care if it's the actual same object
+        kept = null;
+        if (replaced != null) {
+          replaced.put(entry, null);
+        }
+      } else if (stillActive(entry, cutoffDate, endTime)) {
+        // If any entries have an end date in the future but are within the cutoffDate,
+        // remove the end date from a copy but keep the entry (since it's still active).
+        kept = (E) entry.copy();
+        kept.stop = 0L;
+        if (replaced != null) {
+          replaced.put(entry, kept);
+        }
       }
+      if (kept != entry && filtered == null) {
+        filtered = new ArrayList<E>(entries.subList(0, index));
+      }
+      if (filtered != null && kept != null) {
+        filtered.add(kept);
+      }
+      index++;
     }
+    return filtered == null ? entries : filtered;
   }
 
   private static boolean entryWithinTimeRange(
@@ -577,18 +877,11 @@ public abstract class Exporter {
     }
 
     // if the entry has a stop time, check if the effective date range overlapped the last __ years
-    if (e.stop != 0L && e.stop > cutoffDate) {
-
-      if (e.stop > endTime) {
-        // If any entries have an end date in the future but are within the cutoffDate,
-        // remove the end date but keep the entry (since it's still active).
-        e.stop = 0L;
-      }
-
-      return true;
-    }
+    return e.stop != 0L && e.stop > cutoffDate;
+  }
 
-    return false;
+  private static boolean stillActive(HealthRecord.Entry e, long cutoffDate, long endTime) {
+    return !(e.start > cutoffDate && e.start <= endTime) && e.stop > endTime;
   }
 
   /**
@@ -597,31 +890,22 @@ public abstract class Exporter {
    * it is possible that an encounter (from the first module) occurred post death.
    * We must filter it out here.
    *
-   * @param person The dead person.
+   * @param record    A record of the dead person.
+   * @param deathTime The time of death.
+   * @return The record, or a view of it without the encounters after death.
    */
-  private static void filterAfterDeath(Person person) {
-    long deathTime = (long) person.attributes.get(Person.DEATHDATE);
-    if (person.hasMultipleRecords) {
-      for (HealthRecord record : person.records.values()) {
-        Iterator<Encounter> iter = record.encounters.iterator();
-        while (iter.hasNext()) {
-          Encounter encounter = iter.next();
-          if (encounter.start > deathTime
-              && !encounter.codes.contains(DeathModule.DEATH_CERTIFICATION)) {
-            iter.remove();
-          }
-        }
-      }
-    } else {
-      Iterator<Encounter> iter = person.record.encounters.iterator();
-      while (iter.hasNext()) {
-        Encounter encounter = iter.next();
-        if (encounter.start > deathTime
-            && !encounter.codes.contains(DeathModule.DEATH_CERTIFICATION)) {
-          iter.remove();
-        }
+  public static HealthRecord filterAfterDeath(HealthRecord record, long deathTime) {
+    List<Encounter> encounters = new ArrayList<Encounter>(record.encounters.size());
+    for (Encounter encounter : record.encounters) {
+      if (encounter.start <= deathTime
+          || encounter.codes.contains(DeathModule.DEATH_CERTIFICATION)) {
+        encounters.add(encounter);
       }
     }
+    if (encounters.size() == record.encounters.size()) {
+      return record;
+    }
+    return record.view(encounters);
   }
 
   /**
@@ -635,6 +919,20 @@ public abstract class Exporter {
    *     settings.
    */
   public static File getOutputFolder(String folderName, Person person) {
+    return getOutputFolder(folderName, person, Config.get("exporter.baseDirectory"));
+  }
+
+  /**
+   * Get the folder where the patient record should be stored, under the given base directory.
+   * See the configuration setting "exporter.subfolders_by_id_substring".
+   *
+   * @param folderName    The base folder to use.
+   * @param person        The person being exported.
+   * @param baseDirectory The base output directory.
+   * @return Either the base folder provided, or a subdirectory, depending on configuration
+   *     settings.
+   */
+  public static File getOutputFolder(String folderName, Person person, String baseDirectory) {
     List<String> folders = new ArrayList<>();
 
     folders.add(folderName);
@@ -647,8 +945,6 @@ public abstract class Exporter {
       folders.add(id.substring(0, 3));
     }
 
-    String baseDirectory = Config.get("exporter.baseDirectory");
-
     File f = Paths.get(baseDirectory, folders.toArray(new String[0])).toFile();
     f.mkdirs();
 
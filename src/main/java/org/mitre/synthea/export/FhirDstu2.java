@@ -194,15 +194,20 @@ public class FhirDstu2 {
 
     Entry personEntry = basicInfo(person, bundle, stopTime);
 
+    // the fullUrls of the resources of the entries that claims and reports refer to, by the
+    // seed of the entry, which is shared by the filtered copies of an entry
+    Map<Long, String> fullUrls = new HashMap<Long, String>();
     for (Encounter encounter : person.record.encounters) {
       Entry encounterEntry = encounter(person, personEntry, bundle, encounter);
 
       for (HealthRecord.Entry condition : encounter.conditions) {
-        condition(person, personEntry, bundle, encounterEntry, condition);
+        fullUrls.put(condition.getSeed(),
+            condition(person, personEntry, bundle, encounterEntry, condition).getFullUrl());
       }
 
       for (HealthRecord.Entry allergy : encounter.allergies) {
-        allergy(person, personEntry, bundle, encounterEntry, allergy);
+        fullUrls.put(allergy.getSeed(),
+            allergy(person, personEntry, bundle, encounterEntry, allergy).getFullUrl());
       }
 
       for (Observation observation : encounter.observations) {
@@ -211,12 +216,14 @@ public class FhirDstu2 {
         if (observation.value instanceof Attachment) {
           media(person, personEntry, bundle, encounterEntry, observation);
         } else {
-          observation(person, personEntry, bundle, encounterEntry, observation);
+          fullUrls.put(observation.getSeed(), observation(person, personEntry, bundle,
+              encounterEntry, observation).getFullUrl());
         }
       }
 
       for (Procedure procedure : encounter.procedures) {
-        procedure(person, personEntry, bundle, encounterEntry, procedure);
+        fullUrls.put(procedure.getSeed(),
+            procedure(person, personEntry, bundle, encounterEntry, procedure).getFullUrl());
       }
 
       for (Medication medication : encounter.medications) {
@@ -224,11 +231,12 @@ public class FhirDstu2 {
       }
 
       for (HealthRecord.Entry immunization : encounter.immunizations) {
-        immunization(person, personEntry, bundle, encounterEntry, immunization);
+        fullUrls.put(immunization.getSeed(),
+            immunization(person, personEntry, bundle, encounterEntry, immunization).getFullUrl());
       }
 
       for (Report report : encounter.reports) {
-        report(person, personEntry, bundle, encounterEntry, report);
+        report(person, personEntry, bundle, encounterEntry, report, fullUrls);
       }
 
       for (CarePlan careplan : encounter.careplans) {
@@ -247,8 +255,10 @@ public class FhirDstu2 {
         supplyDelivery(person, personEntry, bundle, supply, encounter);
       }
 
-      // one claim per encounter
-      encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim);
+      // one claim per encounter, exported with the encounter by an earlier delta export if any
+      if (encounter.exportedUntil == null) {
+        encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim);
+      }
     }
     return bundle;
   }
@@ -819,7 +829,6 @@ public class FhirDstu2 {
 
     Entry conditionEntry = newEntry(rand, bundle, conditionResource);
 
-    condition.fullUrl = conditionEntry.getFullUrl();
 
     return conditionEntry;
   }
@@ -861,7 +870,6 @@ public class FhirDstu2 {
     allergyResource.setSubstance(mapCodeToCodeableConcept(code, SNOMED_URI));
 
     Entry allergyEntry = newEntry(rand, bundle, allergyResource);
-    allergy.fullUrl = allergyEntry.getFullUrl();
     return allergyEntry;
   }
 
@@ -916,7 +924,6 @@ public class FhirDstu2 {
     observationResource.setIssued(new InstantDt(new Date(observation.start)));
 
     Entry entry = newEntry(rand, bundle, observationResource);
-    observation.fullUrl = entry.getFullUrl();
     return entry;
   }
 
@@ -1040,7 +1047,6 @@ public class FhirDstu2 {
     }
 
     Entry procedureEntry = newEntry(rand, bundle, procedureResource);
-    procedure.fullUrl = procedureEntry.getFullUrl();
 
     return procedureEntry;
   }
@@ -1056,7 +1062,6 @@ public class FhirDstu2 {
     immResource.setPatient(new ResourceReferenceDt(personEntry.getFullUrl()));
     immResource.setEncounter(new ResourceReferenceDt(encounterEntry.getFullUrl()));
     Entry immunizationEntry = newEntry(rand, bundle, immResource);
-    immunization.fullUrl = immunizationEntry.getFullUrl();
 
     return immunizationEntry;
   }
@@ -1244,10 +1249,12 @@ public class FhirDstu2 {
    *          Current Encounter entry
    * @param report
    *          The Report
+   * @param fullUrls
+   *          The fullUrls of the entries already added, by entry seed
    * @return The added Entry
    */
   private static Entry report(RandomNumberGenerator rand, Entry personEntry, Bundle bundle,
-          Entry encounterEntry, Report report) {
+          Entry encounterEntry, Report report, Map<Long, String> fullUrls) {
     DiagnosticReport reportResource = new DiagnosticReport();
     reportResource.setStatus(DiagnosticReportStatusEnum.FINAL);
     /*
@@ -1271,7 +1278,7 @@ public class FhirDstu2 {
     reportResource.setPerformer(encounter.getServiceProvider());
 
     for (Observation observation : report.observations) {
-      ResourceReferenceDt reference = new ResourceReferenceDt(observation.fullUrl);
+      ResourceReferenceDt reference = new ResourceReferenceDt(fullUrls.get(observation.getSeed()));
       reference.setDisplay(observation.codes.get(0).display);
       List<ResourceReferenceDt> result = new ArrayList<ResourceReferenceDt>();
       result.add(reference);
@@ -1778,7 +1785,8 @@ public class FhirDstu2 {
   private static CodeableConceptDt mapCodeToCodeableConcept(Code from, String system) {
     CodeableConceptDt to = new CodeableConceptDt();
     system = system == null ? null : ExportHelper.getSystemURI(system);
-    from.system = ExportHelper.getSystemURI(from.system);
+    // codes are shared between records, so map the system without modifying the code
+    String fromSystem = ExportHelper.getSystemURI(from.system);
 
     if (from.display != null) {
       to.setText(from.display);
@@ -1787,10 +1795,10 @@ public class FhirDstu2 {
     CodingDt coding = new CodingDt();
     coding.setCode(from.code);
     coding.setDisplay(from.display);
-    if (from.system == null) {
+    if (fromSystem == null) {
       coding.setSystem(system);
     } else {
-      coding.setSystem(from.system);
+      coding.setSystem(fromSystem);
     }
 
     to.addCoding(coding);
@@ -48,7 +48,7 @@ public abstract class FhirPractitionerExporterStu3 {
         int totalEncounters = utilization.column(Provider.ENCOUNTERS).values().stream()
             .mapToInt(ai -> ai.get()).sum();
         if (totalEncounters > 0) {
-          Map<String, ArrayList<Clinician>> clinicians = h.clinicianMap;
+          Map<String, ArrayList<Clinician>> clinicians = h.getClinicians();
           for (String specialty : clinicians.keySet()) {
             ArrayList<Clinician> docs = clinicians.get(specialty);
             for (Clinician doc : docs) {
@@ -263,15 +263,28 @@ public class FhirR4 {
 
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
 
+    // the fullUrls of the resources of the entries that claims and reports refer to, by the
+    // seed of the entry, which is shared by the filtered copies of an entry
+    Map<Long, String> fullUrls = new HashMap<Long, String>();
+    // the resources that were exported before by a delta export, which are only built because
+    // the resources exported with them refer to them
+    Bundle exported = new Bundle();
     for (Encounter encounter : person.record.encounters) {
-      BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
+      // an encounter exported before is only exported again, as an update, if it ended since
+      boolean delta = encounter.exportedUntil != null;
+      BundleEntryComponent encounterEntry = encounter(person, personEntry,
+          delta && encounter.stop <= encounter.exportedUntil ? exported : bundle, encounter);
 
       for (HealthRecord.Entry condition : encounter.conditions) {
-        condition(person, personEntry, bundle, encounterEntry, condition);
+        Bundle into = bundleFor(bundle, exported, encounter, condition);
+        fullUrls.put(condition.getSeed(), update(bundle, into,
+            condition(person, personEntry, into, encounterEntry, condition)).getFullUrl());
       }
 
       for (HealthRecord.Entry allergy : encounter.allergies) {
-        allergy(person, personEntry, bundle, encounterEntry, allergy);
+        Bundle into = bundleFor(bundle, exported, encounter, allergy);
+        fullUrls.put(allergy.getSeed(), update(bundle, into,
+            allergy(person, personEntry, into, encounterEntry, allergy)).getFullUrl());
       }
 
       for (Observation observation : encounter.observations) {
@@ -280,16 +293,20 @@ public class FhirR4 {
         if (observation.value instanceof Attachment) {
           media(person, personEntry, bundle, encounterEntry, observation);
         } else {
-          observation(person, personEntry, bundle, encounterEntry, observation);
+          fullUrls.put(observation.getSeed(), observation(person, personEntry, bundle,
+              encounterEntry, observation).getFullUrl());
         }
       }
 
       for (Procedure procedure : encounter.procedures) {
-        procedure(person, personEntry, bundle, encounterEntry, procedure);
+        Bundle into = bundleFor(bundle, exported, encounter, procedure);
+        fullUrls.put(procedure.getSeed(), update(bundle, into,
+            procedure(person, personEntry, into, encounterEntry, procedure)).getFullUrl());
       }
 
       for (HealthRecord.Device device : encounter.devices) {
-        device(person, personEntry, bundle, device);
+        Bundle into = bundleFor(bundle, exported, encounter, device);
+        update(bundle, into, device(person, personEntry, into, device));
       }
 
       for (HealthRecord.Supply supply : encounter.supplies) {
@@ -297,28 +314,37 @@ public class FhirR4 {
       }
 
       for (Medication medication : encounter.medications) {
-        medicationRequest(person, personEntry, bundle, encounterEntry, medication);
+        Bundle into = bundleFor(bundle, exported, encounter, medication);
+        update(bundle, into,
+            medicationRequest(person, personEntry, into, encounterEntry, medication));
       }
 
       for (HealthRecord.Entry immunization : encounter.immunizations) {
-        immunization(person, personEntry, bundle, encounterEntry, immunization);
+        fullUrls.put(immunization.getSeed(),
+            immunization(person, personEntry, bundle, encounterEntry, immunization).getFullUrl());
       }
 
       for (Report report : encounter.reports) {
-        report(person, personEntry, bundle, encounterEntry, report);
+        report(person, personEntry, bundle, encounterEntry, report, fullUrls);
       }
 
       for (CarePlan careplan : encounter.careplans) {
+        Bundle into = bundleFor(bundle, exported, encounter, careplan);
         BundleEntryComponent careTeamEntry = 
-                careTeam(person, personEntry, bundle, encounterEntry, careplan);
-        carePlan(person, personEntry, bundle, encounterEntry, encounter.provider, careTeamEntry,
-                careplan);
+                careTeam(person, personEntry, into, encounterEntry, careplan);
+        update(bundle, into, carePlan(person, personEntry, into, encounterEntry, encounter.provider,
+                careTeamEntry, careplan));
       }
 
       for (ImagingStudy imagingStudy : encounter.imagingStudies) {
         imagingStudy(person, personEntry, bundle, encounterEntry, imagingStudy);
       }
       
+      if (delta) {
+        // the note and the claim of the encounter were exported with it
+        continue;
+      }
+
       if (USE_US_CORE_IG) {
         String clinicalNoteText = ClinicalNoteExporter.export(person, encounter);
         boolean lastNote =
@@ -328,7 +354,8 @@ public class FhirR4 {
 
       // one claim per encounter
       BundleEntryComponent encounterClaim =
-          encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim);
+          encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim,
+              fullUrls);
 
       explanationOfBenefit(personEntry, bundle, encounterEntry, person,
           encounterClaim, encounter);
@@ -341,6 +368,44 @@ public class FhirR4 {
     return bundle;
   }
 
+  /**
+   * Get the bundle that the resource of an entry is built into: the exported bundle, unless the
+   * entry was already exported by an earlier delta export of its encounter, see
+   * Encounter.exportedUntil. Such an entry is built, with the resources exported with it, into
+   * a bundle that is dropped, and only its own resource is exported again, by update.
+   *
+   * @param bundle   The exported Bundle
+   * @param exported The Bundle of the resources that were exported before
+   * @param encounter The encounter of the entry
+   * @param entry    The entry
+   * @return the Bundle to build the resource into
+   */
+  private static Bundle bundleFor(Bundle bundle, Bundle exported, Encounter encounter,
+      HealthRecord.Entry entry) {
+    if (encounter.exportedUntil == null || entry.start > encounter.exportedUntil) {
+      return bundle;
+    }
+    return exported;
+  }
+
+  /**
+   * Add the resource of an entry that was stopped since an earlier delta export to the exported
+   * Bundle, if it was built into the Bundle of the resources exported before. It keeps the ID
+   * it was exported with, so that it replaces the resource exported before.
+   *
+   * @param bundle The exported Bundle
+   * @param into   The Bundle the resource was built into, see bundleFor
+   * @param entry  The Entry of the resource
+   * @return the Entry
+   */
+  private static BundleEntryComponent update(Bundle bundle, Bundle into,
+      BundleEntryComponent entry) {
+    if (into != bundle) {
+      bundle.addEntry(entry);
+    }
+    return entry;
+  }
+
   /**
    * Convert the given Person into a JSON String, containing a FHIR Bundle of the Person and the
    * associated entries from their health record.
@@ -782,7 +847,8 @@ public class FhirR4 {
       encounterResource.setHospitalization(hospitalization);
     }
 
-    BundleEntryComponent entry = newEntry(person, bundle, encounterResource);
+    BundleEntryComponent entry =
+        newEntry(personEntry, bundle, encounterResource, "encounter", encounter);
     if (USE_US_CORE_IG) {
       // US Core Encounters should have an identifier to support the required
       // Encounter.identifier search parameter
@@ -929,11 +995,13 @@ public class FhirR4 {
    * @param bundle         The Bundle to add to
    * @param encounterEntry The current Encounter
    * @param claim          the Claim object
+   * @param fullUrls       The fullUrls of the entries already added, by entry seed
    * @return the added Entry
    */
   private static BundleEntryComponent encounterClaim(
       Person person, BundleEntryComponent personEntry,
-      Bundle bundle, BundleEntryComponent encounterEntry, Claim claim) {
+      Bundle bundle, BundleEntryComponent encounterEntry, Claim claim,
+      Map<Long, String> fullUrls) {
     org.hl7.fhir.r4.model.Claim claimResource = new org.hl7.fhir.r4.model.Claim();
     org.hl7.fhir.r4.model.Encounter encounterResource =
         (org.hl7.fhir.r4.model.Encounter) encounterEntry.getResource();
@@ -996,14 +1064,14 @@ public class FhirR4 {
         claimResource.addItem(claimItem);
 
         if (item instanceof Procedure) {
-          Type procedureReference = new Reference(item.fullUrl);
+          Type procedureReference = new Reference(fullUrls.get(item.getSeed()));
           ProcedureComponent claimProcedure = new ProcedureComponent(
               new PositiveIntType(procedureSequence), procedureReference);
           claimResource.addProcedure(claimProcedure);
           claimItem.addProcedureSequence(procedureSequence);
           procedureSequence++;
         } else {
-          Reference informationReference = new Reference(item.fullUrl);
+          Reference informationReference = new Reference(fullUrls.get(item.getSeed()));
           SupportingInformationComponent informationComponent =
               new SupportingInformationComponent();
           informationComponent.setSequence(informationSequence);
@@ -1020,7 +1088,7 @@ public class FhirR4 {
       } else {
         // assume it's a Condition, we don't have a Condition class specifically
         // add diagnosisComponent to claim
-        Reference diagnosisReference = new Reference(item.fullUrl);
+        Reference diagnosisReference = new Reference(fullUrls.get(item.getSeed()));
         DiagnosisComponent diagnosisComponent =
             new DiagnosisComponent(
                 new PositiveIntType(conditionSequence), diagnosisReference);
@@ -1423,9 +1491,9 @@ public class FhirR4 {
       status.getCodingFirstRep().setCode("resolved");
     }
 
-    BundleEntryComponent conditionEntry = newEntry(rand, bundle, conditionResource);
+    BundleEntryComponent conditionEntry =
+        newEntry(personEntry, bundle, conditionResource, "condition", condition);
 
-    condition.fullUrl = conditionEntry.getFullUrl();
 
     return conditionEntry;
   }
@@ -1479,8 +1547,8 @@ public class FhirR4 {
           "http://hl7.org/fhir/us/core/StructureDefinition/us-core-allergyintolerance");
       allergyResource.setMeta(meta);
     }
-    BundleEntryComponent allergyEntry = newEntry(rand, bundle, allergyResource);
-    allergy.fullUrl = allergyEntry.getFullUrl();
+    BundleEntryComponent allergyEntry =
+        newEntry(personEntry, bundle, allergyResource, "allergy", allergy);
     return allergyEntry;
   }
 
@@ -1571,7 +1639,6 @@ public class FhirR4 {
     }
 
     BundleEntryComponent entry = newEntry(rand, bundle, observationResource);
-    observation.fullUrl = entry.getFullUrl();
     return entry;
   }
 
@@ -1707,8 +1774,8 @@ public class FhirR4 {
       procedureResource.addExtension(performedContext);
     }
 
-    BundleEntryComponent procedureEntry = newEntry(rand, bundle, procedureResource);
-    procedure.fullUrl = procedureEntry.getFullUrl();
+    BundleEntryComponent procedureEntry =
+        newEntry(personEntry, bundle, procedureResource, "procedure", procedure);
 
     return procedureEntry;
   }
@@ -1750,7 +1817,7 @@ public class FhirR4 {
         .setType(DeviceNameType.USERFRIENDLYNAME);
     deviceResource.setType(mapCodeToCodeableConcept(device.codes.get(0), SNOMED_URI));
     deviceResource.setPatient(new Reference(personEntry.getFullUrl()));
-    return newEntry(rand, bundle, deviceResource);
+    return newEntry(personEntry, bundle, deviceResource, "device", device);
   }
   
   /**
@@ -1891,7 +1958,6 @@ public class FhirR4 {
     }
 
     BundleEntryComponent immunizationEntry = newEntry(rand, bundle, immResource);
-    immunization.fullUrl = immunizationEntry.getFullUrl();
 
     return immunizationEntry;
   }
@@ -1955,7 +2021,8 @@ public class FhirR4 {
       drugResource.setMeta(meta);
       drugResource.setCode(mapCodeToCodeableConcept(code, system));
       drugResource.setStatus(MedicationStatus.ACTIVE);
-      BundleEntryComponent drugEntry = newEntry(person, bundle, drugResource);
+      BundleEntryComponent drugEntry =
+          newEntry(personEntry, bundle, drugResource, "drug", medication);
       medicationResource.setMedication(new Reference(drugEntry.getFullUrl()));
     }
 
@@ -2046,7 +2113,8 @@ public class FhirR4 {
 
     }
 
-    BundleEntryComponent medicationEntry = newEntry(person, bundle, medicationResource);
+    BundleEntryComponent medicationEntry =
+        newEntry(personEntry, bundle, medicationResource, "medication", medication);
     // create new claim for medication
     medicationClaim(person, personEntry, bundle, encounterEntry,
         medication.claim, medicationEntry);
@@ -2148,11 +2216,12 @@ public class FhirR4 {
    * @param bundle         Bundle to add the Report to
    * @param encounterEntry Current Encounter entry
    * @param report         The Report
+   * @param fullUrls       The fullUrls of the entries already added, by entry seed
    * @return The added Entry
    */
   private static BundleEntryComponent report(RandomNumberGenerator rand,
           BundleEntryComponent personEntry, Bundle bundle, BundleEntryComponent encounterEntry,
-          Report report) {
+          Report report, Map<Long, String> fullUrls) {
     DiagnosticReport reportResource = new DiagnosticReport();
     if (USE_US_CORE_IG) {
       Meta meta = new Meta();
@@ -2172,7 +2241,7 @@ public class FhirR4 {
     reportResource.setEffective(convertFhirDateTime(report.start, true));
     reportResource.setIssued(new Date(report.start));
     for (Observation observation : report.observations) {
-      Reference reference = new Reference(observation.fullUrl);
+      Reference reference = new Reference(fullUrls.get(observation.getSeed()));
       reference.setDisplay(observation.codes.get(0).display);
       reportResource.addResult(reference);
     }
@@ -2356,32 +2425,32 @@ public class FhirR4 {
       }
     }
 
+    int goalIndex = 0;
     for (JsonObject goal : carePlan.goals) {
       BundleEntryComponent goalEntry =
-          careGoal(rand, bundle, personEntry, carePlan.start, goalStatus, goal);
+          careGoal(bundle, personEntry, carePlan, goalIndex++, goalStatus, goal);
       careplanResource.addGoal().setReference(goalEntry.getFullUrl());
     }
 
     careplanResource.setText(new Narrative().setStatus(NarrativeStatus.GENERATED)
         .setDiv(new XhtmlNode(NodeType.Element).setValue(narrative)));
 
-    return newEntry(rand, bundle, careplanResource);
+    return newEntry(personEntry, bundle, careplanResource, "careplan", carePlan);
   }
 
   /**
    * Map the JsonObject into a FHIR Goal resource, and add it to the given Bundle.
-   * @param rand Source of randomness to use when generating ids etc
    * @param bundle The Bundle to add to
+   * @param personEntry The Entry for the Person
+   * @param carePlan The CarePlan the goal belongs to
+   * @param index The index of the goal in the CarePlan
    * @param goalStatus The GoalStatus
    * @param goal The JsonObject
    * @return The added Entry
    */
-  private static BundleEntryComponent careGoal(
-      RandomNumberGenerator rand, Bundle bundle,
-      BundleEntryComponent personEntry, long carePlanStart,
+  private static BundleEntryComponent careGoal(Bundle bundle,
+      BundleEntryComponent personEntry, CarePlan carePlan, int index,
       CodeableConcept goalStatus, JsonObject goal) {
-    String resourceID = rand.randUUID().toString();
-
     Goal goalResource = new Goal();
     if (USE_US_CORE_IG) {
       Meta meta = new Meta();
@@ -2391,7 +2460,6 @@ public class FhirR4 {
     }
     goalResource.setLifecycleStatus(GoalLifecycleStatus.ACCEPTED);
     goalResource.setAchievementStatus(goalStatus);
-    goalResource.setId(resourceID);
     goalResource.setSubject(new Reference(personEntry.getFullUrl()));
 
     if (goal.has("text")) {
@@ -2428,7 +2496,7 @@ public class FhirR4 {
       goalResource.setDescription(descriptionCodeableConcept);
     }
     goalResource.addTarget().setMeasure(goalResource.getDescription())
-        .setDue(new DateType(new Date(carePlanStart + Utilities.convertTime("days", 30))));
+        .setDue(new DateType(new Date(carePlan.start + Utilities.convertTime("days", 30))));
 
     if (goal.has("addresses")) {
       for (JsonElement reasonElement : goal.get("addresses").getAsJsonArray()) {
@@ -2457,7 +2525,7 @@ public class FhirR4 {
       }
     }
 
-    return newEntry(rand, bundle, goalResource);
+    return newEntry(personEntry, bundle, goalResource, "goal" + index, carePlan);
   }
 
   /**
@@ -2538,7 +2606,7 @@ public class FhirR4 {
     participant.setMember(encounter.getServiceProvider());
     careTeam.addManagingOrganization(encounter.getServiceProvider());
 
-    return newEntry(rand, bundle, careTeam);
+    return newEntry(personEntry, bundle, careTeam, "careteam", carePlan);
   }
 
   private static Identifier generateIdentifier(String uid) {
@@ -2982,7 +3050,8 @@ public class FhirR4 {
   private static CodeableConcept mapCodeToCodeableConcept(Code from, String system) {
     CodeableConcept to = new CodeableConcept();
     system = system == null ? null : ExportHelper.getSystemURI(system);
-    from.system = ExportHelper.getSystemURI(from.system);
+    // codes are shared between records, so map the system without modifying the code
+    String fromSystem = ExportHelper.getSystemURI(from.system);
 
     if (from.display != null) {
       to.setText(from.display);
@@ -2991,10 +3060,10 @@ public class FhirR4 {
     Coding coding = new Coding();
     coding.setCode(from.code);
     coding.setDisplay(from.display);
-    if (from.system == null) {
+    if (fromSystem == null) {
       coding.setSystem(system);
     } else {
-      coding.setSystem(from.system);
+      coding.setSystem(fromSystem);
     }
 
     to.addCoding(coding);
@@ -3017,6 +3086,25 @@ public class FhirR4 {
     String resourceID = rand.randUUID().toString();
     return newEntry(bundle, resource, resourceID);
   }
+
+  /**
+   * Helper function to create an Entry for the Resource of an entry of the health record within
+   * the given Bundle. The resourceID is derived from the entry, see ExportHelper.nameUUID, so
+   * that a resource exported again after its entry was stopped replaces the one exported before.
+   *
+   * @param personEntry The Entry for the Person
+   * @param bundle      The Bundle to add the Entry to
+   * @param resource    Resource the new Entry should contain
+   * @param kind        What the entry is exported as
+   * @param recordEntry The entry of the health record
+   * @return the created Entry
+   */
+  private static BundleEntryComponent newEntry(BundleEntryComponent personEntry, Bundle bundle,
+      Resource resource, String kind, HealthRecord.Entry recordEntry) {
+    String personID = personEntry.getResource().getIdElement().getIdPart();
+    return newEntry(bundle, resource,
+        ExportHelper.nameUUID(personID, kind, recordEntry.getSeed()));
+  }
   
   /**
    * Helper function to create an Entry for the given Resource within the given Bundle. Sets the
@@ -242,15 +242,20 @@ public class FhirStu3 {
 
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
 
+    // the fullUrls of the resources of the entries that claims and reports refer to, by the
+    // seed of the entry, which is shared by the filtered copies of an entry
+    Map<Long, String> fullUrls = new HashMap<Long, String>();
     for (Encounter encounter : person.record.encounters) {
       BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
 
       for (HealthRecord.Entry condition : encounter.conditions) {
-        condition(person, personEntry, bundle, encounterEntry, condition);
+        fullUrls.put(condition.getSeed(),
+            condition(person, personEntry, bundle, encounterEntry, condition).getFullUrl());
       }
 
       for (HealthRecord.Entry allergy : encounter.allergies) {
-        allergy(person, personEntry, bundle, encounterEntry, allergy);
+        fullUrls.put(allergy.getSeed(),
+            allergy(person, personEntry, bundle, encounterEntry, allergy).getFullUrl());
       }
 
       for (Observation observation : encounter.observations) {
@@ -259,12 +264,14 @@ public class FhirStu3 {
         if (observation.value instanceof Attachment) {
           media(person, personEntry, bundle, encounterEntry, observation);
         } else {
-          observation(person, personEntry, bundle, encounterEntry, observation);
+          fullUrls.put(observation.getSeed(), observation(person, personEntry, bundle,
+              encounterEntry, observation).getFullUrl());
         }
       }
 
       for (Procedure procedure : encounter.procedures) {
-        procedure(person, personEntry, bundle, encounterEntry, procedure);
+        fullUrls.put(procedure.getSeed(),
+            procedure(person, personEntry, bundle, encounterEntry, procedure).getFullUrl());
       }
 
       for (Medication medication : encounter.medications) {
@@ -272,11 +279,12 @@ public class FhirStu3 {
       }
 
       for (HealthRecord.Entry immunization : encounter.immunizations) {
-        immunization(person, personEntry, bundle, encounterEntry, immunization);
+        fullUrls.put(immunization.getSeed(),
+            immunization(person, personEntry, bundle, encounterEntry, immunization).getFullUrl());
       }
 
       for (Report report : encounter.reports) {
-        report(person, personEntry, bundle, encounterEntry, report);
+        report(person, personEntry, bundle, encounterEntry, report, fullUrls);
       }
 
       for (CarePlan careplan : encounter.careplans) {
@@ -295,9 +303,14 @@ public class FhirStu3 {
         supplyDelivery(person, personEntry, bundle, supply, encounter);
       }
       
+      if (encounter.exportedUntil != null) {
+        // the claim was exported with the encounter by an earlier delta export
+        continue;
+      }
+
       // one claim per encounter
       BundleEntryComponent encounterClaim = encounterClaim(person, personEntry, bundle,
-          encounterEntry, encounter.claim);
+          encounterEntry, encounter.claim, fullUrls);
 
       explanationOfBenefit(personEntry,bundle,encounterEntry,person,
           encounterClaim, encounter);
@@ -825,11 +838,12 @@ public class FhirStu3 {
    * @param bundle The Bundle to add to
    * @param encounterEntry The current Encounter
    * @param claim the Claim object
+   * @param fullUrls The fullUrls of the entries already added, by entry seed
    * @return the added Entry
    */
   private static BundleEntryComponent encounterClaim(RandomNumberGenerator rand, 
           BundleEntryComponent personEntry, Bundle bundle, BundleEntryComponent encounterEntry,
-          Claim claim) {
+          Claim claim, Map<Long, String> fullUrls) {
     org.hl7.fhir.dstu3.model.Claim claimResource = new org.hl7.fhir.dstu3.model.Claim();
     org.hl7.fhir.dstu3.model.Encounter encounterResource =
         (org.hl7.fhir.dstu3.model.Encounter) encounterEntry.getResource();
@@ -871,7 +885,7 @@ public class FhirStu3 {
         claimItem.setNet(moneyResource);
 
         if (item instanceof HealthRecord.Procedure) {
-          Type procedureReference = new Reference(item.fullUrl);
+          Type procedureReference = new Reference(fullUrls.get(item.getSeed()));
           ProcedureComponent claimProcedure = new ProcedureComponent(
               new PositiveIntType(procedureSequence), procedureReference);
           claimResource.addProcedure(claimProcedure);
@@ -879,7 +893,7 @@ public class FhirStu3 {
 
           procedureSequence++;
         } else {
-          Reference informationReference = new Reference(item.fullUrl);
+          Reference informationReference = new Reference(fullUrls.get(item.getSeed()));
           SpecialConditionComponent informationComponent = new SpecialConditionComponent();
           informationComponent.setSequence(informationSequence);
           informationComponent.setValue(informationReference);
@@ -898,7 +912,7 @@ public class FhirStu3 {
       } else {
         // assume it's a Condition, we don't have a Condition class specifically
         // add diagnosisComponent to claim
-        Reference diagnosisReference = new Reference(item.fullUrl);
+        Reference diagnosisReference = new Reference(fullUrls.get(item.getSeed()));
         org.hl7.fhir.dstu3.model.Claim.DiagnosisComponent diagnosisComponent =
             new org.hl7.fhir.dstu3.model.Claim.DiagnosisComponent(
                 new PositiveIntType(conditionSequence), diagnosisReference);
@@ -1575,7 +1589,6 @@ public class FhirStu3 {
 
     BundleEntryComponent conditionEntry = newEntry(rand, bundle, conditionResource);
 
-    condition.fullUrl = conditionEntry.getFullUrl();
 
     return conditionEntry;
   }
@@ -1621,7 +1634,6 @@ public class FhirStu3 {
       allergyResource.setMeta(meta);
     }
     BundleEntryComponent allergyEntry = newEntry(rand, bundle, allergyResource);
-    allergy.fullUrl = allergyEntry.getFullUrl();
     return allergyEntry;
   }
 
@@ -1685,7 +1697,6 @@ public class FhirStu3 {
     }
 
     BundleEntryComponent entry = newEntry(rand, bundle, observationResource);
-    observation.fullUrl = entry.getFullUrl();
     return entry;
   }
 
@@ -1820,7 +1831,6 @@ public class FhirStu3 {
     }
 
     BundleEntryComponent procedureEntry = newEntry(rand, bundle, procedureResource);
-    procedure.fullUrl = procedureEntry.getFullUrl();
 
     return procedureEntry;
   }
@@ -1852,7 +1862,6 @@ public class FhirStu3 {
     }
 
     BundleEntryComponent immunizationEntry = newEntry(rand, bundle, immResource);
-    immunization.fullUrl = immunizationEntry.getFullUrl();
 
     return immunizationEntry;
   }
@@ -2076,11 +2085,12 @@ public class FhirStu3 {
    * @param bundle Bundle to add the Report to
    * @param encounterEntry Current Encounter entry
    * @param report The Report
+   * @param fullUrls The fullUrls of the entries already added, by entry seed
    * @return The added Entry
    */
   private static BundleEntryComponent report(RandomNumberGenerator rand, 
           BundleEntryComponent personEntry, Bundle bundle,
-          BundleEntryComponent encounterEntry, Report report) {
+          BundleEntryComponent encounterEntry, Report report, Map<Long, String> fullUrls) {
     DiagnosticReport reportResource = new DiagnosticReport();
     reportResource.setStatus(DiagnosticReportStatus.FINAL);
     reportResource.setCode(mapCodeToCodeableConcept(report.codes.get(0), LOINC_URI));
@@ -2089,7 +2099,7 @@ public class FhirStu3 {
     reportResource.setEffective(convertFhirDateTime(report.start, true));
     reportResource.setIssued(new Date(report.start));
     for (Observation observation : report.observations) {
-      Reference reference = new Reference(observation.fullUrl);
+      Reference reference = new Reference(fullUrls.get(observation.getSeed()));
       reference.setDisplay(observation.codes.get(0).display);
       reportResource.addResult(reference);
     }
@@ -2614,7 +2624,8 @@ public class FhirStu3 {
   private static CodeableConcept mapCodeToCodeableConcept(Code from, String system) {
     CodeableConcept to = new CodeableConcept();
     system = system == null ? null : ExportHelper.getSystemURI(system);
-    from.system = ExportHelper.getSystemURI(from.system);
+    // codes are shared between records, so map the system without modifying the code
+    String fromSystem = ExportHelper.getSystemURI(from.system);
 
     if (from.display != null) {
       to.setText(from.display);
@@ -2623,10 +2634,10 @@ public class FhirStu3 {
     Coding coding = new Coding();
     coding.setCode(from.code);
     coding.setDisplay(from.display);
-    if (from.system == null) {
+    if (fromSystem == null) {
       coding.setSystem(system);
     } else {
-      coding.setSystem(from.system);
+      coding.setSystem(fromSystem);
     }
 
     to.addCoding(coding);
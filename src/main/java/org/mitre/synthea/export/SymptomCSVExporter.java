@@ -6,8 +6,6 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -152,12 +150,12 @@ public class SymptomCSVExporter {
     
     Map<Long, List<ConditionWithSymptoms>> infos = person.getOnsetConditionRecord(
         ).getConditionSymptoms();
-    List<Long> list = new LinkedList<Long>(infos.keySet());
-    Collections.sort(list);
     
     int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
     
-    for (Long time: list) {
+    // the conditions are in time order
+    for (Map.Entry<Long, List<ConditionWithSymptoms>> info : infos.entrySet()) {
+      Long time = info.getKey();
       int symptomExporterMode = Integer.parseInt(Config.get("exporter.symptoms.mode"));
       boolean toBeExported = true;
       if (symptomExporterMode == 0) {        
@@ -168,9 +166,8 @@ public class SymptomCSVExporter {
         continue;
       }
       Integer ageYear = person.ageInYears(time); 
-      for (ConditionWithSymptoms conditionWithSymptoms: infos.get(time)) {
+      for (ConditionWithSymptoms conditionWithSymptoms: info.getValue()) {
         String condition = conditionWithSymptoms.getConditionName();
-        Map<String, List<Integer>> symptomInfo = conditionWithSymptoms.getSymptoms();
         Long ageEnd = conditionWithSymptoms.getEndTime(); 
         String ageEndStr = "";
         if (ageEnd != null) {
@@ -181,15 +178,16 @@ public class SymptomCSVExporter {
         s.append(ageYear.toString()).append(',');
         s.append(ageEndStr).append(',');
         s.append(clean(condition)).append(',');
-        s.append(clean(String.valueOf(symptomInfo.size())));
+        s.append(clean(String.valueOf(conditionWithSymptoms.symptomCount())));
         
         StringBuilder symptomStr = new StringBuilder();
-        for (String symptom: symptomInfo.keySet()) {
-          List<Integer> values = symptomInfo.get(symptom);
+        for (int i = 0; i < conditionWithSymptoms.symptomCount(); i++) {
+          String symptom = conditionWithSymptoms.getSymptomName(i);
+          int[] values = conditionWithSymptoms.getSymptomValues(i);
           StringBuilder value = new StringBuilder();
-          for (int idx = 0; idx < values.size(); idx++) {
-            value.append(String.valueOf(values.get(idx)));
-            if (idx < values.size() - 1) {
+          for (int idx = 0; idx < values.length; idx++) {
+            value.append(String.valueOf(values[idx]));
+            if (idx < values.length - 1) {
               value.append(':');
             }
           }
@@ -59,6 +59,21 @@ public class SymptomTextExporter {
    * @throws IOException if any error occurs writing to the standard export location
    */
   public static void exportAll(Person person, String fileTag, long endTime) throws IOException {
+    exportAll(person, fileTag, endTime, Config.get("exporter.baseDirectory"));
+  }
+
+  /**
+   * Produce and export a person's symptom record in the text format, under the given base
+   * directory.
+   *
+   * @param person Person to export
+   * @param fileTag Tag to add to the filename
+   * @param endTime Time the simulation ended
+   * @param baseDirectory The base output directory
+   * @throws IOException if any error occurs writing to the export location
+   */
+  static void exportAll(Person person, String fileTag, long endTime, String baseDirectory)
+      throws IOException {
     
     String personID = (String) person.attributes.get(Person.ID);
 
@@ -80,12 +95,12 @@ public class SymptomTextExporter {
     textRecord.add("CONDITIONS WITH SYMPTOMS:");
     Map<Long, List<ConditionWithSymptoms>> infos = person.getOnsetConditionRecord(
         ).getConditionSymptoms();
-    List<Long> list = new LinkedList<Long>(infos.keySet());
-    Collections.sort(list);
     
     int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
     
-    for (Long time: list) {
+    // the conditions are in time order
+    for (Map.Entry<Long, List<ConditionWithSymptoms>> info : infos.entrySet()) {
+      Long time = info.getKey();
       int symptomExporterMode = Integer.parseInt(Config.get("exporter.symptoms.mode"));
       boolean toBeExported = true;
       if (symptomExporterMode == 0) {        
@@ -96,9 +111,8 @@ public class SymptomTextExporter {
         continue;
       }
       Integer ageYear = person.ageInYears(time);
-      for (ConditionWithSymptoms conditionWithSymptoms: infos.get(time)) {
+      for (ConditionWithSymptoms conditionWithSymptoms: info.getValue()) {
         String condition = conditionWithSymptoms.getConditionName();
-        Map<String, List<Integer>> symptomInfo = conditionWithSymptoms.getSymptoms();
         Long ageEnd = conditionWithSymptoms.getEndTime(); 
         String ageEndStr = "";
         if (ageEnd != null) {
@@ -108,15 +122,16 @@ public class SymptomTextExporter {
         s.append(ageYear.toString()).append(" | ");
         s.append(ageEndStr).append(" | ");
         s.append(clean(condition)).append(" | ");
-        s.append(clean(String.valueOf(symptomInfo.size())));
+        s.append(clean(String.valueOf(conditionWithSymptoms.symptomCount())));
         
         StringBuilder symptomStr = new StringBuilder();
-        for (String symptom: symptomInfo.keySet()) {
-          List<Integer> values = symptomInfo.get(symptom);
+        for (int i = 0; i < conditionWithSymptoms.symptomCount(); i++) {
+          String symptom = conditionWithSymptoms.getSymptomName(i);
+          int[] values = conditionWithSymptoms.getSymptomValues(i);
           StringBuilder value = new StringBuilder();
-          for (int idx = 0; idx < values.size(); idx++) {
-            value.append(String.valueOf(values.get(idx)));
-            if (idx < values.size() - 1) {
+          for (int idx = 0; idx < values.length; idx++) {
+            value.append(String.valueOf(values[idx]));
+            if (idx < values.length - 1) {
               value.append(':');
             }
           }
@@ -133,7 +148,7 @@ public class SymptomTextExporter {
     breakline(textRecord);    
 
     // finally write to the file
-    File outDirectory = Exporter.getOutputFolder("symptoms/text", person);
+    File outDirectory = Exporter.getOutputFolder("symptoms/text", person, baseDirectory);
     Path outFilePath = outDirectory.toPath().resolve(Exporter.filename(person, fileTag, "txt"));
     Files.write(outFilePath, textRecord, StandardOpenOption.CREATE_NEW);
   }
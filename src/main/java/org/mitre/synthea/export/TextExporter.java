@@ -15,6 +15,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.text.WordUtils;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
@@ -165,6 +166,20 @@ public class TextExporter {
    * @throws IOException if any error occurs writing to the standard export location
    */
   public static void exportAll(Person person, String fileTag, long time) throws IOException {
+    exportAll(person, fileTag, time, Config.get("exporter.baseDirectory"));
+  }
+
+  /**
+   * Produce and export a person's record in the text format, under the given base directory.
+   *
+   * @param person Person to export
+   * @param fileTag Tag to add to the filename
+   * @param time Time the simulation ended
+   * @param baseDirectory The base output directory
+   * @throws IOException if any error occurs writing to the export location
+   */
+  static void exportAll(Person person, String fileTag, long time, String baseDirectory)
+      throws IOException {
 
     List<Encounter> encounters = person.record.encounters;
     List<Entry> conditions = new ArrayList<>();
@@ -272,7 +287,7 @@ public class TextExporter {
     breakline(textRecord);
 
     // finally write to the file
-    File outDirectory = Exporter.getOutputFolder("text", person);
+    File outDirectory = Exporter.getOutputFolder("text", person, baseDirectory);
     Path outFilePath = outDirectory.toPath().resolve(Exporter.filename(person, fileTag, "txt"));
     Files.write(outFilePath, textRecord, StandardOpenOption.CREATE_NEW);
   }
@@ -285,6 +300,20 @@ public class TextExporter {
    * @throws IOException if any error occurs writing to the standard export location
    */
   public static void exportEncounter(Person person, long time) throws IOException {
+    exportEncounter(person, time, Config.get("exporter.baseDirectory"));
+  }
+
+  /**
+   * Produce and export a person's record in text format, one file per encounter, under the
+   * given base directory.
+   * 
+   * @param person Person
+   * @param time Time the simulation ended
+   * @param baseDirectory The base output directory
+   * @throws IOException if any error occurs writing to the export location
+   */
+  static void exportEncounter(Person person, long time, String baseDirectory)
+      throws IOException {
     List<Encounter> encounters = person.record.encounters;
     List<Entry> conditions = new ArrayList<>();
     List<Entry> allergies = new ArrayList<>();
@@ -354,7 +383,8 @@ public class TextExporter {
       encounterNumber++;
 
       //write to the file
-      File outDirectory2 = Exporter.getOutputFolder("text_encounters", person);
+      File outDirectory2 = Exporter.getOutputFolder("text_encounters", person,
+          baseDirectory);
       Path outFilePath2 = outDirectory2.toPath().resolve(Exporter.filename(person,
           Integer.toString(encounterNumber), "txt"));
       Files.write(outFilePath2, textRecord, StandardOpenOption.CREATE_NEW);
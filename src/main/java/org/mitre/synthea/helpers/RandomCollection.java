@@ -1,17 +1,22 @@
 package org.mitre.synthea.helpers;
 
 import java.io.Serializable;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.TreeMap;
 
 /**
  * Random collection of objects, with weightings. Intended to be an equivalent to the ruby Pickup
  * gem. Adapted from https://stackoverflow.com/a/6409791/630384
+ * <p>
+ * The running totals of the weights are kept in an array, so an object is picked with a binary
+ * search. Once all objects have been added, the collection may be shared between threads.
+ * </p>
  */
 public class RandomCollection<E> implements Serializable {
-  private final NavigableMap<Double, E> map = new TreeMap<Double, E>();
+  /** Running total of the weights, up to and including each object. */
+  private double[] totals = new double[8];
+  private Object[] results = new Object[8];
+  private int size = 0;
   private double total = 0;
 
   /**
@@ -25,8 +30,14 @@ public class RandomCollection<E> implements Serializable {
     if (weight <= 0) {
       return;
     }
+    if (size == totals.length) {
+      totals = Arrays.copyOf(totals, size * 2);
+      results = Arrays.copyOf(results, size * 2);
+    }
     total += weight;
-    map.put(total, result);
+    totals[size] = total;
+    results[size] = result;
+    size++;
   }
 
   /**
@@ -53,11 +64,22 @@ public class RandomCollection<E> implements Serializable {
     return next(random.rand() * total);
   }
 
+  /**
+   * Find the first item whose running total is greater than the value, or the last item if
+   * there is none.
+   */
+  @SuppressWarnings("unchecked")
   private E next(double value) {
-    Entry<Double, E> entry = map.higherEntry(value);
-    if (entry == null) {
-      entry = map.lastEntry();
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (totals[middle] > value) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
     }
-    return entry.getValue();
+    return (E) results[low];
   }
 }
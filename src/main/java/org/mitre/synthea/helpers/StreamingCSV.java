@@ -0,0 +1,294 @@
+package org.mitre.synthea.helpers;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads CSV data with a header row one row at a time, without holding the whole file or a map
+ * per row in memory. The reader itself is a view of the current row: its fields are kept in a
+ * buffer that is reused for every row, and are only turned into Strings when asked for, so
+ * rows that are skipped, such as those of other states, cost next to nothing.
+ * <p>
+ * Supports the same CSV as SimpleCSV: quoted fields may contain commas, line breaks and
+ * doubled quotes. Rows may end with either line feeds or carriage returns and line feeds, and
+ * empty lines are skipped.
+ * </p>
+ * <pre>
+ * try (StreamingCSV csv = StreamingCSV.open("geography/timezones.csv")) {
+ *   int state = csv.column("STATE");
+ *   while (csv.next()) {
+ *     String name = csv.get(state);
+ *   }
+ * }
+ * </pre>
+ */
+public class StreamingCSV implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+  private int limit;
+
+  /** Characters of the fields of the current row, unquoted. */
+  private char[] row = new char[256];
+  private int rowLength;
+  /** Start and end offsets in row of each field of the current row. */
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int fields;
+
+  private final String[] columns;
+  private final Map<String, Integer> columnIndexes;
+
+  /**
+   * Open a CSV file in resources.
+   * @param filename Path to the file, relative to src/main/resources.
+   * @return a reader positioned before the first row after the header.
+   * @throws IOException if the file cannot be read.
+   */
+  public static StreamingCSV open(String filename) throws IOException {
+    return new StreamingCSV(
+        new InputStreamReader(Resources.getResource(filename).openStream(), Charsets.UTF_8));
+  }
+
+  /**
+   * Read CSV data from the given reader, starting with the header row.
+   * @param reader the CSV data. It is closed along with this reader.
+   * @throws IOException if the header cannot be read.
+   */
+  public StreamingCSV(Reader reader) throws IOException {
+    this.reader = reader;
+    if (!readRow()) {
+      throw new IOException("CSV data has no header");
+    }
+    columns = new String[fields];
+    columnIndexes = new HashMap<String, Integer>();
+    for (int i = 0; i < fields; i++) {
+      String column = get(i);
+      if (i == 0 && column.startsWith("\uFEFF")) {
+        // byte order mark
+        column = column.substring(1);
+      }
+      columns[i] = column;
+      columnIndexes.putIfAbsent(column, i);
+    }
+    fields = 0;
+  }
+
+  /**
+   * Get the names of the columns, from the header row.
+   * @return the column names, in order.
+   */
+  public String[] getColumns() {
+    return columns.clone();
+  }
+
+  /**
+   * Get the index of the column with the given name, to look up fields without a map.
+   * @param name the column name.
+   * @return the index of the column, or -1 if there is no such column.
+   */
+  public int column(String name) {
+    Integer index = columnIndexes.get(name);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Move to the next row. The fields of the previous row are no longer available.
+   * @return true if there is another row, false at the end of the data.
+   * @throws IOException if the data cannot be read.
+   */
+  public boolean next() throws IOException {
+    while (readRow()) {
+      if (fields > 1 || ends[0] > starts[0]) {
+        return true;
+      }
+    }
+    fields = 0;
+    return false;
+  }
+
+  /**
+   * Get a field of the current row.
+   * @param column the index of the column.
+   * @return the value, or null if the row has no such column.
+   */
+  public String get(int column) {
+    if (column < 0 || column >= fields) {
+      return null;
+    }
+    return new String(row, starts[column], ends[column] - starts[column]);
+  }
+
+  /**
+   * Get a field of the current row.
+   * @param name the name of the column.
+   * @return the value, or null if there is no such column.
+   */
+  public String get(String name) {
+    return get(column(name));
+  }
+
+  /**
+   * Compare a field of the current row to a value, ignoring case, without copying the field.
+   * @param column the index of the column.
+   * @param value the value to compare to, may be null.
+   * @return true if the row has the column and its field equals the value.
+   */
+  public boolean equalsIgnoreCase(int column, String value) {
+    if (value == null || column < 0 || column >= fields) {
+      return false;
+    }
+    int length = ends[column] - starts[column];
+    if (length != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char a = row[starts[column] + i];
+      char b = value.charAt(i);
+      if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)
+          && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy the current row into a map from column name to value, like the rows of
+   * SimpleCSV.parse, for rows that are kept or modified.
+   * @return the fields of the row, in column order.
+   */
+  public LinkedHashMap<String, String> toMap() {
+    LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
+    for (int i = 0; i < columns.length && i < fields; i++) {
+      map.put(columns[i], get(i));
+    }
+    return map;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /**
+   * Read the next line of the data into the row buffer.
+   * @return false if there was no more data.
+   */
+  private boolean readRow() throws IOException {
+    rowLength = 0;
+    fields = 0;
+    int c = read();
+    if (c == -1) {
+      return false;
+    }
+    startField();
+    boolean quoted = false;
+    boolean fieldStart = true;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          // unterminated quote, the field runs to the end of the data
+          endField();
+          return true;
+        } else if (c == '"') {
+          c = read();
+          if (c == '"') {
+            append('"');
+            c = read();
+          } else {
+            quoted = false;
+          }
+        } else {
+          append((char) c);
+          c = read();
+        }
+      } else if (c == -1 || c == '\n') {
+        endField();
+        return true;
+      } else if (c == '\r') {
+        if (peek() == '\n') {
+          read();
+        }
+        endField();
+        return true;
+      } else if (c == ',') {
+        endField();
+        startField();
+        fieldStart = true;
+        c = read();
+      } else {
+        if (c == '"' && fieldStart) {
+          quoted = true;
+        } else {
+          append((char) c);
+        }
+        fieldStart = false;
+        c = read();
+      }
+    }
+  }
+
+  private void startField() {
+    if (fields == starts.length) {
+      int[] grownStarts = new int[fields * 2];
+      int[] grownEnds = new int[fields * 2];
+      System.arraycopy(starts, 0, grownStarts, 0, fields);
+      System.arraycopy(ends, 0, grownEnds, 0, fields);
+      starts = grownStarts;
+      ends = grownEnds;
+    }
+    starts[fields] = rowLength;
+  }
+
+  private void endField() {
+    ends[fields] = rowLength;
+    fields++;
+  }
+
+  private void append(char c) {
+    if (rowLength == row.length) {
+      char[] grown = new char[row.length * 2];
+      System.arraycopy(row, 0, grown, 0, rowLength);
+      row = grown;
+    }
+    row[rowLength++] = c;
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++];
+  }
+
+  private int peek() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position];
+  }
+
+  private boolean fill() throws IOException {
+    int read = reader.read(buffer, 0, buffer.length);
+    while (read == 0) {
+      read = reader.read(buffer, 0, buffer.length);
+    }
+    if (read < 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+}
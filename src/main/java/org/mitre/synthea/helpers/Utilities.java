@@ -23,6 +23,13 @@ import org.mitre.synthea.engine.State;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 
 public class Utilities {
+  /**
+   * A reusable UTC calendar per thread, so that year and month lookups do not
+   * allocate a new Calendar on every call.
+   */
+  private static final ThreadLocal<Calendar> UTC_CALENDAR =
+      ThreadLocal.withInitial(() -> Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+
   /**
    * Convert a quantity of time in a specified units into milliseconds.
    *
@@ -94,7 +101,7 @@ public class Utilities {
    * Get the year of a Unix timestamp.
    */
   public static int getYear(long time) {
-    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    Calendar calendar = UTC_CALENDAR.get();
     calendar.setTimeInMillis(time);
     return calendar.get(Calendar.YEAR);
   }
@@ -103,7 +110,7 @@ public class Utilities {
    * Get the month of a Unix timestamp.
    */
   public static int getMonth(long time) {
-    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    Calendar calendar = UTC_CALENDAR.get();
     calendar.setTimeInMillis(time);
     return calendar.get(Calendar.MONTH) + 1;
   }
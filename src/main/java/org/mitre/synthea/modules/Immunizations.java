@@ -70,7 +70,7 @@ public class Immunizations {
         history.add(time);
         HealthRecord.Immunization entry = person.record.immunization(time, immunization);
         Map code = (Map) immunizationSchedule.get(immunization).get("code");
-        HealthRecord.Code immCode = new HealthRecord.Code(code.get("system").toString(),
+        HealthRecord.Code immCode = HealthRecord.Code.canonical(code.get("system").toString(),
             code.get("code").toString(), code.get("display").toString());
         entry.codes.add(immCode);
         entry.series = series;
@@ -1,17 +1,20 @@
 package org.mitre.synthea.world.agents;
 
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.world.geography.quadtree.QuadTreeElement;
 
 public class Clinician implements Serializable, QuadTreeElement {
-  private static final long serialVersionUID = 1370111157423846567L;
+  private static final long serialVersionUID = 1370111157423846568L;
 
   public static final String WELLNESS = "wellness";
   public static final String AMBULATORY = "ambulatory";
@@ -42,7 +45,9 @@ public class Clinician implements Serializable, QuadTreeElement {
   public Map<String, Object> attributes;
   private ArrayList<String> servicesProvided;
   private Provider organization;
-  private int encounters;
+  private AtomicInteger encounters;
+  // encounters counted in the statistics scopes other than the default one
+  private transient StatisticsScope.PerScope<AtomicInteger> scopedEncounters;
   public long populationSeed;
 
   /**
@@ -62,6 +67,17 @@ public class Clinician implements Serializable, QuadTreeElement {
     this.organization = organization;
     attributes = new ConcurrentHashMap<String, Object>();
     servicesProvided = new ArrayList<String>();
+    encounters = new AtomicInteger();
+    scopedEncounters = new StatisticsScope.PerScope<AtomicInteger>(AtomicInteger::new);
+  }
+
+  /**
+   * Java Serialization support for the encounters counted in other statistics scopes.
+   * @param ois stream to read from
+   */
+  private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+    ois.defaultReadObject();
+    scopedEncounters = new StatisticsScope.PerScope<AtomicInteger>(AtomicInteger::new);
   }
 
   /**
@@ -106,8 +122,8 @@ public class Clinician implements Serializable, QuadTreeElement {
    * Increment the number of encounters performed by this Clinician.
    * @return The incremented number of encounters.
    */
-  public synchronized int incrementEncounters() {
-    return encounters++;
+  public int incrementEncounters() {
+    return encounters().getAndIncrement();
   }
 
   /**
@@ -115,7 +131,23 @@ public class Clinician implements Serializable, QuadTreeElement {
    * @return The number of encounters.
    */
   public int getEncounterCount() {
-    return encounters;
+    return encounters().get();
+  }
+
+  /**
+   * Reset the number of encounters performed by this Clinician to zero.
+   */
+  void resetEncounterCount() {
+    encounters().set(0);
+  }
+
+  /**
+   * Get the number of encounters counted in the current statistics scope.
+   * @return The counter.
+   */
+  private AtomicInteger encounters() {
+    int scope = StatisticsScope.current();
+    return scope == StatisticsScope.DEFAULT ? encounters : scopedEncounters.get(scope);
   }
 
   public int randInt(int bound) {
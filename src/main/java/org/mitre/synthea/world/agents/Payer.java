@@ -10,6 +10,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -18,7 +19,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import org.mitre.synthea.helpers.Config;
@@ -48,6 +52,11 @@ public class Payer implements Serializable {
 
   /* U.S. States loaded. */
   private static Set<String> statesLoaded = new HashSet<String>();
+  /* Payers loaded, by uuid, so payers covering several states are only loaded once. */
+  private static Set<String> payersLoaded = new HashSet<String>();
+  // Private payers that cover each state, cheapest first. Rebuilt as states are loaded.
+  private static Map<String, List<Payer>> privatePayersByState =
+      new ConcurrentHashMap<String, List<Payer>>();
 
   /* Payer Finder. */
   private static IPayerFinder payerFinder;
@@ -70,14 +79,63 @@ public class Payer implements Serializable {
   private Set<String> servicesCovered;
 
   /* Payer Statistics. */
-  private double revenue;
-  private double costsCovered;
-  private double costsUncovered;
-  private double totalQOLS; // Total customer quality of life scores.
+  // Every person simulated at once may pay premiums and claims to the same payer,
+  // so the statistics are adders rather than values behind a lock.
+  private final DoubleAdder revenue;
+  private final DoubleAdder costsCovered;
+  private final DoubleAdder costsUncovered;
+  private final DoubleAdder totalQOLS; // Total customer quality of life scores.
   // Unique utilizers of Payer, by Person ID, with number of utilizations per Person.
   private final Map<String, AtomicInteger> customerUtilization;
-  // row: year, column: type, value: count.
-  private transient Table<Integer, String, AtomicInteger> entryUtilization;
+  // key: year, then entry type (e.g. "wellness"); value: counters indexed by entryCounter.
+  private transient ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder[]>>
+      entryUtilization;
+  // the statistics above, and those counted in the other statistics scopes
+  private transient Statistics defaultStatistics;
+  private transient StatisticsScope.PerScope<Statistics> scopedStatistics;
+
+  /** The statistics of the payer counted in one statistics scope. */
+  private static class Statistics {
+    private final DoubleAdder revenue;
+    private final DoubleAdder costsCovered;
+    private final DoubleAdder costsUncovered;
+    private final DoubleAdder totalQOLS;
+    private final Map<String, AtomicInteger> customerUtilization;
+    private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder[]>>
+        entryUtilization;
+
+    /**
+     * Create empty statistics, for a scope other than the default one.
+     */
+    private Statistics() {
+      this(new DoubleAdder(), new DoubleAdder(), new DoubleAdder(), new DoubleAdder(),
+          new ConcurrentHashMap<String, AtomicInteger>(), new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Gather the statistics kept in the payer's own fields, for the default scope.
+     */
+    private Statistics(DoubleAdder revenue, DoubleAdder costsCovered,
+        DoubleAdder costsUncovered, DoubleAdder totalQOLS,
+        Map<String, AtomicInteger> customerUtilization,
+        ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder[]>> entryUtilization) {
+      this.revenue = revenue;
+      this.costsCovered = costsCovered;
+      this.costsUncovered = costsUncovered;
+      this.totalQOLS = totalQOLS;
+      this.customerUtilization = customerUtilization;
+      this.entryUtilization = entryUtilization;
+    }
+  }
+
+  /** Kinds of entries counted, in the order of their counters. */
+  private static final String[] ENTRY_KINDS = {HealthRecord.ENCOUNTERS,
+      HealthRecord.MEDICATIONS, HealthRecord.PROCEDURES, HealthRecord.IMMUNIZATIONS, "no_cost"};
+  private static final int ENCOUNTERS = 0;
+  private static final int MEDICATIONS = 1;
+  private static final int PROCEDURES = 2;
+  private static final int IMMUNIZATIONS = 3;
+  private static final int NO_COST = 4;
   
   /**
    * Simple bean used to add Java Serialization support to 
@@ -102,14 +160,31 @@ public class Payer implements Serializable {
    */
   private void writeObject(ObjectOutputStream oos) throws IOException {
     oos.defaultWriteObject();
-    ArrayList<UtilizationBean> entryUtilizationElements = null;
-    if (entryUtilization != null) {
-      entryUtilizationElements = new ArrayList<>(entryUtilization.size());
-      for (Table.Cell<Integer, String, AtomicInteger> cell: entryUtilization.cellSet()) {
-        entryUtilizationElements.add(
-                new UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+    // the same beans as when the counts were kept in a Table, e.g. "covered-encounters"
+    // and "covered-encounters-wellness"
+    Table<Integer, String, AtomicInteger> table = HashBasedTable.create();
+    for (Map.Entry<Integer, ConcurrentHashMap<String, LongAdder[]>> year
+        : entryUtilization.entrySet()) {
+      for (Map.Entry<String, LongAdder[]> type : year.getValue().entrySet()) {
+        LongAdder[] counters = type.getValue();
+        for (int i = 0; i < counters.length; i++) {
+          int count = counters[i].intValue();
+          if (count > 0) {
+            String key = entryKey(i);
+            table.put(year.getKey(), key + "-" + type.getKey(), new AtomicInteger(count));
+            if (!table.contains(year.getKey(), key)) {
+              table.put(year.getKey(), key, new AtomicInteger());
+            }
+            table.get(year.getKey(), key).addAndGet(count);
+          }
+        }
       }
     }
+    ArrayList<UtilizationBean> entryUtilizationElements = new ArrayList<>(table.size());
+    for (Table.Cell<Integer, String, AtomicInteger> cell: table.cellSet()) {
+      entryUtilizationElements.add(
+              new UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+    }
     oos.writeObject(entryUtilizationElements);
   }
 
@@ -121,12 +196,37 @@ public class Payer implements Serializable {
     ois.defaultReadObject();
     ArrayList<UtilizationBean> entryUtilizationElements = 
             (ArrayList<UtilizationBean>)ois.readObject();
+    this.entryUtilization = new ConcurrentHashMap<>();
     if (entryUtilizationElements != null) {
-      this.entryUtilization = HashBasedTable.create();
+      List<String> kinds = Arrays.asList(ENTRY_KINDS);
       for (UtilizationBean u: entryUtilizationElements) {
-        this.entryUtilization.put(u.year, u.type, u.count);
+        // only the counts by entry type are kept, the totals are summed from them
+        String[] key = u.type.split("-", 3);
+        if (key.length == 3) {
+          int counter = entryCounter(key[0].equals("covered"), kinds.indexOf(key[1]));
+          entryCounters(entryUtilization, u.year, key[2])[counter].add(u.count.get());
+        }
       }
     }
+    initStatistics();
+  }
+
+  /**
+   * Gather the statistics kept in the payer's own fields, and make room for the statistics of
+   * the other scopes.
+   */
+  private void initStatistics() {
+    defaultStatistics = new Statistics(revenue, costsCovered, costsUncovered, totalQOLS,
+        customerUtilization, entryUtilization);
+    scopedStatistics = new StatisticsScope.PerScope<Statistics>(Statistics::new);
+  }
+
+  /**
+   * Get the statistics counted in the current statistics scope.
+   */
+  private Statistics statistics() {
+    int scope = StatisticsScope.current();
+    return scope == StatisticsScope.DEFAULT ? defaultStatistics : scopedStatistics.get(scope);
   }
 
   /**
@@ -139,12 +239,13 @@ public class Payer implements Serializable {
     this.name = name;
     this.uuid = UUID.nameUUIDFromBytes((id + this.name).getBytes()).toString();
     this.attributes = new LinkedTreeMap<>();
-    this.entryUtilization = HashBasedTable.create();
-    this.customerUtilization = new HashMap<String, AtomicInteger>();
-    this.costsCovered = 0.0;
-    this.costsUncovered = 0.0;
-    this.revenue = 0.0;
-    this.totalQOLS = 0.0;
+    this.entryUtilization = new ConcurrentHashMap<>();
+    this.customerUtilization = new ConcurrentHashMap<String, AtomicInteger>();
+    this.costsCovered = new DoubleAdder();
+    this.costsUncovered = new DoubleAdder();
+    this.revenue = new DoubleAdder();
+    this.totalQOLS = new DoubleAdder();
+    initStatistics();
   }
 
   /**
@@ -168,6 +269,7 @@ public class Payer implements Serializable {
         statesLoaded.add(location.state);
         statesLoaded.add(Location.getAbbreviation(location.state));
         statesLoaded.add(Location.getStateName(location.state));
+        privatePayersByState.clear();
       } catch (IOException e) {
         System.err.println("ERROR: unable to load payers for state: " + location.state);
         e.printStackTrace();
@@ -185,7 +287,9 @@ public class Payer implements Serializable {
    */
   private static void loadPayers(Location location, String fileName) throws IOException {
 
-    Payer.loadNoInsurance();
+    if (statesLoaded.isEmpty()) {
+      Payer.loadNoInsurance();
+    }
 
     String resource = Utilities.readResource(fileName);
     Iterator<? extends Map<String, String>> csv = SimpleCSV.parseLineByLine(resource);
@@ -199,6 +303,10 @@ public class Payer implements Serializable {
       if (payerStates.contains(abbreviation) || payerStates.contains("*")) {
 
         Payer parsedPayer = csvLineToPayer(row);
+        if (!payersLoaded.add(parsedPayer.uuid)) {
+          // already loaded for another state
+          continue;
+        }
 
         // Put the payer in their correct List/Map based on Government/Private.
         if (parsedPayer.ownership.equalsIgnoreCase("government")) {
@@ -291,6 +399,22 @@ public class Payer implements Serializable {
     return Payer.privatePayers;
   }
 
+  /**
+   * Returns the loaded private payers that cover the given state, ordered by their yearly
+   * premiums and deductible, cheapest first.
+   * 
+   * @param state the full name or abbreviation of the state, or null for every state.
+   */
+  public static List<Payer> getPrivatePayers(String state) {
+    if (state == null) {
+      return Payer.privatePayers;
+    }
+    return privatePayersByState.computeIfAbsent(state, key -> Payer.privatePayers.stream()
+        .filter(payer -> payer.coversState(key))
+        .sorted(Comparator.comparingDouble(Payer::getYearlyCost))
+        .collect(Collectors.toList()));
+  }
+
   /**
    * Returns the List of all loaded government payers.
    */
@@ -308,6 +432,26 @@ public class Payer implements Serializable {
     return allPayers;
   }
 
+  /**
+   * Reset the costs, revenue and utilization of every loaded payer and of no insurance in the
+   * current statistics scope, so that the payers exported after a run only count that run.
+   */
+  public static void resetStatistics() {
+    List<Payer> payers = getAllPayers();
+    if (noInsurance != null) {
+      payers.add(noInsurance);
+    }
+    for (Payer payer : payers) {
+      Statistics statistics = payer.statistics();
+      statistics.revenue.reset();
+      statistics.costsCovered.reset();
+      statistics.costsUncovered.reset();
+      statistics.totalQOLS.reset();
+      statistics.customerUtilization.clear();
+      statistics.entryUtilization.clear();
+    }
+  }
+
   /**
    * Returns the government payer with the given name.
    * 
@@ -326,6 +470,8 @@ public class Payer implements Serializable {
     governmentPayers.clear();
     privatePayers.clear();
     statesLoaded.clear();
+    payersLoaded.clear();
+    privatePayersByState.clear();
     payerFinder = buildPayerFinder();
   }
 
@@ -338,7 +484,38 @@ public class Payer implements Serializable {
    * @return a payer who the person can accept and vice versa.
    */
   public static Payer findPayer(Person person, EncounterType service, long time) {
-    return Payer.payerFinder.find(Payer.getPrivatePayers(), person, service, time);
+    List<Payer> payers = getPrivatePayers((String) person.attributes.get(Person.STATE));
+    if (!payers.isEmpty() && payers != Payer.privatePayers
+        && (time < HealthInsuranceModule.mandateTime
+        || (Double) person.attributes.get(Person.OCCUPATION_LEVEL)
+        < HealthInsuranceModule.mandateOccupation)) {
+      // Without an employer paying for it, only the payers the person can afford are options,
+      // and they are the cheapest ones.
+      payers = payers.subList(0, countAffordable(payers, (Integer) person.attributes.get(
+          Person.INCOME)));
+    }
+    return Payer.payerFinder.find(payers, person, service, time);
+  }
+
+  /**
+   * Count the payers someone with the given income can afford.
+   * 
+   * @param payers payers ordered by their yearly cost, cheapest first.
+   * @param income the yearly income.
+   * @return the number of payers, from the start of the list, with a lower yearly cost.
+   */
+  private static int countAffordable(List<Payer> payers, int income) {
+    int low = 0;
+    int high = payers.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (payers.get(middle).getYearlyCost() < income) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
   }
 
   /**
@@ -369,6 +546,13 @@ public class Payer implements Serializable {
     return this.deductible;
   }
 
+  /**
+   * Returns what a year with this payer costs before any care: the premiums and deductible.
+   */
+  private double getYearlyCost() {
+    return this.monthlyPremium * 12 + this.deductible;
+  }
+
   /**
    * Returns the Coinsurance of this payer.
    */
@@ -390,9 +574,23 @@ public class Payer implements Serializable {
     return attributes;
   }
 
+  /**
+   * Does this payer operate in the given state?
+   * @param state The full name or abbreviation of the state.
+   * @return true if the payer covers the state, or all states.
+   */
+  private boolean coversState(String state) {
+    if (statesCovered.contains("*") || statesCovered.contains(state)) {
+      return true;
+    }
+    String abbreviation = Location.getAbbreviation(state);
+    return abbreviation == null || statesCovered.contains(abbreviation);
+  }
+
   /**
    * Returns whether a payer will accept the given patient at this time. Currently returns
-   * true by default, except for Medicare/Medicaid which have hardcoded requirements.
+   * true by default, except for payers that do not cover the patient's state and
+   * Medicare/Medicaid which have hardcoded requirements.
    * 
    * @param person Person to consider
    * @param time   Time the person seeks care
@@ -400,6 +598,12 @@ public class Payer implements Serializable {
    */
   public boolean accepts(Person person, long time) {
 
+    // Payers only accept people who live in a state they cover.
+    String state = (String) person.attributes.get(Person.STATE);
+    if (state != null && !coversState(state)) {
+      return false;
+    }
+
     // For now, assume that all payers accept all patients EXCEPT Medicare/Medicaid.
     if (this.name.equals("Medicare")) {
       boolean esrd = (person.attributes.containsKey("end_stage_renal_disease")
@@ -469,9 +673,19 @@ public class Payer implements Serializable {
    * @param entry the entry to calculate the copay for.
    */
   public double determineCopay(Entry entry) {
+    return determineCopay(entry.type, entry.start);
+  }
+
+  /**
+   * Determines the copay owed for this Payer for an entry of the given type at the given time.
+   * 
+   * @param type the type of the entry, e.g. "wellness".
+   * @param time the start of the entry.
+   */
+  public double determineCopay(String type, long time) {
     double copay = this.defaultCopay;
-    if (entry.type.equalsIgnoreCase(EncounterType.WELLNESS.toString())
-        && entry.start > HealthInsuranceModule.mandateTime) {
+    if (type.equalsIgnoreCase(EncounterType.WELLNESS.toString())
+        && time > HealthInsuranceModule.mandateTime) {
       copay = 0.0;
     }
     return copay;
@@ -483,7 +697,7 @@ public class Payer implements Serializable {
    * @return the monthly premium amount.
    */
   public double payMonthlyPremium() {
-    this.revenue += this.monthlyPremium;
+    statistics().revenue.add(this.monthlyPremium);
     return this.monthlyPremium;
   }
 
@@ -492,11 +706,14 @@ public class Payer implements Serializable {
    * 
    * @param person the person to add to the payer.
    */
-  public synchronized void incrementCustomers(Person person) {
-    if (!customerUtilization.containsKey(person.attributes.get(Person.ID))) {
-      customerUtilization.put((String) person.attributes.get(Person.ID), new AtomicInteger(0));
+  public void incrementCustomers(Person person) {
+    String id = (String) person.attributes.get(Person.ID);
+    Map<String, AtomicInteger> customerUtilization = statistics().customerUtilization;
+    AtomicInteger years = customerUtilization.get(id);
+    if (years == null) {
+      years = customerUtilization.computeIfAbsent(id, key -> new AtomicInteger(0));
     }
-    customerUtilization.get(person.attributes.get(Person.ID)).incrementAndGet();
+    years.incrementAndGet();
   }
 
   /**
@@ -505,11 +722,7 @@ public class Payer implements Serializable {
    * @param entry the entry covered.
    */
   public void incrementCoveredEntries(Entry entry) {
-
-    String entryType = getEntryType(entry);
-
-    incrementEntries(Utilities.getYear(entry.start), "covered-" + entryType);
-    incrementEntries(Utilities.getYear(entry.start), "covered-" + entryType + "-" + entry.type);
+    incrementEntries(entry, true);
   }
   
   /**
@@ -518,12 +731,7 @@ public class Payer implements Serializable {
    * @param entry the entry covered.
    */
   public void incrementUncoveredEntries(Entry entry) {
-
-    String entryType = getEntryType(entry);
-
-    incrementEntries(Utilities.getYear(entry.start), "uncovered-" + entryType);
-    incrementEntries(Utilities.getYear(entry.start), "uncovered-" + entryType
-        + "-" + entry.type);
+    incrementEntries(entry, false);
   }
 
   // Perhaps move to HealthRecord.java
@@ -531,37 +739,98 @@ public class Payer implements Serializable {
    * Determines what entry type (Immunization/Encounter/Procedure/Medication) of the given entry.
    * 
    * @param entry the entry to parse.
+   * @return the index of the entry type in ENTRY_KINDS.
    */
-  private String getEntryType(Entry entry) {
+  private int getEntryKind(Entry entry) {
 
-    String entryType;
+    int entryKind;
 
     if (entry instanceof Encounter) {
-      entryType = HealthRecord.ENCOUNTERS;
+      entryKind = ENCOUNTERS;
     } else if (entry instanceof Medication) {
-      entryType = HealthRecord.MEDICATIONS;
+      entryKind = MEDICATIONS;
     } else if (entry instanceof Procedure) {
-      entryType = HealthRecord.PROCEDURES;
+      entryKind = PROCEDURES;
     } else if (entry instanceof Immunization) {
-      entryType = HealthRecord.IMMUNIZATIONS;
+      entryKind = IMMUNIZATIONS;
     } else {
       // Not an entry with a cost.
-      entryType = "no_cost";
+      entryKind = NO_COST;
     }
-    return entryType;
+    return entryKind;
   }
 
   /**
-   * Increments encounter utiilization for a given year and encounter type.
+   * Increments entry utilization for the year and type of an entry.
    * 
-   * @param year the year of the encounter to add
-   * @param key the key (the encounter type and whether it was covered/uncovered)
+   * @param entry the entry to count
+   * @param covered whether the entry was covered
    */
-  private synchronized void incrementEntries(Integer year, String key) {
-    if (!entryUtilization.contains(year, key)) {
-      entryUtilization.put(year, key, new AtomicInteger(0));
+  private void incrementEntries(Entry entry, boolean covered) {
+    int counter = entryCounter(covered, getEntryKind(entry));
+    entryCounters(statistics().entryUtilization, Utilities.getYear(entry.start),
+        String.valueOf(entry.type))[counter].increment();
+  }
+
+  /**
+   * Get the counters of entries of a type in a year, creating them the first time the type is
+   * counted in that year.
+   * 
+   * @param entryUtilization the counters of a statistics scope
+   * @param year the year of the entries
+   * @param type the type of the entries, e.g. "wellness"
+   * @return the counters, indexed by entryCounter
+   */
+  private static LongAdder[] entryCounters(
+      ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder[]>> entryUtilization,
+      int year, String type) {
+    ConcurrentHashMap<String, LongAdder[]> types = entryUtilization.get(year);
+    if (types == null) {
+      types = entryUtilization.computeIfAbsent(year, key -> new ConcurrentHashMap<>());
+    }
+    LongAdder[] counters = types.get(type);
+    if (counters == null) {
+      counters = types.computeIfAbsent(type, key -> {
+        LongAdder[] created = new LongAdder[ENTRY_KINDS.length * 2];
+        for (int i = 0; i < created.length; i++) {
+          created[i] = new LongAdder();
+        }
+        return created;
+      });
+    }
+    return counters;
+  }
+
+  /**
+   * The index of the counter of covered or uncovered entries of a kind.
+   */
+  private static int entryCounter(boolean covered, int kind) {
+    return covered ? kind : ENTRY_KINDS.length + kind;
+  }
+
+  /**
+   * The utilization key of a counter, e.g. "covered-encounters".
+   */
+  private static String entryKey(int counter) {
+    if (counter < ENTRY_KINDS.length) {
+      return "covered-" + ENTRY_KINDS[counter];
+    }
+    return "uncovered-" + ENTRY_KINDS[counter - ENTRY_KINDS.length];
+  }
+
+  /**
+   * Sum the counts of covered or uncovered entries of a kind over all years and types.
+   */
+  private int countEntries(boolean covered, int kind) {
+    int counter = entryCounter(covered, kind);
+    long count = 0;
+    for (ConcurrentHashMap<String, LongAdder[]> types
+        : statistics().entryUtilization.values()) {
+      for (LongAdder[] counters : types.values()) {
+        count += counters[counter].sum();
+      }
     }
-    entryUtilization.get(year, key).incrementAndGet();
+    return (int) count;
   }
 
   /**
@@ -570,7 +839,7 @@ public class Payer implements Serializable {
    * @param costToPayer the cost of the current encounter, after the patient's copay.
    */
   public void addCoveredCost(double costToPayer) {
-    this.costsCovered += costToPayer;
+    statistics().costsCovered.add(costToPayer);
   }
 
   /**
@@ -579,7 +848,7 @@ public class Payer implements Serializable {
    * @param costToPatient the costs that the payer did not cover.
    */
   public void addUncoveredCost(double costToPatient) {
-    this.costsUncovered += costToPatient;
+    statistics().costsUncovered.add(costToPatient);
   }
 
   /**
@@ -590,7 +859,7 @@ public class Payer implements Serializable {
    * @param qols the Quality of Life Score to be added.
    */
   public void addQols(double qols) {
-    this.totalQOLS += qols;
+    statistics().totalQOLS.add(qols);
   }
 
   /**
@@ -598,106 +867,99 @@ public class Payer implements Serializable {
    * Consists of monthly premium payments.
    */
   public double getRevenue() {
-    return this.revenue;
+    return statistics().revenue.sum();
   }
 
   /**
    * Returns the number of years the given customer was with this Payer.
    */
   public int getCustomerUtilization(Person person) {
-    return customerUtilization.get(person.attributes.get(Person.ID)).get();
+    return statistics().customerUtilization.get(person.attributes.get(Person.ID)).get();
   }
 
   /**
    * Returns the total number of unique customers of this payer.
    */
   public int getUniqueCustomers() {
-    return customerUtilization.size();
+    return statistics().customerUtilization.size();
   }
 
   /**
    * Returns the total number of member years covered by this payer.
    */
   public int getNumYearsCovered() {
-    return this.customerUtilization.values().stream().mapToInt(AtomicInteger::intValue).sum();
+    return statistics().customerUtilization.values().stream()
+        .mapToInt(AtomicInteger::intValue).sum();
   }
 
   /**
    * Returns the number of encounters this payer paid for.
    */
   public int getEncountersCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(true, ENCOUNTERS);
   }
 
   /**
    * Returns the number of encounters this payer did not cover for their customers.
    */
   public int getEncountersUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(false, ENCOUNTERS);
   }
 
   /**
    * Returns the number of medications this payer paid for.
    */
   public int getMedicationsCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.MEDICATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(true, MEDICATIONS);
   }
 
   /**
    * Returns the number of medications this payer did not cover for their customers.
    */
   public int getMedicationsUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.MEDICATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(false, MEDICATIONS);
   }
 
   /**
    * Returns the number of procedures this payer paid for.
    */
   public int getProceduresCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.PROCEDURES).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(true, PROCEDURES);
   }
 
   /**
    * Returns the number of procedures this payer did not cover for their customers.
    */
   public int getProceduresUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.PROCEDURES).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(false, PROCEDURES);
   }
 
   /**
    * Returns the number of immunizations this payer paid for.
    */
   public int getImmunizationsCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.IMMUNIZATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(true, IMMUNIZATIONS);
   }
 
   /**
    * Returns the number of immunizations this payer did not cover for their customers.
    */
   public int getImmunizationsUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.IMMUNIZATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return countEntries(false, IMMUNIZATIONS);
   }
 
   /**
    * Returns the amount of money the payer paid to providers.
    */
   public double getAmountCovered() {
-    return this.costsCovered;
+    return statistics().costsCovered.sum();
   }
 
   /**
    * Returns the amount of money the payer did not cover.
    */
   public double getAmountUncovered() {
-    return this.costsUncovered;
+    return statistics().costsUncovered.sum();
   }
 
   /**
@@ -705,7 +967,7 @@ public class Payer implements Serializable {
    */
   public double getQolsAverage() {
     int numYears = this.getNumYearsCovered();
-    return this.totalQOLS / numYears;
+    return statistics().totalQOLS.sum() / numYears;
   }
 
   @Override
@@ -725,14 +987,14 @@ public class Payer implements Serializable {
     hash = 53 * hash + Objects.hashCode(this.ownership);
     hash = 53 * hash + Objects.hashCode(this.statesCovered);
     hash = 53 * hash + Objects.hashCode(this.servicesCovered);
-    hash = 53 * hash + (int) (Double.doubleToLongBits(this.revenue)
-            ^ (Double.doubleToLongBits(this.revenue) >>> 32));
-    hash = 53 * hash + (int) (Double.doubleToLongBits(this.costsCovered)
-            ^ (Double.doubleToLongBits(this.costsCovered) >>> 32));
-    hash = 53 * hash + (int) (Double.doubleToLongBits(this.costsUncovered)
-            ^ (Double.doubleToLongBits(this.costsUncovered) >>> 32));
-    hash = 53 * hash + (int) (Double.doubleToLongBits(this.totalQOLS)
-            ^ (Double.doubleToLongBits(this.totalQOLS) >>> 32));
+    hash = 53 * hash + (int) (Double.doubleToLongBits(this.revenue.sum())
+            ^ (Double.doubleToLongBits(this.revenue.sum()) >>> 32));
+    hash = 53 * hash + (int) (Double.doubleToLongBits(this.costsCovered.sum())
+            ^ (Double.doubleToLongBits(this.costsCovered.sum()) >>> 32));
+    hash = 53 * hash + (int) (Double.doubleToLongBits(this.costsUncovered.sum())
+            ^ (Double.doubleToLongBits(this.costsUncovered.sum()) >>> 32));
+    hash = 53 * hash + (int) (Double.doubleToLongBits(this.totalQOLS.sum())
+            ^ (Double.doubleToLongBits(this.totalQOLS.sum()) >>> 32));
     return hash;
   }
 
@@ -764,20 +1026,20 @@ public class Payer implements Serializable {
             != Double.doubleToLongBits(other.monthlyPremium)) {
       return false;
     }
-    if (Double.doubleToLongBits(this.revenue)
-            != Double.doubleToLongBits(other.revenue)) {
+    if (Double.doubleToLongBits(this.revenue.sum())
+            != Double.doubleToLongBits(other.revenue.sum())) {
       return false;
     }
-    if (Double.doubleToLongBits(this.costsCovered)
-            != Double.doubleToLongBits(other.costsCovered)) {
+    if (Double.doubleToLongBits(this.costsCovered.sum())
+            != Double.doubleToLongBits(other.costsCovered.sum())) {
       return false;
     }
-    if (Double.doubleToLongBits(this.costsUncovered)
-            != Double.doubleToLongBits(other.costsUncovered)) {
+    if (Double.doubleToLongBits(this.costsUncovered.sum())
+            != Double.doubleToLongBits(other.costsUncovered.sum())) {
       return false;
     }
-    if (Double.doubleToLongBits(this.totalQOLS)
-            != Double.doubleToLongBits(other.totalQOLS)) {
+    if (Double.doubleToLongBits(this.totalQOLS.sum())
+            != Double.doubleToLongBits(other.totalQOLS.sum())) {
       return false;
     }
     if (!Objects.equals(this.name, other.name)) {
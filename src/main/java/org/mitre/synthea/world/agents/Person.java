@@ -9,12 +9,17 @@ import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -96,9 +101,39 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   private static final String DEDUCTIBLE = "deductible";
   private static final String LAST_MONTH_PAID = "last_month_paid";
 
+  private static final VitalSign[] VITAL_SIGNS = VitalSign.values();
+  /** Number of decimal places each vital sign is rounded to, indexed by ordinal. */
+  private static final int[] VITAL_SIGN_DECIMAL_PLACES = new int[VITAL_SIGNS.length];
+  private static final double[] POWERS_OF_TEN = { 1.0, 10.0, 100.0 };
+  /** Marks a vital sign value that has not been memoized yet. */
+  private static final long NOT_MEMOIZED = Long.MIN_VALUE;
+
+  static {
+    for (VitalSign vitalSign : VITAL_SIGNS) {
+      int decimalPlaces;
+      switch (vitalSign) {
+        case DIASTOLIC_BLOOD_PRESSURE:
+        case SYSTOLIC_BLOOD_PRESSURE:
+        case HEART_RATE:
+        case RESPIRATION_RATE:
+          decimalPlaces = 0;
+          break;
+        case HEIGHT:
+        case WEIGHT:
+          decimalPlaces = 1;
+          break;
+        default:
+          decimalPlaces = 2;
+      }
+      VITAL_SIGN_DECIMAL_PLACES[vitalSign.ordinal()] = decimalPlaces;
+    }
+  }
+
   private final Random random;
   public final long seed;
   public long populationSeed;
+  /** Number of entries created in all of the person's records, see nextEntrySeed. */
+  private long entryCount;
   /** 
    * Tracks the last time that the person was updated over a serialize/deserialize.
    */
@@ -108,10 +143,23 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    */
   public List<Module> currentModules;
   public Map<String, Object> attributes;
-  public Map<VitalSign, ValueGenerator> vitalSigns;
+  /** Value generators for each vital sign, indexed by VitalSign ordinal. */
+  private ValueGenerator[] vitalSigns;
+  /** Rounded vital sign values, memoized for the time in vitalSignTimes. */
+  private double[] vitalSignValues;
+  /** The time each memoized vital sign value was generated for. */
+  private long[] vitalSignTimes;
   /** Data structure for storing symptoms faced by a person.
-   * Adding the Long keyset to keep track of the time a symptom is set. */
+   * Adding the Long keyset to keep track of the time a symptom is set.
+   * A plain map, since a person is only ever simulated by one thread. */
   Map<String, ExpressedSymptom> symptoms;
+  /** Sum of the values of all the symptoms, kept up to date as they change. */
+  private int symptomTotal;
+  /** The symptoms from the largest value to the smallest. Rebuilt when null. */
+  private transient TreeSet<ExpressedSymptom> symptomsByValue;
+  private static final Comparator<ExpressedSymptom> LARGEST_SYMPTOM_FIRST =
+      Comparator.comparingInt(ExpressedSymptom::getSymptom).reversed()
+          .thenComparing(ExpressedSymptom::getName);
   /** Data structure for storing onset conditions (init_time, end_time).*/
   public ExpressedConditionRecord onsetConditionRecord;
   public Map<String, HealthRecord.Medication> chronicMedications;
@@ -143,6 +191,22 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   private Map<Integer, Double> annualHealthExpenses;
   /* Annual Health Coverage. */
   private Map<Integer, Double> annualHealthCoverage;
+  /* The most recently calculated age, and the time and birthdate it was calculated for. */
+  private transient Period ageAtTime;
+  private transient long ageTime;
+  private transient long ageBirthdate;
+
+  /**
+   * Derive the seed of a new entry in any of the person's records from the person's seed and
+   * the number of entries created before it, so that it is the same every time the person is
+   * simulated. The count is shared by all of the records, such as those split by provider, so
+   * that no two entries of the person share a seed.
+   * @return the seed of the entry.
+   */
+  public long nextEntrySeed() {
+    entryCount++;
+    return seed ^ (entryCount * 0x9E3779B97F4A7C15L);
+  }
 
   /**
    * Person constructor.
@@ -151,8 +215,11 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
     this.seed = seed;
     random = new Random(seed);
     attributes = new ConcurrentHashMap<String, Object>();
-    vitalSigns = new ConcurrentHashMap<VitalSign, ValueGenerator>();
-    symptoms = new ConcurrentHashMap<String, ExpressedSymptom>();
+    vitalSigns = new ValueGenerator[VITAL_SIGNS.length];
+    vitalSignValues = new double[VITAL_SIGNS.length];
+    vitalSignTimes = new long[VITAL_SIGNS.length];
+    Arrays.fill(vitalSignTimes, NOT_MEMOIZED);
+    symptoms = new HashMap<String, ExpressedSymptom>();
     /* initialized the onsetConditions field */
     onsetConditionRecord = new ExpressedConditionRecord(this);
     /* Chronic Medications which will be renewed at each Wellness Encounter */
@@ -231,11 +298,19 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public Period age(long time) {
     Period age = Period.ZERO;
 
-    if (attributes.containsKey(BIRTHDATE)) {
+    Object birthdateAttribute = attributes.get(BIRTHDATE);
+    if (birthdateAttribute != null) {
+      long birthtime = (long) birthdateAttribute;
+      if (time == ageTime && birthtime == ageBirthdate && ageAtTime != null) {
+        // age is asked for many times in each timestep
+        return ageAtTime;
+      }
       LocalDate now = Instant.ofEpochMilli(time).atZone(timeZone).toLocalDate();
-      LocalDate birthdate = Instant.ofEpochMilli((long) attributes.get(BIRTHDATE))
-          .atZone(timeZone).toLocalDate();
+      LocalDate birthdate = Instant.ofEpochMilli(birthtime).atZone(timeZone).toLocalDate();
       age = Period.between(birthdate, now);
+      ageTime = time;
+      ageBirthdate = birthtime;
+      ageAtTime = age;
     }
     return age;
   }
@@ -299,10 +374,11 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   }
   
   /**
-  * Get the expressed symptoms.
+  * Get an unmodifiable view of the expressed symptoms. They are only changed through
+  * setSymptom and addressLargestSymptom, which keep the symptom total up to date.
   */
   public Map<String, ExpressedSymptom> getExpressedSymptoms() {
-    return symptoms;
+    return Collections.unmodifiableMap(symptoms);
   }
   
   /**
@@ -326,29 +402,56 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
     }
     return count;
   }
+
+  /**
+   * Condense the parts of this person's exported health records that are older than the export
+   * window. The loss of care record is left alone, since its whole history is used to decide
+   * whether missed care is fatal.
+   * @param cutoffTime the start of the export window.
+   * @see HealthRecord#condense(long)
+   */
+  public void condenseRecords(long cutoffTime) {
+    defaultRecord.condense(cutoffTime);
+    if (hasMultipleRecords) {
+      for (HealthRecord providerRecord : records.values()) {
+        providerRecord.condense(cutoffTime);
+      }
+    }
+  }
   
   /** Updating the method for accounting of the time on which
    * the symptom is set. 
    */
   public void setSymptom(String module, String cause, String type, 
       long time, int value, Boolean addressed) {
-    if (!symptoms.containsKey(type)) {
-      symptoms.put(type, new ExpressedSymptom(type));
-    }
     ExpressedSymptom expressedSymptom = symptoms.get(type);
+    if (expressedSymptom == null) {
+      expressedSymptom = new ExpressedSymptom(type);
+      symptoms.put(type, expressedSymptom);
+    }
+    // take the symptom out of the ordering while its value changes
+    TreeSet<ExpressedSymptom> byValue = getSymptomsByValue();
+    byValue.remove(expressedSymptom);
+    symptomTotal -= expressedSymptom.getSymptom();
     expressedSymptom.onSet(module, cause, time, value, addressed);
+    symptomTotal += expressedSymptom.getSymptom();
+    byValue.add(expressedSymptom);
+  }
+
+  private TreeSet<ExpressedSymptom> getSymptomsByValue() {
+    if (symptomsByValue == null) {
+      symptomsByValue = new TreeSet<ExpressedSymptom>(LARGEST_SYMPTOM_FIRST);
+      symptomsByValue.addAll(symptoms.values());
+    }
+    return symptomsByValue;
   }
   
   /**
    * Method for retrieving the last time a given symptom has been updated from a given module.
    */
   public Long getSymptomLastUpdatedTime(String module, String symptom) {
-    Long result = null;
-    if (symptoms.containsKey(symptom)) {
-      ExpressedSymptom expressedSymptom = symptoms.get(symptom);
-      result = expressedSymptom.getSymptomLastUpdatedTime(module);
-    }
-    return result;
+    ExpressedSymptom expressedSymptom = symptoms.get(symptom);
+    return expressedSymptom == null ? null : expressedSymptom.getSymptomLastUpdatedTime(module);
   }
   
   /**
@@ -356,12 +459,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * This correspond to the maximum value across all potential causes.
    */
   public int getSymptom(String type) {
-    int max = 0;
-    if (symptoms.containsKey(type)) {
-      ExpressedSymptom expressedSymptom = symptoms.get(type);
-      max = expressedSymptom.getSymptom();
-    }
-    return max;
+    ExpressedSymptom expressedSymptom = symptoms.get(type);
+    return expressedSymptom == null ? 0 : expressedSymptom.getSymptom();
   }
 
   /**
@@ -370,11 +469,10 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * @return list of active symptoms above the threshold.
    */
   public Set<String> getSymptoms() {
-    Set<String> active = new HashSet<String>(symptoms.keySet());
-    for (String symptom : symptoms.keySet()) {
-      int severity = getSymptom(symptom);
-      if (severity < 20) {
-        active.remove(symptom);
+    Set<String> active = new HashSet<String>();
+    for (ExpressedSymptom symptom : symptoms.values()) {
+      if (symptom.getSymptom() >= 20) {
+        active.add(symptom.getName());
       }
     }
     return active;
@@ -384,62 +482,90 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * Mark the largest valued symptom as addressed.
    */
   public void addressLargestSymptom() {
-    String highestType = "";
-    String highestCause = "";
-    int maxValue = 0;
-    for (String type : symptoms.keySet()) {
-      ExpressedSymptom expressedSymptom = symptoms.get(type);
-      String cause = expressedSymptom.getSourceWithHighValue();
-      if (cause != null) {
-        int value = expressedSymptom.getValueFromSource(cause);
-        if (value > maxValue) {
-          maxValue = value;
-          highestCause = cause;
-          highestType = type;                
-        }
-      }
+    TreeSet<ExpressedSymptom> byValue = getSymptomsByValue();
+    if (byValue.isEmpty() || byValue.first().getSymptom() <= 0) {
+      return;
     }
-    symptoms.get(highestType).addressSource(highestCause);
+    ExpressedSymptom largest = byValue.pollFirst();
+    symptomTotal -= largest.getSymptom();
+    largest.addressSource(largest.getSourceWithHighValue());
+    symptomTotal += largest.getSymptom();
+    byValue.add(largest);
   }
 
   /**
-   * Get a vital sign value.
+   * Get a vital sign value. Values are memoized per vital sign for the most recently
+   * requested time, so repeated reads within a single timestep do not call the
+   * underlying ValueGenerator again.
    */
   public Double getVitalSign(VitalSign vitalSign, long time) {
-    ValueGenerator valueGenerator = vitalSigns.get(vitalSign);
+    int index = vitalSign.ordinal();
+    if (vitalSignTimes[index] == time) {
+      return vitalSignValues[index];
+    }
+    ValueGenerator valueGenerator = vitalSigns[index];
     if (valueGenerator == null) {
       throw new NullPointerException(
-          "Vital sign '" + vitalSign + "' not set. Valid vital signs: " + vitalSigns.keySet());
-    }
-    double value = valueGenerator.getValue(time);
-    int decimalPlaces;
-    switch (vitalSign) {
-      case DIASTOLIC_BLOOD_PRESSURE:
-      case SYSTOLIC_BLOOD_PRESSURE:
-      case HEART_RATE:
-      case RESPIRATION_RATE:
-        decimalPlaces = 0;
-        break;
-      case HEIGHT:
-      case WEIGHT:
-        decimalPlaces = 1;
-        break;
-      default:
-        decimalPlaces = 2;
-    }
-    Double retVal = value;
-    try {
-      retVal = BigDecimal.valueOf(value)
-              .setScale(decimalPlaces, RoundingMode.HALF_UP)
-              .doubleValue();
-    } catch (NumberFormatException e) {
-      // Ignore, value was NaN or infinity.
-    }
-    return retVal;
+          "Vital sign '" + vitalSign + "' not set. Valid vital signs: " + getVitalSigns());
+    }
+    double value = round(valueGenerator.getValue(time), VITAL_SIGN_DECIMAL_PLACES[index]);
+    vitalSignValues[index] = value;
+    vitalSignTimes[index] = time;
+    return value;
+  }
+
+  /**
+   * Round the value half up to the given number of decimal places.
+   * NaN and infinite values are returned unchanged.
+   */
+  private static double round(double value, int decimalPlaces) {
+    double scale = POWERS_OF_TEN[decimalPlaces];
+    double scaled = Math.abs(value * scale);
+    if (!(scaled < 1e15)) {
+      // NaN, infinity, or too large to have any fractional digits left
+      return value;
+    }
+    double floor = Math.floor(scaled);
+    double fraction = scaled - floor;
+    if (Math.abs(fraction - 0.5) <= 8 * Math.ulp(scaled)) {
+      // too close to a tie to tell from the binary value: values like 2.675 (really
+      // 2.67499999...) round up and 2.4999999999999996 rounds down, following the decimal
+      // representation the way BigDecimal.valueOf does
+      return BigDecimal.valueOf(value).setScale(decimalPlaces, RoundingMode.HALF_UP)
+          .doubleValue();
+    }
+    double rounded = (fraction > 0.5 ? floor + 1.0 : floor) / scale;
+    return rounded == 0.0 ? 0.0 : Math.copySign(rounded, value);
   }
 
+  /**
+   * Get the value generator for the given vital sign, or null if it has not been set.
+   */
+  public ValueGenerator getVitalSignGenerator(VitalSign vitalSign) {
+    return vitalSigns[vitalSign.ordinal()];
+  }
+
+  /**
+   * Get the set of vital signs that have a value generator set.
+   */
+  public Set<VitalSign> getVitalSigns() {
+    Set<VitalSign> set = EnumSet.noneOf(VitalSign.class);
+    for (VitalSign vitalSign : VITAL_SIGNS) {
+      if (vitalSigns[vitalSign.ordinal()] != null) {
+        set.add(vitalSign);
+      }
+    }
+    return set;
+  }
+
+  /**
+   * Set the value generator for a vital sign. Any memoized value for that vital sign
+   * is discarded.
+   */
   public void setVitalSign(VitalSign vitalSign, ValueGenerator valueGenerator) {
-    vitalSigns.put(vitalSign, valueGenerator);
+    int index = vitalSign.ordinal();
+    vitalSigns[index] = valueGenerator;
+    vitalSignTimes[index] = NOT_MEMOIZED;
   }
 
   /**
@@ -480,11 +606,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    *         care-seeking behaviors.
    */
   public int symptomTotal() {
-    int total = 0;
-    for (String type : symptoms.keySet()) {
-      total += getSymptom(type);
-    }
-    return total;
+    return symptomTotal;
   }
 
   public boolean hadPriorState(String name) {
@@ -10,20 +10,28 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
-import org.mitre.synthea.helpers.SimpleCSV;
-import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.helpers.StreamingCSV;
 import org.mitre.synthea.modules.LifecycleModule;
 import org.mitre.synthea.world.agents.behaviors.IProviderFinder;
 import org.mitre.synthea.world.agents.behaviors.ProviderFinderNearest;
@@ -52,11 +60,25 @@ public class Provider implements QuadTreeElement, Serializable {
   // ArrayList of all providers imported
   private static ArrayList<Provider> providerList = new ArrayList<Provider>();
   private static QuadTree providerMap = generateQuadTree();
+  // the same providers by the services they offer, so a search only visits those that can help
+  private static Map<EncounterType, QuadTree> serviceMaps = generateServiceMaps();
+  // the VA facilities by service, for veterans who must be seen at one
+  private static Map<EncounterType, QuadTree> veteranServiceMaps = generateServiceMaps();
   private static Set<String> statesLoaded = new HashSet<String>();
   private static int loaded = 0;
 
   private static final double MAX_PROVIDER_SEARCH_DISTANCE =
       Double.parseDouble(Config.get("generate.providers.maximum_search_distance", "2"));
+  /** The first radius, in degrees, searched by findService. */
+  private static final double MIN_SEARCH_RADIUS = 0.125;
+  /** The last radius, in degrees, searched by findService. */
+  private static final double MAX_SEARCH_RADIUS = maxSearchRadius();
+  /** The size, in degrees, of the cells that nearest providers are cached for; 0 to disable. */
+  private static final double NEAREST_CACHE_CELL =
+      Double.parseDouble(Config.get("generate.providers.nearest_cache_cell", "0.1"));
+  // providers that may be nearest to someone in a cell, filled in as people look for care
+  private static Map<NearestCell, List<Provider>> nearestCache =
+      new ConcurrentHashMap<NearestCell, List<Provider>>();
   public static final String PROVIDER_SELECTION_BEHAVIOR =
       Config.get("generate.providers.selection_behavior", "nearest").toLowerCase();
   private static IProviderFinder providerFinder = buildProviderFinder();
@@ -75,12 +97,44 @@ public class Provider implements QuadTreeElement, Serializable {
   public String type;
   public String ownership;
   public int quality;
-  private double revenue;
+  private final DoubleAdder revenue;
   private Point2D.Double coordinates;
   public ArrayList<EncounterType> servicesProvided;
-  public Map<String, ArrayList<Clinician>> clinicianMap;
-  // row: year, column: type, value: count
-  private transient Table<Integer, String, AtomicInteger> utilization;
+  // generated the first time a clinician is chosen or listed, see getClinicians
+  private volatile Map<String, ArrayList<Clinician>> clinicianMap;
+  // number of clinicians of each specialty, from the providers file
+  private Map<String, Integer> clinicianCounts;
+  private long clinicianSeed;
+  // the number of providers loaded before this one, part of its clinicians' identifiers
+  private int loadIndex;
+  // key: year, value: counters indexed like UTILIZATION_KEYS
+  private transient ConcurrentHashMap<Integer, LongAdder[]> utilization;
+  // revenue and utilization counted in the statistics scopes other than the default one
+  private transient StatisticsScope.PerScope<ScopedStatistics> scopedStatistics;
+
+  /** The revenue and utilization of a statistics scope other than the default one. */
+  private static class ScopedStatistics {
+    private final DoubleAdder revenue = new DoubleAdder();
+    private final ConcurrentHashMap<Integer, LongAdder[]> utilization =
+        new ConcurrentHashMap<Integer, LongAdder[]>();
+  }
+
+  /** Kinds of utilization counted each year, followed by the encounters of each type. */
+  private enum Utilization {
+    ENCOUNTERS(Provider.ENCOUNTERS), PROCEDURES(Provider.PROCEDURES), LABS(Provider.LABS),
+    PRESCRIPTIONS(Provider.PRESCRIPTIONS);
+
+    private final String key;
+
+    Utilization(String key) {
+      this.key = key;
+    }
+  }
+
+  /** Index of the first counter of encounters by type. */
+  private static final int ENCOUNTERS_BY_TYPE = Utilization.values().length;
+  /** Column keys of the utilization table, in the order the counters are kept. */
+  private static final String[] UTILIZATION_KEYS = utilizationKeys();
 
   /**
    * Java Serialization support for the utilization field.
@@ -88,13 +142,11 @@ public class Provider implements QuadTreeElement, Serializable {
    */
   private void writeObject(ObjectOutputStream oos) throws IOException {
     oos.defaultWriteObject();
-    ArrayList<Payer.UtilizationBean> entryUtilizationElements = null;
-    if (utilization != null) {
-      entryUtilizationElements = new ArrayList<>(utilization.size());
-      for (Table.Cell<Integer, String, AtomicInteger> cell: utilization.cellSet()) {
-        entryUtilizationElements.add(
-                new Payer.UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
-      }
+    Table<Integer, String, AtomicInteger> table = utilizationTable(utilization);
+    ArrayList<Payer.UtilizationBean> entryUtilizationElements = new ArrayList<>(table.size());
+    for (Table.Cell<Integer, String, AtomicInteger> cell: table.cellSet()) {
+      entryUtilizationElements.add(
+              new Payer.UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
     }
     oos.writeObject(entryUtilizationElements);
   }
@@ -107,10 +159,12 @@ public class Provider implements QuadTreeElement, Serializable {
     ois.defaultReadObject();
     ArrayList<Payer.UtilizationBean> entryUtilizationElements = 
             (ArrayList<Payer.UtilizationBean>)ois.readObject();
+    this.utilization = new ConcurrentHashMap<Integer, LongAdder[]>();
+    this.scopedStatistics = new StatisticsScope.PerScope<ScopedStatistics>(ScopedStatistics::new);
     if (entryUtilizationElements != null) {
-      this.utilization = HashBasedTable.create();
+      List<String> keys = Arrays.asList(UTILIZATION_KEYS);
       for (Payer.UtilizationBean u: entryUtilizationElements) {
-        this.utilization.put(u.year, u.type, u.count);
+        utilizationCounters(utilization, u.year)[keys.indexOf(u.type)].add(u.count.get());
       }
     }
   }
@@ -123,10 +177,11 @@ public class Provider implements QuadTreeElement, Serializable {
     uuid = UUID.randomUUID().toString();
     locationUuid = UUID.randomUUID().toString();
     attributes = new LinkedTreeMap<>();
-    revenue = 0.0;
-    utilization = HashBasedTable.create();
+    revenue = new DoubleAdder();
+    utilization = new ConcurrentHashMap<Integer, LongAdder[]>();
+    scopedStatistics = new StatisticsScope.PerScope<ScopedStatistics>(ScopedStatistics::new);
     servicesProvided = new ArrayList<EncounterType>();
-    clinicianMap = new HashMap<String, ArrayList<Clinician>>();
+    clinicianCounts = new LinkedHashMap<String, Integer>();
     coordinates = new Point2D.Double();
   }
 
@@ -167,34 +222,99 @@ public class Provider implements QuadTreeElement, Serializable {
   }
 
   public void incrementEncounters(EncounterType service, int year) {
-    increment(year, ENCOUNTERS);
-    increment(year, ENCOUNTERS + "-" + service);
+    LongAdder[] counters = utilizationCounters(year);
+    counters[Utilization.ENCOUNTERS.ordinal()].increment();
+    counters[ENCOUNTERS_BY_TYPE + service.ordinal()].increment();
   }
 
   public void incrementProcedures(int year) {
-    increment(year, PROCEDURES);
+    utilizationCounters(year)[Utilization.PROCEDURES.ordinal()].increment();
   }
 
   public void incrementLabs(int year) {
-    increment(year, LABS);
+    utilizationCounters(year)[Utilization.LABS.ordinal()].increment();
   }
 
   public void incrementPrescriptions(int year) {
-    increment(year, PRESCRIPTIONS);
+    utilizationCounters(year)[Utilization.PRESCRIPTIONS.ordinal()].increment();
   }
 
-  private synchronized void increment(Integer year, String key) {
-    if (utilization != null) { // TODO remove once utilization stats are made serializable
-      if (!utilization.contains(year, key)) {
-        utilization.put(year, key, new AtomicInteger(0));
+  /**
+   * Get the utilization counters of a year, creating them the first time the year is counted.
+   * Many threads may count the utilization of a popular provider at once, so the counters are
+   * LongAdders rather than values behind a lock.
+   * @param year The year.
+   * @return The counters, indexed like UTILIZATION_KEYS.
+   */
+  private LongAdder[] utilizationCounters(int year) {
+    return utilizationCounters(utilization(), year);
+  }
+
+  /**
+   * Get the utilization counters of a year from the counters of one statistics scope.
+   * @param utilization The counters of the scope, keyed by year.
+   * @param year The year.
+   * @return The counters, indexed like UTILIZATION_KEYS.
+   */
+  private static LongAdder[] utilizationCounters(
+      ConcurrentHashMap<Integer, LongAdder[]> utilization, int year) {
+    LongAdder[] counters = utilization.get(year);
+    if (counters == null) {
+      LongAdder[] created = new LongAdder[UTILIZATION_KEYS.length];
+      for (int i = 0; i < created.length; i++) {
+        created[i] = new LongAdder();
+      }
+      counters = utilization.putIfAbsent(year, created);
+      if (counters == null) {
+        counters = created;
       }
+    }
+    return counters;
+  }
 
-      utilization.get(year, key).incrementAndGet();
+  /**
+   * Build the column keys of the utilization table.
+   * @return the keys, in the order the counters are kept.
+   */
+  private static String[] utilizationKeys() {
+    EncounterType[] services = EncounterType.values();
+    String[] keys = new String[ENCOUNTERS_BY_TYPE + services.length];
+    for (Utilization kind : Utilization.values()) {
+      keys[kind.ordinal()] = kind.key;
     }
+    for (EncounterType service : services) {
+      keys[ENCOUNTERS_BY_TYPE + service.ordinal()] = ENCOUNTERS + "-" + service;
+    }
+    return keys;
   }
 
+  /**
+   * Get the utilization of this provider so far, summed from the counters on each call.
+   * @return Table with row: year, column: type, e.g. "encounters" or "encounters-wellness",
+   *     value: count. Only counts above zero are included.
+   */
   public Table<Integer, String, AtomicInteger> getUtilization() {
-    return utilization;
+    return utilizationTable(utilization());
+  }
+
+  /**
+   * Sum the utilization counters of one statistics scope into a table.
+   * @param utilization The counters of the scope, keyed by year.
+   * @return Table like getUtilization.
+   */
+  private static Table<Integer, String, AtomicInteger> utilizationTable(
+      Map<Integer, LongAdder[]> utilization) {
+    Table<Integer, String, AtomicInteger> table = HashBasedTable.create();
+    for (Map.Entry<Integer, LongAdder[]> year : utilization.entrySet()) {
+      LongAdder[] counters = year.getValue();
+      for (int i = 0; i < counters.length; i++) {
+        long count = counters[i].sum();
+        if (count > 0) {
+          table.put(year.getKey(), UTILIZATION_KEYS[i], new AtomicInteger((int) count));
+        }
+      }
+    }
+    return table;
   }
 
   /**
@@ -219,6 +339,8 @@ public class Provider implements QuadTreeElement, Serializable {
     // for now assume every provider accepts every patient
     // UNLESS it's a VA facility and the person is not a veteran
     // eventually we may want to expand this (ex. capacity?)
+    // findService caches nearest providers by veteran status, so anything else
+    // considered here must be added to its NearestCell as well
     if ("VA Facility".equals(this.type) && !person.attributes.containsKey("veteran")) {
       return false;
     }
@@ -231,14 +353,30 @@ public class Provider implements QuadTreeElement, Serializable {
    * @param costOfCare the cost of the care to be added to revenue.
    */
   public void addRevenue(double costOfCare) {
-    this.revenue += costOfCare;
+    revenue().add(costOfCare);
   }
 
   /**
    * Returns the total revenue of this provider.
    */
   public double getRevenue() {
-    return this.revenue;
+    return revenue().sum();
+  }
+
+  /**
+   * Get the revenue counted in the current statistics scope.
+   */
+  private DoubleAdder revenue() {
+    int scope = StatisticsScope.current();
+    return scope == StatisticsScope.DEFAULT ? revenue : scopedStatistics.get(scope).revenue;
+  }
+
+  /**
+   * Get the utilization counters of the current statistics scope, keyed by year.
+   */
+  private ConcurrentHashMap<Integer, LongAdder[]> utilization() {
+    int scope = StatisticsScope.current();
+    return scope == StatisticsScope.DEFAULT ? utilization : scopedStatistics.get(scope).utilization;
   }
 
   /**
@@ -249,12 +387,20 @@ public class Provider implements QuadTreeElement, Serializable {
    * @return Service provider or null if none is available.
    */
   public static Provider findService(Person person, EncounterType service, long time) {
+    if (providerFinder instanceof ProviderFinderNearest) {
+      // the nearest provider within the largest radius is what the search below finds,
+      // but it can be found in a single pass over the tree
+      if (MAX_SEARCH_RADIUS < MIN_SEARCH_RADIUS) {
+        return null;
+      }
+      return findNearest(person, service, time);
+    }
     double maxDistance = MAX_PROVIDER_SEARCH_DISTANCE;
-    double degrees = 0.125;
+    double degrees = MIN_SEARCH_RADIUS;
     List<Provider> options = null;
     Provider provider = null;
     while (degrees <= maxDistance) {
-      options = findProvidersByLocation(person, degrees);
+      options = findProvidersByLocation(person, service, degrees);
       provider = providerFinder.find(options, person, service, time);
       if (provider != null) {
         return provider;
@@ -264,14 +410,161 @@ public class Provider implements QuadTreeElement, Serializable {
     return null;
   }
 
+  /**
+   * Find the nearest provider of a service within MAX_SEARCH_RADIUS of a person. The providers
+   * that can be nearest to anyone in the same cell of a grid are searched for once and cached,
+   * so that only those few are compared for everyone else in the cell.
+   * @param person The patient who requires the service.
+   * @param service The service required, or null for any service.
+   * @param time The date/time within the simulated world, in milliseconds.
+   * @return Service provider or null if none is available.
+   */
+  private static Provider findNearest(Person person, EncounterType service, long time) {
+    boolean veteran = person.attributes.containsKey("veteran");
+    QuadTree index = serviceMap(service);
+    if (service != null && veteran
+        && service != EncounterType.URGENTCARE && service != EncounterType.EMERGENCY) {
+      index = veteranServiceMaps.get(service);
+    }
+    Predicate<QuadTreeElement> filter = element ->
+        ProviderFinderNearest.canProvide((Provider) element, person, service, time);
+
+    if (NEAREST_CACHE_CELL > 0) {
+      NearestCell cell = new NearestCell(person, service, veteran);
+      List<Provider> candidates = nearestCache.get(cell);
+      if (candidates == null) {
+        candidates = cell.findCandidates(index, filter);
+        nearestCache.putIfAbsent(cell, candidates);
+      }
+      List<Provider> nearest = new ArrayList<Provider>();
+      double bestDistance = MAX_SEARCH_RADIUS;
+      boolean accepted = true;
+      for (Provider candidate : candidates) {
+        if (!filter.test(candidate)) {
+          // the candidates were cached for someone the provider accepted,
+          // so others may need to look further
+          accepted = false;
+          break;
+        }
+        double distance = person.distance(candidate);
+        if (distance < bestDistance) {
+          nearest.clear();
+          bestDistance = distance;
+        }
+        if (distance <= bestDistance) {
+          nearest.add(candidate);
+        }
+      }
+      if (accepted) {
+        return ProviderFinderNearest.choose(nearest, person);
+      }
+    }
+
+    List<Provider> nearest = new ArrayList<Provider>();
+    for (QuadTreeElement item : index.nearest(person, MAX_SEARCH_RADIUS, filter)) {
+      nearest.add((Provider) item);
+    }
+    return ProviderFinderNearest.choose(nearest, person);
+  }
+
+  /**
+   * A square of the grid used to cache nearest providers, for one service and either veterans
+   * or everyone else.
+   */
+  private static final class NearestCell implements QuadTreeElement {
+    private final long column;
+    private final long row;
+    private final EncounterType service;
+    private final boolean veteran;
+
+    private NearestCell(Person person, EncounterType service, boolean veteran) {
+      this.column = (long) Math.floor(person.getX() / NEAREST_CACHE_CELL);
+      this.row = (long) Math.floor(person.getY() / NEAREST_CACHE_CELL);
+      this.service = service;
+      this.veteran = veteran;
+    }
+
+    /**
+     * Find every provider that may be the nearest one to some point in this cell.
+     * Whoever is nearest to a point is no further from it than the provider nearest to the
+     * center, which is at most half a diagonal away, so they are all within that distance
+     * plus another half diagonal of the center.
+     * @param index The providers of the service.
+     * @param filter The condition the providers must satisfy.
+     * @return The providers, in the order the index finds them.
+     */
+    private List<Provider> findCandidates(QuadTree index, Predicate<QuadTreeElement> filter) {
+      double halfDiagonal = NEAREST_CACHE_CELL * Math.sqrt(0.5);
+      List<Provider> candidates = new ArrayList<Provider>();
+      List<QuadTreeElement> nearest =
+          index.nearest(this, MAX_SEARCH_RADIUS + halfDiagonal, filter);
+      if (nearest.isEmpty()) {
+        return candidates;
+      }
+      double radius = Math.min(distance(nearest.get(0)) + halfDiagonal, MAX_SEARCH_RADIUS)
+          + halfDiagonal;
+      // allow for rounding in the distances measured from the center
+      radius += NEAREST_CACHE_CELL * 1e-9;
+      for (QuadTreeElement item : index.query(this, radius)) {
+        if (filter.test(item)) {
+          candidates.add((Provider) item);
+        }
+      }
+      return candidates;
+    }
+
+    @Override
+    public double getX() {
+      return (column + 0.5) * NEAREST_CACHE_CELL;
+    }
+
+    @Override
+    public double getY() {
+      return (row + 0.5) * NEAREST_CACHE_CELL;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof NearestCell)) {
+        return false;
+      }
+      NearestCell other = (NearestCell) obj;
+      return column == other.column && row == other.row && service == other.service
+          && veteran == other.veteran;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(column, row, service, veteran);
+    }
+  }
+
+  /**
+   * The largest radius searched by findService, which doubles the radius from
+   * MIN_SEARCH_RADIUS as long as it stays within MAX_PROVIDER_SEARCH_DISTANCE.
+   * @return the radius in degrees, or 0 if no radius is searched at all.
+   */
+  private static double maxSearchRadius() {
+    double degrees = MIN_SEARCH_RADIUS;
+    if (degrees > MAX_PROVIDER_SEARCH_DISTANCE) {
+      return 0.0;
+    }
+    while (degrees * 2.0 <= MAX_PROVIDER_SEARCH_DISTANCE) {
+      degrees *= 2.0;
+    }
+    return degrees;
+  }
+
   /**
    * Find a service around a given point.
    * @param person The patient who requires the service.
+   * @param service The service required, or null for any service.
    * @param distance in degrees
-   * @return List of providers within the given distance.
+   * @return List of providers of the service within the given distance.
    */
-  private static List<Provider> findProvidersByLocation(Person person, double distance) {
-    List<QuadTreeElement> results = providerMap.query(person, distance);
+  private static List<Provider> findProvidersByLocation(Person person, EncounterType service,
+      double distance) {
+    List<QuadTreeElement> results = serviceMap(service).query(person, distance);
     List<Provider> providers = new ArrayList<Provider>();
     for (QuadTreeElement item : results) {
       providers.add((Provider) item);
@@ -286,6 +579,9 @@ public class Provider implements QuadTreeElement, Serializable {
     providerList.clear();
     statesLoaded.clear();
     providerMap = generateQuadTree();
+    serviceMaps = generateServiceMaps();
+    veteranServiceMaps = generateServiceMaps();
+    nearestCache.clear();
     providerFinder = buildProviderFinder();
     loaded = 0;
   }
@@ -299,14 +595,53 @@ public class Provider implements QuadTreeElement, Serializable {
     return new QuadTree();
   }
 
+  /**
+   * Generate an empty quad tree for each service.
+   * @return Map of service to QuadTree.
+   */
+  private static Map<EncounterType, QuadTree> generateServiceMaps() {
+    Map<EncounterType, QuadTree> maps = new EnumMap<EncounterType, QuadTree>(EncounterType.class);
+    for (EncounterType service : EncounterType.values()) {
+      maps.put(service, generateQuadTree());
+    }
+    return maps;
+  }
+
+  /**
+   * Get the quad tree of the providers of a service.
+   * @param service The service, or null for any service.
+   * @return QuadTree of the providers of the service, or of all providers.
+   */
+  private static QuadTree serviceMap(EncounterType service) {
+    if (service == null) {
+      return providerMap;
+    }
+    return serviceMaps.get(service);
+  }
+
   /**
    * Load into cache the list of providers for a state.
    * @param location the state being loaded.
    */
   public static void loadProviders(Location location, long clinicianSeed) {
-    if (!statesLoaded.contains(location.state)
-        || !statesLoaded.contains(Location.getAbbreviation(location.state))
-        || !statesLoaded.contains(Location.getStateName(location.state))) {
+    loadProviders(Collections.singletonList(location), clinicianSeed);
+  }
+
+  /**
+   * Load into cache the lists of providers for several states at once, reading each provider
+   * file once for all of them rather than once per state. States already loaded are skipped.
+   * @param locations the states being loaded.
+   */
+  public static void loadProviders(Collection<Location> locations, long clinicianSeed) {
+    List<Location> states = new ArrayList<Location>();
+    for (Location location : locations) {
+      if (!statesLoaded.contains(location.state)
+          || !statesLoaded.contains(Location.getAbbreviation(location.state))
+          || !statesLoaded.contains(Location.getStateName(location.state))) {
+        states.add(location);
+      }
+    }
+    if (!states.isEmpty()) {
       try {
         Set<EncounterType> servicesProvided = new HashSet<EncounterType>();
         servicesProvided.add(EncounterType.AMBULATORY);
@@ -314,27 +649,31 @@ public class Provider implements QuadTreeElement, Serializable {
         servicesProvided.add(EncounterType.INPATIENT);
 
         String hospitalFile = Config.get("generate.providers.hospitals.default_file");
-        loadProviders(location, hospitalFile, servicesProvided, clinicianSeed);
+        loadProviders(states, hospitalFile, servicesProvided, clinicianSeed);
 
         servicesProvided.add(EncounterType.WELLNESS);
         String vaFile = Config.get("generate.providers.veterans.default_file");
-        loadProviders(location, vaFile, servicesProvided, clinicianSeed);
+        loadProviders(states, vaFile, servicesProvided, clinicianSeed);
 
         servicesProvided.clear();
         servicesProvided.add(EncounterType.WELLNESS);
         String primaryCareFile = Config.get("generate.providers.primarycare.default_file");
-        loadProviders(location, primaryCareFile, servicesProvided, clinicianSeed);
+        loadProviders(states, primaryCareFile, servicesProvided, clinicianSeed);
         
         servicesProvided.clear();
         servicesProvided.add(EncounterType.URGENTCARE);
         String urgentcareFile = Config.get("generate.providers.urgentcare.default_file");
-        loadProviders(location, urgentcareFile, servicesProvided, clinicianSeed);
+        loadProviders(states, urgentcareFile, servicesProvided, clinicianSeed);
       
-        statesLoaded.add(location.state);
-        statesLoaded.add(Location.getAbbreviation(location.state));
-        statesLoaded.add(Location.getStateName(location.state));
+        for (Location location : states) {
+          statesLoaded.add(location.state);
+          statesLoaded.add(Location.getAbbreviation(location.state));
+          statesLoaded.add(Location.getStateName(location.state));
+        }
       } catch (IOException e) {
-        System.err.println("ERROR: unable to load providers for state: " + location.state);
+        for (Location location : states) {
+          System.err.println("ERROR: unable to load providers for state: " + location.state);
+        }
         e.printStackTrace();
       }
     }
@@ -342,7 +681,8 @@ public class Provider implements QuadTreeElement, Serializable {
 
   /**
    * Read the providers from the given resource file, only importing the ones for the given state.
-   * THIS method is for loading providers and generating clinicians with specific specialties
+   * THIS method is for loading providers and counting clinicians with specific specialties,
+   * who are generated the first time they are needed (see getClinicians)
    *
    * @param location the state being loaded
    * @param filename Location of the file, relative to src/main/resources
@@ -352,24 +692,47 @@ public class Provider implements QuadTreeElement, Serializable {
   public static void loadProviders(Location location, String filename,
       Set<EncounterType> servicesProvided, long clinicianSeed)
       throws IOException {
-    String resource = Utilities.readResource(filename);
-    Iterator<? extends Map<String,String>> csv = SimpleCSV.parseLineByLine(resource);
-    Random clinicianRand = new Random(clinicianSeed);
-    
-    while (csv.hasNext()) {
-      Map<String,String> row = csv.next();
-      String currState = row.get("state");
-      String abbreviation = Location.getAbbreviation(location.state);
-
-      // for now, only allow one state at a time
-      if ((location.state == null)
-          || (location.state != null && location.state.equalsIgnoreCase(currState))
-          || (abbreviation != null && abbreviation.equalsIgnoreCase(currState))) {
+    loadProviders(Collections.singletonList(location), filename, servicesProvided,
+        clinicianSeed);
+  }
 
+  /**
+   * Read the providers from the given resource file, importing the ones of any of the given
+   * states, each with the location of its state.
+   *
+   * @param locations the states being loaded
+   * @param filename Location of the file, relative to src/main/resources
+   * @param servicesProvided Set of services provided by these facilities
+   * @throws IOException if the file cannot be read
+   */
+  private static void loadProviders(List<Location> locations, String filename,
+      Set<EncounterType> servicesProvided, long clinicianSeed)
+      throws IOException {
+    String[] abbreviations = new String[locations.size()];
+    for (int i = 0; i < abbreviations.length; i++) {
+      abbreviations[i] = Location.getAbbreviation(locations.get(i).state);
+    }
+    try (StreamingCSV csv = StreamingCSV.open(filename)) {
+      int stateColumn = csv.column("state");
+      while (csv.next()) {
+        Location location = null;
+        for (int i = 0; i < abbreviations.length && location == null; i++) {
+          Location candidate = locations.get(i);
+          if (candidate.state == null
+              || csv.equalsIgnoreCase(stateColumn, candidate.state)
+              || csv.equalsIgnoreCase(stateColumn, abbreviations[i])) {
+            location = candidate;
+          }
+        }
+        if (location == null) {
+          continue;
+        }
+        Map<String,String> row = csv.toMap();
         Provider parsed = csvLineToProvider(row);
         parsed.servicesProvided.addAll(servicesProvided);
 
-        if ("Yes".equals(row.remove("emergency"))) {
+        if ("Yes".equals(row.remove("emergency"))
+            && !parsed.hasService(EncounterType.EMERGENCY)) {
           parsed.servicesProvided.add(EncounterType.EMERGENCY);
         }
 
@@ -383,30 +746,33 @@ public class Provider implements QuadTreeElement, Serializable {
         // String city = parsed.city;
         // String address = parsed.address;
 
+        // most providers never see a patient, so their clinicians are only counted here
+        parsed.clinicianSeed = clinicianSeed;
+        parsed.loadIndex = loaded;
         if (row.get("hasSpecialties") == null
             || row.get("hasSpecialties").equalsIgnoreCase("false")) {
-          parsed.clinicianMap.put(ClinicianSpecialty.GENERAL_PRACTICE, 
-              parsed.generateClinicianList(1, ClinicianSpecialty.GENERAL_PRACTICE,
-                  clinicianSeed, clinicianRand));
+          parsed.clinicianCounts.put(ClinicianSpecialty.GENERAL_PRACTICE, 1);
         } else {
           for (String specialty : ClinicianSpecialty.getSpecialties()) {
             String specialtyCount = row.get(specialty);
             if (specialtyCount != null && !specialtyCount.trim().equals("")
                 && !specialtyCount.trim().equals("0")) {
-              parsed.clinicianMap.put(specialty, 
-                  parsed.generateClinicianList(Integer.parseInt(row.get(specialty)), specialty,
-                      clinicianSeed, clinicianRand));
+              parsed.clinicianCounts.put(specialty, Integer.parseInt(row.get(specialty)));
             }
           }
           if (row.get(ClinicianSpecialty.GENERAL_PRACTICE).equals("0")) {
-            parsed.clinicianMap.put(ClinicianSpecialty.GENERAL_PRACTICE, 
-                parsed.generateClinicianList(1, ClinicianSpecialty.GENERAL_PRACTICE,
-                    clinicianSeed, clinicianRand));
+            parsed.clinicianCounts.put(ClinicianSpecialty.GENERAL_PRACTICE, 1);
           }
         }
 
         providerList.add(parsed);
         boolean inserted = providerMap.insert(parsed);
+        for (EncounterType service : parsed.servicesProvided) {
+          inserted &= serviceMaps.get(service).insert(parsed);
+          if ("VA Facility".equals(parsed.type)) {
+            inserted &= veteranServiceMaps.get(service).insert(parsed);
+          }
+        }
         if (!inserted) {
           throw new RuntimeException("Provider QuadTree Full! Dropping # " + loaded + ": "
               + parsed.name + " @ " + parsed.city);
@@ -414,22 +780,60 @@ public class Provider implements QuadTreeElement, Serializable {
           loaded++;
         }
       }
+    } finally {
+      // the new providers may be nearer than the candidates cached for some cells
+      nearestCache.clear();
     }
   }
 
+  /**
+   * Get the clinicians of this provider by specialty, generating them on first use.
+   * They are the same no matter when they are generated, since they only depend on the
+   * clinician seed and this provider.
+   * @return the clinicians by specialty.
+   */
+  public Map<String, ArrayList<Clinician>> getClinicians() {
+    Map<String, ArrayList<Clinician>> clinicians = clinicianMap;
+    if (clinicians == null) {
+      synchronized (this) {
+        clinicians = clinicianMap;
+        if (clinicians == null) {
+          clinicians = generateClinicians();
+          clinicianMap = clinicians;
+        }
+      }
+    }
+    return clinicians;
+  }
+
+  /**
+   * Generates the clinicians of every specialty counted for this provider.
+   * @return the clinicians by specialty.
+   */
+  private Map<String, ArrayList<Clinician>> generateClinicians() {
+    Random clinicianRand =
+        new Random(clinicianSeed ^ (Objects.hashCode(id) * 0x9E3779B97F4A7C15L));
+    Map<String, ArrayList<Clinician>> clinicians = new HashMap<String, ArrayList<Clinician>>();
+    for (Map.Entry<String, Integer> count : clinicianCounts.entrySet()) {
+      clinicians.put(count.getKey(),
+          generateClinicianList(count.getValue(), count.getKey(), clinicianRand));
+    }
+    return clinicians;
+  }
+
   /**
    * Generates a list of clinicians, given the number to generate and the specialty.
    * @param numClinicians - the number of clinicians to generate
    * @param specialty - which specialty clinicians to generate
    * @return
    */
-  private ArrayList<Clinician> generateClinicianList(int numClinicians, String specialty, 
-      long clinicianSeed, Random clinicianRand) {
+  private ArrayList<Clinician> generateClinicianList(int numClinicians, String specialty,
+      Random clinicianRand) {
     ArrayList<Clinician> clinicians = new ArrayList<Clinician>();
     for (int i = 0; i < numClinicians; i++) {
       Clinician clinician = null;
       clinician = generateClinician(clinicianSeed, clinicianRand,
-          Long.parseLong(loaded + "" + i), this);
+          Long.parseLong(loadIndex + "" + i), this);
       clinician.attributes.put(Clinician.SPECIALTY, specialty);
       clinicians.add(clinician);
     }
@@ -500,7 +904,7 @@ public class Provider implements QuadTreeElement, Serializable {
    * @return A clinician with the required specialty.
    */
   public Clinician chooseClinicianList(String specialty, RandomNumberGenerator rand) {
-    ArrayList<Clinician> clinicians = this.clinicianMap.get(specialty);
+    ArrayList<Clinician> clinicians = getClinicians().get(specialty);
     Clinician doc = clinicians.get(rand.randInt(clinicians.size()));
     doc.incrementEncounters();
     return doc;
@@ -550,6 +954,25 @@ public class Provider implements QuadTreeElement, Serializable {
     return providerList;
   }
 
+  /**
+   * Reset the revenue and utilization of every loaded provider and of their clinicians in the
+   * current statistics scope, so that the providers exported after a run only count that run.
+   */
+  public static void resetStatistics() {
+    for (Provider provider : providerList) {
+      provider.revenue().reset();
+      provider.utilization().clear();
+      Map<String, ArrayList<Clinician>> clinicians = provider.clinicianMap;
+      if (clinicians != null) {
+        for (ArrayList<Clinician> specialty : clinicians.values()) {
+          for (Clinician clinician : specialty) {
+            clinician.resetEncounterCount();
+          }
+        }
+      }
+    }
+  }
+
   @Override
   public double getX() {
     return coordinates.getX();
@@ -0,0 +1,76 @@
+package org.mitre.synthea.world.agents;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Selects, for the current thread, which of several independent sets of statistics the
+ * providers, their clinicians and the payers count into and report. Scenarios forked from one
+ * population are simulated at the same time on the same providers and payers, each in a scope
+ * of its own, so that each scenario exports the utilization, revenue and costs of its own
+ * people only. Everything else runs in the default scope.
+ */
+public final class StatisticsScope {
+  /** The scope of every run that does not ask for another one. */
+  public static final int DEFAULT = 0;
+
+  private static final ThreadLocal<int[]> current = ThreadLocal.withInitial(() -> new int[1]);
+
+  private StatisticsScope() {}
+
+  /**
+   * Get the scope of the current thread.
+   * @return the scope, DEFAULT unless the thread is running in another one.
+   */
+  public static int current() {
+    return current.get()[0];
+  }
+
+  /**
+   * Run a task in the given scope on the current thread, then return to the previous scope.
+   * @param scope the scope to count statistics in.
+   * @param task the task.
+   */
+  public static void run(int scope, Runnable task) {
+    int[] holder = current.get();
+    int previous = holder[0];
+    holder[0] = scope;
+    try {
+      task.run();
+    } finally {
+      holder[0] = previous;
+    }
+  }
+
+  /**
+   * The statistics one object keeps in the scopes other than the default one, each created the
+   * first time the scope is used. They only last as long as the run that uses the scopes, so
+   * they are not serialized along with the object.
+   * @param <T> the statistics of a single scope.
+   */
+  static final class PerScope<T> {
+    private final ConcurrentHashMap<Integer, T> byScope = new ConcurrentHashMap<Integer, T>();
+    private final Supplier<T> factory;
+
+    /**
+     * Create the statistics of the scopes other than the default one.
+     * @param factory creates the empty statistics of a scope.
+     */
+    PerScope(Supplier<T> factory) {
+      this.factory = factory;
+    }
+
+    /**
+     * Get the statistics of a scope other than the default one, creating them if needed.
+     * @param scope the scope.
+     * @return the statistics.
+     */
+    T get(int scope) {
+      T statistics = byScope.get(scope);
+      if (statistics == null) {
+        statistics = byScope.computeIfAbsent(scope, key -> factory.get());
+      }
+      return statistics;
+    }
+  }
+}
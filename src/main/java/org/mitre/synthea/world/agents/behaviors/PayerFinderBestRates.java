@@ -33,9 +33,7 @@ public class PayerFinderBestRates implements IPayerFinder {
           numberOfEncounterDuringLastTwelveMonths(person.defaultRecord, time);
     }
 
-    HealthRecord.Encounter dummy =
-        person.record.new Encounter(time, EncounterType.AMBULATORY.toString());
-
+    String expectedType = EncounterType.AMBULATORY.toString();
     Payer bestRatePayer = Payer.noInsurance;
     double bestExpectedRate = Double.MAX_VALUE;
 
@@ -44,7 +42,7 @@ public class PayerFinderBestRates implements IPayerFinder {
         // First, calculate the annual premium.
         double expectedRate = (payer.getMonthlyPremium() * 12.0);
         // Second, calculate expected copays based on last years visits.
-        expectedRate += (payer.determineCopay(dummy) * numberOfExpectedEncounters);
+        expectedRate += (payer.determineCopay(expectedType, time) * numberOfExpectedEncounters);
         // TODO consider deductibles, coinsurance, covered services, etc.
         if (expectedRate < bestExpectedRate) {
           bestExpectedRate = expectedRate;
@@ -62,15 +60,7 @@ public class PayerFinderBestRates implements IPayerFinder {
    * @return The number of encounters during the last 12 months.
    */
   protected int numberOfEncounterDuringLastTwelveMonths(HealthRecord record, long time) {
-    double oneYearAgo = time - Utilities.convertTime("years", 1);
-    int count = 0;
-    for (int i = record.encounters.size() - 1; i >= 0; i--) {
-      if (record.encounters.get(i).start >= oneYearAgo) {
-        count++;
-      } else {
-        break;
-      }
-    }
-    return count;
+    // a rolling count, since each person looks for a payer at increasing times
+    return record.countEncountersSince(time - Utilities.convertTime("years", 1));
   }
 }
\ No newline at end of file
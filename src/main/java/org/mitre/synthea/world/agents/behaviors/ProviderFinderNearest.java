@@ -16,14 +16,7 @@ public class ProviderFinderNearest implements IProviderFinder {
     List<Provider> options = new ArrayList<Provider>();
 
     for (Provider provider : providers) {
-      if (provider.accepts(person, time)
-          && (provider.hasService(service) || service == null)) {
-        if (person.attributes.containsKey("veteran")
-                && !("VA Facility".equals(provider.type))
-                && !(service.equals(
-                        EncounterType.URGENTCARE) || service.equals(EncounterType.EMERGENCY))) {
-          continue;
-        }
+      if (canProvide(provider, person, service, time)) {
         distance = provider.getLonLat().distance(person.getLonLat());
         if (distance < minDistance) {
           options.clear();
@@ -35,6 +28,39 @@ public class ProviderFinderNearest implements IProviderFinder {
       }
     }
 
+    return choose(options, person);
+  }
+
+  /**
+   * Check whether a provider may be chosen to provide a service to a person.
+   * @param provider The provider to check.
+   * @param person The patient who requires the service.
+   * @param service The service required, or null for any service.
+   * @param time The date/time within the simulated world, in milliseconds.
+   * @return True if the provider may be chosen.
+   */
+  public static boolean canProvide(Provider provider, Person person, EncounterType service,
+      long time) {
+    if (provider.accepts(person, time)
+        && (provider.hasService(service) || service == null)) {
+      if (person.attributes.containsKey("veteran")
+              && !("VA Facility".equals(provider.type))
+              && !(service.equals(
+                      EncounterType.URGENTCARE) || service.equals(EncounterType.EMERGENCY))) {
+        return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Choose one of the providers that are equally near to a person.
+   * @param options The equally near providers.
+   * @param person The patient who requires the service.
+   * @return One of the providers or null if there are none.
+   */
+  public static Provider choose(List<Provider> options, Person person) {
     if (options.isEmpty()) {
       return null;
     } else if (options.size() == 1) {
@@ -10,7 +10,7 @@ import java.util.Map;
 
 import org.mitre.synthea.export.Exporter;
 import org.mitre.synthea.helpers.Config;
-import org.mitre.synthea.helpers.SimpleCSV;
+import org.mitre.synthea.helpers.StreamingCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
 
@@ -56,9 +56,12 @@ public class BirthStatistics {
   private static List<? extends Map<String,String>> loadData() {
     String filename = Config.get("generate.birthweights.default_file");
     List<? extends Map<String,String>> csv = null;
-    try {
-      String resource = Utilities.readResource(filename);
-      csv = SimpleCSV.parse(resource);
+    try (StreamingCSV rows = StreamingCSV.open(filename)) {
+      List<Map<String,String>> data = new ArrayList<Map<String,String>>();
+      while (rows.next()) {
+        data.add(rows.toMap());
+      }
+      csv = data;
     } catch (Exception e) {
       System.err.println("Failed to load default birth weight file!");
       e.printStackTrace();
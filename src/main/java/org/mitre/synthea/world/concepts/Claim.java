@@ -46,6 +46,18 @@ public class Claim implements Serializable {
     this.items = new ArrayList<Entry>();
   }
 
+  /**
+   * Constructor of a copy of a Claim with different line items, for a filtered view of a
+   * health record.
+   */
+  public Claim(Claim claim, List<Entry> items) {
+    this.mainEntry = claim.mainEntry;
+    this.coveredCost = claim.coveredCost;
+    this.payer = claim.payer;
+    this.person = claim.person;
+    this.items = items;
+  }
+
   /**
    * Adds non-explicit costs to the Claim. (Procedures/Immunizations/etc).
    */
@@ -91,25 +103,11 @@ public class Claim implements Serializable {
   }
 
   /**
-   * Returns the additional costs from any immunzations/procedures tied to the encounter.
-   */
-  private double getLineItemCosts() {
-    double additionalCosts = 0.0;
-    // Sum line-item entry costs.
-    for (Entry entry : this.items) {
-      additionalCosts += entry.getCost().doubleValue();
-    }
-    return additionalCosts;
-  }
-
-  /**
-   * Returns the total cost of the Claim, including immunizations/procedures tied to the encounter.
+   * Returns the total cost of the Claim. The immunizations/procedures tied to the encounter are
+   * not included, so their costs are only determined when an exporter needs them.
    */
   public double getTotalClaimCost() {
-    double totalCost = 0.0;
-    totalCost += this.getLineItemCosts();
-    totalCost = mainEntry.getCost().doubleValue();
-    return totalCost;
+    return mainEntry.getCost().doubleValue();
   }
 
   /**
@@ -2,14 +2,11 @@ package org.mitre.synthea.world.concepts;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.function.DoubleSupplier;
 
 import org.mitre.synthea.helpers.Config;
-import org.mitre.synthea.helpers.RandomNumberGenerator;
-import org.mitre.synthea.helpers.SimpleCSV;
-import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.helpers.StreamingCSV;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 import org.mitre.synthea.world.geography.Location;
@@ -45,6 +42,19 @@ public class Costs {
    * @return the total cost of the entry.
    */
   public static double determineCostOfEntry(Entry entry, Person person) {
+    return determineCostOfEntry(entry, person, () -> person.rand());
+  }
+
+  /**
+   * Return the cost of the given entry (Encounter/Procedure/Immunization/Medication), drawing
+   * from the given source of randomness rather than the person's.
+   *
+   * @param entry the entry to calculate the cost for.
+   * @param person the person associated with the entry.
+   * @param random source of random values between 0-1.
+   * @return the total cost of the entry.
+   */
+  public static double determineCostOfEntry(Entry entry, Person person, DoubleSupplier random) {
 
     double defaultCost = 0.0;
     Map<String, CostData> costs = null;
@@ -70,7 +80,7 @@ public class Costs {
     // Retrieve the base cost based on the code.
     double baseCost;
     if (costs != null && costs.containsKey(code)) {
-      baseCost = costs.get(code).chooseCost(person);
+      baseCost = costs.get(code).chooseCost(random);
     } else {
       baseCost = defaultCost;
     }
@@ -101,27 +111,30 @@ public class Costs {
    */
   private static Map<String, CostData> parseCsvToMap(String filename) {
     try {
-      String rawData = Utilities.readResource(filename);
-      List<LinkedHashMap<String, String>> lines = SimpleCSV.parse(rawData);
-
       Map<String, CostData> costMap = new HashMap<>();
-      for (Map<String, String> line : lines) {
-        String code = line.get("CODE");
-        String minStr = line.get("MIN");
-        String modeStr = line.get("MODE");
-        String maxStr = line.get("MAX");
-
-        try {
-          double min = Double.parseDouble(minStr);
-          double mode = Double.parseDouble(modeStr);
-          double max = Double.parseDouble(maxStr);
-          costMap.put(code, new CostData(min, mode, max));
-        } catch (NumberFormatException nfe) {
-          System.err.println(filename + ": Invalid cost for code: '"
-              + code + "' -- costs should be numeric but were "
-              + "'" + minStr + "', '" + modeStr + "', '" + maxStr + "'");
-          System.err.println("Code '" + code + "' will use the default cost");
-          nfe.printStackTrace();
+      try (StreamingCSV csv = StreamingCSV.open(filename)) {
+        int codeColumn = csv.column("CODE");
+        int minColumn = csv.column("MIN");
+        int modeColumn = csv.column("MODE");
+        int maxColumn = csv.column("MAX");
+        while (csv.next()) {
+          String code = csv.get(codeColumn);
+          String minStr = csv.get(minColumn);
+          String modeStr = csv.get(modeColumn);
+          String maxStr = csv.get(maxColumn);
+
+          try {
+            double min = Double.parseDouble(minStr);
+            double mode = Double.parseDouble(modeStr);
+            double max = Double.parseDouble(maxStr);
+            costMap.put(code, new CostData(min, mode, max));
+          } catch (NumberFormatException nfe) {
+            System.err.println(filename + ": Invalid cost for code: '"
+                + code + "' -- costs should be numeric but were "
+                + "'" + minStr + "', '" + modeStr + "', '" + maxStr + "'");
+            System.err.println("Code '" + code + "' will use the default cost");
+            nfe.printStackTrace();
+          }
         }
       }
 
@@ -134,18 +147,19 @@ public class Costs {
 
   private static Map<String, Double> parseAdjustmentFactors() {
     try {
-      String rawData = Utilities.readResource("costs/adjustmentFactors.csv");
-      List<LinkedHashMap<String, String>> lines = SimpleCSV.parse(rawData);
-
       Map<String, Double> costMap = new HashMap<>();
-      for (Map<String, String> line : lines) {
-        String state = line.get("STATE");
-        String factorStr = line.get("ADJ_FACTOR");
-        try {
-          Double factor = Double.valueOf(factorStr);
-          costMap.put(state, factor);
-        } catch (NumberFormatException nfe) {
-          throw new RuntimeException("Invalid cost adjustment factor: " + factorStr, nfe);
+      try (StreamingCSV csv = StreamingCSV.open("costs/adjustmentFactors.csv")) {
+        int stateColumn = csv.column("STATE");
+        int factorColumn = csv.column("ADJ_FACTOR");
+        while (csv.next()) {
+          String state = csv.get(stateColumn);
+          String factorStr = csv.get(factorColumn);
+          try {
+            Double factor = Double.valueOf(factorStr);
+            costMap.put(state, factor);
+          } catch (NumberFormatException nfe) {
+            throw new RuntimeException("Invalid cost adjustment factor: " + factorStr, nfe);
+          }
         }
       }
       return costMap;
@@ -206,8 +220,8 @@ public class Costs {
      * @param rand Source of randomness
      * @return Single cost within the range this set of cost data represents
      */
-    private double chooseCost(RandomNumberGenerator rand) {
-      return triangularDistribution(min, max, mode, rand.rand());
+    private double chooseCost(DoubleSupplier rand) {
+      return triangularDistribution(min, max, mode, rand.getAsDouble());
     }
 
     /**
@@ -12,7 +12,11 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,9 +24,13 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Clinician;
@@ -43,8 +51,15 @@ public class HealthRecord implements Serializable {
 
   /**
    * HealthRecord.Code represents a system, code, and display value.
+   *
+   * <p>Codes that are used over and over again should be obtained from {@link #canonical}, which
+   * returns one shared instance per distinct code. Canonical codes are shared by every record
+   * that uses them, so they must not be modified: create a new Code instead.
    */
   public static class Code implements Comparable<Code>, Serializable {
+    /** Canonical codes, keyed by system, code, display and value set. */
+    private static final Map<String, Code> CANONICAL_CODES = new ConcurrentHashMap<String, Code>();
+
     /** Code System (e.g. LOINC, RxNorm, SNOMED) identifier (typically a URI) */
     public String system;
     /** The code itself. */
@@ -82,8 +97,78 @@ public class HealthRecord implements Serializable {
       this.display = definition.get("display").getAsString();
     }
 
+    /**
+     * Get the canonical instance of a code.
+     * @param system  the URI identifier of the code system
+     * @param code    the code itself
+     * @param display human-readable description of the code
+     * @return the shared instance of the code.
+     */
+    public static Code canonical(String system, String code, String display) {
+      Code canonical = CANONICAL_CODES.get(key(system, code, display, null));
+      if (canonical == null) {
+        canonical = canonical(new Code(system, code, display));
+      }
+      return canonical;
+    }
+
+    /**
+     * Get the canonical instance of a code equal to the given one, including its display and
+     * value set. The given code becomes the canonical instance if there is none yet.
+     * @param code the code.
+     * @return the shared instance of the code.
+     */
+    public static Code canonical(Code code) {
+      return CANONICAL_CODES.computeIfAbsent(
+          key(code.system, code.code, code.display, code.valueSet), k -> {
+            code.system = intern(code.system);
+            code.code = intern(code.code);
+            code.display = intern(code.display);
+            code.valueSet = intern(code.valueSet);
+            return code;
+          });
+    }
+
+    /**
+     * Replace each code in a list with its canonical instance.
+     * @param codes the codes, may be null.
+     * @return a new list of the canonical codes, or null.
+     */
+    public static List<Code> canonical(List<Code> codes) {
+      if (codes == null) {
+        return null;
+      }
+      List<Code> canonicalCodes = new ArrayList<Code>(codes.size());
+      for (Code code : codes) {
+        canonicalCodes.add(canonical(code));
+      }
+      return canonicalCodes;
+    }
+
+    /**
+     * Intern a piece of clinical text, such as a display name or unit, that is repeated across
+     * many records.
+     * @param text the text, may be null.
+     * @return the interned text.
+     */
+    public static String intern(String text) {
+      return text == null ? null : text.intern();
+    }
+
+    private static String key(String system, String code, String display, String valueSet) {
+      return system + '|' + code + '|' + display + '|' + valueSet;
+    }
+
+    /**
+     * Deserialized codes are replaced with their canonical instance.
+     */
+    private Object readResolve() {
+      return canonical(this);
+    }
+
     public boolean equals(Code other) {
-      return this.system.equals(other.system) && this.code.equals(other.code);
+      return this == other
+          || (this.system.equals(other.system) && this.code.equals(other.code));
     }
 
     public String toString() {
@@ -99,7 +184,7 @@ public class HealthRecord implements Serializable {
     public static List<Code> fromJson(JsonArray jsonCodes) {
       List<Code> codes = new ArrayList<>();
       jsonCodes.forEach(item -> {
-        codes.add(new Code((JsonObject) item));
+        codes.add(canonical(new Code((JsonObject) item)));
       });
       return codes;
     }
@@ -119,36 +204,61 @@ public class HealthRecord implements Serializable {
    * Observations, Reports, Medications, etc. All Entries have a name, start and
    * stop times, a type, and a list of associated codes.
    */
-  public class Entry implements Serializable {
+  public class Entry implements Cloneable, Serializable {
     /** reference to the HealthRecord this entry belongs to. */
     HealthRecord record = HealthRecord.this;
-    public String fullUrl;
     public String name;
     public long start;
     public long stop;
     public String type;
     public List<Code> codes;
     private BigDecimal cost;
+    /** seed of the cost draw, so the cost does not depend on when it is first needed. */
+    private final long costSeed;
 
     /**
      * Constructor for Entry.
      */
     public Entry(long start, String type) {
+      this(start, type, nextEntrySeed());
+    }
+
+    /**
+     * Constructor for an Entry that is not a new event in the record, such as one rebuilt from
+     * stored data or one made up by an exporter. It takes the given seed instead of the next
+     * one, so the seeds of the entries created after it do not change.
+     * @param seed the seed of the entry, see getSeed.
+     */
+    public Entry(long start, String type, long seed) {
       this.start = start;
       this.type = type;
       this.codes = new ArrayList<Code>();
+      this.costSeed = seed;
     }
 
     /**
      * Determines the cost of the entry based on type and location adjustment factors.
      */
     void determineCost() {
-      this.cost = BigDecimal.valueOf(Costs.determineCostOfEntry(this, this.record.person));
+      Random random = new Random(costSeed);
+      this.cost = BigDecimal.valueOf(
+          Costs.determineCostOfEntry(this, this.record.person, random::nextDouble));
       this.cost = this.cost.setScale(2, RoundingMode.DOWN); // truncate to 2 decimal places
     }
 
     /**
-     * Returns the base cost of the entry.
+     * Returns the seed of the entry, which is derived from the person's seed and the number of
+     * entries created before it. It is the same every time the person is simulated, is shared by
+     * copies of the entry, and differs from the seed of every other entry of the record, so it
+     * also identifies the entry, for example in exported IDs.
+     */
+    public long getSeed() {
+      return costSeed;
+    }
+
+    /**
+     * Returns the base cost of the entry. The cost is only determined when it is first needed,
+     * by the payer when a claim is settled or by an exporter.
      */
     public BigDecimal getCost() {
       if ((this.cost == null)) {
@@ -167,6 +277,19 @@ public class HealthRecord implements Serializable {
       return this.codes.stream().anyMatch(c -> code.equals(c.code) && system.equals(c.system));
     }
 
+    /**
+     * Create a shallow copy of this entry, which shares its codes and any lists with it. Used
+     * to build views of a record that differ from it without modifying it.
+     * @return the copy, of the same class as this entry.
+     */
+    public Entry copy() {
+      try {
+        return (Entry) clone();
+      } catch (CloneNotSupportedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
     /**
      * Converts the entry to a String.
      */
@@ -191,6 +314,16 @@ public class HealthRecord implements Serializable {
       this.value = value;
       this.observations = new ArrayList<Observation>();
     }
+
+    /**
+     * Constructor for an Observation that is not a new event in the record, with the given
+     * seed, see Entry(long, String, long).
+     */
+    public Observation(long time, String type, Object value, long seed) {
+      super(time, type, seed);
+      this.value = value;
+      this.observations = new ArrayList<Observation>();
+    }
   }
 
   public class Report extends Entry {
@@ -511,6 +644,13 @@ public class HealthRecord implements Serializable {
     // Track if we renewed meds at this encounter. Used in State.java encounter state.
     public boolean chronicMedsRenewed;
     public String clinicalNote;
+    /**
+     * Only set on the copy of an encounter that a delta export makes when the encounter was
+     * already exported before: the time of that export. The copy holds only the entries added to
+     * the encounter or stopped since then, and exporters refer to the encounter by its ID rather
+     * than exporting it, or its claim, again.
+     */
+    public transient Long exportedUntil;
 
     /**
      * Construct an encounter.
@@ -518,7 +658,18 @@ public class HealthRecord implements Serializable {
      * @param type the type of the encounter.
      */
     public Encounter(long time, String type) {
-      super(time, type);
+      this(time, type, nextEntrySeed());
+    }
+
+    /**
+     * Construct an encounter that is not a new event in the record, with the given seed, see
+     * Entry(long, String, long).
+     * @param time the time of the encounter.
+     * @param type the type of the encounter.
+     * @param seed the seed of the encounter.
+     */
+    public Encounter(long time, String type, long seed) {
+      super(time, type, seed);
       if (type.equalsIgnoreCase(EncounterType.EMERGENCY.toString())) {
         // Emergency encounters should take at least an hour.
         this.stop = this.start + TimeUnit.MINUTES.toMillis(60);
@@ -557,6 +708,7 @@ public class HealthRecord implements Serializable {
     public Observation addObservation(long time, String type, Object value) {
       Observation observation = new Observation(time, type, value);
       this.observations.add(observation);
+      observationAdded(this, type);
       return observation;
     }
 
@@ -571,7 +723,8 @@ public class HealthRecord implements Serializable {
     public Observation addObservation(long time, String type, Object value, String display) {
       Observation observation = new Observation(time, type, value);
       this.observations.add(observation);
-      observation.codes.add(new Code("LOINC", type, display));
+      observation.codes.add(Code.canonical("LOINC", type, display));
+      observationAdded(this, type);
       return observation;
     }
 
@@ -581,6 +734,10 @@ public class HealthRecord implements Serializable {
      * @return A single observation or null
      */
     public Observation findObservation(String code) {
+      if (observations instanceof ObservationColumns) {
+        int index = ((ObservationColumns) observations).indexOfType(code);
+        return index < 0 ? null : observations.get(index);
+      }
       return observations
           .stream()
           .filter(o -> o.type.equals(code))
@@ -605,13 +762,282 @@ public class HealthRecord implements Serializable {
       }
     }
   }
-  
+
+  /**
+   * A list of observations that stores the simple ones (a single code, a Double value, and no
+   * report, sub-observations or cost) column-wise in arrays instead of as Observation objects.
+   * Reading a compact observation turns it back into an Observation, which then replaces the
+   * compact row, so changes made to it are kept, until compact is called again once the reader
+   * is done. Used for closed encounters in the compact record mode, see
+   * "generate.compact_observations".
+   */
+  private static class ObservationColumns extends AbstractList<Observation>
+      implements RandomAccess, Serializable {
+    /** The record the observations belong to, which rebuilt observations refer to. */
+    private final HealthRecord record;
+    /** Observations that are stored as objects. Null for a compact row. */
+    private Observation[] objects;
+    private long[] seeds;
+    private long[] starts;
+    private double[] values;
+    private String[] types;
+    private Code[] codes;
+    private String[] units;
+    private String[] categories;
+    private String[] names;
+    private int size;
+
+    ObservationColumns(HealthRecord record, List<Observation> observations) {
+      this.record = record;
+      int capacity = observations.size();
+      objects = new Observation[capacity];
+      seeds = new long[capacity];
+      starts = new long[capacity];
+      values = new double[capacity];
+      types = new String[capacity];
+      codes = new Code[capacity];
+      units = new String[capacity];
+      categories = new String[capacity];
+      names = new String[capacity];
+      for (Observation observation : observations) {
+        add(observation);
+      }
+    }
+
+    private boolean isCompactable(Observation observation) {
+      return observation.getClass() == Observation.class
+          && observation.value instanceof Double
+          && observation.codes.size() == 1
+          && observation.observations.isEmpty()
+          && observation.report == null
+          && ((Entry) observation).cost == null
+          && observation.stop == 0L;
+    }
+
+    /**
+     * Get the type of an observation without turning a compact row back into an object.
+     */
+    String typeAt(int index) {
+      checkIndex(index);
+      return objects[index] == null ? types[index] : objects[index].type;
+    }
+
+    /**
+     * Get the start time of an observation without turning a compact row back into an object.
+     */
+    long startAt(int index) {
+      checkIndex(index);
+      return objects[index] == null ? starts[index] : objects[index].start;
+    }
+
+    /**
+     * Find the first observation of a type without turning compact rows back into objects.
+     * @return the index of the observation, or -1 if there is none.
+     */
+    int indexOfType(String type) {
+      for (int i = 0; i < size; i++) {
+        if (typeAt(i).equals(type)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Observation get(int index) {
+      checkIndex(index);
+      if (objects[index] == null) {
+        Observation observation =
+            record.new Observation(starts[index], types[index], values[index], seeds[index]);
+        observation.codes.add(codes[index]);
+        observation.unit = units[index];
+        observation.category = categories[index];
+        observation.name = names[index];
+        objects[index] = observation;
+      }
+      return objects[index];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Turn the observations that were read back as objects into compact rows again, keeping
+     * any changes made to them, unless they no longer fit in a row.
+     */
+    void compact() {
+      for (int i = 0; i < size; i++) {
+        Observation observation = objects[i];
+        if (observation != null && isCompactable(observation)) {
+          storeRow(i, observation);
+        }
+      }
+    }
+
+    @Override
+    public Observation set(int index, Observation observation) {
+      Observation previous = get(index);
+      objects[index] = observation;
+      return previous;
+    }
+
+    @Override
+    public void add(int index, Observation observation) {
+      if (index < 0 || index > size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      if (size == objects.length) {
+        grow(Math.max(4, size * 2));
+      }
+      shift(index, index + 1, size - index);
+      size++;
+      modCount++;
+      if (isCompactable(observation)) {
+        storeRow(index, observation);
+      } else {
+        objects[index] = observation;
+      }
+    }
+
+    private void storeRow(int index, Observation observation) {
+      objects[index] = null;
+      seeds[index] = observation.getSeed();
+      starts[index] = observation.start;
+      values[index] = (Double) observation.value;
+      types[index] = observation.type;
+      codes[index] = observation.codes.get(0);
+      units[index] = observation.unit;
+      categories[index] = observation.category;
+      names[index] = observation.name;
+    }
+
+    @Override
+    public Observation remove(int index) {
+      Observation removed = get(index);
+      shift(index + 1, index, size - index - 1);
+      size--;
+      modCount++;
+      objects[size] = null;
+      types[size] = null;
+      codes[size] = null;
+      units[size] = null;
+      categories[size] = null;
+      names[size] = null;
+      return removed;
+    }
+
+    private void checkIndex(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+    }
+
+    private void grow(int capacity) {
+      objects = Arrays.copyOf(objects, capacity);
+      seeds = Arrays.copyOf(seeds, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      values = Arrays.copyOf(values, capacity);
+      types = Arrays.copyOf(types, capacity);
+      codes = Arrays.copyOf(codes, capacity);
+      units = Arrays.copyOf(units, capacity);
+      categories = Arrays.copyOf(categories, capacity);
+      names = Arrays.copyOf(names, capacity);
+    }
+
+    private void shift(int from, int to, int length) {
+      if (length > 0) {
+        for (Object column : new Object[] {objects, seeds, starts, values, types, codes, units,
+            categories, names}) {
+          System.arraycopy(column, from, column, to, length);
+        }
+      }
+    }
+  }
+
+  /**
+   * A RecordListener is told about changes to a health record as they happen, so that it can
+   * act on them during the simulation instead of walking the whole record afterwards. Only
+   * changes made through the HealthRecord methods are reported; entries that are added to an
+   * encounter's lists directly are not.
+   */
+  public interface RecordListener {
+    /**
+     * Called after an encounter has been started and added to the record. Every earlier
+     * encounter is closed at this point: new entries are always added to the latest encounter.
+     * @param record the record.
+     * @param encounter the new encounter.
+     */
+    default void encounterStarted(HealthRecord record, Encounter encounter) {}
+
+    /**
+     * Called after an encounter has been ended and its costs assigned.
+     * @param record the record.
+     * @param encounter the encounter that ended.
+     */
+    default void encounterEnded(HealthRecord record, Encounter encounter) {}
+
+    /**
+     * Called after a new entry has been added to an encounter.
+     * @param record the record.
+     * @param encounter the encounter the entry was added to.
+     * @param entry the new entry.
+     */
+    default void entryAdded(HealthRecord record, Encounter encounter, Entry entry) {}
+
+    /**
+     * Called after an entry has been given a stop time.
+     * @param record the record.
+     * @param entry the entry that stopped.
+     */
+    default void entryStopped(HealthRecord record, Entry entry) {}
+  }
+
   private Person person;
   public Provider provider;
   public List<Encounter> encounters;
   public Map<String, Entry> present;
   /** recorded death date/time. */
   public Long death;
+  /** Number of entries created in this record, used for seeds when it has no person. */
+  private long entryCount;
+  /** Whether closed encounters store their observations compactly. */
+  private final boolean compactObservations =
+      Config.getAsBoolean("generate.compact_observations", false);
+
+  /*
+   * Indexes over the encounters, maintained incrementally. New entries go to the last
+   * encounter, so every encounter before it is folded into the indexes once, and the last one
+   * is always checked directly. Editors may still add observations to the earlier encounters of
+   * a time step through Encounter.addObservation, which updates the indexes for them. They are
+   * rebuilt if encounters are removed.
+   */
+  /** Number of encounters, from the start of the list, folded into the indexes. */
+  private transient int indexedEncounters;
+  /** Latest indexed encounter with an observation of each type. */
+  private transient Map<String, Encounter> latestObservationEncounters;
+  /** UUIDs of the providers of the indexed encounters. */
+  private transient Set<String> providerUuids;
+  /** Most recent wellness encounter among the indexed encounters. */
+  private transient Encounter latestWellnessEncounter;
+
+  /** Start time of the latest window requested from encountersSince. */
+  private transient long encounterWindowStart;
+  /** Index of the first encounter that may have started within that window. */
+  private transient int encounterWindowIndex;
+  /** Start time of the latest window counted by countEncountersSince. */
+  private transient long encounterCountStart;
+  /** Index of the first encounter that started within that window. */
+  private transient int encounterCountIndex;
+
+  /** Present entries by the name of the state that created them. */
+  private transient Map<String, Entry> presentByStateName;
+  /** Entries added to present since presentByStateName was last updated. */
+  private transient List<Entry> unindexedPresent;
+
+  /** Listeners told about changes to this record. Null if there are none. */
+  private transient List<RecordListener> listeners;
 
   /**
    * Construct a health record for the supplied person.
@@ -623,18 +1049,269 @@ public class HealthRecord implements Serializable {
     present = new HashMap<String, Entry>();
   }
 
+  /**
+   * Get the seed of a new entry from the person, see Person.nextEntrySeed.
+   */
+  private long nextEntrySeed() {
+    if (person != null) {
+      return person.nextEntrySeed();
+    }
+    entryCount++;
+    return entryCount * 0x9E3779B97F4A7C15L;
+  }
+
+  /**
+   * Create a view of this record that has the given encounters instead of its own. The view
+   * shares everything else with this record, including the present entries and the listeners,
+   * so it is meant to be read, for instance by exporters, not simulated further. Exporters that
+   * listened to this record find themselves among the listeners of the view.
+   * @param encounters the encounters of the view.
+   * @return the view.
+   */
+  public HealthRecord view(List<Encounter> encounters) {
+    HealthRecord view = new HealthRecord(person);
+    view.provider = provider;
+    view.present = present;
+    view.death = death;
+    view.encounters = encounters;
+    view.listeners = listeners;
+    return view;
+  }
+
+  /**
+   * Add a listener that is told about every subsequent change to this record. Listeners are
+   * not serialized with the record.
+   * @param listener the listener.
+   */
+  public void addListener(RecordListener listener) {
+    if (listeners == null) {
+      listeners = new ArrayList<RecordListener>();
+    }
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener from this record.
+   * @param listener the listener.
+   */
+  public void removeListener(RecordListener listener) {
+    if (listeners != null) {
+      listeners.remove(listener);
+    }
+  }
+
+  /**
+   * Get the listeners of this record.
+   * @return the listeners, which may be empty.
+   */
+  public List<RecordListener> getListeners() {
+    if (listeners == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(listeners);
+  }
+
+  private void entryAdded(Encounter encounter, Entry entry) {
+    if (listeners != null) {
+      for (RecordListener listener : listeners) {
+        listener.entryAdded(this, encounter, entry);
+      }
+    }
+  }
+
+  private void entryStopped(Entry entry) {
+    if (listeners != null) {
+      for (RecordListener listener : listeners) {
+        listener.entryStopped(this, entry);
+      }
+    }
+  }
+
   /**
    * Returns the number of providers associated with this healthrecord.
    */
   public int providerCount() {
-    List<String> uuids = new ArrayList<String>();
-    for (Encounter enc : encounters) {
-      if (enc.provider != null) {
-        uuids.add(enc.provider.uuid);
+    updateEncounterIndexes();
+    int count = providerUuids.size();
+    if (!encounters.isEmpty()) {
+      Provider provider = encounters.get(encounters.size() - 1).provider;
+      if (provider != null && !providerUuids.contains(provider.uuid)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Fold any encounters that can no longer receive entries into the encounter indexes.
+   */
+  private void updateEncounterIndexes() {
+    int closedEncounters = encounters.size() - 1;
+    if (latestObservationEncounters == null || closedEncounters < indexedEncounters) {
+      indexedEncounters = 0;
+      latestObservationEncounters = new HashMap<String, Encounter>();
+      providerUuids = new HashSet<String>();
+      latestWellnessEncounter = null;
+    }
+    while (indexedEncounters < closedEncounters) {
+      Encounter encounter = encounters.get(indexedEncounters);
+      if (encounter.provider != null) {
+        providerUuids.add(encounter.provider.uuid);
+      }
+      if (encounter.type.equals(EncounterType.WELLNESS.toString())) {
+        latestWellnessEncounter = encounter;
+      }
+      List<Observation> observations = encounter.observations;
+      for (int i = 0; i < observations.size(); i++) {
+        String type = observations instanceof ObservationColumns
+            ? ((ObservationColumns) observations).typeAt(i)
+            : observations.get(i).type;
+        latestObservationEncounters.put(type, encounter);
+      }
+      indexedEncounters++;
+    }
+  }
+
+  /**
+   * Update the encounter indexes for an observation added through Encounter.addObservation,
+   * possibly to an encounter that was already folded into them: the encounter becomes the latest
+   * one with the type, unless a later encounter already has the type.
+   * @param encounter the encounter the observation was added to.
+   * @param type the type of the observation.
+   */
+  private void observationAdded(Encounter encounter, String type) {
+    if (latestObservationEncounters != null) {
+      Encounter latest = latestObservationEncounters.get(type);
+      if (latest == null || latest.start <= encounter.start) {
+        latestObservationEncounters.put(type, encounter);
+      }
+    }
+  }
+
+  /**
+   * Release the entries of a closed encounter that an exporter already wrote while the person was
+   * simulated, and that the simulation does not read again: every observation but the first of
+   * each type, which getLatestObservation may still return, and the imaging studies and
+   * supplies. Conditions, allergies, medications, care plans and devices may still be stopped,
+   * and procedures and immunizations are counted by the quality of life module, so they are
+   * kept. Only to be used when no exporter reads the whole record afterwards.
+   * @param encounter a closed encounter of this record.
+   */
+  public void release(Encounter encounter) {
+    List<Observation> observations = encounter.observations;
+    ObservationColumns columns = observations instanceof ObservationColumns
+        ? (ObservationColumns) observations : null;
+    Set<String> types = new HashSet<String>();
+    List<Observation> kept = new ArrayList<Observation>();
+    for (int i = 0; i < observations.size(); i++) {
+      String type = columns != null ? columns.typeAt(i) : observations.get(i).type;
+      if (types.add(type)) {
+        kept.add(observations.get(i));
+      }
+    }
+    if (columns != null) {
+      columns = new ObservationColumns(this, kept);
+      columns.compact();
+      encounter.observations = columns;
+    } else {
+      encounter.observations = kept;
+    }
+    encounter.imagingStudies = new ArrayList<ImagingStudy>(0);
+    encounter.supplies = new ArrayList<Supply>(0);
+  }
+
+  /**
+   * Store the observations of closed encounters compactly again after they were read back as
+   * objects, for example by an export, so that reading the whole record once does not undo the
+   * memory saved by "generate.compact_observations". Changes made to them are kept.
+   */
+  public void recompactObservations() {
+    for (Encounter encounter : encounters) {
+      if (encounter.observations instanceof ObservationColumns) {
+        ((ObservationColumns) encounter.observations).compact();
+      }
+    }
+  }
+
+  /**
+   * Condense the part of the record that will not be exported because it is older than the
+   * export window (see "exporter.years_of_history"), keeping only what the simulation may still
+   * need. Entries in encounters that started at or before the cutoff time are dropped unless the
+   * export filter could still keep them or the simulation may still look them up: conditions are
+   * always kept, since they make up the quality of life history; allergies, medications and
+   * care plans are kept while active or if they stopped after the cutoff; and the latest
+   * observation of each type is kept. Encounters left without any of those entries are removed.
+   * Entries in `present` are not affected.
+   *
+   * <p>The cutoff must not be later than the cutoff the record will be exported with, so the
+   * current time minus the export window is always safe.
+   *
+   * @param cutoffTime the start of the export window.
+   */
+  public void condense(long cutoffTime) {
+    // fold every closed encounter into the indexes first, so they need no rebuild afterwards
+    updateEncounterIndexes();
+    int removed = 0;
+    Iterator<Encounter> iterator = encounters.iterator();
+    for (int i = encounters.size() - 1; i > 0; i--) {
+      Encounter encounter = iterator.next();
+      if (encounter.start > cutoffTime) {
+        continue;
+      }
+      List<Entry> claimItems = encounter.claim.items;
+      condenseEntries(encounter.allergies, claimItems, cutoffTime, true);
+      condenseEntries(encounter.medications, claimItems, cutoffTime, true);
+      condenseEntries(encounter.careplans, claimItems, cutoffTime, true);
+      condenseEntries(encounter.procedures, claimItems, cutoffTime, false);
+      condenseEntries(encounter.immunizations, claimItems, cutoffTime, false);
+      condenseEntries(encounter.reports, claimItems, cutoffTime, false);
+      condenseObservations(encounter, cutoffTime);
+      if (encounter.conditions.isEmpty() && encounter.allergies.isEmpty()
+          && encounter.observations.isEmpty() && encounter.reports.isEmpty()
+          && encounter.procedures.isEmpty() && encounter.medications.isEmpty()
+          && encounter.immunizations.isEmpty() && encounter.careplans.isEmpty()
+          && encounter != latestWellnessEncounter) {
+        // the export filter drops empty encounters along with their devices and supplies
+        iterator.remove();
+        removed++;
+      }
+    }
+    indexedEncounters -= removed;
+    encounterWindowIndex = 0;
+    encounterCountIndex = 0;
+  }
+
+  private static <E extends Entry> void condenseEntries(List<E> entries, List<Entry> claimItems,
+      long cutoffTime, boolean keepActive) {
+    Iterator<E> iterator = entries.iterator();
+    while (iterator.hasNext()) {
+      E entry = iterator.next();
+      boolean stopped = entry.stop == 0L ? !keepActive : entry.stop <= cutoffTime;
+      if (entry.start <= cutoffTime && stopped) {
+        iterator.remove();
+        claimItems.removeIf(item -> item == entry);
+      }
+    }
+  }
+
+  private void condenseObservations(Encounter encounter, long cutoffTime) {
+    List<Observation> observations = encounter.observations;
+    ObservationColumns columns = observations instanceof ObservationColumns
+        ? (ObservationColumns) observations : null;
+    // the latest observation of a type is the first one in its encounter
+    Set<String> types = new HashSet<String>();
+    int i = 0;
+    while (i < observations.size()) {
+      String type = columns != null ? columns.typeAt(i) : observations.get(i).type;
+      long start = columns != null ? columns.startAt(i) : observations.get(i).start;
+      long stop = columns != null ? 0L : observations.get(i).stop;
+      boolean latest = types.add(type) && latestObservationEncounters.get(type) == encounter;
+      if (latest || start > cutoffTime || stop > cutoffTime) {
+        i++;
+      } else {
+        observations.remove(i);
       }
     }
-    Set<String> uniqueUuids = new HashSet<String>(uuids);
-    return uniqueUuids.size();
   }
 
   /**
@@ -693,6 +1370,52 @@ public class HealthRecord implements Serializable {
     return encounter;
   }
 
+  /**
+   * Get the encounters that started at or after the supplied time, in the order they were added.
+   * Successive calls with increasing times, such as once per time step, resume from where the
+   * previous call stopped, so they only look at the encounters of the latest window.
+   * @param time the start of the window.
+   * @return the encounters that started within the window.
+   */
+  public List<Encounter> encountersSince(long time) {
+    if (time < encounterWindowStart || encounterWindowIndex > encounters.size()) {
+      encounterWindowIndex = 0;
+    }
+    encounterWindowStart = time;
+    while (encounterWindowIndex < encounters.size()
+        && encounters.get(encounterWindowIndex).start < time) {
+      encounterWindowIndex++;
+    }
+    List<Encounter> window = new ArrayList<Encounter>();
+    for (int i = encounterWindowIndex; i < encounters.size(); i++) {
+      Encounter encounter = encounters.get(i);
+      if (encounter.start >= time) {
+        window.add(encounter);
+      }
+    }
+    return window;
+  }
+
+  /**
+   * Count the encounters that started at or after the supplied time. Like encountersSince,
+   * successive calls with increasing times resume from where the previous call stopped, but
+   * with a cursor of their own, so a rolling count such as the encounters of the last year
+   * does not disturb the windows of each time step.
+   * @param time the start of the window.
+   * @return the number of encounters that started within the window.
+   */
+  public int countEncountersSince(long time) {
+    if (time < encounterCountStart || encounterCountIndex > encounters.size()) {
+      encounterCountIndex = 0;
+    }
+    encounterCountStart = time;
+    while (encounterCountIndex < encounters.size()
+        && encounters.get(encounterCountIndex).start < time) {
+      encounterCountIndex++;
+    }
+    return encounters.size() - encounterCountIndex;
+  }
+
   /**
    * Return the time between the supplied time and the time of the last wellness encounter.
    * If there are no wellness encounter return Long.MAX_VALUE.
@@ -700,13 +1423,17 @@ public class HealthRecord implements Serializable {
    * @return the time difference, negative if time is before the first wellness encounter).
    */
   public long timeSinceLastWellnessEncounter(long time) {
-    for (int i = encounters.size() - 1; i >= 0; i--) {
-      Encounter encounter = encounters.get(i);
+    if (!encounters.isEmpty()) {
+      Encounter encounter = encounters.get(encounters.size() - 1);
       if (encounter.type.equals(EncounterType.WELLNESS.toString())) {
         return (time - encounter.start);
       }
     }
-    return Long.MAX_VALUE;
+    updateEncounterIndexes();
+    if (latestWellnessEncounter == null) {
+      return Long.MAX_VALUE;
+    }
+    return (time - latestWellnessEncounter.start);
   }
 
   /**
@@ -717,7 +1444,10 @@ public class HealthRecord implements Serializable {
    * @return the new observation.
    */
   public Observation observation(long time, String type, Object value) {
-    return currentEncounter(time).addObservation(time, type, value);
+    Encounter encounter = currentEncounter(time);
+    Observation observation = encounter.addObservation(time, type, value);
+    entryAdded(encounter, observation);
+    return observation;
   }
 
   /**
@@ -743,6 +1473,7 @@ public class HealthRecord implements Serializable {
       }
     }
     encounter.observations.add(observation);
+    entryAdded(encounter, observation);
     return observation;
   }
 
@@ -752,14 +1483,67 @@ public class HealthRecord implements Serializable {
    * @return the latest observation or null if none exists.
    */
   public Observation getLatestObservation(String type) {
-    for (int i = encounters.size() - 1; i >= 0; i--) {
-      Encounter encounter = encounters.get(i);
-      Observation obs = encounter.findObservation(type);
+    if (!encounters.isEmpty()) {
+      Observation obs = encounters.get(encounters.size() - 1).findObservation(type);
       if (obs != null) {
         return obs;
       }
     }
-    return null;
+    updateEncounterIndexes();
+    Encounter encounter = latestObservationEncounters.get(type);
+    return encounter == null ? null : encounter.findObservation(type);
+  }
+
+  /**
+   * Add an entry to the present entries.
+   * @param type the type of the entry.
+   * @param entry the entry.
+   */
+  private void putPresent(String type, Entry entry) {
+    present.put(type, entry);
+    if (unindexedPresent == null) {
+      unindexedPresent = new ArrayList<Entry>();
+    }
+    unindexedPresent.add(entry);
+  }
+
+  /**
+   * Find a present entry created by the named state. The state sets the entry name right after
+   * creating the entry, so entries are indexed by name the next time this is called.
+   * @param stateName the state to search for.
+   * @return the entry, or null if there is no present entry from the state.
+   */
+  private Entry presentByState(String stateName) {
+    if (presentByStateName == null) {
+      presentByStateName = new HashMap<String, Entry>();
+      addToStateNameIndex(present.values());
+      unindexedPresent = null;
+    } else if (unindexedPresent != null) {
+      addToStateNameIndex(unindexedPresent);
+      unindexedPresent = null;
+    }
+    Entry entry = presentByStateName.get(stateName);
+    if (entry != null && (present.get(entry.type) != entry || !stateName.equals(entry.name))) {
+      // the indexed entry has ended or been replaced, check for another one from the state
+      presentByStateName.remove(stateName);
+      entry = null;
+      for (Entry e : present.values()) {
+        if (stateName.equals(e.name)) {
+          entry = e;
+          presentByStateName.put(stateName, e);
+          break;
+        }
+      }
+    }
+    return entry;
+  }
+
+  private void addToStateNameIndex(Collection<Entry> entries) {
+    for (Entry e : entries) {
+      if (e.name != null) {
+        presentByStateName.put(e.name, e);
+      }
+    }
   }
 
   /**
@@ -774,7 +1558,8 @@ public class HealthRecord implements Serializable {
       Encounter encounter = currentEncounter(time);
       encounter.conditions.add(condition);
       encounter.claim.addLineItem(condition);
-      present.put(primaryCode, condition);
+      putPresent(primaryCode, condition);
+      entryAdded(encounter, condition);
     }
     return present.get(primaryCode);
   }
@@ -786,8 +1571,9 @@ public class HealthRecord implements Serializable {
    */
   public void conditionEnd(long time, String primaryCode) {
     if (present.containsKey(primaryCode)) {
-      present.get(primaryCode).stop = time;
-      present.remove(primaryCode);
+      Entry entry = present.remove(primaryCode);
+      entry.stop = time;
+      entryStopped(entry);
     }
   }
 
@@ -797,18 +1583,11 @@ public class HealthRecord implements Serializable {
    * @param stateName the state to search for.
    */
   public void conditionEndByState(long time, String stateName) {
-    Entry condition = null;
-    Iterator<Entry> iter = present.values().iterator();
-    while (iter.hasNext()) {
-      Entry e = iter.next();
-      if (e.name != null && e.name.equals(stateName)) {
-        condition = e;
-        break;
-      }
-    }
+    Entry condition = presentByState(stateName);
     if (condition != null) {
       condition.stop = time;
       present.remove(condition.type);
+      entryStopped(condition);
     }
   }
 
@@ -831,8 +1610,10 @@ public class HealthRecord implements Serializable {
   public Entry allergyStart(long time, String primaryCode) {
     if (!present.containsKey(primaryCode)) {
       Entry allergy = new Entry(time, primaryCode);
-      currentEncounter(time).allergies.add(allergy);
-      present.put(primaryCode, allergy);
+      Encounter encounter = currentEncounter(time);
+      encounter.allergies.add(allergy);
+      putPresent(primaryCode, allergy);
+      entryAdded(encounter, allergy);
     }
     return present.get(primaryCode);
   }
@@ -844,8 +1625,9 @@ public class HealthRecord implements Serializable {
    */
   public void allergyEnd(long time, String primaryCode) {
     if (present.containsKey(primaryCode)) {
-      present.get(primaryCode).stop = time;
-      present.remove(primaryCode);
+      Entry entry = present.remove(primaryCode);
+      entry.stop = time;
+      entryStopped(entry);
     }
   }
 
@@ -855,18 +1637,11 @@ public class HealthRecord implements Serializable {
    * @param stateName the state to search for.
    */
   public void allergyEndByState(long time, String stateName) {
-    Entry allergy = null;
-    Iterator<Entry> iter = present.values().iterator();
-    while (iter.hasNext()) {
-      Entry e = iter.next();
-      if (e.name != null && e.name.equals(stateName)) {
-        allergy = e;
-        break;
-      }
-    }
+    Entry allergy = presentByState(stateName);
     if (allergy != null) {
       allergy.stop = time;
       present.remove(allergy.type);
+      entryStopped(allergy);
     }
   }
 
@@ -881,7 +1656,8 @@ public class HealthRecord implements Serializable {
     Encounter encounter = currentEncounter(time);
     encounter.procedures.add(procedure);
     encounter.claim.addLineItem(procedure);
-    present.put(type, procedure);
+    putPresent(type, procedure);
+    entryAdded(encounter, procedure);
     return procedure;
   }
 
@@ -896,7 +1672,8 @@ public class HealthRecord implements Serializable {
     device.generateUDI(person);
     Encounter encounter = currentEncounter(time);
     encounter.devices.add(device);
-    present.put(type, device);
+    putPresent(type, device);
+    entryAdded(encounter, device);
     return device;
   }
 
@@ -907,8 +1684,9 @@ public class HealthRecord implements Serializable {
    */
   public void deviceRemove(long time, String type) {
     if (present.containsKey(type)) {
-      present.get(type).stop = time;
-      present.remove(type);
+      Entry device = present.remove(type);
+      device.stop = time;
+      entryStopped(device);
     }
   }
   
@@ -918,18 +1696,11 @@ public class HealthRecord implements Serializable {
    * @param stateName The state where the device was implanted or assigned.
    */
   public void deviceRemoveByState(long time, String stateName) {
-    Device device = null;
-    Iterator<Entry> iter = present.values().iterator();
-    while (iter.hasNext()) {
-      Entry e = iter.next();
-      if (e.name != null && e.name.equals(stateName)) {
-        device = (Device)e;
-        break;
-      }
-    }
+    Device device = (Device) presentByState(stateName);
     if (device != null) {
       device.stop = time;
       present.remove(device.type);
+      entryStopped(device);
     }
   }
 
@@ -946,6 +1717,7 @@ public class HealthRecord implements Serializable {
     supply.codes.add(code);
     supply.quantity = quantity;
     encounter.supplies.add(supply);
+    entryAdded(encounter, supply);
     return supply;
   }
 
@@ -973,6 +1745,7 @@ public class HealthRecord implements Serializable {
     Report report = new Report(time, type, observations);
     encounter.reports.add(report);
     observations.forEach(o -> o.report = report);
+    entryAdded(encounter, report);
     return report;
   }
 
@@ -986,6 +1759,18 @@ public class HealthRecord implements Serializable {
   public Encounter encounterStart(long time, EncounterType type) {
     Encounter encounter = new Encounter(time, type.toString());
     encounters.add(encounter);
+    if (listeners != null) {
+      for (RecordListener listener : listeners) {
+        listener.encounterStarted(this, encounter);
+      }
+    }
+    if (compactObservations && encounters.size() > 1) {
+      // the previous encounter is closed, so its observations are no longer added to
+      Encounter previous = encounters.get(encounters.size() - 2);
+      if (!(previous.observations instanceof ObservationColumns)) {
+        previous.observations = new ObservationColumns(this, previous.observations);
+      }
+    }
     return encounter;
   }
 
@@ -1006,9 +1791,13 @@ public class HealthRecord implements Serializable {
         if (time > encounter.stop) {
           encounter.stop = time;
         }
-        // Update Costs/Claim infomation.
-        encounter.determineCost();
+        // Settle the claim, which draws the cost of the encounter the first time it is needed.
         encounter.claim.assignCosts();
+        if (listeners != null) {
+          for (RecordListener listener : listeners) {
+            listener.encounterEnded(this, encounter);
+          }
+        }
         return;
       }
     }
@@ -1025,6 +1814,7 @@ public class HealthRecord implements Serializable {
     Encounter encounter = currentEncounter(time);
     encounter.immunizations.add(immunization);
     encounter.claim.addLineItem(immunization);
+    entryAdded(encounter, immunization);
     return immunization;
   }
 
@@ -1042,8 +1832,10 @@ public class HealthRecord implements Serializable {
     if (!present.containsKey(type)) {
       medication = new Medication(time, type);
       medication.chronic = chronic;
-      currentEncounter(time).medications.add(medication);
-      present.put(type, medication);
+      Encounter encounter = currentEncounter(time);
+      encounter.medications.add(medication);
+      putPresent(type, medication);
+      entryAdded(encounter, medication);
     } else {
       medication = (Medication) present.get(type);
     }
@@ -1070,10 +1862,10 @@ public class HealthRecord implements Serializable {
 
       chronicMedicationEnd(type);
 
-      // Update Costs/Claim infomation.
-      medication.determineCost();
+      // Settle the claim, which draws the cost of the medication the first time it is needed.
       medication.claim.assignCosts();
       present.remove(type);
+      entryStopped(medication);
     }
   }
 
@@ -1084,20 +1876,13 @@ public class HealthRecord implements Serializable {
    * @param reason the reason for ending the medication.
    */
   public void medicationEndByState(long time, String stateName, Code reason) {
-    Medication medication = null;
-    Iterator<Entry> iter = present.values().iterator();
-    while (iter.hasNext()) {
-      Entry e = iter.next();
-      if (e.name != null && e.name.equals(stateName)) {
-        medication = (Medication) e;
-        break;
-      }
-    }
+    Medication medication = (Medication) presentByState(stateName);
     if (medication != null) {
       medication.stop = time;
       medication.stopReason = reason;
       chronicMedicationEnd(medication.type);
       present.remove(medication.type);
+      entryStopped(medication);
     }
   }
 
@@ -1126,8 +1911,10 @@ public class HealthRecord implements Serializable {
     CarePlan careplan;
     if (!present.containsKey(type)) {
       careplan = new CarePlan(time, type);
-      currentEncounter(time).careplans.add(careplan);
-      present.put(type, careplan);
+      Encounter encounter = currentEncounter(time);
+      encounter.careplans.add(careplan);
+      putPresent(type, careplan);
+      entryAdded(encounter, careplan);
     } else {
       careplan = (CarePlan) present.get(type);
     }
@@ -1146,6 +1933,7 @@ public class HealthRecord implements Serializable {
       careplan.stop = time;
       careplan.stopReason = reason;
       present.remove(type);
+      entryStopped(careplan);
     }
   }
 
@@ -1156,19 +1944,12 @@ public class HealthRecord implements Serializable {
    * @param reason the reason for ending the care plan.
    */
   public void careplanEndByState(long time, String stateName, Code reason) {
-    CarePlan careplan = null;
-    Iterator<Entry> iter = present.values().iterator();
-    while (iter.hasNext()) {
-      Entry e = iter.next();
-      if (e.name != null && e.name.equals(stateName)) {
-        careplan = (CarePlan) e;
-        break;
-      }
-    }
+    CarePlan careplan = (CarePlan) presentByState(stateName);
     if (careplan != null) {
       careplan.stop = time;
       careplan.stopReason = reason;
       present.remove(careplan.type);
+      entryStopped(careplan);
     }
   }
 
@@ -1188,7 +1969,9 @@ public class HealthRecord implements Serializable {
     ImagingStudy study = new ImagingStudy(this.person, time, type);
     study.series = series;
     assignImagingStudyDicomUids(time, study);
-    currentEncounter(time).imagingStudies.add(study);
+    Encounter encounter = currentEncounter(time);
+    encounter.imagingStudies.add(study);
+    entryAdded(encounter, study);
     return study;
   }
 
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -15,8 +16,7 @@ import org.hl7.fhir.r4.model.Patient;
 
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomCollection;
-import org.mitre.synthea.helpers.SimpleCSV;
-import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.helpers.StreamingCSV;
 
 /**
  * Demographics class holds the information from the towns.json and associated county config files.
@@ -33,17 +33,17 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public String state;
   public String county;
   public Map<String, Double> ages;
-  private RandomCollection<String> ageDistribution;
+  private volatile RandomCollection<String> ageDistribution;
   public Map<String, Double> gender;
-  private RandomCollection<String> genderDistribution;
+  private volatile RandomCollection<String> genderDistribution;
   public Map<String, Double> race;
-  private RandomCollection<String> raceDistribution;
+  private volatile RandomCollection<String> raceDistribution;
   public double ethnicity;
-  private RandomCollection<String> ethnicityDistribution;
+  private volatile RandomCollection<String> ethnicityDistribution;
   public Map<String, Double> income;
-  private RandomCollection<String> incomeDistribution;
+  private volatile RandomCollection<String> incomeDistribution;
   public Map<String, Double> education;
-  private RandomCollection<String> educationDistribution;
+  private volatile RandomCollection<String> educationDistribution;
 
   /**
    * Pick an age based on the population distribution for the city.
@@ -51,9 +51,12 @@ public class Demographics implements Comparable<Demographics>, Serializable {
    * @return the age in years
    */
   public int pickAge(Random random) {
-    // lazy-load in case this randomcollection isn't necessary
-    if (ageDistribution == null) {
-      ageDistribution = buildRandomCollectionFromMap(ages);
+    // lazy-load in case this randomcollection isn't necessary. it is only published once built,
+    // so other threads either see all of it or build their own
+    RandomCollection<String> distribution = ageDistribution;
+    if (distribution == null) {
+      distribution = buildRandomCollectionFromMap(ages);
+      ageDistribution = distribution;
     }
     /*
      * Sample Age frequency: "ages": { "0..4": 0.03810425832699584, "5..9": 0.04199539968180355,
@@ -61,7 +64,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * 0.040978290790498896 }
      */
 
-    String pickedRange = ageDistribution.next(random);
+    String pickedRange = distribution.next(random);
 
     String[] range = pickedRange.split("\\.\\.");
     // TODO this seems like it would benefit from better caching
@@ -81,15 +84,17 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public String pickGender(Random random) {
 
     // lazy-load in case this randomcollection isn't necessary
-    if (genderDistribution == null) {
-      genderDistribution = buildRandomCollectionFromMap(gender);
+    RandomCollection<String> distribution = genderDistribution;
+    if (distribution == null) {
+      distribution = buildRandomCollectionFromMap(gender);
+      genderDistribution = distribution;
     }
 
     /*
      * Sample Gender frequency: "gender": { "male": 0.47638487773697935, "female":
      * 0.5236151222630206 },
      */
-    return genderDistribution.next(random);
+    return distribution.next(random);
   }
 
   /**
@@ -100,8 +105,10 @@ public class Demographics implements Comparable<Demographics>, Serializable {
    */
   public String pickRace(Random random) {
     // lazy-load in case this random collection isn't necessary
-    if (raceDistribution == null) {
-      raceDistribution = buildRandomCollectionFromMap(race);
+    RandomCollection<String> distribution = raceDistribution;
+    if (distribution == null) {
+      distribution = buildRandomCollectionFromMap(race);
+      raceDistribution = distribution;
     }
 
     /*
@@ -110,7 +117,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * 0.008015564565419232, "other": 0.001 },
      */
 
-    return raceDistribution.next(random);
+    return distribution.next(random);
   }
 
   /**
@@ -121,12 +128,14 @@ public class Demographics implements Comparable<Demographics>, Serializable {
    * @return "hispanic" or "nonhispanic"
    */
   public String pickEthnicity(Random random) {
-    if (ethnicityDistribution == null) {
-      ethnicityDistribution = new RandomCollection();
-      ethnicityDistribution.add(ethnicity, "hispanic");
-      ethnicityDistribution.add(1 - ethnicity, "nonhispanic");
+    RandomCollection<String> distribution = ethnicityDistribution;
+    if (distribution == null) {
+      distribution = new RandomCollection<String>();
+      distribution.add(ethnicity, "hispanic");
+      distribution.add(1 - ethnicity, "nonhispanic");
+      ethnicityDistribution = distribution;
     }
-    return ethnicityDistribution.next(random);
+    return distribution.next(random);
   }
 
   /**
@@ -233,11 +242,13 @@ public class Demographics implements Comparable<Demographics>, Serializable {
    */
   public int pickIncome(Random random) {
     // lazy-load in case this randomcollection isn't necessary
-    if (incomeDistribution == null) {
+    RandomCollection<String> distribution = incomeDistribution;
+    if (distribution == null) {
       Map<String, Double> tempIncome = new HashMap<>(income);
       tempIncome.remove("mean");
       tempIncome.remove("median");
-      incomeDistribution = buildRandomCollectionFromMap(tempIncome);
+      distribution = buildRandomCollectionFromMap(tempIncome);
+      incomeDistribution = distribution;
     }
 
     /*
@@ -247,7 +258,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * "200..999": 0.054000000000000006 },
      */
 
-    String pickedRange = incomeDistribution.next(random);
+    String pickedRange = distribution.next(random);
 
     String[] range = pickedRange.split("\\.\\.");
     // TODO this seems like it would benefit from better caching
@@ -285,11 +296,13 @@ public class Demographics implements Comparable<Demographics>, Serializable {
    */
   public String pickEducation(Random random) {
     // lazy-load in case this randomcollection isn't necessary
-    if (educationDistribution == null) {
-      educationDistribution = buildRandomCollectionFromMap(education);
+    RandomCollection<String> distribution = educationDistribution;
+    if (distribution == null) {
+      distribution = buildRandomCollectionFromMap(education);
+      educationDistribution = distribution;
     }
 
-    return educationDistribution.next(random);
+    return distribution.next(random);
   }
 
   /**
@@ -377,27 +390,47 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public static Table<String, String, Demographics> load(String state)
       throws IOException {
     String filename = Config.get("generate.demographics.default_file");
-    String csv = Utilities.readResource(filename);
-
-    List<? extends Map<String,String>> demographicsCsv = SimpleCSV.parse(csv);
 
     Table<String, String, Demographics> table = HashBasedTable.create();
 
-    for (Map<String,String> demographicsLine : demographicsCsv) {
-      String currCityId = demographicsLine.get("ID");
-      String currState = demographicsLine.get("STNAME");
+    try (StreamingCSV csv = StreamingCSV.open(filename)) {
+      int stateColumn = csv.column("STNAME");
+      while (csv.next()) {
+        // for now, only allow one state at a time
+        if (csv.equalsIgnoreCase(stateColumn, state)) {
+          Map<String,String> demographicsLine = csv.toMap();
+          Demographics parsed = csvLineToDemographics(demographicsLine);
 
-      // for now, only allow one state at a time
-      if (state != null && state.equalsIgnoreCase(currState)) {
-        Demographics parsed = csvLineToDemographics(demographicsLine);
-
-        table.put(currState, currCityId, parsed);
+          table.put(demographicsLine.get("STNAME"), demographicsLine.get("ID"), parsed);
+        }
       }
     }
 
     return table;
   }
 
+  /**
+   * Get the total population of each state in the demographics file.
+   *
+   * @return Map of state name to population, in the order the states appear in the file
+   * @throws IOException
+   *           if any exception occurs in reading the demographics file
+   */
+  public static Map<String, Long> loadStatePopulations() throws IOException {
+    String filename = Config.get("generate.demographics.default_file");
+
+    Map<String, Long> populations = new LinkedHashMap<String, Long>();
+    try (StreamingCSV csv = StreamingCSV.open(filename)) {
+      int stateColumn = csv.column("STNAME");
+      int populationColumn = csv.column("POPESTIMATE2015");
+      while (csv.next()) {
+        long population = Double.valueOf(csv.get(populationColumn)).longValue();
+        populations.merge(csv.get(stateColumn), population, Long::sum);
+      }
+    }
+    return populations;
+  }
+
   /**
    * The index of the entry in this list + 1 == the column header in the CSV for that age group.
    * For example, age range 0-4 is stored in the CSV with column header "1".
@@ -422,7 +455,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   /**
    * Map a single line of the demographics CSV file into a Demographics object.
    *
-   * @param line Line representing one city, parsed via SimpleCSV
+   * @param line Line representing one city, read via StreamingCSV
    * @return the Demographics for that city
    */
   private static Demographics csvLineToDemographics(Map<String,String> line) {
@@ -16,7 +16,7 @@ import java.util.Random;
 import org.apache.commons.lang3.ArrayUtils;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
-import org.mitre.synthea.helpers.SimpleCSV;
+import org.mitre.synthea.helpers.StreamingCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Person;
@@ -32,7 +32,9 @@ public class Location implements Serializable {
 
   // cache the population by city name for performance
   private Map<String, Long> populationByCity;
-  private Map<String, Long> populationByCityId;
+  // city ids with the running total of their populations, to pick one with a binary search
+  private String[] cityIds;
+  private long[] cumulativePopulation;
   private Map<String, List<Place>> zipCodes;
 
   public final String city;
@@ -69,7 +71,9 @@ public class Location implements Serializable {
       long runningPopulation = 0;
       // linked to ensure consistent iteration order
       populationByCity = new LinkedHashMap<>();
-      populationByCityId = new LinkedHashMap<>();
+      cityIds = new String[this.demographics.size()];
+      cumulativePopulation = new long[this.demographics.size()];
+      int index = 0;
       // sort the demographics to ensure tests pass regardless of implementing class
       // for this.demographics, see comment above on non-serializability of Google Table.row
       ArrayList<Demographics> sortedDemographics =
@@ -83,7 +87,9 @@ public class Location implements Serializable {
         } else {
           populationByCity.put(d.city, pop);          
         }
-        populationByCityId.put(d.id, pop);
+        cityIds[index] = d.id;
+        cumulativePopulation[index] = runningPopulation;
+        index++;
       }
 
       totalPopulation = runningPopulation;
@@ -96,21 +102,23 @@ public class Location implements Serializable {
     String filename = null;
     try {
       filename = Config.get("generate.geography.zipcodes.default_file");
-      String csv = Utilities.readResource(filename);
-      List<? extends Map<String,String>> ziplist = SimpleCSV.parse(csv);
-
       zipCodes = new HashMap<>();
-      for (Map<String,String> line : ziplist) {
-        Place place = new Place(line);
-        
-        if (!place.sameState(state)) {
-          continue;
-        }
-        
-        if (!zipCodes.containsKey(place.name)) {
-          zipCodes.put(place.name, new ArrayList<Place>());
+      try (StreamingCSV csv = StreamingCSV.open(filename)) {
+        int stateColumn = csv.column("USPS");
+        int abbreviationColumn = csv.column("ST");
+        while (csv.next()) {
+          // only the places in this state are kept
+          if (!csv.equalsIgnoreCase(stateColumn, state)
+              && !csv.equalsIgnoreCase(abbreviationColumn, state)) {
+            continue;
+          }
+          Place place = new Place(csv.toMap());
+
+          if (!zipCodes.containsKey(place.name)) {
+            zipCodes.put(place.name, new ArrayList<Place>());
+          }
+          zipCodes.get(place.name).add(place);
         }
-        zipCodes.get(place.name).add(place);
       }
     } catch (Exception e) {
       System.err.println("ERROR: unable to load zips csv: " + filename);
@@ -221,33 +229,37 @@ public class Location implements Serializable {
    * @return a city id
    */
   private String randomCityId(RandomNumberGenerator random) {
-    long targetPop = (long) (random.rand() * totalPopulation);
-
-    for (Map.Entry<String, Long> city : populationByCityId.entrySet()) {
-      targetPop -= city.getValue();
-
-      if (targetPop < 0) {
-        return city.getKey();
-      }
-    }
+    return randomCityId(random.rand());
+  }
 
-    // should never happen
-    throw new RuntimeException("Unable to select a random city id.");
-  }  
-  
   private String randomCityId(Random random) {
-    long targetPop = (long) (random.nextDouble() * totalPopulation);
-
-    for (Map.Entry<String, Long> city : populationByCityId.entrySet()) {
-      targetPop -= city.getValue();
+    return randomCityId(random.nextDouble());
+  }
 
-      if (targetPop < 0) {
-        return city.getKey();
+  /**
+   * Find the city where a fraction of the total population falls, in the order of the sorted
+   * demographics.
+   * @param fraction a value between 0 (inclusive) and 1 (exclusive)
+   * @return a city id
+   */
+  private String randomCityId(double fraction) {
+    long targetPop = (long) (fraction * totalPopulation);
+    // find the first city whose running total is greater than the target
+    int low = 0;
+    int high = cumulativePopulation.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (cumulativePopulation[middle] > targetPop) {
+        high = middle;
+      } else {
+        low = middle + 1;
       }
     }
-
-    // should never happen
-    throw new RuntimeException("Unable to select a random city id.");
+    if (low == cumulativePopulation.length) {
+      // should never happen
+      throw new RuntimeException("Unable to select a random city id.");
+    }
+    return cityIds[low];
   }
 
   /**
@@ -398,15 +410,19 @@ public class Location implements Serializable {
   private static LinkedHashMap<String, String> loadAbbreviations() {
     LinkedHashMap<String, String> abbreviations = new LinkedHashMap<String, String>();
     String filename = null;
+    String lastState = null;
     try {
       filename = Config.get("generate.geography.zipcodes.default_file");
-      String csv = Utilities.readResource(filename);
-      List<? extends Map<String,String>> ziplist = SimpleCSV.parse(csv);
-
-      for (Map<String,String> line : ziplist) {
-        String state = line.get("USPS");
-        String abbreviation = line.get("ST");
-        abbreviations.put(state, abbreviation);
+      try (StreamingCSV csv = StreamingCSV.open(filename)) {
+        int stateColumn = csv.column("USPS");
+        int abbreviationColumn = csv.column("ST");
+        while (csv.next()) {
+          // the rows of each state are together, so each state is only copied once
+          if (!csv.equalsIgnoreCase(stateColumn, lastState)) {
+            lastState = csv.get(stateColumn);
+            abbreviations.put(lastState, csv.get(abbreviationColumn));
+          }
+        }
       }
     } catch (Exception e) {
       System.err.println("ERROR: unable to load zips csv: " + filename);
@@ -461,13 +477,12 @@ public class Location implements Serializable {
     String filename = null;
     try {
       filename = Config.get("generate.geography.timezones.default_file");
-      String csv = Utilities.readResource(filename);
-      List<? extends Map<String,String>> tzlist = SimpleCSV.parse(csv);
-
-      for (Map<String,String> line : tzlist) {
-        String state = line.get("STATE");
-        String timezone = line.get("TIMEZONE");
-        timezones.put(state, timezone);
+      try (StreamingCSV csv = StreamingCSV.open(filename)) {
+        int stateColumn = csv.column("STATE");
+        int timezoneColumn = csv.column("TIMEZONE");
+        while (csv.next()) {
+          timezones.put(csv.get(stateColumn), csv.get(timezoneColumn));
+        }
       }
     } catch (Exception e) {
       System.err.println("ERROR: unable to load timezones csv: " + filename);
@@ -2,6 +2,8 @@ package org.mitre.synthea.world.geography.quadtree;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
 
 /**
  * Simple QuadTree class that is optimized for query speed.
@@ -139,6 +141,94 @@ public class QuadTree {
     return results;
   }
 
+  /**
+   * Find the elements nearest to a given point that satisfy a filter, in a single traversal.
+   * Branches and elements are visited best-first, in order of their distance from the point,
+   * so the search stops as soon as the nearest match is found, and the filter is only applied
+   * to elements at least as near as it.
+   * @param queryPoint The query point to search around.
+   * @param maxDistance Elements further than this from the queryPoint are not considered.
+   * @param filter The condition the elements must satisfy.
+   * @return A non-null list of the matching elements at the smallest distance from the
+   *     queryPoint; more than one only if they are equally near.
+   */
+  public List<QuadTreeElement> nearest(QuadTreeElement queryPoint, double maxDistance,
+      Predicate<QuadTreeElement> filter) {
+    List<QuadTreeElement> results = new ArrayList<QuadTreeElement>();
+    double bestDistance = maxDistance;
+    PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+    // elements outside of the bounds may be stored at the root, so it is always visited
+    queue.add(new Candidate(this, null, 0.0, 0));
+    int sequence = 1;
+    while (!queue.isEmpty()) {
+      Candidate candidate = queue.poll();
+      if (candidate.distance > bestDistance) {
+        break;
+      }
+      if (candidate.element != null) {
+        if (filter.test(candidate.element)) {
+          results.add(candidate.element);
+          bestDistance = candidate.distance;
+        }
+        continue;
+      }
+      QuadTree node = candidate.node;
+      for (QuadTreeElement localItem : node.data) {
+        double distance = queryPoint.distance(localItem);
+        if (distance <= bestDistance) {
+          queue.add(new Candidate(null, localItem, distance, sequence++));
+        }
+      }
+      if (!node.isLeaf) {
+        for (QuadTree branch : node.branches) {
+          double distance = branch.distanceTo(queryPoint);
+          if (distance <= bestDistance) {
+            queue.add(new Candidate(branch, null, distance, sequence++));
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The smallest distance between a point and the bounding box of this QuadTree.
+   * @param point The point to measure the distance from.
+   * @return The distance, or 0 if the point is within the bounds.
+   */
+  private double distanceTo(QuadTreeElement point) {
+    double dx = Math.max(0.0, Math.abs(point.getX() - xcoord) - radius);
+    double dy = Math.max(0.0, Math.abs(point.getY() - ycoord) - radius);
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  /**
+   * A branch or element waiting to be visited by the nearest neighbor search, ordered by
+   * distance and then by the order in which it was found.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+    private final QuadTree node;
+    private final QuadTreeElement element;
+    private final double distance;
+    private final int sequence;
+
+    private Candidate(QuadTree node, QuadTreeElement element, double distance, int sequence) {
+      this.node = node;
+      this.element = element;
+      this.distance = distance;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      int compare = Double.compare(distance, other.distance);
+      if (compare == 0) {
+        compare = Integer.compare(sequence, other.sequence);
+      }
+      return compare;
+    }
+  }
+
   /**
    * Get the count of elements within this QuadTree including all branches.
    * @return The count of elements within this QuadTree including all branches.
@@ -0,0 +1,71 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ConcurrencyGovernorTest {
+
+  @Test
+  public void testLimitFollowsHeap() {
+    // 1000 byte heap, 100 of it in use before anyone is simulated, aiming for 500 at most
+    AtomicLong used = new AtomicLong(100);
+    ConcurrencyGovernor governor = new ConcurrencyGovernor(8, 0.5, 1000, used::get);
+
+    // the first person is always let in
+    assertTrue(governor.tryAcquire());
+    // at 200 bytes each, two people fit below the target
+    used.set(300);
+    assertTrue(governor.tryAcquire());
+    assertEquals(2, governor.getLimit());
+    // and not a third
+    used.set(500);
+    assertFalse(governor.tryAcquire());
+
+    // once the people in flight turn out to be smaller, more are let in one at a time, as the
+    // smoothed size of a person follows the samples rather than jumping to the latest one
+    governor.release();
+    used.set(150);
+    assertTrue(governor.tryAcquire());
+    assertEquals(2, governor.getLimit());
+    assertTrue(governor.tryAcquire());
+    assertEquals(3, governor.getLimit());
+  }
+
+  @Test
+  public void testBaselineFollowsIdleHeap() {
+    AtomicLong used = new AtomicLong(100);
+    ConcurrencyGovernor governor = new ConcurrencyGovernor(8, 0.5, 1000, used::get);
+    assertTrue(governor.tryAcquire());
+    used.set(200);
+    assertTrue(governor.tryAcquire());
+    assertEquals(4, governor.getLimit());
+
+    // everything else grew while people were in flight, which shows once nobody is
+    governor.release();
+    used.set(300);
+    governor.release();
+    assertTrue(governor.tryAcquire());
+    // so each person is still 100 bytes, with room for two below the target
+    used.set(400);
+    assertTrue(governor.tryAcquire());
+    assertEquals(2, governor.getLimit());
+  }
+
+  @Test
+  public void testLimitNeverBelowOne() {
+    AtomicLong used = new AtomicLong(100);
+    ConcurrencyGovernor governor = new ConcurrencyGovernor(8, 0.5, 1000, used::get);
+    assertTrue(governor.tryAcquire());
+    used.set(900);
+    assertFalse(governor.tryAcquire());
+    assertEquals(1, governor.getLimit());
+    // when nobody is in flight, the next person is let in regardless
+    governor.release();
+    assertTrue(governor.acquire());
+  }
+}
@@ -2,21 +2,27 @@ package org.mitre.synthea.engine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -32,6 +38,8 @@ import org.mitre.synthea.world.agents.Provider;
 import org.mitre.synthea.world.geography.Location;
 
 public class GeneratorTest {
+  /** Ceiling on the bytes allocated per simulated person-year by updatePerson. */
+  private static final double STEADY_STATE_BYTES_PER_YEAR = 4.0 * 1024 * 1024;
 
   /**
    * Configure settings across these tests.
@@ -68,6 +76,11 @@ public class GeneratorTest {
     generator = new Generator();
     generator.run();
     assertEquals(numberOfPeople, generator.stats.get("alive").longValue());
+    // the dead were exported and replaced, which is not a rejection
+    assertEquals(generator.stats.get("dead").get(), generator.stats.get("overflow").get());
+    assertEquals(generator.stats.get("candidates").get(),
+        numberOfPeople + generator.stats.get("overflow").get()
+        + generator.rejections.get(Generator.REJECTED_PROVIDERS).get());
   }
 
   @Test
@@ -111,6 +124,21 @@ public class GeneratorTest {
     assertEquals(numberOfPeople, generator.stats.get("alive").longValue());
   }
 
+  @Test
+  public void testRejectionStatsOnlyAlivePatients() throws Exception {
+    Config.set("generate.only_alive_patients", "true");
+    int numberOfPeople = 4;
+    Generator generator = new Generator(numberOfPeople);
+    generator.run();
+    int candidates = generator.stats.get("candidates").get();
+    int rejectedDead = generator.rejections.get(Generator.REJECTED_DEAD).get();
+    assertEquals(numberOfPeople + rejectedDead, candidates);
+    assertEquals(0, generator.rejections.get(Generator.REJECTED_ALIVE).get());
+    assertEquals(0, generator.stats.get("overflow").get());
+    assertTrue(generator.rejections.get(Generator.REJECTED_EARLY).get() <= rejectedDead);
+    Config.set("generate.only_alive_patients", "false");
+  }
+
   @Test
   public void testOnlyAliveAndDead() throws Exception {
     Config.set("generate.only_alive_patients", "true");
@@ -169,6 +197,23 @@ public class GeneratorTest {
     }
   }
   
+  @Test
+  public void testGeneratePeopleNationwide() throws Exception {
+    Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+    opts.population = 3;
+    opts.nationwide = true;
+    Generator generator = new Generator(opts);
+    for (int i = 0; i < opts.population; i++) {
+      Person p = generator.generatePerson(i);
+      // each person lives in the state that was loaded for them
+      Location location = (Location) p.attributes.get(Person.LOCATION);
+      assertEquals(location.state, p.attributes.get(Person.STATE));
+      String abbreviation = Location.getAbbreviation(location.state);
+      assertTrue(Provider.getProviderList().stream()
+          .anyMatch(provider -> abbreviation.equalsIgnoreCase(provider.state)));
+    }
+  }
+
   @Test
   public void testDemographicsRetry() throws Exception {
     // confirm that the demographic choices will persist if the first generated patients die
@@ -282,6 +327,58 @@ public class GeneratorTest {
     }
   }
   
+  /**
+   * Generator.updatePerson with the real modules, the health insurance and encounter modules
+   * included, should allocate at a bounded rate per simulated person-year once the modules are
+   * loaded and the people are adults, so that the weekly tick does not dominate the heap
+   * traffic. The bound is a loose ceiling rather than a tight baseline, so that it holds in
+   * interpreted and compiled modes alike; the measured rate is printed to track it over time.
+   * Allocations that grow with every module on every tick, such as cloning the submodules a
+   * person waits in, exceed it by far.
+   */
+  @Test
+  public void testSteadyStateAllocationRate() throws Exception {
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean =
+        (com.sun.management.ThreadMXBean) threadBean;
+    Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+    allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+    Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+    opts.population = 1;
+    opts.seed = 0L;
+    opts.minAge = 40;
+    opts.maxAge = 40;
+    Generator generator = new Generator(opts);
+    // simulating the people up to 40 loads the modules and warms up the tick
+    Person[] people = new Person[5];
+    for (int i = 0; i < people.length; i++) {
+      Map<String, Object> demoAttributes = generator.randomDemographics(new Random(i));
+      people[i] = generator.createPerson(i, demoAttributes);
+    }
+
+    int years = 10;
+    generator.stop += Utilities.convertTime("years", years);
+    long threadId = Thread.currentThread().getId();
+    long before = allocationBean.getThreadAllocatedBytes(threadId);
+    long simulated = 0L;
+    for (Person person : people) {
+      long start = person.lastUpdated;
+      generator.updatePerson(person);
+      simulated += person.lastUpdated - start;
+    }
+    long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+    double personYears = (double) simulated / Utilities.convertTime("years", 1);
+    Assume.assumeTrue(personYears > 1.0);
+    double bytesPerYear = allocated / personYears;
+    System.out.format("Generator.updatePerson allocated %.0f bytes per simulated person-year%n",
+        bytesPerYear);
+    assertTrue("Generator.updatePerson allocated " + bytesPerYear
+        + " bytes per simulated person-year", bytesPerYear < STEADY_STATE_BYTES_PER_YEAR);
+  }
+
   /**
    * Serialize an array of people, then deserialize and return them. Note that when serializing
    * more than one person it is much more efficient to serialize them within a collection since
@@ -344,4 +441,61 @@ public class GeneratorTest {
       generator.updatePerson(p);
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testForkPopulationForScenarios() throws Exception {
+    if (Boolean.valueOf(Config.get("physiology.generators.enabled", "false"))) {
+      System.out.println("Skipping test GeneratorTest.testForkPopulationForScenarios");
+      System.out.println("Set config physiology.generators.enabled=false to enable this test");
+      return;
+    }
+
+    Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+    opts.population = 1;
+    Generator generator = new Generator(opts);
+    List<Person> population = new LinkedList<Person>();
+    for (int i = 0; i < 3; i++) {
+      long personSeed = UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+      Random randomForDemographics = new Random(personSeed);
+      Map<String, Object> demoAttributes = generator.randomDemographics(randomForDemographics);
+      population.add(generator.createPerson(personSeed, demoAttributes));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+    oos.writeObject(population);
+    oos.close();
+    byte[] snapshot = bytes.toByteArray();
+
+    List<Person> baseline = Generator.forkPopulation(snapshot);
+    List<Person> scenario = Generator.forkPopulation(snapshot);
+    assertEquals(population.size(), baseline.size());
+    assertEquals(population.size(), scenario.size());
+
+    Module original = scenario.get(0).currentModules.get(0);
+    Module overridden = original.clone();
+    Map<String, Module> scenarioModules = new HashMap<String, Module>();
+    scenarioModules.put(original.name, overridden);
+    Generator.applyScenarioModules(scenario.get(0), scenarioModules);
+
+    // each fork is independent of the other forks
+    assertNotSame(baseline.get(0), scenario.get(0));
+    assertNotSame(baseline.get(0).record, scenario.get(0).record);
+    assertSame(overridden, scenario.get(0).currentModules.get(0));
+    assertNotSame(overridden, baseline.get(0).currentModules.get(0));
+    assertEquals(original.name, baseline.get(0).currentModules.get(0).name);
+
+    // forks of a single person copy the person, but share the providers and modules
+    Person person = baseline.get(1);
+    PersonFork fork = new PersonFork(person);
+    Person forked = fork.fork();
+    assertNotSame(person, forked);
+    assertNotSame(person.record, forked.record);
+    assertEquals(person.record.encounters.size(), forked.record.encounters.size());
+    assertSame(person.currentModules.get(0), forked.currentModules.get(0));
+    Provider provider = person.record.encounters.get(0).provider;
+    if (provider != null) {
+      assertSame(provider, forked.record.encounters.get(0).provider);
+    }
+    assertNotSame(forked, fork.fork());
+  }
+}
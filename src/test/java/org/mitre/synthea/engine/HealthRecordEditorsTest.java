@@ -4,11 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 
 public class HealthRecordEditorsTest {
   class Dummy implements HealthRecordEditor {
@@ -40,4 +43,70 @@ public class HealthRecordEditorsTest {
     assertEquals("01730", p.attributes.get(Person.ZIP));
     hrm.resetEditors();
   }
+
+  @Test
+  public void executeAllWithStepEncounters() {
+    List<List<HealthRecord.Encounter>> windows = new ArrayList<List<HealthRecord.Encounter>>();
+    HealthRecordEditors hrm = HealthRecordEditors.getInstance();
+    hrm.registerEditor(new HealthRecordEditor() {
+      @Override
+      public boolean shouldRun(Person person, HealthRecord record, long time) {
+        return true;
+      }
+
+      @Override
+      public void process(Person person, List<HealthRecord.Encounter> encounters, long time) {
+        windows.add(encounters);
+      }
+    });
+    Person p = new Person(1);
+    p.attributes.put(Person.BIRTHDATE, 0L);
+    HealthRecord record = new HealthRecord(p);
+    HealthRecord.Encounter first = record.encounterStart(50, EncounterType.WELLNESS);
+    hrm.executeAll(p, record, 100, 100);
+    HealthRecord.Encounter second = record.encounterStart(150, EncounterType.AMBULATORY);
+    HealthRecord.Encounter third = record.encounterStart(200, EncounterType.EMERGENCY);
+    hrm.executeAll(p, record, 200, 100);
+    hrm.executeAll(p, record, 300, 100);
+    hrm.resetEditors();
+
+    assertEquals(3, windows.size());
+    assertEquals(Arrays.asList(first), windows.get(0));
+    assertEquals(Arrays.asList(second, third), windows.get(1));
+    assertEquals(Arrays.asList(third), windows.get(2));
+  }
+
+  @Test
+  public void executeAllKeepsLatestObservationCurrent() {
+    HealthRecordEditors hrm = HealthRecordEditors.getInstance();
+    hrm.registerEditor(new HealthRecordEditor() {
+      @Override
+      public boolean shouldRun(Person person, HealthRecord record, long time) {
+        return true;
+      }
+
+      @Override
+      public void process(Person person, List<HealthRecord.Encounter> encounters, long time) {
+        // edit the first encounter of the step, which is not the last one of the record
+        encounters.get(0).addObservation(encounters.get(0).start, "A", 2);
+        encounters.get(0).addObservation(encounters.get(0).start, "B", 3);
+      }
+    });
+    Person p = new Person(1);
+    p.attributes.put(Person.BIRTHDATE, 0L);
+    HealthRecord record = new HealthRecord(p);
+    record.encounterStart(50, EncounterType.WELLNESS);
+    record.observation(50, "A", 1);
+    record.encounterStart(150, EncounterType.AMBULATORY);
+    record.encounterStart(160, EncounterType.AMBULATORY);
+    record.encounterStart(170, EncounterType.AMBULATORY);
+    // fold every encounter but the last one into the indexes
+    assertEquals(1, record.getLatestObservation("A").value);
+    assertNull(record.getLatestObservation("B"));
+    hrm.executeAll(p, record, 200, 100);
+    hrm.resetEditors();
+
+    assertEquals(2, record.getLatestObservation("A").value);
+    assertEquals(3, record.getLatestObservation("B").value);
+  }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@ import java.io.File;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -22,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -31,8 +33,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import org.junit.Assume;
 import org.junit.Test;
+import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.modules.EncounterModule;
+import org.mitre.synthea.world.agents.Person;
 import org.powermock.reflect.Whitebox;
 
 public class ModuleTest {
@@ -161,6 +167,51 @@ public class ModuleTest {
     }
   }
 
+  /**
+   * Module.process on a module that is waiting in a Guard should allocate next to nothing.
+   * This only covers the module tick; GeneratorTest.testSteadyStateAllocationRate covers
+   * Generator.updatePerson with the real modules.
+   */
+  @Test
+  public void waitingModuleProcessAllocationRate() throws Exception {
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean =
+        (com.sun.management.ThreadMXBean) threadBean;
+    Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+    allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+    // A male patient will wait at the Gender_Guard state forever
+    Module module = TestHelper.getFixture("guard.json");
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.attributes.put(Person.GENDER, "M");
+    person.attributes.put(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER, true);
+
+    long timestep = Utilities.convertTime("days", 7);
+    long oneYear = Utilities.convertTime("years", 1);
+    long time = 0L;
+    // warm up, so the module history and attribute entries already exist
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(module.process(person, time));
+      time += timestep;
+    }
+
+    int years = 100;
+    long threadId = Thread.currentThread().getId();
+    long before = allocationBean.getThreadAllocatedBytes(threadId);
+    long stop = time + (years * oneYear);
+    while (time < stop) {
+      module.process(person, time);
+      time += timestep;
+    }
+    long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+    double bytesPerYear = (double) allocated / years;
+    assertTrue("Module.process while waiting allocated " + bytesPerYear
+        + " bytes per simulated year", bytesPerYear < 256.0);
+  }
+
   @Test
   public void getModuleByPath() {
     Module module = Module.getModuleByPath("copd");
@@ -303,4 +354,36 @@ public class ModuleTest {
       }
     });
   }
-}
\ No newline at end of file
+
+  @Test
+  public void loadModulesWithOverrides() throws Exception {
+    Properties overrides = new Properties();
+    overrides.setProperty("appendicitis.json::$['states']['Male']['distributed_transition']"
+        + "[0]['distribution']", "1.0");
+    Map<String, Module> overridden = Module.loadModulesWithOverrides(overrides);
+
+    assertEquals(1, overridden.size());
+    Module appendicitis = overridden.get("Appendicitis");
+    assertNotNull(appendicitis);
+    // the shared copy of the module is left untouched
+    Module shared = Module.getModuleByPath("appendicitis");
+    assertFalse(appendicitis == shared);
+    boolean sharedTerminal = false;
+    for (long seed = 0; seed < 50; seed++) {
+      // every man of the overridden module gets appendicitis, but not of the shared one
+      assertEquals("Pre_appendicitis",
+          appendicitis.getState("Male").getTransition().follow(new Person(seed), 0L));
+      sharedTerminal |= "Terminal".equals(
+          shared.getState("Male").getTransition().follow(new Person(seed), 0L));
+    }
+    assertTrue(sharedTerminal);
+    assertTrue(Module.loadModulesWithOverrides(new Properties()).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void loadModulesWithSubmoduleOverrides() throws Exception {
+    Properties overrides = new Properties();
+    overrides.setProperty("otc_antihistamine.json::$['states']['Initial']['foo']", "1.0");
+    Module.loadModulesWithOverrides(overrides);
+  }
+}
@@ -5,6 +5,13 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -18,6 +25,9 @@ import org.mitre.synthea.export.Exporter.ExporterRuntimeOptions;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.world.agents.Payer;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.geography.Location;
 
 public class CSVExporterTest {
@@ -243,6 +253,183 @@ public class CSVExporterTest {
     assertTrue("payers.csv is present but should have been excluded", !foundPayers);
     assertTrue("providers.csv is present but should have been excluded", !foundProviders);
   }
-  
-  
-}
\ No newline at end of file
+
+  @Test
+  public void testStreamingCSVExport() throws Exception {
+    Config.set("exporter.csv.included_files", "");
+    Config.set("exporter.csv.excluded_files", "");
+    Config.set("exporter.csv.streaming", "true");
+    try {
+      CSVExporter.getInstance().init();
+
+      Payer.clear();
+      Config.set("generate.payers.insurance_companies.default_file",
+          "generic/payers/test_payers.csv");
+      Payer.loadPayers(new Location(Generator.DEFAULT_STATE, null));
+
+      // the exported records are filtered views, which must still find the streamed rows
+      Config.set("exporter.years_of_history", "10");
+      int numberOfPeople = 10;
+      ExporterRuntimeOptions exportOpts = new ExporterRuntimeOptions();
+      GeneratorOptions generatorOpts = new GeneratorOptions();
+      generatorOpts.population = numberOfPeople;
+      generatorOpts.seed = 9L;
+      generatorOpts.clinicianSeed = 9L;
+      generatorOpts.overflow = false;
+      Generator generator = new Generator(generatorOpts, exportOpts);
+      Path csvFolder = exportDir.toPath().resolve("csv");
+
+      List<Set<String>> encounterIDsByMode = new ArrayList<Set<String>>();
+      List<List<Integer>> rowCountsByMode = new ArrayList<List<Integer>>();
+      for (String streaming : new String[] {"true", "false"}) {
+        Config.set("exporter.csv.streaming", streaming);
+        CSVExporter.getInstance().init();
+        for (int i = 0; i < numberOfPeople; i++) {
+          Person person = generator.generatePerson(i, i);
+          // the streamed rows were committed on export
+          assertTrue(person.record.getListeners().isEmpty());
+        }
+
+        Set<String> encounterIDs = new HashSet<String>();
+        for (Map<String, String> row : SimpleCSV.parse(
+            new String(Files.readAllBytes(csvFolder.resolve("encounters.csv"))))) {
+          assertTrue("duplicate encounter " + row.get("Id"), encounterIDs.add(row.get("Id")));
+        }
+        encounterIDsByMode.add(encounterIDs);
+
+        // every row still refers to an exported encounter
+        List<Integer> rowCounts = new ArrayList<Integer>();
+        for (String file : new String[] {"conditions.csv", "medications.csv",
+            "observations.csv", "procedures.csv", "immunizations.csv", "supplies.csv"}) {
+          List<LinkedHashMap<String, String>> rows = SimpleCSV.parse(
+              new String(Files.readAllBytes(csvFolder.resolve(file))));
+          for (Map<String, String> row : rows) {
+            assertTrue(file + " refers to a missing encounter", row.get("ENCOUNTER").isEmpty()
+                || encounterIDs.contains(row.get("ENCOUNTER")));
+          }
+          rowCounts.add(rows.size());
+        }
+        rowCountsByMode.add(rowCounts);
+      }
+      // the rows get the same IDs whether they are written during the simulation or not
+      assertEquals(encounterIDsByMode.get(1), encounterIDsByMode.get(0));
+      // and none are lost by releasing the streamed entries from the records
+      assertEquals(rowCountsByMode.get(1), rowCountsByMode.get(0));
+    } finally {
+      Config.set("exporter.csv.streaming", "false");
+    }
+  }
+
+  @Test
+  public void testSplitRecordEncounterIDsAreUnique() throws Exception {
+    Config.set("exporter.csv.included_files", "");
+    Config.set("exporter.csv.excluded_files", "");
+    Config.set("exporter.split_records", "true");
+    try {
+      CSVExporter.getInstance().init();
+
+      Payer.clear();
+      Config.set("generate.payers.insurance_companies.default_file",
+          "generic/payers/test_payers.csv");
+      Payer.loadPayers(new Location(Generator.DEFAULT_STATE, null));
+
+      int numberOfPeople = 5;
+      GeneratorOptions generatorOpts = new GeneratorOptions();
+      generatorOpts.population = numberOfPeople;
+      generatorOpts.seed = 5L;
+      generatorOpts.clinicianSeed = 5L;
+      generatorOpts.overflow = false;
+      Generator generator = new Generator(generatorOpts, new ExporterRuntimeOptions());
+      int records = 0;
+      for (int i = 0; i < numberOfPeople; i++) {
+        Person person = generator.generatePerson(i, i);
+        records += person.records.size();
+      }
+      // the people saw more than one provider, so their records were split
+      assertTrue(records > numberOfPeople);
+
+      // the records of a person count their entries together, so no two encounters of the
+      // person share a seed, and therefore an ID
+      Path csvFolder = exportDir.toPath().resolve("csv");
+      Set<String> encounterIDs = new HashSet<String>();
+      for (Map<String, String> row : SimpleCSV.parse(
+          new String(Files.readAllBytes(csvFolder.resolve("encounters.csv"))))) {
+        assertTrue("duplicate encounter " + row.get("Id"), encounterIDs.add(row.get("Id")));
+      }
+    } finally {
+      Config.set("exporter.split_records", "false");
+    }
+  }
+
+  @Test
+  public void testDeltaExportWritesStopsOfEntriesExportedBefore() throws Exception {
+    Config.set("exporter.csv.included_files", "");
+    Config.set("exporter.csv.excluded_files", "");
+    Config.set("exporter.delta_export", "true");
+    String yearsOfHistory = Config.get("exporter.years_of_history");
+    // so that the whole history is exported the first time
+    Config.set("exporter.years_of_history", "0");
+    try {
+      CSVExporter.getInstance().init();
+
+      Payer.clear();
+      Config.set("generate.payers.insurance_companies.default_file",
+          "generic/payers/test_payers.csv");
+      Payer.loadPayers(new Location(Generator.DEFAULT_STATE, null));
+
+      GeneratorOptions generatorOpts = new GeneratorOptions();
+      generatorOpts.population = 1;
+      generatorOpts.seed = 3L;
+      generatorOpts.clinicianSeed = 3L;
+      generatorOpts.overflow = false;
+      Generator generator = new Generator(generatorOpts, new ExporterRuntimeOptions());
+      Person person = null;
+      HealthRecord.Entry stopped = null;
+      for (int i = 0; stopped == null; i++) {
+        person = generator.generatePerson(i, i);
+        for (Encounter encounter : person.record.encounters) {
+          for (HealthRecord.Entry condition : encounter.conditions) {
+            if (condition.stop > condition.start && condition.stop <= generator.stop) {
+              stopped = condition;
+            }
+          }
+        }
+      }
+
+      // the person was exported in full, export what changed since the condition started
+      ExporterRuntimeOptions exportOpts = new ExporterRuntimeOptions();
+      exportOpts.deltaExports = true;
+      Exporter.export(person, stopped.start, generator.stop, exportOpts);
+
+      Path csvFolder = exportDir.toPath().resolve("csv");
+      String personID = (String) person.attributes.get(Person.ID);
+      String code = stopped.codes.get(0).code;
+      // the condition is not written again, its stop is written as an update instead
+      int rows = 0;
+      for (Map<String, String> row : SimpleCSV.parse(
+          new String(Files.readAllBytes(csvFolder.resolve("conditions.csv"))))) {
+        if (row.get("PATIENT").equals(personID) && row.get("CODE").equals(code)
+            && row.get("START").equals(ExportHelper.dateFromTimestamp(stopped.start))) {
+          rows++;
+        }
+      }
+      assertEquals(1, rows);
+      boolean updated = false;
+      for (Map<String, String> row : SimpleCSV.parse(
+          new String(Files.readAllBytes(csvFolder.resolve("stops.csv"))))) {
+        updated |= row.get("TABLE").equals("conditions") && row.get("CODE").equals(code)
+            && row.get("STOP").equals(ExportHelper.dateFromTimestamp(stopped.stop));
+      }
+      assertTrue(updated);
+      // and neither is the encounter it was diagnosed in
+      Set<String> encounterIDs = new HashSet<String>();
+      for (Map<String, String> row : SimpleCSV.parse(
+          new String(Files.readAllBytes(csvFolder.resolve("encounters.csv"))))) {
+        assertTrue("duplicate encounter " + row.get("Id"), encounterIDs.add(row.get("Id")));
+      }
+    } finally {
+      Config.set("exporter.delta_export", "false");
+      Config.set("exporter.years_of_history", yearsOfHistory);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mitre.synthea.TestHelper.years;
 
@@ -66,9 +67,9 @@ public class ExporterTest {
 
     // observations should be filtered to the cutoff date
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.observations.size());
     assertEquals("weight", encounter.observations.get(0).type);
     assertEquals(time - years(4), encounter.observations.get(0).start);
@@ -89,9 +90,9 @@ public class ExporterTest {
 
     record.medicationEnd(time - years(6), "placebitol", DUMMY_CODE);
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.medications.size());
     assertEquals("fakeitol", encounter.medications.get(0).type);
     assertEquals(time - years(10), encounter.medications.get(0).start);
@@ -113,9 +114,9 @@ public class ExporterTest {
 
     record.medicationEnd(time - years(4), "placebitol", DUMMY_CODE);
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.medications.size());
     assertEquals("placebitol", encounter.medications.get(0).type);
     assertEquals(time - years(8), encounter.medications.get(0).start);
@@ -131,9 +132,9 @@ public class ExporterTest {
     record.encounterStart(time - years(12), EncounterType.WELLNESS);
     record.careplanStart(time - years(12), "healthy_diet");
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.careplans.size());
     assertEquals("healthy_diet", encounter.careplans.get(0).type);
     assertEquals(time - years(12), encounter.careplans.get(0).start);
@@ -145,9 +146,9 @@ public class ExporterTest {
     record.careplanStart(time - years(10), "stop_smoking");
     record.careplanEnd(time - years(1), "stop_smoking", DUMMY_CODE);
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.careplans.size());
     assertEquals("stop_smoking", encounter.careplans.get(0).type);
     assertEquals(time - years(10), encounter.careplans.get(0).start);
@@ -163,9 +164,9 @@ public class ExporterTest {
     record.encounterStart(time - years(10), EncounterType.WELLNESS);
     record.conditionStart(time - years(10), "fakosis");
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.conditions.size());
     assertEquals("fakosis", encounter.conditions.get(0).type);
     assertEquals(time - years(10), encounter.conditions.get(0).start);
@@ -181,9 +182,9 @@ public class ExporterTest {
     record.conditionStart(time - years(10), "smallpox");
     record.conditionEnd(time - years(9), "smallpox");
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    Encounter encounter = filtered.record.currentEncounter(time);
+    Encounter encounter = filtered.currentEncounter(time);
     assertEquals(1, encounter.conditions.size());
     assertEquals("boneitis", encounter.conditions.get(0).type);
     assertEquals(time - years(10), encounter.conditions.get(0).start);
@@ -196,10 +197,10 @@ public class ExporterTest {
     patient.recordDeath(time - years(20), causeOfDeath);
     
     DeathModule.process(patient, time - years(20));
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    assertEquals(1, filtered.record.encounters.size());
-    Encounter encounter = filtered.record.encounters.get(0);
+    assertEquals(1, filtered.encounters.size());
+    Encounter encounter = filtered.encounters.get(0);
     assertEquals(DeathModule.DEATH_CERTIFICATION, encounter.codes.get(0));
     assertEquals(time - years(20), encounter.start);
 
@@ -219,9 +220,9 @@ public class ExporterTest {
     record.immunization(time - years(12), "flu_shot");
     record.observation(time - years(10), "weight", 123);
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    assertTrue(filtered.record.encounters.isEmpty());
+    assertTrue(filtered.encounters.isEmpty());
   }
 
   @Test
@@ -230,11 +231,11 @@ public class ExporterTest {
     record.encounterStart(time - years(18), EncounterType.EMERGENCY);
     record.conditionStart(time - years(18), "diabetes");
 
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
 
-    assertEquals(1, filtered.record.encounters.size());
-    assertEquals(1, filtered.record.encounters.get(0).conditions.size());
-    assertEquals("diabetes", filtered.record.encounters.get(0).conditions.get(0).type);
+    assertEquals(1, filtered.encounters.size());
+    assertEquals(1, filtered.encounters.get(0).conditions.size());
+    assertEquals("diabetes", filtered.encounters.get(0).conditions.get(0).type);
   }
   
   @Test
@@ -246,13 +247,89 @@ public class ExporterTest {
     assertEquals(1, record.encounters.size());
     assertEquals(2, record.encounters.get(0).claim.items.size()); // 1 condition, 1 procedure
     
-    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
     // filter removes the procedure but keeps the open condition
-    assertEquals(1, filtered.record.encounters.size());
-    assertEquals(1, filtered.record.encounters.get(0).conditions.size());
-    assertEquals("something_permanent", filtered.record.encounters.get(0).conditions.get(0).type);
-    assertEquals(1, record.encounters.get(0).claim.items.size());
-    assertEquals("something_permanent", record.encounters.get(0).claim.items.get(0).type);
+    assertEquals(1, filtered.encounters.size());
+    assertEquals(1, filtered.encounters.get(0).conditions.size());
+    assertEquals("something_permanent", filtered.encounters.get(0).conditions.get(0).type);
+    assertEquals(1, filtered.encounters.get(0).claim.items.size());
+    assertEquals("something_permanent", filtered.encounters.get(0).claim.items.get(0).type);
+    // the record itself still has both items
+    assertEquals(2, record.encounters.get(0).claim.items.size());
   }
 
+  @Test
+  public void testExportFilterLeavesRecordUnchanged() {
+    record.encounterStart(time - years(8), EncounterType.WELLNESS);
+    record.observation(time - years(8), "height", 64);
+    HealthRecord.Entry condition = record.conditionStart(time - years(8), "injury");
+    condition.stop = time + years(1);
+
+    Encounter recent = record.encounterStart(time - years(1), EncounterType.WELLNESS);
+    record.observation(time - years(1), "weight", 128);
+
+    HealthRecord filtered = Exporter.filterForExport(record, yearsToKeep, endTime);
+    // the old encounter keeps only a copy of the still active condition, without its stop
+    assertEquals(2, filtered.encounters.size());
+    assertEquals(0, filtered.encounters.get(0).observations.size());
+    assertEquals(0L, filtered.encounters.get(0).conditions.get(0).stop);
+    // the recent encounter is unchanged, so it is shared
+    assertTrue(filtered.encounters.get(1) == recent);
+
+    // the record itself is untouched
+    assertEquals(2, record.encounters.size());
+    assertEquals(1, record.encounters.get(0).observations.size());
+    assertEquals(time + years(1), condition.stop);
+
+    // so it can be filtered again with a different window
+    filtered = Exporter.filterForExport(record, 10, endTime);
+    assertTrue(filtered == record);
+  }
+
+
+  @Test
+  public void testDeltaForExport() {
+    record.encounterStart(time - years(8), EncounterType.WELLNESS);
+    record.observation(time - years(8), "height", 64);
+
+    Encounter ongoing = record.encounterStart(time - years(4), EncounterType.WELLNESS);
+    record.observation(time - years(4), "weight", 128);
+    record.observation(time - years(1), "weight", 130);
+
+    Encounter resolved = record.encounterStart(time - years(3), EncounterType.WELLNESS);
+    HealthRecord.Entry condition = record.conditionStart(time - years(3), "fever");
+    record.conditionStart(time - years(3), "cough");
+    record.conditionEnd(time - years(1), "fever");
+
+    Encounter recent = record.encounterStart(time - years(1), EncounterType.AMBULATORY);
+    record.observation(time - years(1), "height", 66);
+
+    long since = time - years(2);
+    HealthRecord delta = Exporter.deltaForExport(patient, record, since, endTime);
+
+    // the old encounter is dropped, the new one is kept whole
+    assertEquals(3, delta.encounters.size());
+    assertTrue(delta.encounters.get(2) == recent);
+    assertNull(recent.exportedUntil);
+    // the older encounters only keep the entries added or stopped since the previous export
+    Encounter ongoingDelta = delta.encounters.get(0);
+    assertEquals(ongoing.start, ongoingDelta.start);
+    assertEquals(1, ongoingDelta.observations.size());
+    assertEquals(130, ongoingDelta.observations.get(0).value);
+    Encounter resolvedDelta = delta.encounters.get(1);
+    assertEquals(resolved.start, resolvedDelta.start);
+    assertEquals(1, resolvedDelta.conditions.size());
+    assertTrue(resolvedDelta.conditions.get(0) == condition);
+    // and are marked as exported before, so that they and their claims are not exported again
+    assertEquals(Long.valueOf(since), ongoingDelta.exportedUntil);
+    assertEquals(Long.valueOf(since), resolvedDelta.exportedUntil);
+    assertTrue(resolvedDelta.claim == resolved.claim);
+    assertEquals(ongoing.getSeed(), ongoingDelta.getSeed());
+    assertNull(ongoing.exportedUntil);
+    // and the full record is untouched
+    assertEquals(4, record.encounters.size());
+    assertEquals(1, record.encounters.get(0).observations.size());
+    assertEquals(2, ongoing.observations.size());
+    assertEquals(2, resolved.conditions.size());
+  }
 }
@@ -80,4 +80,17 @@ public class RandomCollectionTest {
     Assert.assertTrue(3 == asian);
   }
 
+  @Test
+  public void testManyItems() {
+    RandomCollection<Integer> rc = new RandomCollection<Integer>();
+    for (int i = 0; i < 20; i++) {
+      rc.add(i % 2 == 0 ? 1.0 : 0.0, i);
+    }
+    // ten items of equal weight, at every other index
+    Fixed fixed = new Fixed();
+    Assert.assertEquals(0, (int) rc.next(fixed));
+    Assert.assertEquals(10, (int) rc.next(fixed));
+    Assert.assertEquals(18, (int) rc.next(fixed));
+  }
+
 }
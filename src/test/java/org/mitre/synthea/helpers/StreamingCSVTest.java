@@ -0,0 +1,62 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamingCSVTest {
+
+  private static final String TEST_CSV = "\uFEFFID,NAME,NOTE\r\n"
+      + "0,Alice,\"Likes commas, and \"\"quotes\"\"\"\r\n"
+      + "\r\n"
+      + "1,Bob,\"Two\nlines\"\n"
+      + "2,Charles\n";
+
+  @Test
+  public void testRows() throws IOException {
+    try (StreamingCSV csv = new StreamingCSV(new StringReader(TEST_CSV))) {
+      int name = csv.column("NAME");
+      int note = csv.column("NOTE");
+      assertEquals(0, csv.column("ID"));
+      assertEquals(-1, csv.column("AGE"));
+
+      assertTrue(csv.next());
+      assertEquals("Alice", csv.get(name));
+      assertEquals("Likes commas, and \"quotes\"", csv.get(note));
+      assertTrue(csv.equalsIgnoreCase(name, "ALICE"));
+      assertFalse(csv.equalsIgnoreCase(name, "Alic"));
+      assertFalse(csv.equalsIgnoreCase(name, null));
+
+      // the empty line is skipped
+      assertTrue(csv.next());
+      assertEquals("1", csv.get("ID"));
+      assertEquals("Two\nlines", csv.get(note));
+
+      assertTrue(csv.next());
+      assertEquals("Charles", csv.get(name));
+      assertNull(csv.get(note));
+      assertFalse(csv.next());
+    }
+  }
+
+  @Test
+  public void testSameAsSimpleCSV() throws IOException {
+    String resource = Utilities.readResource("costs/adjustmentFactors.csv");
+    List<LinkedHashMap<String, String>> expected = SimpleCSV.parse(resource);
+    try (StreamingCSV csv = StreamingCSV.open("costs/adjustmentFactors.csv")) {
+      for (LinkedHashMap<String, String> row : expected) {
+        assertTrue(csv.next());
+        assertEquals(row, csv.toMap());
+      }
+      assertFalse(csv.next());
+    }
+  }
+}
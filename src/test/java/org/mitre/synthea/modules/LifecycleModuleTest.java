@@ -98,9 +98,9 @@ public class LifecycleModuleTest {
     LifecycleModule.birth(person, 0);
     
     // Person should have some PhysiologyValueGenerators
-    Assert.assertEquals(person.vitalSigns.get(VitalSign.SYSTOLIC_BLOOD_PRESSURE).getClass(),
+    Assert.assertEquals(person.getVitalSignGenerator(VitalSign.SYSTOLIC_BLOOD_PRESSURE).getClass(),
         PhysiologyValueGenerator.class);
-    Assert.assertEquals(person.vitalSigns.get(VitalSign.DIASTOLIC_BLOOD_PRESSURE).getClass(),
+    Assert.assertEquals(person.getVitalSignGenerator(VitalSign.DIASTOLIC_BLOOD_PRESSURE).getClass(),
         PhysiologyValueGenerator.class);
     
     LifecycleModule.ENABLE_PHYSIOLOGY_GENERATORS = enablePhysiology;
@@ -158,6 +158,66 @@ public class PayerTest {
     assertEquals(3, testPrivatePayer1.getEncountersCoveredCount());
   }
 
+  @Test
+  public void concurrentAccounting() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      HealthRecord healthRecord = new HealthRecord(new Person(t));
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          testPrivatePayer1.payMonthlyPremium();
+          testPrivatePayer1.addCoveredCost(1.0);
+          Encounter encounter = healthRecord.encounterStart(0L,
+              i % 2 == 0 ? EncounterType.WELLNESS : EncounterType.INPATIENT);
+          testPrivatePayer1.incrementCoveredEntries(encounter);
+          testPrivatePayer1.incrementUncoveredEntries(encounter);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(4000 * testPrivatePayer1.getMonthlyPremium(),
+        testPrivatePayer1.getRevenue(), 0.001);
+    assertEquals(4000, testPrivatePayer1.getAmountCovered(), 0.001);
+    assertEquals(4000, testPrivatePayer1.getEncountersCoveredCount());
+    assertEquals(4000, testPrivatePayer1.getEncountersUncoveredCount());
+    assertEquals(0, testPrivatePayer1.getProceduresCoveredCount());
+  }
+
+  @Test
+  public void resetStatistics() {
+    HealthRecord healthRecord = new HealthRecord(new Person(0L));
+    Encounter encounter = healthRecord.encounterStart(0L, EncounterType.WELLNESS);
+    testPrivatePayer1.payMonthlyPremium();
+    testPrivatePayer1.addCoveredCost(1.0);
+    testPrivatePayer1.incrementCoveredEntries(encounter);
+
+    Payer.resetStatistics();
+    assertEquals(0, testPrivatePayer1.getRevenue(), 0.001);
+    assertEquals(0, testPrivatePayer1.getAmountCovered(), 0.001);
+    assertEquals(0, testPrivatePayer1.getEncountersCoveredCount());
+  }
+
+  @Test
+  public void statisticsScopes() {
+    HealthRecord healthRecord = new HealthRecord(new Person(0L));
+    Encounter encounter = healthRecord.encounterStart(0L, EncounterType.WELLNESS);
+    testPrivatePayer1.addCoveredCost(1.0);
+    StatisticsScope.run(1, () -> {
+      testPrivatePayer1.addCoveredCost(2.0);
+      testPrivatePayer1.incrementCoveredEntries(encounter);
+      assertEquals(2.0, testPrivatePayer1.getAmountCovered(), 0.001);
+      assertEquals(1, testPrivatePayer1.getEncountersCoveredCount());
+      Payer.resetStatistics();
+      assertEquals(0, testPrivatePayer1.getAmountCovered(), 0.001);
+    });
+    // each scope only counts its own costs and entries
+    assertEquals(1.0, testPrivatePayer1.getAmountCovered(), 0.001);
+    assertEquals(0, testPrivatePayer1.getEncountersCoveredCount());
+  }
+
   @Test
   public void recieveMedicare() {
 
@@ -387,6 +447,26 @@ public class PayerTest {
     assertEquals(totalMonthlyPremiumsOwed, person.getHealthcareExpenses(), 0.001);
   }
 
+  @Test
+  public void privatePayersByState() {
+    // cheapest first
+    assertEquals(2, Payer.getPrivatePayers(testState).size());
+    assertEquals(testPrivatePayer1, Payer.getPrivatePayers(testState).get(0));
+    assertEquals(testPrivatePayer2, Payer.getPrivatePayers(testState).get(1));
+
+    person = new Person(0L);
+    person.attributes.put(Person.STATE, testState);
+    person.attributes.put(Person.OCCUPATION_LEVEL, 0.0);
+    // enough to afford only the first payer, whose premiums are 120 a year
+    person.attributes.put(Person.INCOME, 1000);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(testPrivatePayer1, Payer.findPayer(person, null, 0L));
+    }
+    // and not even that one
+    person.attributes.put(Person.INCOME, 100);
+    assertEquals(Payer.noInsurance, Payer.findPayer(person, null, 0L));
+  }
+
   @Test(expected = RuntimeException.class)
   public void monthlyPremiumPaymentToNullPayer() {
 
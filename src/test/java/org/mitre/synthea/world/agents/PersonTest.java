@@ -1,6 +1,8 @@
 package org.mitre.synthea.world.agents;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.mitre.synthea.TestHelper.timestamp;
 
@@ -10,6 +12,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -28,11 +32,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.ExpressedConditionRecord.ConditionWithSymptoms;
+import org.mitre.synthea.engine.ExpressedSymptom;
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.engine.Generator.GeneratorOptions;
 import org.mitre.synthea.export.Exporter;
 import org.mitre.synthea.export.FhirR4;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.RandomValueGenerator;
 import org.mitre.synthea.world.concepts.VitalSign;
 
 public class PersonTest {
@@ -115,7 +122,7 @@ public class PersonTest {
     );
     assertEquals(original.hasMultipleRecords, rehydrated.hasMultipleRecords);
     assertEquals(original.attributes.keySet(), rehydrated.attributes.keySet());
-    assertEquals(original.vitalSigns.keySet(), rehydrated.vitalSigns.keySet());
+    assertEquals(original.getVitalSigns(), rehydrated.getVitalSigns());
     assertEquals(original.chronicMedications.keySet(), rehydrated.chronicMedications.keySet());
     assertEquals(original.hasMultipleRecords, rehydrated.hasMultipleRecords);
     if (original.hasMultipleRecords) {
@@ -184,6 +191,122 @@ public class PersonTest {
     person.setVitalSign(VitalSign.HEIGHT, 6.02);
   }
 
+  @Test()
+  public void testVitalSignRounding() {
+    person.setVitalSign(VitalSign.HEIGHT, 170.25);
+    assertEquals(170.3, person.getVitalSign(VitalSign.HEIGHT, 0L), 0.0);
+    person.setVitalSign(VitalSign.BMI, 2.675);
+    assertEquals(2.68, person.getVitalSign(VitalSign.BMI, 0L), 0.0);
+    person.setVitalSign(VitalSign.HEART_RATE, 72.5);
+    assertEquals(73.0, person.getVitalSign(VitalSign.HEART_RATE, 0L), 0.0);
+    person.setVitalSign(VitalSign.LDL, -1.005);
+    assertEquals(-1.01, person.getVitalSign(VitalSign.LDL, 0L), 0.0);
+  }
+
+  @Test()
+  public void testVitalSignRoundingNearTies() {
+    // values just below or above a tie round the way BigDecimal HALF_UP does
+    double[] values = { 2.4999999999999996, 2.5000000000000004, 0.49999999999999994,
+        1.005, 1.015, 1.045, 8.675, 99.995, 170.25, 170.35, -2.4999999999999996, -0.004 };
+    VitalSign[] vitalSigns = { VitalSign.HEART_RATE, VitalSign.HEIGHT, VitalSign.BMI };
+    int[] decimalPlaces = { 0, 1, 2 };
+    for (int i = 0; i < vitalSigns.length; i++) {
+      VitalSign vitalSign = vitalSigns[i];
+      for (double value : values) {
+        person.setVitalSign(vitalSign, value);
+        double expected = BigDecimal.valueOf(value)
+            .setScale(decimalPlaces[i], RoundingMode.HALF_UP).doubleValue();
+        assertEquals(vitalSign + " " + value, expected,
+            person.getVitalSign(vitalSign, 0L), 0.0);
+      }
+    }
+    person.setVitalSign(VitalSign.HEART_RATE, 2.4999999999999996);
+    assertEquals(2.0, person.getVitalSign(VitalSign.HEART_RATE, 0L), 0.0);
+  }
+
+  @Test()
+  public void testSymptomTotalAndLargestSymptom() {
+    person.setSymptom("Asthma", "cause", "Cough", 0L, 30, false);
+    person.setSymptom("Flu", "cause", "Cough", 0L, 50, false);
+    person.setSymptom("Flu", "cause", "Fever", 0L, 40, false);
+    // the value of a symptom is its largest value across modules
+    assertEquals(50, person.getSymptom("Cough"));
+    assertEquals(90, person.symptomTotal());
+
+    // addressing the largest symptom leaves the next module's value for it
+    person.addressLargestSymptom();
+    assertEquals(30, person.getSymptom("Cough"));
+    assertEquals(70, person.symptomTotal());
+    person.addressLargestSymptom();
+    assertEquals(0, person.getSymptom("Fever"));
+    assertEquals(30, person.symptomTotal());
+
+    // an update replaces the module's value
+    person.setSymptom("Asthma", "cause", "Cough", 1L, 10, false);
+    assertEquals(10, person.symptomTotal());
+    person.addressLargestSymptom();
+    person.addressLargestSymptom();
+    assertEquals(0, person.symptomTotal());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testExpressedSymptomsUnmodifiable() {
+    person.setSymptom("Flu", "cause", "Fever", 0L, 40, false);
+    person.getExpressedSymptoms().remove("Fever");
+  }
+
+  @Test()
+  public void testExpressedSymptomCloneIsIndependent() {
+    person.setSymptom("Flu", "cause", "Fever", 0L, 40, false);
+    ExpressedSymptom original = person.getExpressedSymptoms().get("Fever");
+    ExpressedSymptom copy = original.clone();
+    assertNotSame(original.getSources().get("Flu"), copy.getSources().get("Flu"));
+
+    // resolving the copy's source updates the copy only
+    copy.addressSource("Flu");
+    assertEquals(0, copy.getSymptom());
+    assertEquals(40, original.getSymptom());
+    assertEquals(40, person.symptomTotal());
+  }
+
+  @Test()
+  public void testConditionSymptomsWithinCondition() {
+    person.getOnsetConditionRecord().onConditionOnset("Flu", "Onset", "Influenza", 10L);
+    person.setSymptom("Flu", "cause", "Fever", 5L, 10, false);
+    person.setSymptom("Flu", "cause", "Fever", 10L, 20, false);
+    person.setSymptom("Flu", "cause", "Fever", 20L, 30, false);
+    person.setSymptom("Flu", "cause", "Fever", 30L, 40, false);
+    person.setSymptom("Asthma", "cause", "Cough", 20L, 50, false);
+    person.getOnsetConditionRecord().onConditionEnd("Flu", "Influenza", 25L);
+
+    Map<Long, List<ConditionWithSymptoms>> conditions =
+        person.getOnsetConditionRecord().getConditionSymptoms();
+    assertEquals(1, conditions.size());
+    ConditionWithSymptoms flu = conditions.get(10L).get(0);
+    assertEquals("Influenza", flu.getConditionName());
+    // only the values the module set during the condition
+    assertEquals(1, flu.symptomCount());
+    assertEquals("Fever", flu.getSymptomName(0));
+    assertArrayEquals(new int[] {20, 30}, flu.getSymptomValues(0));
+    assertEquals(Arrays.asList(20, 30), flu.getSymptoms().get("Fever"));
+  }
+
+  @Test()
+  public void testVitalSignMemoized() {
+    person.setVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE,
+        new RandomValueGenerator(person, 100.0, 140.0));
+    double value = person.getVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE, 1000L);
+    // The same timestep returns the memoized value without drawing again
+    for (int i = 0; i < 10; i++) {
+      assertEquals(value, person.getVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE, 1000L), 0.0);
+    }
+    // Setting a new generator discards the memoized value
+    person.setVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE, 150.0);
+    assertEquals(150.0, person.getVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE, 1000L), 0.0);
+    assertTrue(person.getVitalSigns().contains(VitalSign.SYSTOLIC_BLOOD_PRESSURE));
+    assertTrue(!person.getVitalSigns().contains(VitalSign.HEIGHT));
+  }
+
   @Test()
   public void testPersonRecreationSerialDifferentGenerator() throws Exception {
     TestHelper.loadTestProperties();
@@ -1,13 +1,18 @@
 package org.mitre.synthea.world.agents;
 
+import com.google.common.collect.Table;
+
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -16,6 +21,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.behaviors.ProviderFinderNearest;
 import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 import org.mitre.synthea.world.geography.Location;
 
@@ -58,14 +64,40 @@ public class ProviderTest {
     Assert.assertFalse(Provider.getProviderList().isEmpty());
   }
 
+  @Test
+  public void testLoadProvidersForSeveralStates() {
+    Provider.loadProviders(location, 1L);
+    Set<String> first = new HashSet<String>();
+    for (Provider provider : Provider.getProviderList()) {
+      first.add(provider.getResourceID());
+    }
+    Provider.clear();
+    Provider.loadProviders(city, 1L);
+    Set<String> second = new HashSet<String>();
+    for (Provider provider : Provider.getProviderList()) {
+      second.add(provider.getResourceID());
+    }
+
+    // reading each file once for both states loads the same providers
+    Provider.clear();
+    Provider.loadProviders(Arrays.asList(location, city), 1L);
+    Set<String> both = new HashSet<String>();
+    for (Provider provider : Provider.getProviderList()) {
+      both.add(provider.getResourceID());
+    }
+    Assert.assertEquals(first.size() + second.size(), both.size());
+    Assert.assertTrue(both.containsAll(first));
+    Assert.assertTrue(both.containsAll(second));
+  }
+
   @Test
   public void testGenerateClinicianByAbbreviation() {
     Provider.loadProviders(location, 1L);
     Assert.assertNotNull(Provider.getProviderList());
     Assert.assertFalse(Provider.getProviderList().isEmpty());
     Provider provider = Provider.getProviderList().get(0);
-    Assert.assertNotNull(provider.clinicianMap);
-    Map<String, ArrayList<Clinician>> clinicianMap = provider.clinicianMap;
+    Assert.assertNotNull(provider.getClinicians());
+    Map<String, ArrayList<Clinician>> clinicianMap = provider.getClinicians();
     Assert.assertNotNull(clinicianMap.get("GENERAL PRACTICE"));
   }
   
@@ -75,11 +107,37 @@ public class ProviderTest {
     Assert.assertNotNull(Provider.getProviderList());
     Assert.assertFalse(Provider.getProviderList().isEmpty());
     Provider provider = Provider.getProviderList().get(0);
-    Assert.assertNotNull(provider.clinicianMap);
-    Map<String, ArrayList<Clinician>> clinicianMap = provider.clinicianMap;
+    Assert.assertNotNull(provider.getClinicians());
+    Map<String, ArrayList<Clinician>> clinicianMap = provider.getClinicians();
     Assert.assertNotNull(clinicianMap.get("GENERAL PRACTICE"));
   }
   
+  @Test
+  public void testCliniciansSameInAnyOrder() {
+    Provider.loadProviders(location, 1L);
+    List<Provider> providers = Provider.getProviderList();
+    String first = clinicianIds(providers.get(0));
+    String last = clinicianIds(providers.get(providers.size() - 1));
+
+    // generating the clinicians of the providers in the opposite order gives the same ones
+    Provider.clear();
+    Provider.loadProviders(location, 1L);
+    providers = Provider.getProviderList();
+    Assert.assertEquals(last, clinicianIds(providers.get(providers.size() - 1)));
+    Assert.assertEquals(first, clinicianIds(providers.get(0)));
+  }
+
+  private static String clinicianIds(Provider provider) {
+    StringBuilder ids = new StringBuilder();
+    for (List<Clinician> clinicians : provider.getClinicians().values()) {
+      for (Clinician clinician : clinicians) {
+        ids.append(clinician.getResourceID()).append(' ')
+            .append(clinician.attributes.get(Clinician.NAME)).append(' ');
+      }
+    }
+    return ids.toString();
+  }
+
   @Test
   public void testAllFacilitiesHaveAnId() {
     Provider.loadProviders(location, 1L);
@@ -192,6 +250,120 @@ public class ProviderTest {
     Assert.assertNotNull(provider);
   }
 
+  @Test
+  public void testNearestMatchesAllProviders() {
+    Provider.loadProviders(location, 1L);
+    ProviderFinderNearest finder = new ProviderFinderNearest();
+    for (long seed = 0L; seed < 20L; seed++) {
+      Person person = new Person(seed);
+      if (seed % 2 == 0) {
+        person.attributes.put("veteran", "vietnam");
+      }
+      location.assignPoint(person, location.randomCityName(person));
+      for (EncounterType service : EncounterType.values()) {
+        Provider indexed = Provider.findService(person, service, 0);
+        if (indexed != null) {
+          // the service index finds a provider as near as any in the whole list
+          Provider linear = finder.find(Provider.getProviderList(), person, service, 0);
+          Assert.assertTrue(indexed.hasService(service));
+          Assert.assertEquals(linear.getLonLat().distance(person.getLonLat()),
+              indexed.getLonLat().distance(person.getLonLat()), 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNearestCacheClearedOnLoad() throws Exception {
+    Set<EncounterType> services = new HashSet<EncounterType>();
+    services.add(EncounterType.WELLNESS);
+    Provider.loadProviders(location,
+        Config.get("generate.providers.urgentcare.default_file"), services, 1L);
+    List<Person> people = new ArrayList<Person>();
+    for (long seed = 0L; seed < 20L; seed++) {
+      Person person = new Person(seed);
+      location.assignPoint(person, location.randomCityName(person));
+      Provider.findService(person, EncounterType.WELLNESS, 0);
+      people.add(person);
+    }
+
+    // providers loaded after the first searches are found by later ones
+    Provider.loadProviders(location,
+        Config.get("generate.providers.hospitals.default_file"), services, 1L);
+    ProviderFinderNearest finder = new ProviderFinderNearest();
+    for (Person person : people) {
+      Provider cached = Provider.findService(person, EncounterType.WELLNESS, 0);
+      Provider linear = finder.find(Provider.getProviderList(), person,
+          EncounterType.WELLNESS, 0);
+      Assert.assertEquals(linear.getLonLat().distance(person.getLonLat()),
+          cached.getLonLat().distance(person.getLonLat()), 0.0);
+    }
+  }
+
+  @Test
+  public void testNearestCachedForNeighbors() {
+    Provider.loadProviders(city, 1L);
+    ProviderFinderNearest finder = new ProviderFinderNearest();
+    String cityName = city.randomCityName(new Person(0L));
+    // neighbors share cached candidates, but each still gets their own nearest provider
+    for (long seed = 0L; seed < 50L; seed++) {
+      Person person = new Person(seed);
+      city.assignPoint(person, cityName);
+      for (EncounterType service : EncounterType.values()) {
+        Provider cached = Provider.findService(person, service, 0);
+        if (cached != null) {
+          Provider linear = finder.find(Provider.getProviderList(), person, service, 0);
+          Assert.assertEquals(linear.getLonLat().distance(person.getLonLat()),
+              cached.getLonLat().distance(person.getLonLat()), 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUtilization() throws Exception {
+    Provider provider = new Provider();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          provider.incrementEncounters(EncounterType.WELLNESS, 2000 + (i % 2));
+          provider.incrementLabs(2000);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    provider.incrementEncounters(EncounterType.EMERGENCY, 2001);
+
+    Table<Integer, String, AtomicInteger> utilization = provider.getUtilization();
+    Assert.assertEquals(2000, utilization.get(2000, Provider.ENCOUNTERS).get());
+    Assert.assertEquals(2001, utilization.get(2001, Provider.ENCOUNTERS).get());
+    Assert.assertEquals(2000, utilization.get(2001, "encounters-wellness").get());
+    Assert.assertEquals(1, utilization.get(2001, "encounters-emergency").get());
+    Assert.assertEquals(4000, utilization.get(2000, Provider.LABS).get());
+    Assert.assertFalse(utilization.contains(2000, Provider.PROCEDURES));
+  }
+
+  @Test
+  public void testUtilizationByStatisticsScope() {
+    Provider provider = new Provider();
+    provider.incrementEncounters(EncounterType.WELLNESS, 2000);
+    provider.addRevenue(1.0);
+    StatisticsScope.run(1, () -> {
+      provider.incrementEncounters(EncounterType.WELLNESS, 2000);
+      provider.incrementEncounters(EncounterType.WELLNESS, 2000);
+      provider.addRevenue(2.0);
+      Assert.assertEquals(2, provider.getUtilization().get(2000, Provider.ENCOUNTERS).get());
+      Assert.assertEquals(2.0, provider.getRevenue(), 0.001);
+    });
+    // the default scope does not see the counts of the other scopes
+    Assert.assertEquals(1, provider.getUtilization().get(2000, Provider.ENCOUNTERS).get());
+    Assert.assertEquals(1.0, provider.getRevenue(), 0.001);
+  }
+
   @Ignore("VA Facilities are not guaranteed to exist with international configurations.")
   @Test
   public void testVaFacilityOnlyAcceptsVeteran() {
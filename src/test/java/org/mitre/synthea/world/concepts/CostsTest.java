@@ -115,4 +115,22 @@ public class CostsTest {
     double expectedCost = Double.parseDouble(Config.get("generate.costs.default_medication_cost"));
     assertEquals(expectedCost, cost, 0.01); // assert the cost is within $0.01
   }
+
+  @Test public void testEntryCostIsIndependentOfPersonRandomness() {
+    Code code = new Code("RxNorm","705129","Nitroglycerin 0.4 MG/ACTUAT Mucosal Spray");
+    Person other = new Person(person.seed);
+    other.setPayerAtTime(time, noInsurance);
+
+    Entry medication = person.record.medicationStart(time, code.display, true);
+    medication.codes.add(code);
+    Entry otherMedication = other.record.medicationStart(time, code.display, true);
+    otherMedication.codes.add(code);
+
+    // drawing from one person's random numbers first does not change the cost
+    other.rand();
+    assertEquals(medication.getCost(), otherMedication.getCost());
+    // nor does asking for it again
+    medication.determineCost();
+    assertEquals(otherMedication.getCost(), medication.getCost());
+  }
 }
\ No newline at end of file
@@ -1,12 +1,24 @@
 package org.mitre.synthea.world.concepts;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Payer;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+import org.mitre.synthea.world.concepts.HealthRecord.Observation;
 import org.mitre.synthea.world.concepts.HealthRecord.Report;
 
 public class HealthRecordTest {
@@ -76,4 +88,253 @@ public class HealthRecordTest {
     Assert.assertEquals("B", report.observations.get(1).value);
     Assert.assertEquals("C", report.observations.get(2).value);
   } 
+
+  @Test
+  public void testIndexedQueries() {
+    Person person = new Person(0L);
+    person.setPayerAtTime(time, noInsurance);
+    HealthRecord record = new HealthRecord(person);
+    Assert.assertNull(record.getLatestObservation("A"));
+    Assert.assertEquals(Long.MAX_VALUE, record.timeSinceLastWellnessEncounter(time));
+    Assert.assertEquals(0, record.providerCount());
+
+    record.encounterStart(time, EncounterType.WELLNESS);
+    record.observation(time, "A", 1);
+    record.observation(time, "A", 2);
+    Assert.assertEquals(1, record.getLatestObservation("A").value);
+    Assert.assertEquals(5L, record.timeSinceLastWellnessEncounter(time + 5L));
+
+    record.encounterStart(time + 10L, EncounterType.AMBULATORY);
+    record.observation(time + 10L, "B", 3);
+    // observations from earlier encounters are still found once a new one starts
+    Assert.assertEquals(1, record.getLatestObservation("A").value);
+    Assert.assertEquals(3, record.getLatestObservation("B").value);
+    Assert.assertEquals(15L, record.timeSinceLastWellnessEncounter(time + 15L));
+
+    record.encounterStart(time + 20L, EncounterType.WELLNESS);
+    record.observation(time + 20L, "A", 4);
+    record.encounterStart(time + 30L, EncounterType.AMBULATORY);
+    Assert.assertEquals(4, record.getLatestObservation("A").value);
+    Assert.assertEquals(10L, record.timeSinceLastWellnessEncounter(time + 30L));
+
+    // removing encounters rebuilds the indexes
+    record.encounters.remove(3);
+    record.encounters.remove(2);
+    record.encounterStart(time + 40L, EncounterType.AMBULATORY);
+    Assert.assertEquals(1, record.getLatestObservation("A").value);
+    Assert.assertEquals(40L, record.timeSinceLastWellnessEncounter(time + 40L));
+  }
+
+  @Test
+  public void testCountEncountersSince() {
+    Person person = new Person(0L);
+    person.setPayerAtTime(time, noInsurance);
+    HealthRecord record = new HealthRecord(person);
+    Assert.assertEquals(0, record.countEncountersSince(time));
+    for (int i = 0; i < 5; i++) {
+      record.encounterStart(time + i * 10L, EncounterType.AMBULATORY);
+    }
+    Assert.assertEquals(5, record.countEncountersSince(time));
+    Assert.assertEquals(3, record.countEncountersSince(time + 15L));
+    // the per time step windows keep their own place
+    Assert.assertEquals(2, record.encountersSince(time + 30L).size());
+    Assert.assertEquals(1, record.countEncountersSince(time + 40L));
+    // going back in time starts over
+    Assert.assertEquals(4, record.countEncountersSince(time + 10L));
+  }
+
+  @Test
+  public void testEndByState() {
+    Person person = new Person(0L);
+    person.setPayerAtTime(time, noInsurance);
+    HealthRecord record = new HealthRecord(person);
+    record.encounterStart(time, EncounterType.WELLNESS);
+    HealthRecord.Entry first = record.conditionStart(time, "1");
+    first.name = "Onset";
+    HealthRecord.Entry second = record.conditionStart(time, "2");
+    second.name = "Onset";
+    HealthRecord.Entry other = record.conditionStart(time, "3");
+    other.name = "Other";
+
+    record.conditionEndByState(time + 1L, "Onset");
+    record.conditionEndByState(time + 2L, "Onset");
+    record.conditionEndByState(time + 3L, "Onset");
+    Assert.assertNotEquals(0L, first.stop);
+    Assert.assertNotEquals(0L, second.stop);
+    Assert.assertEquals(0L, other.stop);
+    Assert.assertTrue(record.conditionActive("3"));
+    Assert.assertFalse(record.present.containsKey("1"));
+    Assert.assertFalse(record.present.containsKey("2"));
+
+    HealthRecord.Entry again = record.conditionStart(time + 4L, "1");
+    again.name = "Onset";
+    record.conditionEndByState(time + 5L, "Onset");
+    Assert.assertEquals(time + 5L, again.stop);
+  }
+
+  @Test
+  public void testCanonicalCodes() throws Exception {
+    Code code = Code.canonical("LOINC", "8302-2", "Body Height");
+    Assert.assertSame(code, Code.canonical("LOINC", "8302-2", "Body Height"));
+    Assert.assertSame(code, Code.canonical(new Code("LOINC", "8302-2", "Body Height")));
+    Assert.assertNotSame(code, Code.canonical("LOINC", "8302-2", "Body height"));
+    Assert.assertTrue(code.equals(new Code("LOINC", "8302-2", "Body height")));
+
+    // deserialized codes collapse back onto the canonical instance
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(code);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    Assert.assertSame(code, in.readObject());
+  }
+
+  @Test
+  public void testCompactObservations() {
+    Config.set("generate.compact_observations", "true");
+    try {
+      Person person = new Person(0L);
+      person.setPayerAtTime(time, noInsurance);
+      HealthRecord record = new HealthRecord(person);
+      Encounter first = record.encounterStart(time, EncounterType.WELLNESS);
+      Observation height = record.observation(time, "8302-2", 170.0);
+      height.codes.add(Code.canonical("LOINC", "8302-2", "Body Height"));
+      height.unit = "cm";
+      Observation weight = record.observation(time, "29463-7", 70.0);
+      weight.codes.add(Code.canonical("LOINC", "29463-7", "Body Weight"));
+      Observation note = record.observation(time, "note", "text");
+      record.encounterStart(time + 1, EncounterType.WELLNESS);
+
+      // the closed encounter keeps its observations, compact or not
+      Assert.assertEquals(3, first.observations.size());
+      Observation compact = first.observations.get(0);
+      Assert.assertEquals("8302-2", compact.type);
+      Assert.assertEquals(170.0, compact.value);
+      Assert.assertEquals("cm", compact.unit);
+      Assert.assertSame(height.codes.get(0), compact.codes.get(0));
+      Assert.assertSame(note, first.observations.get(2));
+      Assert.assertEquals(height.getSeed(), compact.getSeed());
+      Assert.assertEquals(70.0, record.getLatestObservation("29463-7").value);
+
+      // a row read back as an object keeps later changes
+      compact.value = 171.0;
+      Assert.assertEquals(171.0, first.observations.get(0).value);
+      Assert.assertSame(compact, first.observations.get(0));
+
+      // once the reader is done, the row is compact again, changes included
+      record.recompactObservations();
+      Assert.assertNotSame(compact, first.observations.get(0));
+      Assert.assertEquals(171.0, first.observations.get(0).value);
+      Assert.assertSame(note, first.observations.get(2));
+      Assert.assertEquals(height.getSeed(), first.observations.get(0).getSeed());
+
+      // rebuilt observations and entries made up by an exporter take no seeds, so the next
+      // entry gets the same seed as in a record where neither happened
+      record.new Observation(time, "export", 1.0, 0L);
+      HealthRecord plain = new HealthRecord(person);
+      plain.encounterStart(time, EncounterType.WELLNESS);
+      plain.observation(time, "8302-2", 170.0);
+      plain.observation(time, "29463-7", 70.0);
+      plain.observation(time, "note", "text");
+      plain.encounterStart(time + 1, EncounterType.WELLNESS);
+      Assert.assertEquals(plain.observation(time + 1, "next", 1.0).getSeed(),
+          record.observation(time + 1, "next", 1.0).getSeed());
+
+      first.observations.remove(0);
+      Assert.assertEquals(2, first.observations.size());
+      Assert.assertNull(record.getLatestObservation("8302-2"));
+      Assert.assertEquals("29463-7", first.observations.get(0).type);
+    } finally {
+      Config.set("generate.compact_observations", "false");
+    }
+  }
+
+  @Test
+  public void testRecordListener() {
+    Person person = new Person(0L);
+    person.setPayerAtTime(time, noInsurance);
+    HealthRecord record = new HealthRecord(person);
+    List<String> events = new ArrayList<String>();
+    HealthRecord.RecordListener listener = new HealthRecord.RecordListener() {
+      @Override
+      public void encounterStarted(HealthRecord record, Encounter encounter) {
+        events.add("start " + encounter.type);
+      }
+
+      @Override
+      public void encounterEnded(HealthRecord record, Encounter encounter) {
+        events.add("end " + encounter.type);
+      }
+
+      @Override
+      public void entryAdded(HealthRecord record, Encounter encounter, Entry entry) {
+        events.add("add " + entry.type);
+      }
+
+      @Override
+      public void entryStopped(HealthRecord record, Entry entry) {
+        events.add("stop " + entry.type);
+      }
+    };
+    record.addListener(listener);
+
+    record.encounterStart(time, EncounterType.WELLNESS);
+    record.conditionStart(time, "C");
+    record.conditionStart(time, "C");
+    record.observation(time, "O", 1.0);
+    record.encounterEnd(time, EncounterType.WELLNESS);
+    record.conditionEnd(time, "C");
+    record.conditionEnd(time, "C");
+    Assert.assertEquals(Arrays.asList("start wellness", "add C", "add O", "end wellness",
+        "stop C"), events);
+
+    record.removeListener(listener);
+    record.encounterStart(time, EncounterType.WELLNESS);
+    Assert.assertEquals(5, events.size());
+    Assert.assertTrue(record.getListeners().isEmpty());
+  }
+
+  @Test
+  public void testCondense() {
+    Person person = new Person(0L);
+    person.setPayerAtTime(time, noInsurance);
+    HealthRecord record = new HealthRecord(person);
+    long year = Utilities.convertTime("years", 1);
+
+    Encounter old = record.encounterStart(time, EncounterType.AMBULATORY);
+    record.observation(time, "A", 1.0);
+    record.observation(time, "B", 2.0);
+    record.procedure(time, "P");
+    record.conditionStart(time, "C");
+    record.conditionEnd(time + year, "C");
+    record.allergyStart(time, "X");
+    record.allergyEnd(time + year, "X");
+    record.medicationStart(time, "M", false);
+    Encounter empty = record.encounterStart(time + year, EncounterType.AMBULATORY);
+    record.procedure(time + year, "P");
+    Encounter recent = record.encounterStart(time + 10 * year, EncounterType.AMBULATORY);
+    record.observation(time + 10 * year, "A", 3.0);
+    record.procedure(time + 10 * year, "P");
+    record.encounterStart(time + 11 * year, EncounterType.AMBULATORY);
+    int providers = record.providerCount();
+
+    record.condense(time + 5 * year);
+
+    Assert.assertEquals(3, record.encounters.size());
+    Assert.assertSame(old, record.encounters.get(0));
+    Assert.assertSame(recent, record.encounters.get(1));
+    Assert.assertFalse(record.encounters.contains(empty));
+    // the latest observation of each type, stopped conditions and active entries are kept
+    Assert.assertEquals(1, old.observations.size());
+    Assert.assertEquals("B", old.observations.get(0).type);
+    Assert.assertEquals(1, old.conditions.size());
+    Assert.assertEquals(1, old.medications.size());
+    Assert.assertTrue(old.allergies.isEmpty());
+    Assert.assertTrue(old.procedures.isEmpty());
+    Assert.assertEquals(1, recent.procedures.size());
+    Assert.assertEquals(3.0, record.getLatestObservation("A").value);
+    Assert.assertEquals(2.0, record.getLatestObservation("B").value);
+    Assert.assertTrue(record.medicationActive("M"));
+    Assert.assertEquals(providers, record.providerCount());
+  }
 }
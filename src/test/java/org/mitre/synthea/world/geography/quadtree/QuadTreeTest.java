@@ -2,6 +2,7 @@ package org.mitre.synthea.world.geography.quadtree;
 
 import java.util.List;
 import java.util.Random;
+import java.util.function.Predicate;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -130,4 +131,48 @@ public class QuadTreeTest {
       queryRadius *= 2.0;
     }
   }
+
+  @Test
+  public void testNearestMatchesQuery() {
+    Random random = new Random(42L);
+    QuadTree tree = new QuadTree();
+    for (int i = 0; i < 100000; i++) {
+      double x = (random.nextDouble() * 10.0) - 5.0;
+      double y = (random.nextDouble() * 10.0) - 5.0;
+      Assert.assertTrue(tree.insert(new TestElement(x, y)));
+    }
+
+    QuadTreeElement queryPoint = new TestElement(0.3, -1.2);
+    // only accept elements to the east of the query point
+    Predicate<QuadTreeElement> filter = e -> e.getX() > 1.0;
+    List<QuadTreeElement> nearest = tree.nearest(queryPoint, 2.0, filter);
+    Assert.assertEquals(1, nearest.size());
+
+    // the same element is the nearest match of a plain query over the whole radius
+    QuadTreeElement expected = null;
+    for (QuadTreeElement item : tree.query(queryPoint, 2.0)) {
+      if (filter.test(item) && (expected == null
+          || queryPoint.distance(item) < queryPoint.distance(expected))) {
+        expected = item;
+      }
+    }
+    Assert.assertSame(expected, nearest.get(0));
+
+    // nothing matches beyond the maximum distance
+    Assert.assertTrue(tree.nearest(queryPoint, 0.5, filter).isEmpty());
+  }
+
+  @Test
+  public void testNearestReturnsTies() {
+    QuadTree tree = new QuadTree();
+    TestElement east = new TestElement(1.0, 0.0);
+    TestElement west = new TestElement(-1.0, 0.0);
+    tree.insert(east);
+    tree.insert(west);
+    tree.insert(new TestElement(3.0, 0.0));
+    List<QuadTreeElement> nearest = tree.nearest(new TestElement(0.0, 0.0), 10.0, e -> true);
+    Assert.assertEquals(2, nearest.size());
+    Assert.assertTrue(nearest.contains(east));
+    Assert.assertTrue(nearest.contains(west));
+  }
 }